@@ -56,6 +56,8 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
   public static final byte STATUS_DB_REDIR_PERM     = 0x05;
   /** Page was successfully fetched and found not modified. */
   public static final byte STATUS_DB_NOTMODIFIED    = 0x06;
+  /** Page was fetched, another page with the same signature is kept. */
+  public static final byte STATUS_DB_DUPLICATE      = 0x07;
   
   /** Maximum value of DB-related status. */
   public static final byte STATUS_DB_MAX            = 0x1f;
@@ -84,6 +86,8 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
   public static final byte STATUS_LINKED            = 0x43;
   /** Page got metadata from a parser */
   public static final byte STATUS_PARSE_META        = 0x44;
+  /** Fingerprint of the indexed document, none if the document was deleted. */
+  public static final byte STATUS_INDEX_FINGERPRINT = 0x45;
   
   
   public static final HashMap<Byte, String> statNames = new HashMap<Byte, String>();
@@ -94,6 +98,7 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
     statNames.put(STATUS_DB_REDIR_TEMP, "db_redir_temp");
     statNames.put(STATUS_DB_REDIR_PERM, "db_redir_perm");
     statNames.put(STATUS_DB_NOTMODIFIED, "db_notmodified");
+    statNames.put(STATUS_DB_DUPLICATE, "db_duplicate");
     statNames.put(STATUS_SIGNATURE, "signature");
     statNames.put(STATUS_INJECTED, "injected");
     statNames.put(STATUS_LINKED, "linked");
@@ -104,6 +109,7 @@ public class CrawlDatum implements WritableComparable<CrawlDatum>, Cloneable {
     statNames.put(STATUS_FETCH_GONE, "fetch_gone");
     statNames.put(STATUS_FETCH_NOTMODIFIED, "fetch_notmodified");
     statNames.put(STATUS_PARSE_META, "parse_metadata");
+    statNames.put(STATUS_INDEX_FINGERPRINT, "index_fingerprint");
     
     oldToNew.put(OLD_STATUS_DB_UNFETCHED, STATUS_DB_UNFETCHED);
     oldToNew.put(OLD_STATUS_DB_FETCHED, STATUS_DB_FETCHED);
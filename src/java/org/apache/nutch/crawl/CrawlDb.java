@@ -49,8 +49,27 @@ public class CrawlDb extends Configured implements Tool {
   public static final String CRAWLDB_PURGE_404 = "db.update.purge.404";
 
   public static final String CURRENT_NAME = "current";
+
+  /** Directory holding the deltas written by the {@link Injector}. */
+  public static final String DELTA_NAME = "delta";
   
   public static final String LOCK_NAME = ".locked";
+
+  /**
+   * Directory of the changelogs, URLs which became gone in an update or were
+   * marked as duplicates, see {@link CrawlDbReducer} and
+   * {@link DeduplicationJob}.
+   */
+  public static final String CHANGELOG_NAME = "changelog";
+
+  public static final String CRAWLDB_CHANGELOG = "db.update.changelog";
+
+  /**
+   * Directory of the fingerprints of the documents sent to the index, written
+   * by the {@link org.apache.nutch.indexer.IndexingJob} and merged into the
+   * db by the next update.
+   */
+  public static final String FINGERPRINT_NAME = "fingerprint";
   
   public CrawlDb() {}
   
@@ -99,6 +118,11 @@ try {
       }
     }
 
+    // the fingerprints read are deleted by install()
+    for (Path fingerprints : getFingerprints(fs, crawlDb)) {
+      FileInputFormat.addInputPath(job, fingerprints);
+    }
+
     if (LOG.isInfoEnabled()) {
       LOG.info("CrawlDb update: Merging segment data into db.");
     }
@@ -128,10 +152,8 @@ try {
     JobConf job = new NutchJob(config);
     job.setJobName("crawldb " + crawlDb);
 
-    Path current = new Path(crawlDb, CURRENT_NAME);
-    if (FileSystem.get(job).exists(current)) {
-      FileInputFormat.addInputPath(job, current);
-    }
+    // deltas are compacted into the new db, see install()
+    addInputPaths(job, crawlDb);
     job.setInputFormat(SequenceFileInputFormat.class);
 
     job.setMapperClass(CrawlDbFilter.class);
@@ -148,6 +170,92 @@ try {
     return job;
   }
 
+  /**
+   * Returns the deltas of a CrawlDb, oldest first. Deltas are written by the
+   * {@link Injector} and only contain URLs not present in the current db or
+   * any older delta, so that readers can simply union them with the current
+   * db.
+   */
+  public static Path[] getDeltas(FileSystem fs, Path crawlDb)
+    throws IOException {
+    Path deltaDir = new Path(crawlDb, DELTA_NAME);
+    if (!fs.exists(deltaDir)) return new Path[0];
+    Path[] deltas = HadoopFSUtil.getPaths(fs.listStatus(deltaDir,
+        HadoopFSUtil.getPassDirectoriesFilter(fs)));
+    Arrays.sort(deltas);
+    return deltas;
+  }
+
+  /**
+   * Creates the changelog file of a task of a job writing a new CrawlDb,
+   * moved next to the db by {@link #install(JobConf, Path)}.
+   */
+  static SequenceFile.Writer createChangelogWriter(JobConf job)
+    throws IOException {
+    Path file = new Path(new Path(FileOutputFormat.getWorkOutputPath(job),
+        CHANGELOG_NAME), FileOutputFormat.getUniqueName(job, "part"));
+    return SequenceFile.createWriter(file.getFileSystem(job), job, file,
+        Text.class, CrawlDatum.class, SequenceFile.CompressionType.BLOCK);
+  }
+
+  /**
+   * Returns the changelogs of a CrawlDb, oldest first. Every update with
+   * {@link #CRAWLDB_CHANGELOG} enabled adds one, they are removed by their
+   * consumer.
+   */
+  public static Path[] getChangelogs(FileSystem fs, Path crawlDb)
+    throws IOException {
+    Path changelogDir = new Path(crawlDb, CHANGELOG_NAME);
+    if (!fs.exists(changelogDir)) return new Path[0];
+    Path[] changelogs = HadoopFSUtil.getPaths(fs.listStatus(changelogDir,
+        HadoopFSUtil.getPassDirectoriesFilter(fs)));
+    Arrays.sort(changelogs);
+    return changelogs;
+  }
+
+  /**
+   * Returns the index fingerprints waiting to be merged into a CrawlDb,
+   * oldest first.
+   */
+  public static Path[] getFingerprints(FileSystem fs, Path crawlDb)
+    throws IOException {
+    Path fingerprintDir = new Path(crawlDb, FINGERPRINT_NAME);
+    if (!fs.exists(fingerprintDir)) return new Path[0];
+    Path[] fingerprints = HadoopFSUtil.getPaths(fs.listStatus(fingerprintDir,
+        HadoopFSUtil.getPassDirectoriesFilter(fs)));
+    Arrays.sort(fingerprints);
+    return fingerprints;
+  }
+
+  /**
+   * Moves the index fingerprints written by a job next to a CrawlDb, where
+   * they are read by the next update. Does nothing if there are none.
+   */
+  public static void addFingerprints(FileSystem fs, Path fingerprints,
+      Path crawlDb) throws IOException {
+    if (!fs.exists(fingerprints)) return;
+    Path fingerprintDir = new Path(crawlDb, FINGERPRINT_NAME);
+    fs.mkdirs(fingerprintDir);
+    long name = System.currentTimeMillis();
+    while (fs.exists(new Path(fingerprintDir, Long.toString(name)))) {
+      name++;
+    }
+    fs.rename(fingerprints, new Path(fingerprintDir, Long.toString(name)));
+  }
+
+  /** Adds the current db and all its deltas as input of a job. */
+  public static void addInputPaths(JobConf job, Path crawlDb)
+    throws IOException {
+    FileSystem fs = FileSystem.get(job);
+    Path current = new Path(crawlDb, CURRENT_NAME);
+    if (fs.exists(current)) {
+      FileInputFormat.addInputPath(job, current);
+    }
+    for (Path delta : getDeltas(fs, crawlDb)) {
+      FileInputFormat.addInputPath(job, delta);
+    }
+  }
+
   public static void install(JobConf job, Path crawlDb) throws IOException {
     boolean preserveBackup = job.getBoolean("db.preserve.backup", true);
 
@@ -160,8 +268,26 @@ try {
       fs.rename(current, old);
     }
     fs.mkdirs(crawlDb);
+    // the changelog written by the reducers is kept next to the db
+    Path changelog = new Path(newCrawlDb, CHANGELOG_NAME);
+    if (fs.exists(changelog)) {
+      Path changelogDir = new Path(crawlDb, CHANGELOG_NAME);
+      fs.mkdirs(changelogDir);
+      fs.rename(changelog, new Path(changelogDir,
+          Long.toString(System.currentTimeMillis())));
+    }
     fs.rename(newCrawlDb, current);
     if (!preserveBackup && fs.exists(old)) fs.delete(old, true);
+    // deltas and fingerprints read by the job are now part of current,
+    // newer ones are kept
+    Path deltaDir = fs.makeQualified(new Path(crawlDb, DELTA_NAME));
+    Path fingerprintDir = fs.makeQualified(new Path(crawlDb, FINGERPRINT_NAME));
+    for (Path input : FileInputFormat.getInputPaths(job)) {
+      Path parent = fs.makeQualified(input).getParent();
+      if (deltaDir.equals(parent) || fingerprintDir.equals(parent)) {
+        fs.delete(input, true);
+      }
+    }
     Path lock = new Path(crawlDb, LOCK_NAME);
     LockUtil.removeLockFile(fs, lock);
   }
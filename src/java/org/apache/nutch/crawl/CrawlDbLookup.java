@@ -0,0 +1,325 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+import org.apache.nutch.util.HadoopFSUtil;
+
+/**
+ * Read-only point lookups of urls in a CrawlDb, including its deltas.
+ *
+ * <p>Unlike <code>MapFileOutputFormat.getEntry()</code> this keeps the state
+ * needed to answer many lookups cheaply: the index of every part is held in a
+ * few primitive arrays, and the records between two index entries (a block)
+ * are cached once read, so that repeated lookups and lookups of neighbouring
+ * urls don't seek and decompress the data file again. Lookups are thread-safe,
+ * {@link #get(List)} looks up a batch of urls in the order they are stored to
+ * read each block only once.</p>
+ *
+ * <p>The number of cached blocks is set by
+ * <code>db.reader.lookup.cache.blocks</code>, the number of records per block
+ * by <code>io.map.index.interval</code> when the CrawlDb was written.</p>
+ */
+public class CrawlDbLookup implements Closeable {
+
+  public static final Logger LOG = LoggerFactory.getLogger(CrawlDbLookup.class);
+
+  public static final String CACHE_BLOCKS = "db.reader.lookup.cache.blocks";
+
+  private static final HashPartitioner<Text, CrawlDatum> PARTITIONER =
+    new HashPartitioner<Text, CrawlDatum>();
+
+  /** The current db followed by its deltas, each an array of parts. */
+  private Part[][] layers;
+
+  private Map<Long, Block> cache;
+  private long hits;
+  private long misses;
+
+  public CrawlDbLookup(Path crawlDb, Configuration conf) throws IOException {
+    FileSystem fs = FileSystem.get(conf);
+    Path[] deltas = CrawlDb.getDeltas(fs, crawlDb);
+    layers = new Part[deltas.length + 1][];
+    int id = 0;
+    for (int i = 0; i < layers.length; i++) {
+      Path dir = i == 0 ? new Path(crawlDb, CrawlDb.CURRENT_NAME) : deltas[i - 1];
+      Path[] names = HadoopFSUtil.getPaths(fs.listStatus(dir,
+          HadoopFSUtil.getPassDirectoriesFilter(fs)));
+      if (names == null) names = new Path[0];
+      // same order as MapFileOutputFormat.getReaders()
+      Arrays.sort(names);
+      layers[i] = new Part[names.length];
+      for (int j = 0; j < names.length; j++) {
+        layers[i][j] = new Part(id++, fs, names[j], conf);
+      }
+    }
+
+    final int maxBlocks = conf.getInt(CACHE_BLOCKS, 1024);
+    cache = new LinkedHashMap<Long, Block>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<Long, Block> eldest) {
+        return size() > maxBlocks;
+      }
+    };
+  }
+
+  /**
+   * Returns the record of a url or <code>null</code> if the url is not in the
+   * CrawlDb.
+   */
+  public CrawlDatum get(Text url) throws IOException {
+    for (int i = 0; i < layers.length; i++) {
+      Part part = getPart(i, url);
+      if (part == null) continue;
+      CrawlDatum datum = part.get(url, part.findBlock(url));
+      if (datum != null) return datum;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the records of a batch of urls, <code>null</code> for the ones
+   * which are not in the CrawlDb. The urls are looked up ordered by part and
+   * block, so that every block is read at most once per batch.
+   */
+  public CrawlDatum[] get(List<Text> urls) throws IOException {
+    CrawlDatum[] res = new CrawlDatum[urls.size()];
+    for (int i = 0; i < layers.length; i++) {
+      // a url is either in the current db or in exactly one delta
+      int missing = 0;
+      for (int j = 0; j < res.length; j++) {
+        if (res[j] == null) missing++;
+      }
+      if (missing == 0) break;
+
+      final long[] blocks = new long[res.length];
+      Integer[] order = new Integer[missing];
+      int n = 0;
+      for (int j = 0; j < res.length; j++) {
+        if (res[j] != null) continue;
+        Part part = getPart(i, urls.get(j));
+        int block = part == null ? -1 : part.findBlock(urls.get(j));
+        blocks[j] = block < 0 ? -1 : blockId(part, block);
+        order[n++] = j;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {
+          return blocks[a] < blocks[b] ? -1 : (blocks[a] == blocks[b] ? 0 : 1);
+        }
+      });
+      for (Integer j : order) {
+        if (blocks[j] < 0) continue;
+        Part part = getPart(i, urls.get(j));
+        res[j] = part.get(urls.get(j), (int) blocks[j]);
+      }
+    }
+    return res;
+  }
+
+  private Part getPart(int layer, Text url) {
+    Part[] parts = layers[layer];
+    if (parts.length == 0) return null;
+    return parts[PARTITIONER.getPartition(url, null, parts.length)];
+  }
+
+  private static long blockId(Part part, int block) {
+    return ((long) part.id << 32) | block;
+  }
+
+  private Block getBlock(Part part, int block) throws IOException {
+    Long id = blockId(part, block);
+    synchronized (cache) {
+      Block b = cache.get(id);
+      if (b != null) {
+        hits++;
+        return b;
+      }
+      misses++;
+    }
+    Block b = part.read(block);
+    synchronized (cache) {
+      cache.put(id, b);
+    }
+    return b;
+  }
+
+  /** Returns the number of lookups answered from a cached block. */
+  public long getCacheHits() {
+    synchronized (cache) {
+      return hits;
+    }
+  }
+
+  /** Returns the number of blocks read from the data files. */
+  public long getCacheMisses() {
+    synchronized (cache) {
+      return misses;
+    }
+  }
+
+  public void close() throws IOException {
+    if (LOG.isInfoEnabled()) {
+      LOG.info("CrawlDbLookup: " + hits + " cached blocks, " + misses
+          + " blocks read");
+    }
+    for (Part[] parts : layers) {
+      for (Part part : parts) {
+        part.close();
+      }
+    }
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  /** The sorted records between two index entries of a part. */
+  private static class Block {
+    Text[] keys;
+    CrawlDatum[] values;
+  }
+
+  /** One MapFile of the CrawlDb, with its index held in primitive arrays. */
+  private class Part {
+    final int id;
+    /** All index keys, concatenated. */
+    byte[] keyBytes;
+    /** Start of key i in keyBytes, with an extra entry for the end. */
+    int[] keyStarts;
+    long[] positions;
+    int count;
+    SequenceFile.Reader data;
+
+    Part(int id, FileSystem fs, Path dir, Configuration conf)
+      throws IOException {
+      this.id = id;
+      SequenceFile.Reader index = new SequenceFile.Reader(fs,
+          new Path(dir, MapFile.INDEX_FILE_NAME), conf);
+      try {
+        keyBytes = new byte[4096];
+        keyStarts = new int[129];
+        positions = new long[128];
+        Text key = new Text();
+        LongWritable position = new LongWritable();
+        int length = 0;
+        while (index.next(key, position)) {
+          if (count == positions.length) {
+            positions = Arrays.copyOf(positions, count * 2);
+            keyStarts = Arrays.copyOf(keyStarts, count * 2 + 1);
+          }
+          while (length + key.getLength() > keyBytes.length) {
+            keyBytes = Arrays.copyOf(keyBytes, keyBytes.length * 2);
+          }
+          System.arraycopy(key.getBytes(), 0, keyBytes, length, key.getLength());
+          length += key.getLength();
+          positions[count] = position.get();
+          keyStarts[++count] = length;
+        }
+      } finally {
+        index.close();
+      }
+      data = new SequenceFile.Reader(fs, new Path(dir, MapFile.DATA_FILE_NAME),
+          conf);
+    }
+
+    private int compareIndexKey(int i, Text key) {
+      return WritableComparator.compareBytes(keyBytes, keyStarts[i],
+          keyStarts[i + 1] - keyStarts[i], key.getBytes(), 0, key.getLength());
+    }
+
+    /**
+     * Returns the block which contains the key if it is in this part, or -1
+     * if the key sorts before the first record.
+     */
+    int findBlock(Text key) {
+      int low = 0;
+      int high = count - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int cmp = compareIndexKey(mid, key);
+        if (cmp < 0) {
+          low = mid + 1;
+        } else if (cmp > 0) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return low - 1;
+    }
+
+    CrawlDatum get(Text key, int block) throws IOException {
+      if (block < 0) return null;
+      Block b = getBlock(this, block);
+      int i = Arrays.binarySearch(b.keys, key);
+      if (i < 0) return null;
+      CrawlDatum datum = new CrawlDatum();
+      datum.set(b.values[i]);
+      return datum;
+    }
+
+    /** Reads the records from the position of an index entry to the next. */
+    Block read(int block) throws IOException {
+      Text[] keys = new Text[16];
+      CrawlDatum[] values = new CrawlDatum[16];
+      int n = 0;
+      synchronized (this) {
+        data.seek(positions[block]);
+        while (true) {
+          Text key = new Text();
+          CrawlDatum value = new CrawlDatum();
+          if (!data.next(key, value)) break;
+          if (block + 1 < count && compareIndexKey(block + 1, key) <= 0) break;
+          // block compressed files may start a little before the index key
+          if (compareIndexKey(block, key) > 0) continue;
+          if (n == keys.length) {
+            keys = Arrays.copyOf(keys, n * 2);
+            values = Arrays.copyOf(values, n * 2);
+          }
+          keys[n] = key;
+          values[n++] = value;
+        }
+      }
+      Block b = new Block();
+      b.keys = Arrays.copyOf(keys, n);
+      b.values = Arrays.copyOf(values, n);
+      return b;
+    }
+
+    void close() throws IOException {
+      data.close();
+    }
+  }
+}
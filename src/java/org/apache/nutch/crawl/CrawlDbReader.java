@@ -17,12 +17,17 @@
 
 package org.apache.nutch.crawl;
 
+import java.io.BufferedReader;
 import java.io.DataOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Closeable;
+import java.io.InputStreamReader;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
@@ -39,7 +44,6 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.MapFile;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
@@ -56,7 +60,6 @@ import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.hadoop.mapred.TextOutputFormat;
-import org.apache.hadoop.mapred.lib.HashPartitioner;
 import org.apache.hadoop.mapred.lib.IdentityMapper;
 import org.apache.hadoop.mapred.lib.IdentityReducer;
 import org.apache.hadoop.util.Progressable;
@@ -74,24 +77,21 @@ public class CrawlDbReader implements Closeable {
 
   public static final Logger LOG = LoggerFactory.getLogger(CrawlDbReader.class);
 
-  private MapFile.Reader[] readers = null;
+  private CrawlDbLookup lookup = null;
 
   private void openReaders(String crawlDb, Configuration config) throws IOException {
-    if (readers != null) return;
-    FileSystem fs = FileSystem.get(config);
-    readers = MapFileOutputFormat.getReaders(fs, new Path(crawlDb,
-        CrawlDb.CURRENT_NAME), config);
+    if (lookup != null) return;
+    lookup = new CrawlDbLookup(new Path(crawlDb), config);
   }
 
   private void closeReaders() {
-    if (readers == null) return;
-    for (int i = 0; i < readers.length; i++) {
-      try {
-        readers[i].close();
-      } catch (Exception e) {
+    if (lookup == null) return;
+    try {
+      lookup.close();
+    } catch (Exception e) {
 
-      }
     }
+    lookup = null;
   }
 
   public static class CrawlDatumCsvOutputFormat extends FileOutputFormat<Text,CrawlDatum> {
@@ -313,7 +313,7 @@ public class CrawlDbReader implements Closeable {
     job.setJobName("stats " + crawlDb);
     job.setBoolean("db.reader.stats.sort", sort);
 
-    FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
+    CrawlDb.addInputPaths(job, new Path(crawlDb));
     job.setInputFormat(SequenceFileInputFormat.class);
 
     job.setMapperClass(CrawlDbStatMapper.class);
@@ -389,12 +389,21 @@ public class CrawlDbReader implements Closeable {
   }
 
   public CrawlDatum get(String crawlDb, String url, Configuration config) throws IOException {
-    Text key = new Text(url);
-    CrawlDatum val = new CrawlDatum();
     openReaders(crawlDb, config);
-    CrawlDatum res = (CrawlDatum)MapFileOutputFormat.getEntry(readers,
-        new HashPartitioner<Text, CrawlDatum>(), key, val);
-    return res;
+    return lookup.get(new Text(url));
+  }
+
+  /**
+   * Looks up a batch of urls, the result holds <code>null</code> for urls
+   * not in the CrawlDb.
+   */
+  public CrawlDatum[] get(String crawlDb, List<String> urls, Configuration config) throws IOException {
+    openReaders(crawlDb, config);
+    List<Text> keys = new ArrayList<Text>(urls.size());
+    for (String url : urls) {
+      keys.add(new Text(url));
+    }
+    return lookup.get(keys);
   }
 
   public void readUrl(String crawlDb, String url, Configuration config) throws IOException {
@@ -407,6 +416,36 @@ public class CrawlDbReader implements Closeable {
     }
   }
 
+  /**
+   * Prints information on the urls read from a local file, one per line, or
+   * from standard input if the file name is "-".
+   */
+  public void readUrls(String crawlDb, String file, Configuration config) throws IOException {
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+        "-".equals(file) ? System.in : new FileInputStream(file), "UTF-8"));
+    try {
+      int batchSize = config.getInt("db.reader.lookup.batch.size", 1000);
+      List<String> urls = new ArrayList<String>(batchSize);
+      String line;
+      do {
+        line = in.readLine();
+        if (line != null && line.trim().length() > 0) {
+          urls.add(line.trim());
+        }
+        if (urls.size() == batchSize || (line == null && urls.size() > 0)) {
+          CrawlDatum[] res = get(crawlDb, urls, config);
+          for (int i = 0; i < res.length; i++) {
+            System.out.println("URL: " + urls.get(i));
+            System.out.println(res[i] != null ? res[i] : "not found");
+          }
+          urls.clear();
+        }
+      } while (line != null);
+    } finally {
+      in.close();
+    }
+  }
+
   public void processDumpJob(String crawlDb, String output, Configuration config, String format, String regex, String status) throws IOException {
     if (LOG.isInfoEnabled()) {
       LOG.info("CrawlDb dump: starting");
@@ -418,7 +457,7 @@ public class CrawlDbReader implements Closeable {
     JobConf job = new NutchJob(config);
     job.setJobName("dump " + crawlDb);
 
-    FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
+    CrawlDb.addInputPaths(job, new Path(crawlDb));
     job.setInputFormat(SequenceFileInputFormat.class);
     FileOutputFormat.setOutputPath(job, outFolder);
 
@@ -489,7 +528,7 @@ public class CrawlDbReader implements Closeable {
 
     JobConf job = new NutchJob(config);
     job.setJobName("topN prepare " + crawlDb);
-    FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
+    CrawlDb.addInputPaths(job, new Path(crawlDb));
     job.setInputFormat(SequenceFileInputFormat.class);
     job.setMapperClass(CrawlDbTopNMapper.class);
     job.setReducerClass(IdentityReducer.class);
@@ -544,6 +583,7 @@ public class CrawlDbReader implements Closeable {
       System.err.println("\t\t[-regex <expr>]\tfilter records with expression");
       System.err.println("\t\t[-status <status>]\tfilter records by CrawlDatum status");
       System.err.println("\t-url <url>\tprint information on <url> to System.out");
+      System.err.println("\t-urls <file>\tprint information on the urls listed in <file> (- for stdin) to System.out");
       System.err.println("\t-topN <nnnn> <out_dir> [<min>]\tdump top <nnnn> urls sorted by score to <out_dir>");
       System.err.println("\t\t[<min>]\tskip records with scores below this value.");
       System.err.println("\t\t\tThis can significantly improve performance.");
@@ -583,6 +623,9 @@ public class CrawlDbReader implements Closeable {
       } else if (args[i].equals("-url")) {
         param = args[++i];
         dbr.readUrl(crawlDb, param, conf);
+      } else if (args[i].equals("-urls")) {
+        param = args[++i];
+        dbr.readUrls(crawlDb, param, conf);
       } else if (args[i].equals("-topN")) {
         param = args[++i];
         long topN = Long.parseLong(param);
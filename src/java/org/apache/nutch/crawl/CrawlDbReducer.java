@@ -41,12 +41,20 @@ public class CrawlDbReducer implements Reducer<Text, CrawlDatum, Text, CrawlDatu
   private int retryMax;
   private CrawlDatum result = new CrawlDatum();
   private InlinkPriorityQueue linked = null;
+  private boolean inlinkListRequired;
+  private CrawlDatum bestLink = new CrawlDatum();
   private ScoringFilters scfilters = null;
   private boolean additionsAllowed;
   private int maxInterval;
   private FetchSchedule schedule;
+  private Reporter reporter;
+  private JobConf job;
+  private boolean changelog;
+  private SequenceFile.Writer changelogWriter;
 
   public void configure(JobConf job) {
+    this.job = job;
+    changelog = job.getBoolean(CrawlDb.CRAWLDB_CHANGELOG, false);
     retryMax = job.getInt("db.fetch.retry.max", 3);
     scfilters = new ScoringFilters(job);
     additionsAllowed = job.getBoolean(CrawlDb.CRAWLDB_ADDITIONS_ALLOWED, true);
@@ -56,13 +64,62 @@ public class CrawlDbReducer implements Reducer<Text, CrawlDatum, Text, CrawlDatu
     schedule = FetchScheduleFactory.getFetchSchedule(job);
     int maxLinks = job.getInt("db.update.max.inlinks", 10000);
     linked = new InlinkPriorityQueue(maxLinks);
+    // the inlinks need to be copied and queued only for scoring filters
+    // which cannot aggregate them one by one
+    inlinkListRequired = scfilters.isInlinkListRequired();
   }
 
-  public void close() {}
+  public void close() throws IOException {
+    scfilters.reportTimings(reporter);
+    if (changelogWriter != null) {
+      changelogWriter.close();
+    }
+  }
+
+  /**
+   * Records a URL which became gone in the changelog of this update, which
+   * lets the {@link org.apache.nutch.indexer.CleaningJob} delete only
+   * documents gone since it last ran.
+   */
+  private void logChange(Text key, CrawlDatum datum) throws IOException {
+    if (changelogWriter == null) {
+      changelogWriter = CrawlDb.createChangelogWriter(job);
+    }
+    changelogWriter.append(key, datum);
+  }
+
+  /**
+   * Sets the fingerprint of the document last indexed, read from a
+   * {@link CrawlDatum#STATUS_INDEX_FINGERPRINT} record, or removes it if the
+   * record holds none. Pages which the indexer deletes keep no fingerprint,
+   * so that they are sent again if they come back unchanged.
+   */
+  private static void setIndexFingerprint(CrawlDatum datum,
+      CrawlDatum fingerprint) {
+    org.apache.hadoop.io.MapWritable meta = datum.getMetaData();
+    if (fingerprint != null) {
+      Writable value = fingerprint.getMetaData().get(
+          Nutch.WRITABLE_INDEX_FINGERPRINT_KEY);
+      if (value != null) {
+        meta.put(Nutch.WRITABLE_INDEX_FINGERPRINT_KEY, value);
+      } else {
+        meta.remove(Nutch.WRITABLE_INDEX_FINGERPRINT_KEY);
+      }
+    }
+    switch (datum.getStatus()) {
+    case CrawlDatum.STATUS_DB_GONE:
+    case CrawlDatum.STATUS_DB_REDIR_TEMP:
+    case CrawlDatum.STATUS_DB_REDIR_PERM:
+    case CrawlDatum.STATUS_DB_DUPLICATE:
+      meta.remove(Nutch.WRITABLE_INDEX_FINGERPRINT_KEY);
+      break;
+    }
+  }
 
   public void reduce(Text key, Iterator<CrawlDatum> values,
                      OutputCollector<Text, CrawlDatum> output, Reporter reporter)
     throws IOException {
+    this.reporter = reporter;
 
     CrawlDatum fetch = new CrawlDatum();
     CrawlDatum old = new CrawlDatum();
@@ -72,7 +129,11 @@ public class CrawlDbReducer implements Reducer<Text, CrawlDatum, Text, CrawlDatu
     byte[] signature = null;
     boolean multiple = false; // avoid deep copy when only single value exists
     linked.clear();
+    int numLinks = 0;
+    CrawlDatum best = null;
+    scfilters.startInlinks(key);
     org.apache.hadoop.io.MapWritable metaFromParse = null;
+    CrawlDatum indexFingerprint = null;
     
     while (values.hasNext()) {
       CrawlDatum datum = values.next();
@@ -110,14 +171,32 @@ public class CrawlDbReducer implements Reducer<Text, CrawlDatum, Text, CrawlDatu
 
       switch (datum.getStatus()) {                // collect other info
       case CrawlDatum.STATUS_LINKED:
-        CrawlDatum link;
-        if (multiple) {
-          link = new CrawlDatum();
-          link.set(datum);
-        } else {
-          link = datum;
+        numLinks++;
+        try {
+          scfilters.aggregateInlink(key, datum);
+        } catch (ScoringFilterException e) {
+          if (LOG.isWarnEnabled()) {
+            LOG.warn("Couldn't aggregate inlink, key=" + key + ": " + e);
+          }
+        }
+        if (inlinkListRequired) {
+          CrawlDatum link;
+          if (multiple) {
+            link = new CrawlDatum();
+            link.set(datum);
+          } else {
+            link = datum;
+          }
+          linked.insert(link);
+        } else if (best == null || best.getScore() < datum.getScore()) {
+          // keep a copy of the best link only
+          if (multiple) {
+            bestLink.set(datum);
+            best = bestLink;
+          } else {
+            best = datum;
+          }
         }
-        linked.insert(link);
         break;
       case CrawlDatum.STATUS_SIGNATURE:
         signature = datum.getSignature();
@@ -125,6 +204,14 @@ public class CrawlDbReducer implements Reducer<Text, CrawlDatum, Text, CrawlDatu
       case CrawlDatum.STATUS_PARSE_META:
         metaFromParse = datum.getMetaData();
         break;
+      case CrawlDatum.STATUS_INDEX_FINGERPRINT:
+        // the latest indexing job wins
+        if (indexFingerprint == null
+            || indexFingerprint.getFetchTime() < datum.getFetchTime()) {
+          indexFingerprint = new CrawlDatum();
+          indexFingerprint.set(datum);
+        }
+        break;
       default:
         LOG.warn("Unknown status, key: " + key + ", datum: " + datum);
       }
@@ -132,24 +219,28 @@ public class CrawlDbReducer implements Reducer<Text, CrawlDatum, Text, CrawlDatu
     
     // copy the content of the queue into a List
     // in reversed order
-    int numLinks = linked.size();
-    List<CrawlDatum> linkList = new ArrayList<CrawlDatum>(numLinks);
-    for (int i = numLinks - 1; i >= 0; i--) {
+    int queued = linked.size();
+    List<CrawlDatum> linkList = new ArrayList<CrawlDatum>(queued);
+    for (int i = queued - 1; i >= 0; i--) {
       linkList.add(linked.pop());
     }
+    if (inlinkListRequired && queued > 0) {
+      best = linkList.get(0);
+    }
     
     // if it doesn't already exist, skip it
     if (!oldSet && !additionsAllowed) return;
     
     // if there is no fetched datum, perhaps there is a link
-    if (!fetchSet && linkList.size() > 0) {
-      fetch = linkList.get(0);
+    if (!fetchSet && numLinks > 0) {
+      fetch = best;
       fetchSet = true;
     }
     
     // still no new data - record only unchanged old data, if exists, and return
     if (!fetchSet) {
       if (oldSet) {// at this point at least "old" should be present
+        setIndexFingerprint(old, indexFingerprint);
         output.collect(key, old);
         reporter.getCounter("CrawlDB status", CrawlDatum.getStatusName(old.getStatus())).increment(1);
       } else {
@@ -287,7 +378,7 @@ public class CrawlDbReducer implements Reducer<Text, CrawlDatum, Text, CrawlDatu
     }
 
     try {
-      scfilters.updateDbScore(key, oldSet ? old : null, result, linkList);
+      scfilters.updateAggregatedDbScore(key, oldSet ? old : null, result, linkList);
     } catch (Exception e) {
       if (LOG.isWarnEnabled()) {
         LOG.warn("Couldn't update score, key=" + key + ": " + e);
@@ -295,6 +386,11 @@ public class CrawlDbReducer implements Reducer<Text, CrawlDatum, Text, CrawlDatu
     }
     // remove generation time, if any
     result.getMetaData().remove(Nutch.WRITABLE_GENERATE_TIME_KEY);
+    setIndexFingerprint(result, indexFingerprint);
+    if (changelog && result.getStatus() == CrawlDatum.STATUS_DB_GONE
+        && (!oldSet || old.getStatus() != CrawlDatum.STATUS_DB_GONE)) {
+      logChange(key, result);
+    }
     output.collect(key, result);
     reporter.getCounter("CrawlDB status", CrawlDatum.getStatusName(result.getStatus())).increment(1);
   }
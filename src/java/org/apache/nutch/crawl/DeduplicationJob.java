@@ -0,0 +1,295 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.util.LockUtil;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.NutchJob;
+import org.apache.nutch.util.StringUtil;
+import org.apache.nutch.util.TimingUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds fetched pages with the same signature in the CrawlDb and marks all
+ * but one of them as {@link CrawlDatum#STATUS_DB_DUPLICATE}. The page kept
+ * has the highest score, then the latest fetch time, then the shortest URL.
+ * The duplicates are deleted from the index by the
+ * {@link org.apache.nutch.indexer.CleaningJob} and no longer indexed.
+ *
+ * Pages are grouped by the first 8 bytes of their signature, full signatures
+ * are only compared within a group.
+ */
+public class DeduplicationJob extends Configured implements Tool {
+
+  public static final Logger LOG = LoggerFactory
+      .getLogger(DeduplicationJob.class);
+
+  private static final Text URL_KEY = new Text("_dedup_url_");
+
+  public DeduplicationJob() {}
+
+  public DeduplicationJob(Configuration conf) {
+    setConf(conf);
+  }
+
+  /** Returns the first 8 bytes of a signature. */
+  static long signatureHash(byte[] signature) {
+    long hash = 0;
+    for (int i = 0; i < 8 && i < signature.length; i++) {
+      hash = (hash << 8) | (signature[i] & 0xff);
+    }
+    return hash;
+  }
+
+  /** Emits the fetched pages by their signature hash, with their URL. */
+  public static class DBFilter extends MapReduceBase implements
+      Mapper<Text, CrawlDatum, LongWritable, CrawlDatum> {
+
+    private LongWritable hash = new LongWritable();
+
+    public void map(Text key, CrawlDatum value,
+        OutputCollector<LongWritable, CrawlDatum> output, Reporter reporter)
+        throws IOException {
+      if ((value.getStatus() != CrawlDatum.STATUS_DB_FETCHED
+          && value.getStatus() != CrawlDatum.STATUS_DB_NOTMODIFIED)
+          || value.getSignature() == null) {
+        return;
+      }
+      value.getMetaData().put(URL_KEY, key);
+      hash.set(signatureHash(value.getSignature()));
+      output.collect(hash, value);
+    }
+  }
+
+  /** Emits all pages but the best one of every signature as duplicates. */
+  public static class DedupReducer extends MapReduceBase implements
+      Reducer<LongWritable, CrawlDatum, Text, CrawlDatum> {
+
+    private Map<String, CrawlDatum> best = new HashMap<String, CrawlDatum>();
+
+    public void reduce(LongWritable key, Iterator<CrawlDatum> values,
+        OutputCollector<Text, CrawlDatum> output, Reporter reporter)
+        throws IOException {
+      best.clear();
+      while (values.hasNext()) {
+        CrawlDatum datum = values.next();
+        String signature = StringUtil.toHexString(datum.getSignature());
+        CrawlDatum kept = best.get(signature);
+        if (kept == null) {
+          best.put(signature, copy(datum));
+        } else if (isBetter(datum, kept)) {
+          best.put(signature, copy(datum));
+          duplicate(kept, output, reporter);
+        } else {
+          duplicate(datum, output, reporter);
+        }
+      }
+    }
+
+    private static CrawlDatum copy(CrawlDatum datum) {
+      CrawlDatum copy = new CrawlDatum();
+      copy.set(datum);
+      return copy;
+    }
+
+    private static String url(CrawlDatum datum) {
+      return datum.getMetaData().get(URL_KEY).toString();
+    }
+
+    private static boolean isBetter(CrawlDatum a, CrawlDatum b) {
+      if (a.getScore() != b.getScore()) {
+        return a.getScore() > b.getScore();
+      }
+      if (a.getFetchTime() != b.getFetchTime()) {
+        return a.getFetchTime() > b.getFetchTime();
+      }
+      return url(a).length() < url(b).length();
+    }
+
+    private static void duplicate(CrawlDatum datum,
+        OutputCollector<Text, CrawlDatum> output, Reporter reporter)
+        throws IOException {
+      Text url = new Text(url(datum));
+      datum.getMetaData().remove(URL_KEY);
+      // deleted from the index, to be sent again if it is no longer a duplicate
+      datum.getMetaData().remove(Nutch.WRITABLE_INDEX_FINGERPRINT_KEY);
+      datum.setStatus(CrawlDatum.STATUS_DB_DUPLICATE);
+      output.collect(url, datum);
+      reporter.incrCounter("DeduplicationJobStatus", "Documents marked as duplicate", 1);
+    }
+  }
+
+  /**
+   * Sets the status of the duplicates in the CrawlDb, recording the pages
+   * newly marked in a changelog if {@link CrawlDb#CRAWLDB_CHANGELOG} is set.
+   */
+  public static class StatusUpdateReducer extends MapReduceBase implements
+      Reducer<Text, CrawlDatum, Text, CrawlDatum> {
+
+    private JobConf job;
+    private boolean changelog;
+    private SequenceFile.Writer changelogWriter;
+    private CrawlDatum result = new CrawlDatum();
+
+    public void configure(JobConf job) {
+      this.job = job;
+      changelog = job.getBoolean(CrawlDb.CRAWLDB_CHANGELOG, false);
+    }
+
+    public void close() throws IOException {
+      if (changelogWriter != null) {
+        changelogWriter.close();
+      }
+    }
+
+    public void reduce(Text key, Iterator<CrawlDatum> values,
+        OutputCollector<Text, CrawlDatum> output, Reporter reporter)
+        throws IOException {
+      boolean duplicate = false;
+      boolean changed = false;
+      while (values.hasNext()) {
+        CrawlDatum datum = values.next();
+        if (datum.getStatus() == CrawlDatum.STATUS_DB_DUPLICATE) {
+          if (!duplicate) {
+            result.set(datum);
+            duplicate = true;
+          }
+        } else {
+          if (!duplicate) {
+            result.set(datum);
+          }
+          changed = true;
+        }
+      }
+      if (changelog && duplicate && changed) {
+        if (changelogWriter == null) {
+          changelogWriter = CrawlDb.createChangelogWriter(job);
+        }
+        changelogWriter.append(key, result);
+      }
+      output.collect(key, result);
+    }
+  }
+
+  public void deduplicate(Path crawlDb) throws IOException {
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    long start = System.currentTimeMillis();
+    LOG.info("DeduplicationJob: starting at " + sdf.format(start));
+
+    FileSystem fs = FileSystem.get(getConf());
+    Path lock = new Path(crawlDb, CrawlDb.LOCK_NAME);
+    LockUtil.createLockFile(fs, lock, false);
+
+    Path duplicates = new Path(crawlDb, "dedup-temp-"
+        + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+    try {
+      JobConf job = new NutchJob(getConf());
+      job.setJobName("deduplicate " + crawlDb);
+      FileInputFormat.addInputPath(job, new Path(crawlDb,
+          CrawlDb.CURRENT_NAME));
+      job.setInputFormat(SequenceFileInputFormat.class);
+      job.setMapperClass(DBFilter.class);
+      job.setMapOutputKeyClass(LongWritable.class);
+      job.setMapOutputValueClass(CrawlDatum.class);
+      job.setReducerClass(DedupReducer.class);
+      FileOutputFormat.setOutputPath(job, duplicates);
+      job.setOutputFormat(SequenceFileOutputFormat.class);
+      job.setOutputKeyClass(Text.class);
+      job.setOutputValueClass(CrawlDatum.class);
+      RunningJob running = JobClient.runJob(job);
+
+      long found = running.getCounters().findCounter("DeduplicationJobStatus",
+          "Documents marked as duplicate").getCounter();
+      LOG.info("DeduplicationJob: " + found + " documents marked as duplicate");
+
+      if (found > 0) {
+        JobConf update = CrawlDb.createJob(getConf(), crawlDb);
+        update.setJobName("deduplicate update " + crawlDb);
+        FileInputFormat.addInputPath(update, duplicates);
+        update.setMapperClass(IdentityMapper.class);
+        update.setReducerClass(StatusUpdateReducer.class);
+        try {
+          JobClient.runJob(update);
+        } catch (IOException e) {
+          Path outPath = FileOutputFormat.getOutputPath(update);
+          if (fs.exists(outPath)) fs.delete(outPath, true);
+          throw e;
+        }
+        CrawlDb.install(update, crawlDb);
+      }
+    } finally {
+      LockUtil.removeLockFile(fs, lock);
+      fs.delete(duplicates, true);
+    }
+
+    long end = System.currentTimeMillis();
+    LOG.info("DeduplicationJob: finished at " + sdf.format(end)
+        + ", elapsed: " + TimingUtil.elapsedTime(start, end));
+  }
+
+  public int run(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: DeduplicationJob <crawldb>");
+      return 1;
+    }
+    try {
+      deduplicate(new Path(args[0]));
+    } catch (Exception e) {
+      LOG.error("DeduplicationJob: " + StringUtils.stringifyException(e));
+      return -1;
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int result = ToolRunner.run(NutchConfiguration.create(),
+        new DeduplicationJob(), args);
+    System.exit(result);
+  }
+}
@@ -44,6 +44,7 @@ import org.apache.nutch.scoring.ScoringFilters;
 import org.apache.nutch.util.LockUtil;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.NutchJob;
+import org.apache.nutch.util.StringUtil;
 import org.apache.nutch.util.TimingUtil;
 import org.apache.nutch.util.URLUtil;
 
@@ -73,6 +74,9 @@ public class Generator extends Configured implements Tool {
   public static final String GENERATOR_CUR_TIME = "generate.curTime";
   public static final String GENERATOR_DELAY = "crawl.gen.delay";
   public static final String GENERATOR_MAX_NUM_SEGMENTS = "generate.max.num.segments";
+  public static final String GENERATOR_FETCHLIST_ORDER = "generate.fetchlist.order";
+  public static final String GENERATOR_FETCHLIST_ORDER_HASH = "hash";
+  public static final String GENERATOR_FETCHLIST_ORDER_INTERLEAVE = "interleave";
   
   // deprecated parameters 
   public static final String GENERATE_MAX_PER_HOST_BY_IP = "generate.max.per.host.by.ip";
@@ -115,7 +119,9 @@ public class Generator extends Configured implements Tool {
     private long curTime;
     private long limit;
     private long count;
-    private HashMap<String,int[]> hostCounts = new HashMap<String,int[]>();
+    private HostCountTable hostCounts = new HostCountTable();
+    private Reporter reduceReporter;
+    private Reporter mapReporter;
     private int segCounts[];
     private int maxCount;
     private boolean byDomain = false;
@@ -161,12 +167,21 @@ public class Generator extends Configured implements Tool {
       segCounts = new int[maxNumSegments];
     }
 
-    public void close() {}
+    public void close() {
+      scfilters.reportTimings(mapReporter);
+      if (reduceReporter == null) return;
+      LOG.info("Generator: counted " + hostCounts.size() + " hosts or domains, "
+          + "peak size of host count table: " + hostCounts.peakMemoryUsage()
+          + " bytes");
+      reduceReporter.getCounter("Generator", "HOST_COUNT_TABLE_PEAK_BYTES")
+          .increment(hostCounts.peakMemoryUsage());
+    }
 
     /** Select & invert subset due for fetch. */
     public void map(Text key, CrawlDatum value,
         OutputCollector<FloatWritable,SelectorEntry> output, Reporter reporter)
         throws IOException {
+      mapReporter = reporter;
       Text url = key;
       if (filter) {
         // If filtering is on don't generate URLs that don't pass
@@ -231,6 +246,7 @@ public class Generator extends Configured implements Tool {
     public void reduce(FloatWritable key, Iterator<SelectorEntry> values,
         OutputCollector<FloatWritable,SelectorEntry> output, Reporter reporter)
         throws IOException {
+      reduceReporter = reporter;
 
       while (values.hasNext()) {
 
@@ -245,20 +261,28 @@ public class Generator extends Configured implements Tool {
         SelectorEntry entry = values.next();
         Text url = entry.url;
         String urlString = url.toString();
-        URL u = null;
 
-        String hostordomain = null;
+        // hosts are counted by fingerprint, the hostname is located in place
+        // without creating a URL object or a host String
+        long hostordomain;
+        int hostStart;
+        int hostEnd;
 
         try {
           if (normalise && normalizers != null) {
             urlString = normalizers.normalize(urlString,
                 URLNormalizers.SCOPE_GENERATE_HOST_COUNT);
           }
-          u = new URL(urlString);
+          hostStart = URLUtil.hostStart(urlString);
+          if (hostStart == -1) {
+            throw new MalformedURLException("no host in " + urlString);
+          }
+          hostEnd = URLUtil.hostEnd(urlString, hostStart);
           if (byDomain) {
-            hostordomain = URLUtil.getDomainName(u);
+            hostordomain = StringUtil.fingerprint(URLUtil.getDomainNameFromHost(
+                urlString.substring(hostStart, hostEnd)));
           } else {
-            hostordomain = new URL(urlString).getHost();
+            hostordomain = StringUtil.fingerprint(urlString, hostStart, hostEnd);
           }
         } catch (Exception e) {
           LOG.warn("Malformed URL: '" + urlString + "', skipping ("
@@ -267,44 +291,42 @@ public class Generator extends Configured implements Tool {
           continue;
         }
 
-        hostordomain = hostordomain.toLowerCase();
-
         // only filter if we are counting hosts or domains
         if (maxCount > 0) {
-          int[] hostCount = hostCounts.get(hostordomain);
-          if (hostCount == null) {
-            hostCount = new int[] {1, 0};
-            hostCounts.put(hostordomain, hostCount);
-          }
-
+          int slot = hostCounts.slot(hostordomain);
+          int hostSegment = hostCounts.getSegment(slot);
           // increment hostCount
-          hostCount[1]++;
+          int hostCount = hostCounts.getCount(slot) + 1;
 
           // check if topN reached, select next segment if it is
-          while (segCounts[hostCount[0]-1] >= limit && hostCount[0] < maxNumSegments) {
-            hostCount[0]++;
-            hostCount[1] = 0;
+          while (segCounts[hostSegment-1] >= limit && hostSegment < maxNumSegments) {
+            hostSegment++;
+            hostCount = 0;
           }
 
           // reached the limit of allowed URLs per host / domain
           // see if we can put it in the next segment?
-          if (hostCount[1] >= maxCount) {
-            if (hostCount[0] < maxNumSegments) {
-              hostCount[0]++;
-              hostCount[1] = 0;
+          if (hostCount >= maxCount) {
+            if (hostSegment < maxNumSegments) {
+              hostSegment++;
+              hostCount = 0;
             } else {
-              if (hostCount[1] == maxCount + 1 && LOG.isInfoEnabled()) {
-                LOG.info("Host or domain " + hostordomain + " has more than " + maxCount
+              hostCounts.set(slot, hostSegment, hostCount);
+              if (hostCount == maxCount + 1 && LOG.isInfoEnabled()) {
+                String name = urlString.substring(hostStart, hostEnd).toLowerCase();
+                if (byDomain) name = URLUtil.getDomainNameFromHost(name);
+                LOG.info("Host or domain " + name + " has more than " + maxCount
                     + " URLs for all " + maxNumSegments + " segments. Additional URLs won't be included in the fetchlist.");
               }
               // skip this entry
               continue;
             }
           }
-          entry.segnum = new IntWritable(hostCount[0]);
-          segCounts[hostCount[0]-1]++;
+          hostCounts.set(slot, hostSegment, hostCount);
+          entry.segnum.set(hostSegment);
+          segCounts[hostSegment-1]++;
         } else {
-          entry.segnum = new IntWritable(currentsegmentnum);
+          entry.segnum.set(currentsegmentnum);
           segCounts[currentsegmentnum-1]++;
         }
 
@@ -346,10 +368,95 @@ public class Generator extends Configured implements Tool {
     }
   }
 
+  /**
+   * Inverts the selected entries for partitioning, keyed by the time at which
+   * the fetcher is expected to get to an entry. Entries of the same fetch
+   * queue (host or domain, see <code>fetcher.queue.mode</code>) are spaced
+   * by the expected crawl delay of the queue, so that sorting on this key
+   * interleaves the queues round-robin over the whole fetchlist instead of
+   * letting a few large hosts fill the in-memory window of the fetcher. Within
+   * the same expected time entries are scattered by the hash of their URL.
+   */
+  public static class InterleavingInverseMapper extends MapReduceBase implements
+      Mapper<FloatWritable,SelectorEntry,LongWritable,SelectorEntry>,
+      Partitioner<LongWritable,SelectorEntry> {
+    private URLPartitioner partitioner = new URLPartitioner();
+    private HostCountTable queueCounts = new HostCountTable();
+    private LongWritable sortKey = new LongWritable();
+    private boolean byDomain;
+    private long crawlDelay;
+
+    public void configure(JobConf job) {
+      partitioner.configure(job);
+      byDomain = URLPartitioner.PARTITION_MODE_DOMAIN.equals(job.get(
+          "fetcher.queue.mode", URLPartitioner.PARTITION_MODE_HOST));
+      crawlDelay = getExpectedCrawlDelay(job);
+    }
+
+    public void map(FloatWritable key, SelectorEntry value,
+        OutputCollector<LongWritable,SelectorEntry> output, Reporter reporter)
+        throws IOException {
+      String urlString = value.url.toString();
+      long queue;
+      int hostStart = URLUtil.hostStart(urlString);
+      if (hostStart == -1) {
+        queue = StringUtil.fingerprint(urlString);
+      } else {
+        int hostEnd = URLUtil.hostEnd(urlString, hostStart);
+        if (byDomain) {
+          queue = StringUtil.fingerprint(URLUtil.getDomainNameFromHost(
+              urlString.substring(hostStart, hostEnd)));
+        } else {
+          queue = StringUtil.fingerprint(urlString, hostStart, hostEnd);
+        }
+      }
+      // entries arrive sorted by decreasing score, so the best entries of
+      // each queue come first
+      int slot = queueCounts.slot(queue);
+      int position = queueCounts.getCount(slot);
+      queueCounts.set(slot, 1, position + 1);
+      sortKey.set(interleavingSortKey(position * crawlDelay, value.url));
+      output.collect(sortKey, value);
+    }
+
+    /** Partition by host / domain or IP of the entry. */
+    public int getPartition(LongWritable key, SelectorEntry value,
+        int numReduceTasks) {
+      return partitioner.getPartition(value.url, value, numReduceTasks);
+    }
+  }
+
+  /**
+   * Returns the delay in milliseconds expected between two successive fetches
+   * from the same queue, as configured for the fetcher. Never returns less
+   * than 1 so that the positions within the queues are preserved.
+   */
+  static long getExpectedCrawlDelay(Configuration conf) {
+    int threadsPerQueue = conf.getInt("fetcher.threads.per.queue", 1);
+    long delay;
+    if (threadsPerQueue > 1) {
+      delay = (long) (conf.getFloat("fetcher.server.min.delay", 0.0f) * 1000)
+          / threadsPerQueue;
+    } else {
+      delay = (long) (conf.getFloat("fetcher.server.delay", 1.0f) * 1000);
+    }
+    return Math.max(delay, 1L);
+  }
+
+  /**
+   * Returns the sort key used in the interleaved fetchlist order: the expected
+   * time in the upper 40 bits and a hash of the URL in the lower 24 bits.
+   */
+  static long interleavingSortKey(long expectedTime, Text url) {
+    long time = Math.min(expectedTime, (1L << 39) - 1);
+    int hash = HashComparator.hash(url.getBytes(), 0, url.getLength());
+    return (time << 24) | (hash & 0xffffff);
+  }
+
   public static class PartitionReducer extends MapReduceBase implements
-      Reducer<Text,SelectorEntry,Text,CrawlDatum> {
+      Reducer<WritableComparable<?>,SelectorEntry,Text,CrawlDatum> {
 
-    public void reduce(Text key, Iterator<SelectorEntry> values,
+    public void reduce(WritableComparable<?> key, Iterator<SelectorEntry> values,
         OutputCollector<Text,CrawlDatum> output, Reporter reporter) throws IOException {
       // if using HashComparator, we get only one input key in case of
       // hash collision
@@ -383,7 +490,7 @@ public class Generator extends Configured implements Tool {
       return (hash1 < hash2 ? -1 : (hash1 == hash2 ? 0 : 1));
     }
 
-    private static int hash(byte[] bytes, int start, int length) {
+    static int hash(byte[] bytes, int start, int length) {
       int hash = 1;
       // make later bytes more significant in hash code, so that sorting
       // by
@@ -534,7 +641,7 @@ public class Generator extends Configured implements Tool {
        job.setBoolean(GENERATOR_NORMALISE, norm);
        job.setInt(GENERATOR_MAX_NUM_SEGMENTS, maxNumSegments);
 
-       FileInputFormat.addInputPath(job, new Path(dbDir, CrawlDb.CURRENT_NAME));
+       CrawlDb.addInputPaths(job, dbDir);
        job.setInputFormat(SequenceFileInputFormat.class);
 
        job.setMapperClass(Selector.class);
@@ -592,7 +699,7 @@ public class Generator extends Configured implements Tool {
            Path subGenDir = new Path(segmpaths, CrawlDatum.GENERATE_DIR_NAME);
            FileInputFormat.addInputPath(job, subGenDir);
          }
-         FileInputFormat.addInputPath(job, new Path(dbDir, CrawlDb.CURRENT_NAME));
+         CrawlDb.addInputPaths(job, dbDir);
          job.setInputFormat(SequenceFileInputFormat.class);
          job.setMapperClass(CrawlDbUpdater.class);
          job.setReducerClass(CrawlDbUpdater.class);
@@ -649,10 +756,23 @@ public class Generator extends Configured implements Tool {
     FileInputFormat.addInputPath(job, inputDir);
     job.setInputFormat(SequenceFileInputFormat.class);
 
-    job.setMapperClass(SelectorInverseMapper.class);
-    job.setMapOutputKeyClass(Text.class);
+    String order = job.get(GENERATOR_FETCHLIST_ORDER, GENERATOR_FETCHLIST_ORDER_HASH);
+    if (GENERATOR_FETCHLIST_ORDER_INTERLEAVE.equals(order)) {
+      LOG.info("Generator: interleaving hosts in fetchlist, expected crawl delay: "
+          + getExpectedCrawlDelay(job) + " ms");
+      job.setMapperClass(InterleavingInverseMapper.class);
+      job.setMapOutputKeyClass(LongWritable.class);
+      job.setPartitionerClass(InterleavingInverseMapper.class);
+    } else {
+      if (!GENERATOR_FETCHLIST_ORDER_HASH.equals(order)) {
+        LOG.warn("Generator: unknown fetchlist order " + order + " - using hash");
+      }
+      job.setMapperClass(SelectorInverseMapper.class);
+      job.setMapOutputKeyClass(Text.class);
+      job.setPartitionerClass(URLPartitioner.class);
+      job.setOutputKeyComparatorClass(HashComparator.class);
+    }
     job.setMapOutputValueClass(SelectorEntry.class);
-    job.setPartitionerClass(URLPartitioner.class);
     job.setReducerClass(PartitionReducer.class);
     job.setNumReduceTasks(numLists);
 
@@ -660,7 +780,6 @@ public class Generator extends Configured implements Tool {
     job.setOutputFormat(SequenceFileOutputFormat.class);
     job.setOutputKeyClass(Text.class);
     job.setOutputValueClass(CrawlDatum.class);
-    job.setOutputKeyComparatorClass(HashComparator.class);
     JobClient.runJob(job);
     return segment;
   }
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+/**
+ * Memory-compact table of per host (or domain) counters used by the
+ * {@link Generator} to limit the number of URLs selected per host and
+ * segment.
+ *
+ * <p>Hosts are identified by a 64-bit fingerprint (see
+ * {@link org.apache.nutch.util.StringUtil#fingerprint(CharSequence, int, int)})
+ * instead of a String, and entries are kept in primitive arrays using open
+ * addressing with linear probing. Each entry costs 16 bytes, compared to
+ * well over 100 bytes for a <code>HashMap&lt;String,int[]&gt;</code> entry.
+ * The probability of two hosts sharing a fingerprint is negligible even for
+ * hundreds of millions of hosts.</p>
+ *
+ * <p>Each entry holds the current segment number (starting with 1) and the
+ * number of URLs counted for this segment.</p>
+ */
+public class HostCountTable {
+
+  private static final float LOAD_FACTOR = 0.75f;
+
+  /** Marks an empty slot, fingerprints equal to it are remapped. */
+  private static final long EMPTY = 0L;
+
+  private long[] keys;
+  private int[] segments;
+  private int[] counts;
+  private int size;
+  private int resizeAt;
+  private long peakMemory;
+
+  public HostCountTable() {
+    this(1024);
+  }
+
+  public HostCountTable(int expectedSize) {
+    int capacity = 16;
+    while (capacity * LOAD_FACTOR < expectedSize) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+    peakMemory = memoryUsage();
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    segments = new int[capacity];
+    counts = new int[capacity];
+    resizeAt = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private static int mix(long fingerprint) {
+    // final step of MurmurHash3, spreads the bits over the low end
+    long h = fingerprint;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+
+  /**
+   * Returns the slot of the entry for the given fingerprint, adding a new
+   * entry for segment 1 with a count of 0 if there is none yet. The slot is
+   * only valid until the next call to this method.
+   */
+  public int slot(long fingerprint) {
+    if (fingerprint == EMPTY) fingerprint = 1L;
+    int mask = keys.length - 1;
+    int i = mix(fingerprint) & mask;
+    while (keys[i] != EMPTY) {
+      if (keys[i] == fingerprint) return i;
+      i = (i + 1) & mask;
+    }
+    if (size >= resizeAt) {
+      rehash();
+      return slot(fingerprint);
+    }
+    keys[i] = fingerprint;
+    segments[i] = 1;
+    counts[i] = 0;
+    size++;
+    return i;
+  }
+
+  private void rehash() {
+    long[] oldKeys = keys;
+    int[] oldSegments = segments;
+    int[] oldCounts = counts;
+    long oldMemory = memoryUsage();
+    allocate(oldKeys.length << 1);
+    // both the old and new arrays are live while copying
+    peakMemory = Math.max(peakMemory, oldMemory + memoryUsage());
+    int mask = keys.length - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldKeys[j] == EMPTY) continue;
+      int i = mix(oldKeys[j]) & mask;
+      while (keys[i] != EMPTY) {
+        i = (i + 1) & mask;
+      }
+      keys[i] = oldKeys[j];
+      segments[i] = oldSegments[j];
+      counts[i] = oldCounts[j];
+    }
+  }
+
+  public int getSegment(int slot) {
+    return segments[slot];
+  }
+
+  public int getCount(int slot) {
+    return counts[slot];
+  }
+
+  public void set(int slot, int segment, int count) {
+    segments[slot] = segment;
+    counts[slot] = count;
+  }
+
+  /** Returns the number of hosts in the table. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the current size of the table in bytes. */
+  public long memoryUsage() {
+    return (long) keys.length * (8 + 4 + 4);
+  }
+
+  /** Returns the largest size in bytes the table had, including rehashing. */
+  public long peakMemoryUsage() {
+    return peakMemory;
+  }
+}
@@ -48,6 +48,10 @@ import org.apache.nutch.util.TimingUtil;
  * - <i>nutch.fetchInterval</i> : allows to set a custom fetch interval for a specific URL <br>
  * - <i>nutch.fetchInterval.fixed</i> : allows to set a custom fetch interval for a specific URL that is not changed by AdaptiveFetchSchedule <br>
  * e.g. http://www.nutch.org/ \t nutch.score=10 \t nutch.fetchInterval=2592000 \t userType=open_source
+ * <br>
+ * With <code>db.injector.delta</code> (or <code>-delta</code>) new urls are
+ * written to a delta of the CrawlDb instead of merging them in a job reading
+ * the whole db, see {@link CrawlDb#getDeltas(FileSystem, Path)}.
  **/
 public class Injector extends Configured implements Tool {
   public static final Logger LOG = LoggerFactory.getLogger(Injector.class);
@@ -59,6 +63,11 @@ public class Injector extends Configured implements Tool {
   /** metadata key reserved for setting a fixed custom fetchInterval for a specific URL */
   public static String nutchFixedFetchIntervalMDName = "nutch.fetchInterval.fixed";
 
+  /** Whether to add new urls as a delta instead of rewriting the CrawlDb. */
+  public static final String INJECTOR_DELTA = "db.injector.delta";
+  /** Maximum number of deltas before they are compacted into the CrawlDb. */
+  public static final String INJECTOR_DELTA_MAX = "db.injector.delta.max";
+
   /** Normalize and filter injected urls. */
   public static class InjectMapper implements Mapper<WritableComparable<?>, Text, Text, CrawlDatum> {
     private URLNormalizers urlNormalizers;
@@ -68,6 +77,7 @@ public class Injector extends Configured implements Tool {
     private URLFilters filters;
     private ScoringFilters scfilters;
     private long curTime;
+    private Reporter reporter;
 
     public void configure(JobConf job) {
       this.jobConf = job;
@@ -79,14 +89,22 @@ public class Injector extends Configured implements Tool {
       curTime = job.getLong("injector.current.time", System.currentTimeMillis());
     }
 
-    public void close() {}
+    public void close() {
+      scfilters.reportTimings(reporter);
+    }
 
     public void map(WritableComparable<?> key, Text value,
                     OutputCollector<Text, CrawlDatum> output, Reporter reporter)
       throws IOException {
-      String url = value.toString();              // value is line of text
+      this.reporter = reporter;
+      String line = value.toString();             // value is line of text
+      int length = line.length();
 
-      if (url != null && url.trim().startsWith("#")) {
+      int first = 0;
+      while (first < length && Character.isWhitespace(line.charAt(first))) {
+        first++;
+      }
+      if (first < length && line.charAt(first) == '#') {
           /* Ignore line that start with # */
           return;
       }
@@ -96,36 +114,34 @@ public class Injector extends Configured implements Tool {
       float customScore = -1f;
       int customInterval = interval;
       int fixedInterval = -1;
-      Map<String,String> metadata = new TreeMap<String,String>();
-      if (url.indexOf("\t")!=-1){
-    	  String[] splits = url.split("\t");
-    	  url = splits[0];
-    	  for (int s=1;s<splits.length;s++){
-    		  // find separation between name and value
-    		  int indexEquals = splits[s].indexOf("=");
-    		  if (indexEquals==-1) {
-    			  // skip anything without a =
-    			  continue;		    
-    		  }
-    		  String metaname = splits[s].substring(0, indexEquals);
-    		  String metavalue = splits[s].substring(indexEquals+1);
-    		  if (metaname.equals(nutchScoreMDName)) {
-    			  try {
-    			  customScore = Float.parseFloat(metavalue);}
-    			  catch (NumberFormatException nfe){}
-    		  }
-                  else if (metaname.equals(nutchFetchIntervalMDName)) {
-                          try {
-                                  customInterval = Integer.parseInt(metavalue);}
-                          catch (NumberFormatException nfe){}
-                  }
-                  else if (metaname.equals(nutchFixedFetchIntervalMDName)) {
-                          try {
-                                  fixedInterval = Integer.parseInt(metavalue);}
-                          catch (NumberFormatException nfe){}
-                  }
-    		  else metadata.put(metaname,metavalue);
-    	  }
+      CrawlDatum datum = new CrawlDatum();
+      String url = line;
+      int end = line.indexOf('\t');
+      if (end != -1) {
+        url = line.substring(0, end);
+        while (end < length) {
+          int begin = end + 1;
+          end = line.indexOf('\t', begin);
+          if (end == -1) end = length;
+          // find separation between name and value
+          int indexEquals = line.indexOf('=', begin);
+          if (indexEquals == -1 || indexEquals > end) {
+            // skip anything without a =
+            continue;
+          }
+          try {
+            if (isName(line, begin, indexEquals, nutchScoreMDName)) {
+              customScore = Float.parseFloat(line.substring(indexEquals + 1, end));
+            } else if (isName(line, begin, indexEquals, nutchFetchIntervalMDName)) {
+              customInterval = Integer.parseInt(line.substring(indexEquals + 1, end));
+            } else if (isName(line, begin, indexEquals, nutchFixedFetchIntervalMDName)) {
+              fixedInterval = Integer.parseInt(line.substring(indexEquals + 1, end));
+            } else {
+              datum.getMetaData().put(new Text(line.substring(begin, indexEquals)),
+                  new Text(line.substring(indexEquals + 1, end)));
+            }
+          } catch (NumberFormatException nfe) {}
+        }
       }
       try {
         url = urlNormalizers.normalize(url, URLNormalizers.SCOPE_INJECT);
@@ -138,7 +154,6 @@ public class Injector extends Configured implements Tool {
         reporter.getCounter("injector", "urls_filtered").increment(1);
       } else {                                   // if it passes
         value.set(url);                           // collect it
-        CrawlDatum datum = new CrawlDatum();
         datum.setStatus(CrawlDatum.STATUS_INJECTED);
 
         // Is interval custom? Then set as meta data
@@ -151,13 +166,6 @@ public class Injector extends Configured implements Tool {
         }
 
         datum.setFetchTime(curTime);
-        // now add the metadata
-        Iterator<String> keysIter = metadata.keySet().iterator();
-        while (keysIter.hasNext()){
-        	String keymd = keysIter.next();
-        	String valuemd = metadata.get(keymd);
-        	datum.getMetaData().put(new Text(keymd), new Text(valuemd));
-        }
         if (customScore != -1) datum.setScore(customScore);
         else datum.setScore(scoreInjected);
         try {
@@ -172,6 +180,12 @@ public class Injector extends Configured implements Tool {
         output.collect(value, datum);
       }
     }
+
+    /** Whether the metadata name between begin and end equals name. */
+    private static boolean isName(String line, int begin, int end, String name) {
+      return end - begin == name.length()
+          && line.regionMatches(begin, name, 0, name.length());
+    }
   }
 
   /** Combine multiple new entries for a url. */
@@ -242,6 +256,43 @@ public class Injector extends Configured implements Tool {
     }
   }
 
+  /**
+   * Keeps the injected urls which are not yet in the CrawlDb, used to write
+   * a delta. The CrawlDb and its older deltas are only probed for the keys
+   * of the injected urls instead of being read as a whole.
+   */
+  public static class DeltaReducer implements Reducer<Text, CrawlDatum, Text, CrawlDatum> {
+    private JobConf job;
+    private String crawlDb;
+    private CrawlDbReader dbReader;
+
+    public void configure(JobConf job) {
+      this.job = job;
+      crawlDb = job.get("injector.crawldb");
+      dbReader = new CrawlDbReader();
+    }
+
+    public void close() {
+      dbReader.close();
+    }
+
+    private CrawlDatum injected = new CrawlDatum();
+
+    public void reduce(Text key, Iterator<CrawlDatum> values,
+                       OutputCollector<Text, CrawlDatum> output, Reporter reporter)
+      throws IOException {
+      while (values.hasNext()) {
+        injected.set(values.next());
+      }
+      if (dbReader.get(crawlDb, key.toString(), job) != null) {
+        reporter.getCounter("injector", "urls_existing").increment(1);
+        return;
+      }
+      injected.setStatus(CrawlDatum.STATUS_DB_UNFETCHED);
+      output.collect(key, injected);
+    }
+  }
+
   public Injector() {}
   
   public Injector(Configuration conf) {
@@ -263,6 +314,17 @@ try {
                "/inject-temp-"+
                Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
 
+    FileSystem fs = FileSystem.get(getConf());
+    boolean delta = getConf().getBoolean(INJECTOR_DELTA, false);
+    if (delta && (getConf().getBoolean("db.injector.overwrite", false)
+        || getConf().getBoolean("db.injector.update", false))) {
+      LOG.warn("Injector: a delta only adds new urls, merging into crawl db to overwrite or update existing ones.");
+      delta = false;
+    }
+    if (delta && !fs.exists(new Path(crawlDb, CrawlDb.CURRENT_NAME))) {
+      delta = false;
+    }
+
     // map text input file to a <url,CrawlDatum> file
     if (LOG.isInfoEnabled()) {
       LOG.info("Injector: Converting injected urls to crawl db entries.");
@@ -273,7 +335,14 @@ try {
     sortJob.setMapperClass(InjectMapper.class);
 
     FileOutputFormat.setOutputPath(sortJob, tempDir);
-    sortJob.setOutputFormat(SequenceFileOutputFormat.class);
+    if (delta) {
+      // keep new urls only, in a sorted and indexed delta of the crawl db
+      sortJob.set("injector.crawldb", crawlDb.toString());
+      sortJob.setReducerClass(DeltaReducer.class);
+      sortJob.setOutputFormat(MapFileOutputFormat.class);
+    } else {
+      sortJob.setOutputFormat(SequenceFileOutputFormat.class);
+    }
     sortJob.setOutputKeyClass(Text.class);
     sortJob.setOutputValueClass(CrawlDatum.class);
     sortJob.setLong("injector.current.time", System.currentTimeMillis());
@@ -285,19 +354,41 @@ try {
     LOG.info("Injector: total number of urls injected after normalization and filtering: "
         + urlsInjected);
 
-    // merge with existing crawl db
-    if (LOG.isInfoEnabled()) {
-      LOG.info("Injector: Merging injected urls into crawl db.");
-    }
-    JobConf mergeJob = CrawlDb.createJob(getConf(), crawlDb);
-    FileInputFormat.addInputPath(mergeJob, tempDir);
-    mergeJob.setReducerClass(InjectReducer.class);
-    JobClient.runJob(mergeJob);
-    CrawlDb.install(mergeJob, crawlDb);
+    if (delta) {
+      long urlsExisting = mapJob.getCounters().findCounter("injector", "urls_existing").getValue();
+      LOG.info("Injector: total number of urls already in crawl db: " + urlsExisting);
+      Path deltaDir = new Path(crawlDb, CrawlDb.DELTA_NAME);
+      Path newDelta = new Path(deltaDir, Generator.generateSegmentName());
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Injector: Adding delta " + newDelta);
+      }
+      fs.mkdirs(deltaDir);
+      fs.rename(tempDir, newDelta);
 
-    // clean up
-    FileSystem fs = FileSystem.get(getConf());
-    fs.delete(tempDir, true);
+      int maxDeltas = getConf().getInt(INJECTOR_DELTA_MAX, 10);
+      if (CrawlDb.getDeltas(fs, crawlDb).length > maxDeltas) {
+        if (LOG.isInfoEnabled()) {
+          LOG.info("Injector: Compacting deltas into crawl db.");
+        }
+        JobConf mergeJob = CrawlDb.createJob(getConf(), crawlDb);
+        mergeJob.setReducerClass(InjectReducer.class);
+        JobClient.runJob(mergeJob);
+        CrawlDb.install(mergeJob, crawlDb);
+      }
+    } else {
+      // merge with existing crawl db
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Injector: Merging injected urls into crawl db.");
+      }
+      JobConf mergeJob = CrawlDb.createJob(getConf(), crawlDb);
+      FileInputFormat.addInputPath(mergeJob, tempDir);
+      mergeJob.setReducerClass(InjectReducer.class);
+      JobClient.runJob(mergeJob);
+      CrawlDb.install(mergeJob, crawlDb);
+
+      // clean up
+      fs.delete(tempDir, true);
+    }
 
     long end = System.currentTimeMillis();
     LOG.info("Injector: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
@@ -313,9 +404,15 @@ try {
   
   public int run(String[] args) throws Exception {
     if (args.length < 2) {
-      System.err.println("Usage: Injector <crawldb> <url_dir>");
+      System.err.println("Usage: Injector <crawldb> <url_dir> [-delta]");
+      System.err.println("\t-delta\tadd new urls as a delta instead of rewriting the crawl db");
       return -1;
     }
+    for (int i = 2; i < args.length; i++) {
+      if (args[i].equals("-delta")) {
+        getConf().setBoolean(INJECTOR_DELTA, true);
+      }
+    }
     try {
       inject(new Path(args[0]), new Path(args[1]));
       return 0;
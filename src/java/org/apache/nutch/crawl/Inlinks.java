@@ -23,9 +23,27 @@ import java.util.*;
 
 import org.apache.hadoop.io.*;
 
-/** A list of {@link Inlink}s. */
+/** A list of {@link Inlink}s.
+ *
+ * <p>Inlinks are written sorted by source url, each url as the length of the
+ * prefix it shares with the previous one and the remaining characters, and
+ * each anchor as an index into a dictionary of the distinct anchors. Inlinks
+ * are read back in that order, so capping the number of inlinks always keeps
+ * the same ones. Inlinks written in the older format of full urls and anchors
+ * are still read.</p> */
 public class Inlinks implements Writable {
-  private HashSet<Inlink> inlinks = new HashSet<Inlink>(1);
+
+  /** Written in place of the number of inlinks of the older format. */
+  private static final int COMPACT = -1;
+
+  private static final Comparator<Inlink> ORDER = new Comparator<Inlink>() {
+    public int compare(Inlink i1, Inlink i2) {
+      int cmp = i1.getFromUrl().compareTo(i2.getFromUrl());
+      return cmp != 0 ? cmp : i1.getAnchor().compareTo(i2.getAnchor());
+    }
+  };
+
+  private LinkedHashSet<Inlink> inlinks = new LinkedHashSet<Inlink>(1);
 
   public void add(Inlink inlink) { inlinks.add(inlink); }
 
@@ -42,17 +60,69 @@ public class Inlinks implements Writable {
   public void readFields(DataInput in) throws IOException {
     int length = in.readInt();
     inlinks.clear();
+    if (length != COMPACT) {
+      for (int i = 0; i < length; i++) {
+        add(Inlink.read(in));
+      }
+      return;
+    }
+
+    length = WritableUtils.readVInt(in);
+    String[] anchors = new String[WritableUtils.readVInt(in)];
+    for (int i = 0; i < anchors.length; i++) {
+      anchors[i] = Text.readString(in);
+    }
+    String fromUrl = "";
     for (int i = 0; i < length; i++) {
-      add(Inlink.read(in));
+      int prefix = WritableUtils.readVInt(in);
+      fromUrl = fromUrl.substring(0, prefix) + Text.readString(in);
+      add(new Inlink(fromUrl, anchors[WritableUtils.readVInt(in)]));
     }
   }
 
   public void write(DataOutput out) throws IOException {
-    out.writeInt(inlinks.size());
-    Iterator<Inlink> it = inlinks.iterator();
-    while (it.hasNext()) {
-      it.next().write(out);
+    Inlink[] sorted = inlinks.toArray(new Inlink[inlinks.size()]);
+    Arrays.sort(sorted, ORDER);
+
+    // distinct anchors in order of first use
+    HashMap<String, Integer> anchorIds = new HashMap<String, Integer>();
+    ArrayList<String> anchors = new ArrayList<String>();
+    for (Inlink inlink : sorted) {
+      if (!anchorIds.containsKey(inlink.getAnchor())) {
+        anchorIds.put(inlink.getAnchor(), anchors.size());
+        anchors.add(inlink.getAnchor());
+      }
+    }
+
+    out.writeInt(COMPACT);
+    WritableUtils.writeVInt(out, sorted.length);
+    WritableUtils.writeVInt(out, anchors.size());
+    for (String anchor : anchors) {
+      Text.writeString(out, anchor);
+    }
+    String previous = "";
+    for (Inlink inlink : sorted) {
+      String fromUrl = inlink.getFromUrl();
+      int prefix = commonPrefix(previous, fromUrl);
+      WritableUtils.writeVInt(out, prefix);
+      Text.writeString(out, fromUrl.substring(prefix));
+      WritableUtils.writeVInt(out, anchorIds.get(inlink.getAnchor()));
+      previous = fromUrl;
+    }
+  }
+
+  /** Returns the length of the common prefix, not splitting a surrogate
+   * pair. */
+  private static int commonPrefix(String s1, String s2) {
+    int max = Math.min(s1.length(), s2.length());
+    int prefix = 0;
+    while (prefix < max && s1.charAt(prefix) == s2.charAt(prefix)) {
+      prefix++;
+    }
+    if (prefix > 0 && Character.isHighSurrogate(s2.charAt(prefix - 1))) {
+      prefix--;
     }
+    return prefix;
   }
 
   public String toString() {
@@ -42,14 +42,27 @@ import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.NutchJob;
 import org.apache.nutch.util.TimingUtil;
 
-/** Maintains an inverted link map, listing incoming links for each url. */
+/** Maintains an inverted link map, listing incoming links for each url.
+ *
+ * <p>With <code>linkdb.delta</code> (or <code>-delta</code>) the links of new
+ * segments are written as a delta of the LinkDb instead of being merged in a
+ * job which rewrites the whole LinkDb. Readers merge the inlinks of the
+ * deltas with the current LinkDb, see {@link #getDeltas(FileSystem, Path)}.
+ * Deltas are compacted into the LinkDb once there are more than
+ * <code>linkdb.delta.max</code> of them, or with <code>-compact</code>.</p> */
 public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData, Text, Inlinks> {
 
   public static final Logger LOG = LoggerFactory.getLogger(LinkDb.class);
 
   public static final String IGNORE_INTERNAL_LINKS = "db.ignore.internal.links";
 
+  /** Whether to add the links of new segments as a delta. */
+  public static final String LINKDB_DELTA = "linkdb.delta";
+  /** Maximum number of deltas before they are compacted into the LinkDb. */
+  public static final String LINKDB_DELTA_MAX = "linkdb.delta.max";
+
   public static final String CURRENT_NAME = "current";
+  public static final String DELTA_NAME = "delta";
   public static final String LOCK_NAME = ".locked";
 
   private int maxAnchorLength;
@@ -152,11 +165,13 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
   }
 
   public void invert(Path linkDb, Path[] segments, boolean normalize, boolean filter, boolean force) throws IOException {
-    JobConf job = LinkDb.createJob(getConf(), linkDb, normalize, filter);
-    Path lock = new Path(linkDb, LOCK_NAME);
     FileSystem fs = FileSystem.get(getConf());
-    LockUtil.createLockFile(fs, lock, force);
     Path currentLinkDb = new Path(linkDb, CURRENT_NAME);
+    boolean delta = getConf().getBoolean(LINKDB_DELTA, false)
+      && fs.exists(currentLinkDb);
+    JobConf job = LinkDb.createJob(getConf(), linkDb, normalize, filter, delta);
+    Path lock = new Path(linkDb, LOCK_NAME);
+    LockUtil.createLockFile(fs, lock, force);
 
     SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
     long start = System.currentTimeMillis();
@@ -195,31 +210,106 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
       LockUtil.removeLockFile(fs, lock);
       throw e;
     }
-    if (fs.exists(currentLinkDb)) {
+    Path newLinkDb = FileOutputFormat.getOutputPath(job);
+    if (delta) {
+      Path deltaDir = new Path(linkDb, DELTA_NAME);
+      Path newDelta = new Path(deltaDir, Generator.generateSegmentName());
       if (LOG.isInfoEnabled()) {
-        LOG.info("LinkDb: merging with existing linkdb: " + linkDb);
+        LOG.info("LinkDb: adding delta " + newDelta);
       }
-      // try to merge
-      Path newLinkDb = FileOutputFormat.getOutputPath(job);
-      job = LinkDbMerger.createMergeJob(getConf(), linkDb, normalize, filter);
-      FileInputFormat.addInputPath(job, currentLinkDb);
-      FileInputFormat.addInputPath(job, newLinkDb);
-      try {
-        JobClient.runJob(job);
-      } catch (IOException e) {
+      fs.mkdirs(deltaDir);
+      fs.rename(newLinkDb, newDelta);
+      if (getDeltas(fs, linkDb).length <= getConf().getInt(LINKDB_DELTA_MAX, 10)) {
         LockUtil.removeLockFile(fs, lock);
+      } else {
+        if (LOG.isInfoEnabled()) {
+          LOG.info("LinkDb: compacting deltas into linkdb: " + linkDb);
+        }
+        job = LinkDbMerger.createMergeJob(getConf(), linkDb, normalize, filter);
+        addInputPaths(job, linkDb);
+        try {
+          JobClient.runJob(job);
+        } catch (IOException e) {
+          LockUtil.removeLockFile(fs, lock);
+          throw e;
+        }
+        LinkDb.install(job, linkDb);
+      }
+    } else {
+      if (fs.exists(currentLinkDb)) {
+        if (LOG.isInfoEnabled()) {
+          LOG.info("LinkDb: merging with existing linkdb: " + linkDb);
+        }
+        // try to merge
+        job = LinkDbMerger.createMergeJob(getConf(), linkDb, normalize, filter);
+        addInputPaths(job, linkDb);
+        FileInputFormat.addInputPath(job, newLinkDb);
+        try {
+          JobClient.runJob(job);
+        } catch (IOException e) {
+          LockUtil.removeLockFile(fs, lock);
+          fs.delete(newLinkDb, true);
+          throw e;
+        }
         fs.delete(newLinkDb, true);
-        throw e;
       }
-      fs.delete(newLinkDb, true);
+      LinkDb.install(job, linkDb);
     }
-    LinkDb.install(job, linkDb);
 
     long end = System.currentTimeMillis();
     LOG.info("LinkDb: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
   }
 
-  private static JobConf createJob(Configuration config, Path linkDb, boolean normalize, boolean filter) {
+  /**
+   * Compacts the deltas of a LinkDb into the current LinkDb.
+   */
+  public void compact(Path linkDb, boolean normalize, boolean filter, boolean force) throws IOException {
+    FileSystem fs = FileSystem.get(getConf());
+    Path lock = new Path(linkDb, LOCK_NAME);
+    LockUtil.createLockFile(fs, lock, force);
+    if (LOG.isInfoEnabled()) {
+      LOG.info("LinkDb: compacting deltas into linkdb: " + linkDb);
+    }
+    JobConf job = LinkDbMerger.createMergeJob(getConf(), linkDb, normalize, filter);
+    addInputPaths(job, linkDb);
+    try {
+      JobClient.runJob(job);
+    } catch (IOException e) {
+      LockUtil.removeLockFile(fs, lock);
+      throw e;
+    }
+    LinkDb.install(job, linkDb);
+  }
+
+  /**
+   * Returns the deltas of a LinkDb, oldest first. A delta holds the inlinks
+   * from the segments inverted into it, readers add them to the inlinks of
+   * the current LinkDb and of older deltas.
+   */
+  public static Path[] getDeltas(FileSystem fs, Path linkDb)
+    throws IOException {
+    Path deltaDir = new Path(linkDb, DELTA_NAME);
+    if (!fs.exists(deltaDir)) return new Path[0];
+    Path[] deltas = HadoopFSUtil.getPaths(fs.listStatus(deltaDir,
+        HadoopFSUtil.getPassDirectoriesFilter(fs)));
+    Arrays.sort(deltas);
+    return deltas;
+  }
+
+  /** Adds the current db and all its deltas as input of a job. */
+  public static void addInputPaths(JobConf job, Path linkDb)
+    throws IOException {
+    FileSystem fs = FileSystem.get(job);
+    Path current = new Path(linkDb, CURRENT_NAME);
+    if (fs.exists(current)) {
+      FileInputFormat.addInputPath(job, current);
+    }
+    for (Path delta : getDeltas(fs, linkDb)) {
+      FileInputFormat.addInputPath(job, delta);
+    }
+  }
+
+  private static JobConf createJob(Configuration config, Path linkDb, boolean normalize, boolean filter, boolean delta) {
     Path newLinkDb =
       new Path("linkdb-" +
                Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
@@ -231,11 +321,12 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
 
     job.setMapperClass(LinkDb.class);
     job.setCombinerClass(LinkDbMerger.class);
-    // if we don't run the mergeJob, perform normalization/filtering now
+    // if we don't run the mergeJob (no linkdb yet, or writing a delta),
+    // perform normalization/filtering now
     if (normalize || filter) {
       try {
         FileSystem fs = FileSystem.get(config);
-        if (!fs.exists(linkDb)) {
+        if (delta || !fs.exists(linkDb)) {
           job.setBoolean(LinkDbFilter.URL_FILTERING, filter);
           job.setBoolean(LinkDbFilter.URL_NORMALIZING, normalize);
         }
@@ -266,6 +357,13 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
     fs.mkdirs(linkDb);
     fs.rename(newLinkDb, current);
     if (fs.exists(old)) fs.delete(old, true);
+    // deltas read by the job are now part of current, newer ones are kept
+    Path deltaDir = fs.makeQualified(new Path(linkDb, DELTA_NAME));
+    for (Path input : FileInputFormat.getInputPaths(job)) {
+      if (deltaDir.equals(fs.makeQualified(input).getParent())) {
+        fs.delete(input, true);
+      }
+    }
     LockUtil.removeLockFile(fs, new Path(linkDb, LOCK_NAME));
   }
 
@@ -276,13 +374,15 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
 
   public int run(String[] args) throws Exception {
     if (args.length < 2) {
-      System.err.println("Usage: LinkDb <linkdb> (-dir <segmentsDir> | <seg1> <seg2> ...) [-force] [-noNormalize] [-noFilter]");
+      System.err.println("Usage: LinkDb <linkdb> (-dir <segmentsDir> | <seg1> <seg2> ... | -compact) [-force] [-noNormalize] [-noFilter] [-delta]");
       System.err.println("\tlinkdb\toutput LinkDb to create or update");
       System.err.println("\t-dir segmentsDir\tparent directory of several segments, OR");
-      System.err.println("\tseg1 seg2 ...\t list of segment directories");
+      System.err.println("\tseg1 seg2 ...\t list of segment directories, OR");
+      System.err.println("\t-compact\tcompact the deltas into the LinkDb");
       System.err.println("\t-force\tforce update even if LinkDb appears to be locked (CAUTION advised)");
       System.err.println("\t-noNormalize\tdon't normalize link URLs");
       System.err.println("\t-noFilter\tdon't apply URLFilters to link URLs");
+      System.err.println("\t-delta\tadd the links of the segments as a delta of an existing LinkDb");
       return -1;
     }
     Path segDir = null;
@@ -292,6 +392,7 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
     boolean filter = true;
     boolean normalize = true;
     boolean force = false;
+    boolean compact = false;
     for (int i = 1; i < args.length; i++) {
       if (args[i].equals("-dir")) {
         FileStatus[] paths = fs.listStatus(new Path(args[++i]), HadoopFSUtil.getPassDirectoriesFilter(fs));
@@ -302,9 +403,17 @@ public class LinkDb extends Configured implements Tool, Mapper<Text, ParseData,
         filter = false;
       } else if (args[i].equalsIgnoreCase("-force")) {
         force = true;
+      } else if (args[i].equalsIgnoreCase("-delta")) {
+        getConf().setBoolean(LINKDB_DELTA, true);
+      } else if (args[i].equalsIgnoreCase("-compact")) {
+        compact = true;
       } else segs.add(new Path(args[i]));
     }
     try {
+      if (compact) {
+        compact(db, normalize, filter, force);
+        return 0;
+      }
       invert(db, segs.toArray(new Path[segs.size()]), normalize, filter, force);
       return 0;
     } catch (Exception e) {
@@ -36,7 +36,9 @@ import org.apache.nutch.util.NutchJob;
 import org.apache.nutch.util.TimingUtil;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.io.Closeable;
 
 /** . */
@@ -48,6 +50,7 @@ public class LinkDbReader extends Configured implements Tool, Closeable {
   private FileSystem fs;
   private Path directory;
   private MapFile.Reader[] readers;
+  private List<MapFile.Reader[]> deltaReaders;
 
   public LinkDbReader() {
     
@@ -70,17 +73,35 @@ public class LinkDbReader extends Configured implements Tool, Closeable {
     return inlinks.getAnchors();
   }
 
+  /** Returns the inlinks of a url from the LinkDb and all its deltas. */
   public Inlinks getInlinks(Text url) throws IOException {
 
     if (readers == null) {
       synchronized(this) {
+        List<MapFile.Reader[]> deltas = new ArrayList<MapFile.Reader[]>();
+        for (Path delta : LinkDb.getDeltas(fs, directory)) {
+          deltas.add(MapFileOutputFormat.getReaders(fs, delta, getConf()));
+        }
+        deltaReaders = deltas;
         readers = MapFileOutputFormat.getReaders
           (fs, new Path(directory, LinkDb.CURRENT_NAME), getConf());
       }
     }
     
-    return (Inlinks)MapFileOutputFormat.getEntry
+    Inlinks inlinks = (Inlinks)MapFileOutputFormat.getEntry
       (readers, PARTITIONER, url, new Inlinks());
+    for (MapFile.Reader[] delta : deltaReaders) {
+      Inlinks newer = (Inlinks)MapFileOutputFormat.getEntry
+        (delta, PARTITIONER, url, new Inlinks());
+      if (newer == null) {
+        continue;
+      } else if (inlinks == null) {
+        inlinks = newer;
+      } else {
+        inlinks.add(newer);
+      }
+    }
+    return inlinks;
   }
   
   public void close() throws IOException {
@@ -88,6 +109,11 @@ public class LinkDbReader extends Configured implements Tool, Closeable {
       for (int i = 0; i < readers.length; i++) {
         readers[i].close();
       }
+      for (MapFile.Reader[] delta : deltaReaders) {
+        for (int i = 0; i < delta.length; i++) {
+          delta[i].close();
+        }
+      }
     }
   }
   
@@ -103,8 +129,10 @@ public class LinkDbReader extends Configured implements Tool, Closeable {
     JobConf job = new NutchJob(getConf());
     job.setJobName("read " + linkdb);
 
-    FileInputFormat.addInputPath(job, new Path(linkdb, LinkDb.CURRENT_NAME));
+    LinkDb.addInputPaths(job, new Path(linkdb));
     job.setInputFormat(SequenceFileInputFormat.class);
+    // merges the inlinks of the deltas
+    job.setReducerClass(LinkDbMerger.class);
 
     FileOutputFormat.setOutputPath(job, outFolder);
     job.setOutputFormat(TextOutputFormat.class);
@@ -29,6 +29,7 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.*;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.metadata.HttpHeaders;
+import org.apache.nutch.util.MimeUtil;
 import org.apache.nutch.util.NutchConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -108,8 +109,8 @@ public class MimeAdaptiveFetchSchedule extends AdaptiveFetchSchedule {
       // Get the MIME-type of the current URL
       String currentMime = datum.getMetaData().get(HttpHeaders.WRITABLE_CONTENT_TYPE).toString();
 
-      // Get rid of charset
-      currentMime = currentMime.substring(0, currentMime.indexOf(';'));
+      // Get rid of charset, the type resolved by the fetcher has none
+      currentMime = MimeUtil.cleanMimeType(currentMime);
 
       // Check if this MIME-type exists in our map
       if (mimeMap.containsKey(currentMime)) {
@@ -21,6 +21,7 @@ import java.text.SimpleDateFormat;
 import java.util.Iterator;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.ByteWritable;
 import org.apache.hadoop.io.Text;
@@ -31,6 +32,7 @@ import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.lib.NullOutputFormat;
 import org.apache.hadoop.util.StringUtils;
@@ -38,6 +40,7 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.CrawlDbLookup;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.NutchJob;
 import org.apache.nutch.util.TimingUtil;
@@ -45,13 +48,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * The class scans CrawlDB looking for entries with status DB_GONE (404) and
- * sends delete requests to indexers for those documents.
+ * The class scans CrawlDB looking for entries with status DB_GONE (404) or
+ * DB_DUPLICATE and sends delete requests to indexers for those documents.
  * 
+ * With <code>-incremental</code> only the changelogs written by CrawlDb
+ * updates since the last run are read, see {@link CrawlDb#CRAWLDB_CHANGELOG}.
+ * Deletes are partitioned by URL and sent by all reducers in parallel.
  */
 
 public class CleaningJob implements Tool {
     public static final Logger LOG = LoggerFactory.getLogger(CleaningJob.class);
+    // package private for tests
+    static final String CLEANING_CRAWLDB = "cleaning.crawldb";
+
     private Configuration conf;
 
     @Override
@@ -65,36 +74,61 @@ public class CleaningJob implements Tool {
     }
 
     public static class DBFilter implements
-            Mapper<Text, CrawlDatum, ByteWritable, Text> {
+            Mapper<Text, CrawlDatum, Text, ByteWritable> {
         private ByteWritable OUT = new ByteWritable(CrawlDatum.STATUS_DB_GONE);
 
+        // the CrawlDb, when reading changelogs
+        private CrawlDbLookup crawlDb;
+
         @Override
-        public void configure(JobConf arg0) {
+        public void configure(JobConf job) {
+            String path = job.get(CLEANING_CRAWLDB);
+            if (path != null) {
+                try {
+                    crawlDb = new CrawlDbLookup(new Path(path), job);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
         }
 
         @Override
         public void close() throws IOException {
+            if (crawlDb != null) {
+                crawlDb.close();
+            }
         }
 
         @Override
         public void map(Text key, CrawlDatum value,
-                OutputCollector<ByteWritable, Text> output, Reporter reporter)
+                OutputCollector<Text, ByteWritable> output, Reporter reporter)
                 throws IOException {
 
-            if (value.getStatus() == CrawlDatum.STATUS_DB_GONE) {
-                output.collect(OUT, key);
+            if (isDeleted(value)) {
+                if (crawlDb != null) {
+                    // the page may have come back since it was logged,
+                    // unless it was purged from the db
+                    CrawlDatum current = crawlDb.get(key);
+                    if (current != null && !isDeleted(current)) {
+                        reporter.incrCounter("CleaningJobStatus",
+                                "Skipped documents", 1);
+                        return;
+                    }
+                }
+                output.collect(key, OUT);
             }
         }
     }
 
+    private static boolean isDeleted(CrawlDatum datum) {
+        return datum.getStatus() == CrawlDatum.STATUS_DB_GONE
+                || datum.getStatus() == CrawlDatum.STATUS_DB_DUPLICATE;
+    }
+
     public static class DeleterReducer implements
-            Reducer<ByteWritable, Text, Text, ByteWritable> {
-        private static final int NUM_MAX_DELETE_REQUEST = 1000;
-        private int numDeletes = 0;
+            Reducer<Text, ByteWritable, Text, ByteWritable> {
         private int totalDeleted = 0;
 
-        private boolean noCommit = false;
-
         IndexWriters writers = null;
 
         @Override
@@ -105,72 +139,83 @@ public class CleaningJob implements Tool {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            noCommit = job.getBoolean("noCommit", false);
         }
 
         @Override
         public void close() throws IOException {
-            // BUFFERING OF CALLS TO INDEXER SHOULD BE HANDLED AT INDEXER LEVEL
-            // if (numDeletes > 0) {
-            // LOG.info("CleaningJob: deleting " + numDeletes + " documents");
-            // // TODO updateRequest.process(solr);
-            // totalDeleted += numDeletes;
-            // }
-
             writers.close();
 
-            if (totalDeleted > 0 && !noCommit) {
-                writers.commit();
-            }
-
             LOG.info("CleaningJob: deleted a total of " + totalDeleted
                     + " documents");
         }
 
         @Override
-        public void reduce(ByteWritable key, Iterator<Text> values,
+        public void reduce(Text key, Iterator<ByteWritable> values,
                 OutputCollector<Text, ByteWritable> output, Reporter reporter)
                 throws IOException {
-            while (values.hasNext()) {
-                Text document = values.next();
-                writers.delete(document.toString());
-                totalDeleted++;
-                reporter.incrCounter("CleaningJobStatus", "Deleted documents",
-                        1);
-                // if (numDeletes >= NUM_MAX_DELETE_REQUEST) {
-                // LOG.info("CleaningJob: deleting " + numDeletes
-                // + " documents");
-                // // TODO updateRequest.process(solr);
-                // // TODO updateRequest = new UpdateRequest();
-                // writers.delete(key.toString());
-                // totalDeleted += numDeletes;
-                // numDeletes = 0;
-                // }
+            if (totalDeleted == 0) {
+                writers.setReporter(reporter);
             }
+            writers.delete(key.toString());
+            totalDeleted++;
+            reporter.incrCounter("CleaningJobStatus", "Deleted documents", 1);
         }
     }
 
     public void delete(String crawldb, boolean noCommit) throws IOException {
+        delete(crawldb, noCommit, false);
+    }
+
+    public void delete(String crawldb, boolean noCommit, boolean incremental)
+            throws IOException {
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         long start = System.currentTimeMillis();
         LOG.info("CleaningJob: starting at " + sdf.format(start));
 
         JobConf job = new NutchJob(getConf());
+        FileSystem fs = FileSystem.get(job);
 
-        FileInputFormat.addInputPath(job, new Path(crawldb,
-                CrawlDb.CURRENT_NAME));
-        job.setBoolean("noCommit", noCommit);
+        // a full scan covers all changes logged so far as well
+        Path[] changelogs = CrawlDb.getChangelogs(fs, new Path(crawldb));
+        if (incremental) {
+            if (changelogs.length == 0) {
+                LOG.info("CleaningJob: no changes since last run");
+                return;
+            }
+            LOG.info("CleaningJob: reading " + changelogs.length
+                    + " changelogs");
+            for (Path changelog : changelogs) {
+                FileInputFormat.addInputPath(job, changelog);
+            }
+            job.set(CLEANING_CRAWLDB, crawldb);
+        } else {
+            FileInputFormat.addInputPath(job, new Path(crawldb,
+                    CrawlDb.CURRENT_NAME));
+        }
         job.setInputFormat(SequenceFileInputFormat.class);
         job.setOutputFormat(NullOutputFormat.class);
-        job.setMapOutputKeyClass(ByteWritable.class);
-        job.setMapOutputValueClass(Text.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(ByteWritable.class);
         job.setMapperClass(DBFilter.class);
         job.setReducerClass(DeleterReducer.class);
 
         // need to expicitely allow deletions
         job.setBoolean(IndexerMapReduce.INDEXER_DELETE, true);
 
-        JobClient.runJob(job);
+        RunningJob running = JobClient.runJob(job);
+
+        // commit once for all reducers
+        long deleted = running.getCounters().findCounter("CleaningJobStatus",
+                "Deleted documents").getCounter();
+        if (deleted > 0 && !noCommit) {
+            IndexWriters writers = new IndexWriters(job);
+            writers.open(job, "commit");
+            writers.commit();
+        }
+
+        for (Path changelog : changelogs) {
+            fs.delete(changelog, true);
+        }
 
         long end = System.currentTimeMillis();
         LOG.info("CleaningJob: finished at " + sdf.format(end) + ", elapsed: "
@@ -179,19 +224,24 @@ public class CleaningJob implements Tool {
 
     public int run(String[] args) throws IOException {
         if (args.length < 1) {
-            System.err.println("Usage: CleaningJob <crawldb> [-noCommit]");
+            System.err.println("Usage: CleaningJob <crawldb> [-noCommit] [-incremental]");
             IndexWriters writers = new IndexWriters(getConf());
             System.err.println(writers.describe());
             return 1;
         }
 
         boolean noCommit = false;
-        if (args.length == 2 && args[1].equals("-noCommit")) {
-            noCommit = true;
+        boolean incremental = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-noCommit")) {
+                noCommit = true;
+            } else if (args[i].equals("-incremental")) {
+                incremental = true;
+            }
         }
 
         try {
-            delete(args[0], noCommit);
+            delete(args[0], noCommit, incremental);
         } catch (final Exception e) {
             LOG.error("CleaningJob: " + StringUtils.stringifyException(e));
             System.err.println("ERROR CleaningJob: "
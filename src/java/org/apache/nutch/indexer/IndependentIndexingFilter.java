@@ -0,0 +1,32 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexer;
+
+/**
+ * An {@link IndexingFilter} which does not depend on the other filters and
+ * may run concurrently with them on the same document.
+ *
+ * If <code>indexingfilter.threads</code> is greater than 1, consecutive
+ * filters implementing this interface are run in parallel, each one on an
+ * empty document whose fields are then added to the document in the order
+ * of the filters. A filter implementing it must therefore only add fields
+ * (or set the weight or document metadata), must not read fields added by
+ * other filters, and must not modify the parse, datum or inlinks it is
+ * passed. It may still discard the document by returning null.
+ */
+public interface IndependentIndexingFilter extends IndexingFilter {
+}
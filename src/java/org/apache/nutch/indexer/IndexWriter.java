@@ -20,6 +20,7 @@ import java.io.IOException;
 
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.plugin.Pluggable;
 
@@ -29,6 +30,13 @@ public interface IndexWriter extends Pluggable, Configurable {
     
     public void open(JobConf job, String name) throws IOException;
 
+    /**
+     * Sets the reporter of the indexing task, to report counters and
+     * progress while waiting for the index. Not called for writers opened
+     * outside of a task, e.g. only to commit.
+     */
+    public void setReporter(Reporter reporter);
+
     public void write(NutchDocument doc) throws IOException;
 
     public void delete(String key) throws IOException;
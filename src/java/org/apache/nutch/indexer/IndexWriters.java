@@ -21,6 +21,7 @@ import java.util.HashMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.plugin.Extension;
 import org.apache.nutch.plugin.ExtensionPoint;
@@ -82,6 +83,12 @@ public class IndexWriters {
 		}
 	}
 
+	public void setReporter(Reporter reporter) {
+		for (int i = 0; i < this.indexWriters.length; i++) {
+			this.indexWriters[i].setReporter(reporter);
+		}
+	}
+
 	public void write(NutchDocument doc) throws IOException {
 		for (int i = 0; i < this.indexWriters.length; i++) {
 			try {
@@ -17,17 +17,29 @@
 package org.apache.nutch.indexer;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
@@ -36,8 +48,10 @@ import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.CrawlDbLookup;
 import org.apache.nutch.crawl.Inlinks;
 import org.apache.nutch.crawl.LinkDb;
+import org.apache.nutch.crawl.LinkDbReader;
 import org.apache.nutch.crawl.NutchWritable;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.Nutch;
@@ -62,12 +76,43 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
   public static final String INDEXER_SKIP_NOTMODIFIED = "indexer.skip.notmodified";
   public static final String URL_FILTERING = "indexer.url.filters";
   public static final String URL_NORMALIZING = "indexer.url.normalizers";
+  /** Whether to look up the CrawlDb and LinkDb records of the urls in the
+   * segments instead of reading the whole databases. */
+  public static final String INDEXER_DB_LOOKUP = "indexer.db.lookup";
+  private static final String INDEXER_CRAWLDB = "indexer.crawldb";
+  private static final String INDEXER_LINKDB = "indexer.linkdb";
+  /** The fields sent to the index writers, all if not set. */
+  public static final String INDEXER_FIELDS = "indexer.fields";
+  /** Whether the parse_text of the segments is read, set by initMRJob. */
+  private static final String INDEXER_PARSE_TEXT = "indexer.parse.text";
+  /** Whether to skip the documents unchanged since they were last indexed,
+   * compared by the fingerprint kept in their CrawlDb record. */
+  public static final String INDEXER_SKIP_UNCHANGED = "indexer.skip.unchanged";
+  /** The fields left out of the fingerprint of a document. */
+  public static final String INDEXER_FINGERPRINT_EXCLUDE = "indexer.fingerprint.exclude";
+
+  /** Passed to the filters if the parse_text is not read. */
+  private static final ParseText EMPTY_TEXT = new ParseText("");
 
   private boolean skip = false;
   private boolean delete = false;
   private boolean deleteRobotsNoIndex = false;
   private IndexingFilters filters;
+  private boolean readParseText = true;
+  private Set<String> fields;
+  private boolean skipUnchanged = false;
+  private Set<String> fingerprintExclude;
+  private DataOutputBuffer fingerprintBuffer = new DataOutputBuffer();
+  private CrawlDatum fingerprintDatum = new CrawlDatum();
+  private SequenceFile.Writer addedWriter;
+  private SequenceFile.Writer removedWriter;
+  private JobConf job;
   private ScoringFilters scfilters;
+  private Reporter reporter;
+
+  // lookups of the db datum and inlinks, if not read as input
+  private CrawlDbLookup crawlDbLookup;
+  private LinkDbReader linkDbReader;
 
   // using normalizers and/or filters
   private boolean normalize = false;
@@ -79,11 +124,19 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
 
   public void configure(JobConf job) {
     setConf(job);
+    this.job = job;
     this.filters = new IndexingFilters(getConf());
     this.scfilters = new ScoringFilters(getConf());
     this.delete = job.getBoolean(INDEXER_DELETE, false);
     this.deleteRobotsNoIndex = job.getBoolean(INDEXER_DELETE_ROBOTS_NOINDEX, false);
     this.skip = job.getBoolean(INDEXER_SKIP_NOTMODIFIED, false);
+    this.readParseText = job.getBoolean(INDEXER_PARSE_TEXT, true);
+    this.fields = getFields(job);
+    this.skipUnchanged = job.getBoolean(INDEXER_SKIP_UNCHANGED, false);
+    this.fingerprintExclude = new HashSet<String>();
+    for (String name : job.getStrings(INDEXER_FINGERPRINT_EXCLUDE, new String[0])) {
+      fingerprintExclude.add(name.trim());
+    }
 
     normalize = job.getBoolean(URL_NORMALIZING, false);
     filter = job.getBoolean(URL_FILTERING, false);
@@ -95,6 +148,135 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
     if (filter) {
       urlFilters = new URLFilters(getConf());
     }
+
+    if (job.getBoolean(INDEXER_DB_LOOKUP, false)) {
+      try {
+        crawlDbLookup = new CrawlDbLookup(new Path(job.get(INDEXER_CRAWLDB)), job);
+        if (job.get(INDEXER_LINKDB) != null) {
+          linkDbReader = new LinkDbReader(job, new Path(job.get(INDEXER_LINKDB)));
+        }
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Returns the fields sent to the index writers, or null if all fields are
+   * sent.
+   */
+  public static Set<String> getFields(Configuration conf) {
+    String[] names = conf.getStrings(INDEXER_FIELDS);
+    if (names == null || names.length == 0) {
+      return null;
+    }
+    Set<String> fields = new HashSet<String>();
+    for (String name : names) {
+      fields.add(name.trim());
+    }
+    return fields;
+  }
+
+  /**
+   * Returns the MD5 hash of the fields of a document, in order of their
+   * names. The excluded fields, which change every time a page is indexed,
+   * are left out, and so is the document weight, which follows the score.
+   */
+  private byte[] fingerprint(NutchDocument doc) throws IOException {
+    List<String> names = new ArrayList<String>(doc.getFieldNames());
+    Collections.sort(names);
+    fingerprintBuffer.reset();
+    for (String name : names) {
+      if (fingerprintExclude.contains(name)) {
+        continue;
+      }
+      NutchField field = doc.getField(name);
+      Text.writeString(fingerprintBuffer, name);
+      fingerprintBuffer.writeFloat(field.getWeight());
+      fingerprintBuffer.writeInt(field.getValues().size());
+      for (Object value : field.getValues()) {
+        Text.writeString(fingerprintBuffer, String.valueOf(value));
+      }
+    }
+    return MD5Hash.digest(fingerprintBuffer.getData(), 0,
+        fingerprintBuffer.getLength()).getDigest();
+  }
+
+  /** Subdirectories of the fingerprints in the output of the job. */
+  private static final String FINGERPRINTS_ADDED = "added";
+  private static final String FINGERPRINTS_REMOVED = "removed";
+
+  private SequenceFile.Writer createFingerprintWriter(String kind)
+      throws IOException {
+    Path file = new Path(new Path(new Path(
+        FileOutputFormat.getWorkOutputPath(job), CrawlDb.FINGERPRINT_NAME),
+        kind), FileOutputFormat.getUniqueName(job, "part"));
+    return SequenceFile.createWriter(file.getFileSystem(job), job, file,
+        Text.class, CrawlDatum.class, SequenceFile.CompressionType.BLOCK);
+  }
+
+  /**
+   * Records the fingerprint of a document sent to the index writers, or
+   * null if the document is deleted. The fingerprints are moved to the
+   * CrawlDb by {@link #installFingerprints(FileSystem, Path, Path, boolean)}
+   * and merged by its next update.
+   */
+  private void recordFingerprint(Text key, byte[] fingerprint)
+      throws IOException {
+    if (!skipUnchanged) {
+      return;
+    }
+    SequenceFile.Writer fingerprintWriter;
+    if (fingerprint != null) {
+      if (addedWriter == null) {
+        addedWriter = createFingerprintWriter(FINGERPRINTS_ADDED);
+      }
+      fingerprintWriter = addedWriter;
+    } else {
+      if (removedWriter == null) {
+        removedWriter = createFingerprintWriter(FINGERPRINTS_REMOVED);
+      }
+      fingerprintWriter = removedWriter;
+    }
+    fingerprintDatum.setStatus(CrawlDatum.STATUS_INDEX_FINGERPRINT);
+    fingerprintDatum.setFetchTime(System.currentTimeMillis());
+    fingerprintDatum.getMetaData().clear();
+    if (fingerprint != null) {
+      fingerprintDatum.getMetaData().put(Nutch.WRITABLE_INDEX_FINGERPRINT_KEY,
+          new BytesWritable(fingerprint));
+    }
+    fingerprintWriter.append(key, fingerprintDatum);
+  }
+
+  /**
+   * Moves the fingerprints written by an indexing job into its CrawlDb. The
+   * removals of deleted documents are always moved, removing a fingerprint
+   * is safe. The fingerprints of added documents are only moved if the
+   * documents were committed, otherwise they would be skipped by later jobs
+   * although they may never have reached the index.
+   */
+  static void installFingerprints(FileSystem fs, Path output, Path crawlDb,
+      boolean committed) throws IOException {
+    Path fingerprints = new Path(output, CrawlDb.FINGERPRINT_NAME);
+    CrawlDb.addFingerprints(fs, new Path(fingerprints, FINGERPRINTS_REMOVED),
+        crawlDb);
+    if (committed) {
+      CrawlDb.addFingerprints(fs, new Path(fingerprints, FINGERPRINTS_ADDED),
+          crawlDb);
+    }
+  }
+
+  /** Whether a fingerprint equals the one kept in the db datum. */
+  private static boolean isIndexed(CrawlDatum dbDatum, byte[] fingerprint) {
+    Writable indexed = dbDatum.getMetaData().get(
+        Nutch.WRITABLE_INDEX_FINGERPRINT_KEY);
+    if (!(indexed instanceof BytesWritable)) {
+      return false;
+    }
+    BytesWritable bytes = (BytesWritable)indexed;
+    return bytes.getLength() == fingerprint.length
+        && Arrays.equals(fingerprint,
+            Arrays.copyOf(bytes.getBytes(), bytes.getLength()));
   }
 
   /**
@@ -164,6 +346,7 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
   public void reduce(Text key, Iterator<NutchWritable> values,
                      OutputCollector<Text, NutchIndexAction> output, Reporter reporter)
     throws IOException {
+    this.reporter = reporter;
     Inlinks inlinks = null;
     CrawlDatum dbDatum = null;
     CrawlDatum fetchDatum = null;
@@ -173,7 +356,12 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
     while (values.hasNext()) {
       final Writable value = values.next().get(); // unwrap
       if (value instanceof Inlinks) {
-        inlinks = (Inlinks)value;
+        // the LinkDb and its deltas each hold some of the inlinks
+        if (inlinks == null) {
+          inlinks = (Inlinks)value;
+        } else {
+          inlinks.add((Inlinks)value);
+        }
       } else if (value instanceof CrawlDatum) {
         final CrawlDatum datum = (CrawlDatum)value;
         if (CrawlDatum.hasDbStatus(datum)) {
@@ -194,6 +382,7 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
 
                 NutchIndexAction action = new NutchIndexAction(null, NutchIndexAction.DELETE);
                 output.collect(key, action);
+                recordFingerprint(key, null);
                 return;
               }
               if (fetchDatum.getStatus() == CrawlDatum.STATUS_FETCH_REDIR_PERM) {
@@ -201,6 +390,7 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
 
                 NutchIndexAction action = new NutchIndexAction(null, NutchIndexAction.DELETE);
                 output.collect(key, action);
+                recordFingerprint(key, null);
                 return;
               }
             }
@@ -226,6 +416,7 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
             // Delete it!
             NutchIndexAction action = new NutchIndexAction(null, NutchIndexAction.DELETE);
             output.collect(key, action);
+            recordFingerprint(key, null);
             return;
           }
         }
@@ -236,6 +427,19 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
       }
     }
 
+    if (!readParseText) {
+      parseText = EMPTY_TEXT;
+    }
+
+    // only look up the urls which may be indexed
+    if (crawlDbLookup != null && fetchDatum != null
+        && parseText != null && parseData != null) {
+      dbDatum = crawlDbLookup.get(key);
+      if (linkDbReader != null) {
+        inlinks = linkDbReader.getInlinks(key);
+      }
+    }
+
     if (fetchDatum == null || dbDatum == null
         || parseText == null || parseData == null) {
       return;                                     // only have inlinks
@@ -247,6 +451,18 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
       return;
     }
 
+    // pages marked by the DeduplicationJob
+    if (dbDatum.getStatus() == CrawlDatum.STATUS_DB_DUPLICATE) {
+      if (delete) {
+        reporter.incrCounter("IndexerStatus", "Duplicates deleted", 1);
+        output.collect(key, new NutchIndexAction(null, NutchIndexAction.DELETE));
+        recordFingerprint(key, null);
+      } else {
+        reporter.incrCounter("IndexerStatus", "Skipped duplicates", 1);
+      }
+      return;
+    }
+
     if (!parseData.getStatus().isSuccess() ||
         fetchDatum.getStatus() != CrawlDatum.STATUS_FETCH_SUCCESS) {
       return;
@@ -299,35 +515,91 @@ implements Mapper<Text, Writable, Text, NutchWritable>,
     // store boost for use by explain and dedup
     doc.add("boost", Float.toString(boost));
 
+    // drop the fields not sent to the index writers
+    if (fields != null) {
+      Iterator<String> names = doc.getFieldNames().iterator();
+      while (names.hasNext()) {
+        if (!fields.contains(names.next())) {
+          names.remove();
+        }
+      }
+    }
+
+    // skip the documents sent unchanged by a previous job
+    if (skipUnchanged) {
+      byte[] fingerprint = fingerprint(doc);
+      if (isIndexed(dbDatum, fingerprint)) {
+        reporter.incrCounter("IndexerStatus", "Skipped unchanged", 1);
+        return;
+      }
+      recordFingerprint(key, fingerprint);
+    }
+
     reporter.incrCounter("IndexerStatus", "Documents added", 1);
 
     NutchIndexAction action = new NutchIndexAction(doc, NutchIndexAction.ADD);
     output.collect(key, action);
   }
 
-  public void close() throws IOException { }
+  public void close() throws IOException {
+    scfilters.reportTimings(reporter);
+    filters.reportTimings(reporter);
+    filters.close();
+    if (addedWriter != null) {
+      addedWriter.close();
+    }
+    if (removedWriter != null) {
+      removedWriter.close();
+    }
+    if (crawlDbLookup != null) {
+      crawlDbLookup.close();
+    }
+    if (linkDbReader != null) {
+      linkDbReader.close();
+    }
+  }
 
   public static void initMRJob(Path crawlDb, Path linkDb,
                            Collection<Path> segments,
-                           JobConf job) {
+                           JobConf job) throws IOException {
 
     LOG.info("IndexerMapReduce: crawldb: " + crawlDb);
     
     if (linkDb!=null)
       LOG.info("IndexerMapReduce: linkdb: " + linkDb);
 
+    // skip the text of the segments if no indexing filter reads it
+    boolean readParseText = new IndexingFilters(job)
+        .needsParseText(getFields(job));
+    job.setBoolean(INDEXER_PARSE_TEXT, readParseText);
+    if (!readParseText) {
+      LOG.info("IndexerMapReduce: no indexing filter needs the parse text, "
+          + "not reading " + ParseText.DIR_NAME);
+    }
+
     for (final Path segment : segments) {
       LOG.info("IndexerMapReduces: adding segment: " + segment);
       FileInputFormat.addInputPath(job, new Path(segment, CrawlDatum.FETCH_DIR_NAME));
       FileInputFormat.addInputPath(job, new Path(segment, CrawlDatum.PARSE_DIR_NAME));
       FileInputFormat.addInputPath(job, new Path(segment, ParseData.DIR_NAME));
-      FileInputFormat.addInputPath(job, new Path(segment, ParseText.DIR_NAME));
+      if (readParseText) {
+        FileInputFormat.addInputPath(job, new Path(segment, ParseText.DIR_NAME));
+      }
     }
 
-    FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
-    
-    if (linkDb!=null)
-	  FileInputFormat.addInputPath(job, new Path(linkDb, LinkDb.CURRENT_NAME));
+    if (job.getBoolean(INDEXER_DB_LOOKUP, false)) {
+      // only the urls in the segments are shuffled, the reducers look up
+      // their db datum and inlinks
+      LOG.info("IndexerMapReduce: looking up crawldb and linkdb records");
+      job.set(INDEXER_CRAWLDB, crawlDb.toString());
+      if (linkDb != null)
+        job.set(INDEXER_LINKDB, linkDb.toString());
+    } else {
+      FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
+
+      if (linkDb!=null)
+        LinkDb.addInputPaths(job, linkDb);
+    }
     
     job.setInputFormat(SequenceFileInputFormat.class);
 
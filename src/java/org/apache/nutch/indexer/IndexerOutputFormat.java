@@ -37,6 +37,9 @@ public class IndexerOutputFormat extends
         final IndexWriters writers = new IndexWriters(job);
 
         writers.open(job, name);
+        if (progress instanceof Reporter) {
+            writers.setReporter((Reporter) progress);
+        }
 
         return new RecordWriter<Text, NutchIndexAction>() {
 
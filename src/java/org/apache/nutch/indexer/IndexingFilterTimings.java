@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.indexer;
+
+import java.lang.management.ManagementFactory;
+
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.util.LatencyHistogram;
+
+/**
+ * Call counts, total time, allocated bytes and latency histograms of the
+ * {@link IndexingFilter}s. Kept by {@link IndexingFilters} if
+ * <code>indexingfilter.timing</code> is true.
+ *
+ * A filter is only run by one thread at a time and the threads are joined
+ * before the next document, so the counts of a filter are only written by
+ * one thread at a time. Reading them while documents are filtered is not
+ * safe.
+ */
+class IndexingFilterTimings {
+
+  static final String COUNTER_GROUP = "IndexingFilters";
+
+  /** Null if the JVM does not count the bytes allocated per thread. */
+  private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+  private static com.sun.management.ThreadMXBean threads() {
+    try {
+      Object bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean threads =
+          (com.sun.management.ThreadMXBean)bean;
+        if (threads.isThreadAllocatedMemorySupported()
+            && threads.isThreadAllocatedMemoryEnabled()) {
+          return threads;
+        }
+      }
+    } catch (LinkageError e) {
+      // not a HotSpot compatible JVM
+    }
+    return null;
+  }
+
+  /** Returns the bytes allocated so far by the current thread, or 0 if
+   * not known. */
+  static long allocatedBytes() {
+    if (THREADS == null) {
+      return 0;
+    }
+    return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private String[] names;
+  private LatencyHistogram[] histograms;
+
+  /** @param names the names of the filters, in order of the filters */
+  IndexingFilterTimings(String[] names) {
+    this.names = names;
+    histograms = new LatencyHistogram[names.length];
+    for (int i = 0; i < names.length; i++) {
+      histograms[i] = new LatencyHistogram();
+    }
+  }
+
+  /** Records a call of a filter on the current thread which started at a
+   * {@link System#nanoTime()} and after {@link #allocatedBytes()}. */
+  void record(int filter, long start, long startBytes) {
+    histograms[filter].record(System.nanoTime() - start,
+      allocatedBytes() - startBytes);
+  }
+
+  long getCalls(int filter) {
+    return histograms[filter].getCalls();
+  }
+
+  long getAllocatedBytes(int filter) {
+    return histograms[filter].getAllocatedBytes();
+  }
+
+  /** Increments the counters of calls, microseconds and allocated bytes per
+   * filter by what was recorded since the previous call. */
+  void report(Reporter reporter) {
+    for (int i = 0; i < names.length; i++) {
+      histograms[i].report(reporter, COUNTER_GROUP, names[i], THREADS != null);
+    }
+  }
+
+  /** Returns one line per called filter with the number of calls, total and
+   * mean time, latency percentiles and mean allocated bytes. */
+  public String toString() {
+    StringBuilder buffer = new StringBuilder();
+    for (int i = 0; i < names.length; i++) {
+      histograms[i].append(buffer, names[i], THREADS != null);
+    }
+    return buffer.toString();
+  }
+}
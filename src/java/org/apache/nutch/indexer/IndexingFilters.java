@@ -18,7 +18,16 @@
 package org.apache.nutch.indexer;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 // Commons Logging imports
 import org.slf4j.Logger;
@@ -30,17 +39,38 @@ import org.apache.nutch.util.ObjectCache;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.Inlinks;
+import org.apache.nutch.metadata.Metadata;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Reporter;
 
-/** Creates and caches {@link IndexingFilter} implementing plugins.*/
+/**
+ * Creates and caches {@link IndexingFilter} implementing plugins.
+ *
+ * <p>If <code>indexingfilter.threads</code> is greater than 1, consecutive
+ * {@link IndependentIndexingFilter}s are run in parallel on every document.
+ * If <code>indexingfilter.timing</code> is true the calls of every filter are
+ * counted and timed, see {@link #reportTimings(Reporter)}.</p>
+ */
 public class IndexingFilters {
 
   public static final String INDEXINGFILTER_ORDER = "indexingfilter.order";
 
+  public static final String INDEXINGFILTER_TIMING = "indexingfilter.timing";
+
+  public static final String INDEXINGFILTER_THREADS = "indexingfilter.threads";
+
   public final static Logger LOG = LoggerFactory.getLogger(IndexingFilters.class);
 
   private IndexingFilter[] indexingFilters;
 
+  /** Null unless timing is enabled. */
+  private IndexingFilterTimings timings;
+
+  private int threads;
+
+  /** Runs independent filters in parallel, created on first use. */
+  private ExecutorService executor;
+
   public IndexingFilters(Configuration conf) {
     /* Get indexingfilter.order property */
     String order = conf.get(INDEXINGFILTER_ORDER);
@@ -100,18 +130,204 @@ public class IndexingFilters {
       this.indexingFilters = (IndexingFilter[]) objectCache
           .getObject(IndexingFilter.class.getName());
     }
-  }                  
+    init(conf);
+  }
+
+  /** Runs the given filters, in order. */
+  IndexingFilters(IndexingFilter[] filters, Configuration conf) {
+    this.indexingFilters = filters;
+    init(conf);
+  }
+
+  private void init(Configuration conf) {
+    if (conf.getBoolean(INDEXINGFILTER_TIMING, false)) {
+      String[] names = new String[indexingFilters.length];
+      for (int i = 0; i < indexingFilters.length; i++) {
+        names[i] = indexingFilters[i].getClass().getSimpleName();
+      }
+      timings = new IndexingFilterTimings(names);
+    }
+    threads = conf.getInt(INDEXINGFILTER_THREADS, 1);
+  }
+
+  /**
+   * Returns true if one of the filters reads the text of the parse, either
+   * because it declares it or because it is not an
+   * {@link InputAwareIndexingFilter}.
+   *
+   * @param fields the fields sent to the index writers, or null for all
+   */
+  public boolean needsParseText(Collection<String> fields) {
+    for (IndexingFilter filter : this.indexingFilters) {
+      if (!(filter instanceof InputAwareIndexingFilter)
+          || ((InputAwareIndexingFilter)filter).needsParseText(fields)) {
+        return true;
+      }
+    }
+    return false;
+  }
 
   /** Run all defined filters. */
   public NutchDocument filter(NutchDocument doc, Parse parse, Text url, CrawlDatum datum,
       Inlinks inlinks) throws IndexingException {
-    for (int i = 0; i < this.indexingFilters.length; i++) {
-      doc = this.indexingFilters[i].filter(doc, parse, url, datum, inlinks);
-      // break the loop if an indexing filter discards the doc
-      if (doc == null) return null;
+    int i = 0;
+    while (i < this.indexingFilters.length && doc != null) {
+      // consecutive independent filters run in parallel
+      int end = i + 1;
+      if (threads > 1) {
+        while (end < this.indexingFilters.length
+            && this.indexingFilters[end - 1] instanceof IndependentIndexingFilter
+            && this.indexingFilters[end] instanceof IndependentIndexingFilter) {
+          end++;
+        }
+      }
+      if (end - i == 1) {
+        doc = run(i, doc, parse, url, datum, inlinks);
+      } else {
+        doc = runParallel(i, end, doc, parse, url, datum, inlinks);
+      }
+      i = end;
     }
 
     return doc;
   }
 
+  private NutchDocument run(int filter, NutchDocument doc, Parse parse,
+      Text url, CrawlDatum datum, Inlinks inlinks) throws IndexingException {
+    if (timings == null) {
+      return this.indexingFilters[filter].filter(doc, parse, url, datum, inlinks);
+    }
+    long start = System.nanoTime();
+    long startBytes = IndexingFilterTimings.allocatedBytes();
+    try {
+      return this.indexingFilters[filter].filter(doc, parse, url, datum, inlinks);
+    } finally {
+      timings.record(filter, start, startBytes);
+    }
+  }
+
+  /**
+   * Runs the filters from start to end in parallel, the first one on the
+   * document, the others on empty documents whose fields are added to it.
+   */
+  private NutchDocument runParallel(int start, int end,
+      final NutchDocument doc, final Parse parse, final Text url,
+      final CrawlDatum datum, final Inlinks inlinks) throws IndexingException {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+        private int count = 0;
+        public synchronized Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "IndexingFilters-" + count++);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    List<Future<NutchDocument>> results =
+      new ArrayList<Future<NutchDocument>>(end - start - 1);
+    for (int i = start + 1; i < end; i++) {
+      final int filter = i;
+      results.add(executor.submit(new Callable<NutchDocument>() {
+        public NutchDocument call() throws IndexingException {
+          return run(filter, new NutchDocument(), parse, url, datum, inlinks);
+        }
+      }));
+    }
+
+    NutchDocument result = null;
+    IndexingException failure = null;
+    try {
+      result = run(start, doc, parse, url, datum, inlinks);
+    } catch (IndexingException e) {
+      failure = e;
+    }
+    // wait for all filters, they must not run on the next document
+    List<NutchDocument> others = new ArrayList<NutchDocument>(results.size());
+    boolean interrupted = false;
+    for (Future<NutchDocument> future : results) {
+      while (true) {
+        try {
+          others.add(future.get());
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IndexingException) {
+              failure = (IndexingException)cause;
+            } else if (cause instanceof RuntimeException) {
+              throw (RuntimeException)cause;
+            } else {
+              failure = new IndexingException(cause);
+            }
+          }
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+
+    for (NutchDocument other : others) {
+      if (result == null || other == null) {
+        return null;
+      }
+      merge(other, result);
+    }
+    return result;
+  }
+
+  /** Adds the fields, weight and metadata of a document to another one. */
+  private static void merge(NutchDocument from, NutchDocument to) {
+    for (Entry<String, NutchField> entry : from) {
+      NutchField field = to.getField(entry.getKey());
+      for (Object value : entry.getValue().getValues()) {
+        to.add(entry.getKey(), value);
+      }
+      if (field == null) {
+        to.getField(entry.getKey()).setWeight(entry.getValue().getWeight());
+      }
+    }
+    if (from.getWeight() != 1.0f) {
+      to.setWeight(from.getWeight());
+    }
+    Metadata meta = from.getDocumentMeta();
+    for (String name : meta.names()) {
+      for (String value : meta.getValues(name)) {
+        to.getDocumentMeta().add(name, value);
+      }
+    }
+  }
+
+  /**
+   * If timing is enabled, adds the calls, time and allocated bytes of each
+   * filter since the previous report to the counters of the task and logs a
+   * summary with latency percentiles. Meant to be called when a task closes.
+   */
+  public void reportTimings(Reporter reporter) {
+    if (timings == null) {
+      return;
+    }
+    if (reporter != null) {
+      timings.report(reporter);
+    }
+    String summary = timings.toString();
+    if (summary.length() > 0 && LOG.isInfoEnabled()) {
+      LOG.info("Indexing filter timings:\n" + summary);
+    }
+  }
+
+  /** Stops the threads running filters in parallel. */
+  public void close() {
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
 }
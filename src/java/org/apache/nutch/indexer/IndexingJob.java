@@ -126,6 +126,10 @@ public class IndexingJob extends Configured implements Tool {
                 writers.open(job,"commit");
                 writers.commit();
             }
+            // merged into the crawldb by its next update, the fingerprints
+            // of added documents only if they were committed
+            IndexerMapReduce.installFingerprints(FileSystem.get(job), tmp,
+                    crawlDb, !noCommit);
             long end = System.currentTimeMillis();
             LOG.info("Indexer: finished at " + sdf.format(end) + ", elapsed: "
                     + TimingUtil.elapsedTime(start, end));
@@ -137,7 +141,7 @@ public class IndexingJob extends Configured implements Tool {
     public int run(String[] args) throws Exception {
         if (args.length < 2) {
             System.err
-                    .println("Usage: Indexer <crawldb> [-linkdb <linkdb>] [-params k1=v1&k2=v2...] (<segment> ... | -dir <segments>) [-noCommit] [-deleteGone] [-filter] [-normalize]");
+                    .println("Usage: Indexer <crawldb> [-linkdb <linkdb>] [-params k1=v1&k2=v2...] (<segment> ... | -dir <segments>) [-noCommit] [-deleteGone] [-filter] [-normalize] [-lookup]");
             IndexWriters writers = new IndexWriters(getConf());
             System.err.println(writers.describe());
             return -1;
@@ -174,6 +178,8 @@ public class IndexingJob extends Configured implements Tool {
                 filter = true;
             } else if (args[i].equals("-normalize")) {
                 normalize = true;
+            } else if (args[i].equals("-lookup")) {
+                getConf().setBoolean(IndexerMapReduce.INDEXER_DB_LOOKUP, true);
             } else if (args[i].equals("-params")) {
                 params = args[++i];
             } else {
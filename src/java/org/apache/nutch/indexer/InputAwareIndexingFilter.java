@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexer;
+
+import java.util.Collection;
+
+/**
+ * An {@link IndexingFilter} which declares the inputs it reads.
+ *
+ * The indexer does not read the <code>parse_text</code> of the segments if
+ * none of the configured filters needs it, the filters are then passed an
+ * empty text. Filters not implementing this interface are assumed to need
+ * the text.
+ */
+public interface InputAwareIndexingFilter extends IndexingFilter {
+
+  /**
+   * Returns true if the filter reads the text of the parse.
+   *
+   * @param fields the fields sent to the index writers, see
+   * <code>indexer.fields</code>, or null if all fields are sent
+   */
+  public boolean needsParseText(Collection<String> fields);
+}
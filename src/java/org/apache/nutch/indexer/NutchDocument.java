@@ -35,7 +35,7 @@ import org.apache.nutch.metadata.Metadata;
 public class NutchDocument
 implements Writable, Iterable<Entry<String, NutchField>> {
 
-  public static final byte VERSION = 2;
+  public static final byte VERSION = 3;
   
   private Map<String, NutchField> fields;
 
@@ -102,14 +102,19 @@ implements Writable, Iterable<Entry<String, NutchField>> {
   public void readFields(DataInput in) throws IOException {
     fields.clear();
     byte version = in.readByte();
-    if (version != VERSION) {
+    if (version != VERSION && version != 2) {
       throw new VersionMismatchException(VERSION, version);
     }
     int size = WritableUtils.readVInt(in);
     for (int i = 0; i < size; i++) {
-      String name = Text.readString(in);
+      // the few field names are shared by all documents
+      String name = Text.readString(in).intern();
       NutchField field = new NutchField();
-      field.readFields(in);
+      if (version == 2) {
+        field.readOldFields(in);
+      } else {
+        field.readFields(in);
+      }
       fields.put(name, field);
     }
     weight = in.readFloat();
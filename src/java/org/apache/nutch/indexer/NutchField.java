@@ -80,8 +80,51 @@ public class NutchField implements Writable {
     return result;
   }
   
+  // type tags of the values
+  private static final byte STRING = 0;
+  private static final byte BOOLEAN = 1;
+  private static final byte INTEGER = 2;
+  private static final byte LONG = 3;
+  private static final byte FLOAT = 4;
+  private static final byte DATE = 5;
+
   @Override
   public void readFields(DataInput in) throws IOException {
+    weight = in.readFloat();
+    int count = WritableUtils.readVInt(in);
+    values = new ArrayList<Object>(count);
+    for (int i = 0; i < count; i++) {
+      byte type = in.readByte();
+      switch (type) {
+      case STRING:
+        values.add(Text.readString(in));
+        break;
+      case BOOLEAN:
+        values.add(in.readBoolean());
+        break;
+      case INTEGER:
+        values.add(WritableUtils.readVInt(in));
+        break;
+      case LONG:
+        values.add(WritableUtils.readVLong(in));
+        break;
+      case FLOAT:
+        values.add(in.readFloat());
+        break;
+      case DATE:
+        values.add(new Date(WritableUtils.readVLong(in)));
+        break;
+      default:
+        throw new IOException("Unknown value type " + type);
+      }
+    }
+  }
+
+  /**
+   * Reads a field written by {@link NutchDocument} version 2, with the class
+   * name of every value.
+   */
+  void readOldFields(DataInput in) throws IOException {
     weight = in.readFloat();
     int count = in.readInt();
     values = new ArrayList<Object>();
@@ -94,6 +137,8 @@ public class NutchField implements Writable {
         values.add(in.readBoolean());
       } else if (type.equals("java.lang.Integer")) {
         values.add(in.readInt());
+      } else if (type.equals("java.lang.Long")) {
+        values.add(in.readLong());
       } else if (type.equals("java.lang.Float")) {
         values.add(in.readFloat());
       } else if (type.equals("java.util.Date")) {
@@ -102,27 +147,33 @@ public class NutchField implements Writable {
     }
   }
 
+  /**
+   * Writes every value with a one byte type tag. Values of other types are
+   * written as their string.
+   */
   @Override
   public void write(DataOutput out) throws IOException {
     out.writeFloat(weight);
-    out.writeInt(values.size());
+    WritableUtils.writeVInt(out, values.size());
     for (Object value : values) {
-    
-      Text.writeString(out, value.getClass().getName());
-        
       if (value instanceof Boolean) {
+        out.writeByte(BOOLEAN);
         out.writeBoolean((Boolean)value);
       } else if (value instanceof Integer) {
-        out.writeInt((Integer)value);
+        out.writeByte(INTEGER);
+        WritableUtils.writeVInt(out, (Integer)value);
       } else if (value instanceof Long) {
-        out.writeLong((Long)value);
+        out.writeByte(LONG);
+        WritableUtils.writeVLong(out, (Long)value);
       } else if (value instanceof Float) {
+        out.writeByte(FLOAT);
         out.writeFloat((Float)value);
-      } else if (value instanceof String) {
-        Text.writeString(out, (String)value);
       } else if (value instanceof Date) {
-        Date date = (Date)value;
-        out.writeLong(date.getTime());
+        out.writeByte(DATE);
+        WritableUtils.writeVLong(out, ((Date)value).getTime());
+      } else {
+        out.writeByte(STRING);
+        Text.writeString(out, value.toString());
       }
     }
   }
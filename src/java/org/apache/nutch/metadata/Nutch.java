@@ -71,4 +71,9 @@ public interface Nutch {
   public static final String FIXED_INTERVAL_KEY = "fixedInterval";
 
   public static final Text WRITABLE_FIXED_INTERVAL_KEY = new Text(FIXED_INTERVAL_KEY);
+
+  /** Fingerprint of the document last sent to the index writers. */
+  public static final String INDEX_FINGERPRINT_KEY = "_ifp_";
+
+  public static final Text WRITABLE_INDEX_FINGERPRINT_KEY = new Text(INDEX_FINGERPRINT_KEY);
 }
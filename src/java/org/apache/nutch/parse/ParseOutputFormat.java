@@ -284,6 +284,7 @@ public class ParseOutputFormat implements OutputFormat<Text, Parse> {
           textOut.close();
           dataOut.close();
           crawlOut.close();
+          scfilters.reportTimings(reporter);
         }
         
       };
@@ -18,6 +18,7 @@
 package org.apache.nutch.parse;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import org.apache.hadoop.io.*;
 import org.apache.hadoop.util.GenericOptionsParser;
 import org.apache.hadoop.fs.*;
@@ -26,6 +27,7 @@ import org.apache.commons.cli.Options;
 import org.apache.nutch.util.NutchConfiguration;
 
 /* The text conversion of page's content, stored using gzip compression.
+ * The text read is only decoded when first asked for.
  * @see Parse#getText()
  */
 public final class ParseText implements Writable {
@@ -33,8 +35,13 @@ public final class ParseText implements Writable {
 
   private final static byte VERSION = 2;
 
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
   public ParseText() {}
   private String text;
+
+  /* the UTF-8 encoded text read, until decoded */
+  private byte[] bytes;
     
   public ParseText(String text){
     this.text = text;
@@ -45,18 +52,27 @@ public final class ParseText implements Writable {
     switch (version) {
     case 1:
       text = WritableUtils.readCompressedString(in);
+      bytes = null;
       break;
     case VERSION:
-      text = Text.readString(in);
-      break;
+      bytes = new byte[WritableUtils.readVInt(in)];
+      in.readFully(bytes);
+      text = null;
+      return;
     default:
       throw new VersionMismatchException(VERSION, version);
     }
   }
 
-  public final void write(DataOutput out) throws IOException {
+  public final synchronized void write(DataOutput out) throws IOException {
     out.write(VERSION);
-    Text.writeString(out, text);
+    if (text == null && bytes != null) {
+      // written as read
+      WritableUtils.writeVInt(out, bytes.length);
+      out.write(bytes);
+    } else {
+      Text.writeString(out, text);
+    }
   }
 
   public final static ParseText read(DataInput in) throws IOException {
@@ -68,17 +84,24 @@ public final class ParseText implements Writable {
   //
   // Accessor methods
   //
-  public String getText()  { return text; }
+  /** Synchronized, as parallel indexing filters may share the text. */
+  public synchronized String getText() {
+    if (text == null && bytes != null) {
+      text = new String(bytes, UTF8);
+      bytes = null;
+    }
+    return text;
+  }
 
   public boolean equals(Object o) {
     if (!(o instanceof ParseText))
       return false;
     ParseText other = (ParseText)o;
-    return this.text.equals(other.text);
+    return this.getText().equals(other.getText());
   }
 
   public String toString() {
-    return text;
+    return getText();
   }
 
   public static void main(String argv[]) throws Exception {
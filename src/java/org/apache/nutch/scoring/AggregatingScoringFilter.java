@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring;
+
+/**
+ * A {@link ScoringFilter} which is able to compute the updated CrawlDb score
+ * of a page by streaming over its inlinks, instead of requiring a list of
+ * them.
+ * 
+ * During CrawlDb update the inlinks of a page have to be copied and kept
+ * in a bounded priority queue (see <code>db.update.max.inlinks</code>) only
+ * as long as one of the configured filters does not implement this
+ * interface. Filters implementing it see all inlinks of a page, not only
+ * the ones kept in the queue.
+ */
+public interface AggregatingScoringFilter extends ScoringFilter {
+
+  /**
+   * Returns a new {@link InlinkAggregator} for this filter, or null if the
+   * filter does not use inlinks at all when updating the score. In the
+   * latter case {@link #updateDbScore(org.apache.hadoop.io.Text,
+   * org.apache.nutch.crawl.CrawlDatum, org.apache.nutch.crawl.CrawlDatum,
+   * java.util.List)} is called with an empty list.
+   */
+  public InlinkAggregator getInlinkAggregator();
+}
@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring;
+
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDatum;
+
+/**
+ * Folds the score contributions of inlinks into a page's score during
+ * CrawlDb update, one inlink at a time. Instances are obtained from
+ * {@link AggregatingScoringFilter#getInlinkAggregator()} and are used for
+ * one page after another by a single thread.
+ */
+public interface InlinkAggregator {
+
+  /**
+   * Start aggregating the inlinks of a page, discarding any state kept
+   * for the previous page.
+   * @param url url of the page
+   */
+  public void reset(Text url);
+
+  /**
+   * Add the contribution of an inlink.
+   * @param url url of the page
+   * @param inlinked datum from a link pointing to this page. NOTE: this
+   * instance is reused by the caller, implementations have to copy any
+   * values they want to keep.
+   * @throws ScoringFilterException
+   */
+  public void aggregate(Text url, CrawlDatum inlinked) throws ScoringFilterException;
+
+  /**
+   * Calculate the new score of the page from the aggregated inlinks, see
+   * {@link ScoringFilter#updateDbScore(Text, CrawlDatum, CrawlDatum, java.util.List)}.
+   * @param url url of the page
+   * @param old original datum, may be null if this is a newly discovered page
+   * @param datum the new datum, filters should update this in-place
+   * @throws ScoringFilterException
+   */
+  public void updateDbScore(Text url, CrawlDatum old, CrawlDatum datum)
+      throws ScoringFilterException;
+}
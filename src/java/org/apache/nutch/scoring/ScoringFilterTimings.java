@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.scoring;
+
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.util.LatencyHistogram;
+
+/**
+ * Call counts, total time and latency histograms of the {@link ScoringFilter}
+ * methods, per filter. Kept by {@link ScoringFilters} if
+ * <code>scoring.filter.timing</code> is true. Not thread-safe, like
+ * {@link ScoringFilters} instances are not shared between threads.
+ */
+class ScoringFilterTimings {
+
+  static final String COUNTER_GROUP = "ScoringFilters";
+
+  /** The timed methods. */
+  enum Method {
+    injectedScore,
+    initialScore,
+    generatorSortValue,
+    aggregateInlink,
+    updateDbScore,
+    passScoreBeforeParsing,
+    passScoreAfterParsing,
+    distributeScoreToOutlinks,
+    indexerScore
+  }
+
+  private String[] names;
+  private LatencyHistogram[][] histograms;
+
+  /** @param names the names of the filters, in order of the filters */
+  ScoringFilterTimings(String[] names) {
+    int methods = Method.values().length;
+    this.names = names;
+    histograms = new LatencyHistogram[names.length][methods];
+    for (int i = 0; i < names.length; i++) {
+      for (int m = 0; m < methods; m++) {
+        histograms[i][m] = new LatencyHistogram();
+      }
+    }
+  }
+
+  /** Records a call of a filter method which started at a
+   * {@link System#nanoTime()}. */
+  void record(int filter, Method method, long start) {
+    histograms[filter][method.ordinal()].record(System.nanoTime() - start);
+  }
+
+  long getCalls(int filter, Method method) {
+    return histograms[filter][method.ordinal()].getCalls();
+  }
+
+  /** Returns an upper bound in microseconds of the given percentile of the
+   * call latencies, taken from the histogram. */
+  long getPercentile(int filter, Method method, double percentile) {
+    return histograms[filter][method.ordinal()].getPercentile(percentile);
+  }
+
+  /** Increments the counters of calls and microseconds per filter method
+   * by what was recorded since the previous call. */
+  void report(Reporter reporter) {
+    for (int i = 0; i < names.length; i++) {
+      for (Method method : Method.values()) {
+        histograms[i][method.ordinal()].report(reporter, COUNTER_GROUP,
+          names[i] + "." + method, false);
+      }
+    }
+  }
+
+  /** Returns one line per called filter method with the number of calls,
+   * total and mean time and latency percentiles. */
+  public String toString() {
+    StringBuilder buffer = new StringBuilder();
+    for (int i = 0; i < names.length; i++) {
+      for (Method method : Method.values()) {
+        histograms[i][method.ordinal()].append(buffer,
+          names[i] + "." + method, false);
+      }
+    }
+    return buffer.toString();
+  }
+}
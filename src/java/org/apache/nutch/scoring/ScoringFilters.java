@@ -18,6 +18,7 @@
 package org.apache.nutch.scoring;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map.Entry;
@@ -32,21 +33,40 @@ import org.apache.nutch.plugin.ExtensionPoint;
 import org.apache.nutch.plugin.PluginRuntimeException;
 import org.apache.nutch.plugin.PluginRepository;
 import org.apache.nutch.protocol.Content;
+import org.apache.nutch.scoring.ScoringFilterTimings.Method;
 import org.apache.nutch.util.ObjectCache;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Creates and caches {@link ScoringFilter} implementing plugins.
  * 
+ * <p>If <code>scoring.filter.timing</code> is true the calls of every filter
+ * method are counted and timed, see {@link #reportTimings(Reporter)}.</p>
+ * 
  * @author Andrzej Bialecki
  */
 public class ScoringFilters extends Configured implements ScoringFilter {
 
+  public static final Logger LOG = LoggerFactory.getLogger(ScoringFilters.class);
+
+  /** Whether to count and time the calls of the filters. */
+  public static final String SCORING_FILTER_TIMING = "scoring.filter.timing";
+
   private ScoringFilter[] filters;
 
+  /** Null unless timing is enabled. */
+  private ScoringFilterTimings timings;
+
+  /** Aggregators of the filters, null for filters requiring the inlink list. */
+  private InlinkAggregator[] aggregators;
+  private boolean inlinkListRequired;
+
   public ScoringFilters(Configuration conf) {
     super(conf);
     ObjectCache objectCache = ObjectCache.get(conf);
@@ -86,12 +106,89 @@ public class ScoringFilters extends Configured implements ScoringFilter {
       }
       this.filters = (ScoringFilter[]) objectCache.getObject(ScoringFilter.class.getName());
     }
+    this.aggregators = new InlinkAggregator[filters.length];
+    for (int i = 0; i < filters.length; i++) {
+      if (filters[i] instanceof AggregatingScoringFilter) {
+        aggregators[i] = ((AggregatingScoringFilter) filters[i]).getInlinkAggregator();
+      } else {
+        inlinkListRequired = true;
+      }
+    }
+    if (conf.getBoolean(SCORING_FILTER_TIMING, false)) {
+      String[] names = new String[filters.length];
+      for (int i = 0; i < filters.length; i++) {
+        names[i] = filters[i].getClass().getSimpleName();
+      }
+      timings = new ScoringFilterTimings(names);
+    }
+  }
+
+  private long start() {
+    return timings == null ? 0 : System.nanoTime();
+  }
+
+  private void stop(int filter, Method method, long start) {
+    if (timings != null) {
+      timings.record(filter, method, start);
+    }
+  }
+
+  /**
+   * If timing is enabled, adds the calls and time of each filter method since
+   * the previous report to the counters of the task and logs a summary with
+   * latency percentiles. Meant to be called when a task closes.
+   */
+  public void reportTimings(Reporter reporter) {
+    if (timings == null) {
+      return;
+    }
+    if (reporter != null) {
+      timings.report(reporter);
+    }
+    String summary = timings.toString();
+    if (summary.length() > 0 && LOG.isInfoEnabled()) {
+      LOG.info("Scoring filter timings:\n" + summary);
+    }
+  }
+
+  /**
+   * Returns true if at least one of the filters is not an
+   * {@link AggregatingScoringFilter} and needs the list of inlinks passed to
+   * {@link #updateAggregatedDbScore(Text, CrawlDatum, CrawlDatum, List)}.
+   */
+  public boolean isInlinkListRequired() {
+    return inlinkListRequired;
+  }
+
+  /** Start aggregating the inlinks of a page during CrawlDb.update(). */
+  public void startInlinks(Text url) {
+    for (int i = 0; i < this.aggregators.length; i++) {
+      if (this.aggregators[i] != null) {
+        this.aggregators[i].reset(url);
+      }
+    }
+  }
+
+  /**
+   * Pass a single inlink to the filters able to aggregate them, the datum
+   * may be reused after this call.
+   */
+  public void aggregateInlink(Text url, CrawlDatum inlinked) throws ScoringFilterException {
+    for (int i = 0; i < this.aggregators.length; i++) {
+      if (this.aggregators[i] != null) {
+        long start = start();
+        this.aggregators[i].aggregate(url, inlinked);
+        stop(i, Method.aggregateInlink, start);
+      }
+    }
   }
 
   /** Calculate a sort value for Generate. */
   public float generatorSortValue(Text url, CrawlDatum datum, float initSort) throws ScoringFilterException {
     for (int i = 0; i < this.filters.length; i++) {
+      long start = start();
       initSort = this.filters[i].generatorSortValue(url, datum, initSort);
+      stop(i, Method.generatorSortValue, start);
     }
     return initSort;
   }
@@ -99,46 +196,83 @@ public class ScoringFilters extends Configured implements ScoringFilter {
   /** Calculate a new initial score, used when adding newly discovered pages. */
   public void initialScore(Text url, CrawlDatum datum) throws ScoringFilterException {
     for (int i = 0; i < this.filters.length; i++) {
+      long start = start();
       this.filters[i].initialScore(url, datum);
+      stop(i, Method.initialScore, start);
     }
   }
 
   /** Calculate a new initial score, used when injecting new pages. */
   public void injectedScore(Text url, CrawlDatum datum) throws ScoringFilterException {
     for (int i = 0; i < this.filters.length; i++) {
+      long start = start();
       this.filters[i].injectedScore(url, datum);
+      stop(i, Method.injectedScore, start);
     }
   }
 
   /** Calculate updated page score during CrawlDb.update(). */
   public void updateDbScore(Text url, CrawlDatum old, CrawlDatum datum, List<CrawlDatum> inlinked) throws ScoringFilterException {
     for (int i = 0; i < this.filters.length; i++) {
+      long start = start();
       this.filters[i].updateDbScore(url, old, datum, inlinked);
+      stop(i, Method.updateDbScore, start);
+    }
+  }
+
+  /**
+   * Calculate updated page score during CrawlDb.update(), after all inlinks
+   * have been passed to {@link #aggregateInlink(Text, CrawlDatum)}.
+   * @param inlinked list of inlinks for the filters which are not
+   * {@link AggregatingScoringFilter}s, may be empty if
+   * {@link #isInlinkListRequired()} is false
+   */
+  public void updateAggregatedDbScore(Text url, CrawlDatum old, CrawlDatum datum,
+      List<CrawlDatum> inlinked) throws ScoringFilterException {
+    List<CrawlDatum> none = Collections.emptyList();
+    for (int i = 0; i < this.filters.length; i++) {
+      long start = start();
+      if (this.aggregators[i] != null) {
+        this.aggregators[i].updateDbScore(url, old, datum);
+      } else if (this.filters[i] instanceof AggregatingScoringFilter) {
+        this.filters[i].updateDbScore(url, old, datum, none);
+      } else {
+        this.filters[i].updateDbScore(url, old, datum, inlinked);
+      }
+      stop(i, Method.updateDbScore, start);
     }
   }
 
   public void passScoreBeforeParsing(Text url, CrawlDatum datum, Content content) throws ScoringFilterException {
     for (int i = 0; i < this.filters.length; i++) {
+      long start = start();
       this.filters[i].passScoreBeforeParsing(url, datum, content);
+      stop(i, Method.passScoreBeforeParsing, start);
     }
   }
   
   public void passScoreAfterParsing(Text url, Content content, Parse parse) throws ScoringFilterException {
     for (int i = 0; i < this.filters.length; i++) {
+      long start = start();
       this.filters[i].passScoreAfterParsing(url, content, parse);
+      stop(i, Method.passScoreAfterParsing, start);
     }
   }
   
   public CrawlDatum distributeScoreToOutlinks(Text fromUrl, ParseData parseData, Collection<Entry<Text, CrawlDatum>> targets, CrawlDatum adjust, int allCount) throws ScoringFilterException {
     for (int i = 0; i < this.filters.length; i++) {
+      long start = start();
       adjust = this.filters[i].distributeScoreToOutlinks(fromUrl, parseData, targets, adjust, allCount);
+      stop(i, Method.distributeScoreToOutlinks, start);
     }
     return adjust;
   }
 
   public float indexerScore(Text url, NutchDocument doc, CrawlDatum dbDatum, CrawlDatum fetchDatum, Parse parse, Inlinks inlinks, float initScore) throws ScoringFilterException {
     for (int i = 0; i < this.filters.length; i++) {
+      long start = start();
       initScore = this.filters[i].indexerScore(url, doc, dbDatum, fetchDatum, parse, inlinks, initScore);
+      stop(i, Method.indexerScore, start);
     }
     return initScore;
   }
@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.util.Arrays;
+
+/**
+ * Small open addressing set of 64-bit fingerprints, used to limit the inlinks
+ * of a node to one per page and domain. Meant to be reused for every node.
+ */
+class FingerprintSet {
+
+  private long[] keys = new long[16];
+  private boolean[] used = new boolean[16];
+  private int size;
+
+  public void clear() {
+    if (keys.length > 1024) {
+      // don't keep clearing a large set after a node with many inlinks
+      keys = new long[16];
+      used = new boolean[16];
+    }
+    else if (size > 0) {
+      Arrays.fill(used, false);
+    }
+    size = 0;
+  }
+
+  public boolean contains(long key) {
+    int mask = keys.length - 1;
+    int i = (int)(key ^ (key >>> 32)) & mask;
+    while (used[i]) {
+      if (keys[i] == key) return true;
+      i = (i + 1) & mask;
+    }
+    return false;
+  }
+
+  public void add(long key) {
+    if (contains(key)) return;
+    if (size >= keys.length / 2) {
+      long[] oldKeys = keys;
+      boolean[] oldUsed = used;
+      keys = new long[oldKeys.length * 2];
+      used = new boolean[oldKeys.length * 2];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldUsed[i]) add(oldKeys[i]);
+      }
+    }
+    int mask = keys.length - 1;
+    int i = (int)(key ^ (key >>> 32)) & mask;
+    while (used[i]) {
+      i = (i + 1) & mask;
+    }
+    used[i] = true;
+    keys[i] = key;
+    size++;
+  }
+}
@@ -0,0 +1,638 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.scoring.webgraph.Loops.LoopSet;
+import org.apache.nutch.util.FSUtils;
+import org.apache.nutch.util.HadoopFSUtil;
+import org.apache.nutch.util.TimingUtil;
+
+/**
+ * Runs the link analysis of {@link LinkRank} on a single node, for WebGraphs
+ * whose link structure fits into memory.
+ *
+ * The NodeDb and OutlinkDb of the WebGraph are read once into a compressed
+ * sparse row (CSR) graph: every url gets an integer id, given by the order in
+ * which the NodeDb is read, and the inlinks of all nodes are stored as one
+ * array of source ids. Urls are mapped to ids through 64-bit fingerprints, so
+ * no url strings are kept in memory. Inlinks are inverted and the
+ * link.ignore.limit.page and link.ignore.limit.domain rules are applied while
+ * loading, as they do not change between iterations. Each iteration then only
+ * sums float arrays, split over link.analyze.in.memory.threads threads.
+ *
+ * Finally the NodeDb is read again in the same order and written with the new
+ * scores, replacing the NodeDb of the WebGraph like the MapReduce analysis
+ * does. Apart from the summation order the scores are the same.
+ */
+public class InMemoryLinkRank
+  extends Configured {
+
+  public static final Logger LOG = LoggerFactory.getLogger(InMemoryLinkRank.class);
+
+  /** Fingerprint to id map of all urls in the NodeDb. */
+  private IdTable ids;
+  private int numNodes;
+  private int[] numOutlinks;
+
+  /** Start of the inlinks of every node in sources, plus the total. */
+  private int[] inlinkStarts;
+  private int[] sources;
+
+  private int iterations;
+
+  /**
+   * Default constructor.
+   */
+  public InMemoryLinkRank() {
+    super();
+  }
+
+  /**
+   * Configurable constructor.
+   */
+  public InMemoryLinkRank(Configuration conf) {
+    super(conf);
+  }
+
+  /**
+   * Returns the MapFile parts of a directory, ordered by name.
+   */
+  private static Path[] getParts(FileSystem fs, Path dir)
+    throws IOException {
+    Path[] parts = HadoopFSUtil.getPaths(fs.listStatus(dir,
+      HadoopFSUtil.getPassDirectoriesFilter(fs)));
+    Arrays.sort(parts);
+    return parts;
+  }
+
+  /**
+   * Hashes a url, case sensitive, using 64-bit FNV-1a.
+   */
+  private static long urlFingerprint(String url) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < url.length(); i++) {
+      hash ^= url.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * Reads the NodeDb, assigning ids to urls and keeping the number of
+   * outlinks as well as the page and domain fingerprint of each node.
+   */
+  private void loadNodes(FileSystem fs, Path nodeDb, long[][] pageAndDomain)
+    throws IOException {
+
+    Configuration conf = getConf();
+    ids = new IdTable(1 << 16);
+    numOutlinks = new int[1 << 16];
+    long[] pages = new long[1 << 16];
+    long[] domains = new long[1 << 16];
+    Text key = new Text();
+    Node node = new Node();
+    for (Path part : getParts(fs, nodeDb)) {
+      MapFile.Reader reader = new MapFile.Reader(fs, part.toString(), conf);
+      try {
+        while (reader.next(key, node)) {
+          if (numNodes == numOutlinks.length) {
+            numOutlinks = Arrays.copyOf(numOutlinks, numNodes * 2);
+            pages = Arrays.copyOf(pages, numNodes * 2);
+            domains = Arrays.copyOf(domains, numNodes * 2);
+          }
+          String url = key.toString();
+          ids.put(urlFingerprint(url), numNodes);
+          numOutlinks[numNodes] = node.getNumOutlinks();
+          pages[numNodes] = LinkRank.pageFingerprint(url);
+          domains[numNodes] = LinkRank.domainFingerprint(url);
+          numNodes++;
+        }
+      }
+      finally {
+        reader.close();
+      }
+    }
+    pageAndDomain[0] = pages;
+    pageAndDomain[1] = domains;
+  }
+
+  /**
+   * Reads the LoopDb, returns the loop sets by node id.
+   */
+  private Map<Integer, Set<String>> loadLoops(FileSystem fs, Path loopDb)
+    throws IOException {
+
+    Map<Integer, Set<String>> loops = new HashMap<Integer, Set<String>>();
+    Text key = new Text();
+    for (Path part : getParts(fs, loopDb)) {
+      MapFile.Reader reader = new MapFile.Reader(fs, part.toString(), getConf());
+      try {
+        LoopSet loopSet = new LoopSet();
+        while (reader.next(key, loopSet)) {
+          int id = ids.get(urlFingerprint(key.toString()));
+          if (id >= 0) {
+            loops.put(id, loopSet.getLoopSet());
+          }
+          loopSet = new LoopSet();
+        }
+      }
+      finally {
+        reader.close();
+      }
+    }
+    return loops;
+  }
+
+  /**
+   * Reads the OutlinkDb and builds the inverted CSR graph. Links from nodes
+   * without outlinks, to urls not in the NodeDb and within a loop are
+   * skipped, as are inlinks from a page or domain already linking to the same
+   * node if limited to one.
+   */
+  private void loadLinks(FileSystem fs, Path outlinkDb,
+    Map<Integer, Set<String>> loops, long[] pages, long[] domains)
+    throws IOException {
+
+    Configuration conf = getConf();
+    boolean limitPages = conf.getBoolean("link.ignore.limit.page", true);
+    boolean limitDomains = conf.getBoolean("link.ignore.limit.domain", true);
+
+    // all links as (source, target) pairs in the order they are read
+    int numLinks = 0;
+    int[] linkSources = new int[1 << 16];
+    int[] linkTargets = new int[1 << 16];
+    int[] numInlinks = new int[numNodes + 1];
+    Text key = new Text();
+    LinkDatum link = new LinkDatum();
+    for (Path part : getParts(fs, outlinkDb)) {
+      MapFile.Reader reader = new MapFile.Reader(fs, part.toString(), conf);
+      try {
+        int source = -1;
+        String fromUrl = null;
+        while (reader.next(key, link)) {
+          // outlinks of a url are stored together
+          if (fromUrl == null || !fromUrl.equals(key.toString())) {
+            fromUrl = key.toString();
+            source = ids.get(urlFingerprint(fromUrl));
+          }
+          if (source < 0 || numOutlinks[source] <= 0) continue;
+          String toUrl = link.getUrl();
+          int target = ids.get(urlFingerprint(toUrl));
+          if (target < 0) continue;
+          Set<String> loopSet = loops.get(source);
+          if (loopSet != null && loopSet.contains(toUrl)) continue;
+          if (numLinks == linkSources.length) {
+            linkSources = Arrays.copyOf(linkSources, numLinks * 2);
+            linkTargets = Arrays.copyOf(linkTargets, numLinks * 2);
+          }
+          linkSources[numLinks] = source;
+          linkTargets[numLinks++] = target;
+          numInlinks[target + 1]++;
+        }
+      }
+      finally {
+        reader.close();
+      }
+    }
+
+    // counting sort of the links by target, keeping the read order
+    int[] starts = numInlinks;
+    for (int i = 0; i < numNodes; i++) {
+      starts[i + 1] += starts[i];
+    }
+    int[] inverted = new int[numLinks];
+    int[] next = Arrays.copyOf(starts, numNodes);
+    for (int i = 0; i < numLinks; i++) {
+      inverted[next[linkTargets[i]]++] = linkSources[i];
+    }
+    linkSources = null;
+    linkTargets = null;
+    next = null;
+
+    // drop duplicate pages and domains, compacting in place
+    FingerprintSet seenPages = new FingerprintSet();
+    FingerprintSet seenDomains = new FingerprintSet();
+    inlinkStarts = new int[numNodes + 1];
+    int kept = 0;
+    for (int target = 0; target < numNodes; target++) {
+      inlinkStarts[target] = kept;
+      seenPages.clear();
+      seenDomains.clear();
+      for (int i = starts[target]; i < starts[target + 1]; i++) {
+        int source = inverted[i];
+        if ((limitPages && seenPages.contains(pages[source]))
+          || (limitDomains && seenDomains.contains(domains[source]))) {
+          continue;
+        }
+        seenPages.add(pages[source]);
+        seenDomains.add(domains[source]);
+        inverted[kept++] = source;
+      }
+    }
+    inlinkStarts[numNodes] = kept;
+    sources = Arrays.copyOf(inverted, kept);
+
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Analysis: " + numLinks + " links read, " + kept
+        + " links after limiting pages and domains");
+    }
+  }
+
+  /**
+   * Runs a task over the ranges of node ids, in parallel, and returns the
+   * total residual.
+   */
+  private Residual parallel(ExecutorService executor, int numThreads,
+    final RangeTask task)
+    throws IOException {
+
+    List<Callable<Residual>> calls = new ArrayList<Callable<Residual>>();
+    int chunk = (numNodes + numThreads - 1) / numThreads;
+    for (int start = 0; start < numNodes; start += chunk) {
+      final int from = start;
+      final int to = Math.min(numNodes, start + chunk);
+      calls.add(new Callable<Residual>() {
+        public Residual call() {
+          Residual residual = new Residual();
+          task.run(from, to, residual);
+          return residual;
+        }
+      });
+    }
+    Residual total = new Residual();
+    try {
+      for (Future<Residual> future : executor.invokeAll(calls)) {
+        total.add(future.get());
+      }
+    }
+    catch (InterruptedException e) {
+      throw new IOException("Analysis interrupted");
+    }
+    catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+    return total;
+  }
+
+  /**
+   * Runs the link analysis iterations.
+   * 
+   * By default all scores are computed from the scores of the previous
+   * iteration. With link.analyze.delta scores are updated in place within the
+   * range of nodes of a thread, so that nodes computed later in the range
+   * already see the new scores of their inlinks in it (Gauss-Seidel), while
+   * inlinks in the ranges of other threads are read from the scores at the
+   * start of the iteration. The scores thus only depend on the number of
+   * threads, not on their timing. A node is only computed again if the score
+   * of one of its inlinks changed by more than link.analyze.tolerance.
+   */
+  private float[] iterate()
+    throws IOException {
+
+    Configuration conf = getConf();
+    int numIterations = conf.getInt("link.analyze.num.iterations", 10);
+    final float dampingFactor = conf.getFloat("link.analyze.damping.factor",
+      0.85f);
+    final float rankOne = 1f / (float)numNodes;
+    final float tolerance = conf.getFloat("link.analyze.tolerance", 0.0f);
+    boolean delta = conf.getBoolean("link.analyze.delta", false);
+    int numThreads = conf.getInt("link.analyze.in.memory.threads", 0);
+    if (numThreads <= 0) {
+      numThreads = Runtime.getRuntime().availableProcessors();
+    }
+
+    if (LOG.isInfoEnabled()) {
+      LOG.info("Analysis: Number of links: " + numNodes);
+      LOG.info("Analysis: Rank One: " + rankOne);
+    }
+
+    final float[] scores = new float[numNodes];
+    Arrays.fill(scores, conf.getFloat("link.analyze.initial.score", 1.0f));
+    final float[] outlinkScores = new float[numNodes];
+
+    // the score passed along each outlink
+    final RangeTask outlinkTask = new RangeTask() {
+      public void run(int from, int to, Residual residual) {
+        for (int i = from; i < to; i++) {
+          outlinkScores[i] = numOutlinks[i] > 0 ? scores[i]
+            / numOutlinks[i] : scores[i];
+        }
+      }
+    };
+
+    // a page with zero inlinks has a score of rankOne
+    final RangeTask scoreTask = new RangeTask() {
+      public void run(int from, int to, Residual residual) {
+        for (int i = from; i < to; i++) {
+          float totalInlinkScore = rankOne;
+          for (int j = inlinkStarts[i]; j < inlinkStarts[i + 1]; j++) {
+            totalInlinkScore += outlinkScores[sources[j]];
+          }
+          float score = (1 - dampingFactor)
+            + (dampingFactor * totalInlinkScore);
+          residual.add(Math.abs(score - scores[i]), tolerance);
+          scores[i] = score;
+        }
+      }
+    };
+
+    // outlinks of every node, to find the nodes to compute again
+    final int[] outlinkStarts = delta ? new int[numNodes + 1] : null;
+    final int[] targets = delta ? new int[sources.length] : null;
+    final boolean[] active = delta ? new boolean[numNodes] : null;
+    final boolean[] nextActive = delta ? new boolean[numNodes] : null;
+    final float[] previousOutlinkScores = delta ? new float[numNodes] : null;
+    if (delta) {
+      for (int j = 0; j < sources.length; j++) {
+        outlinkStarts[sources[j] + 1]++;
+      }
+      for (int i = 0; i < numNodes; i++) {
+        outlinkStarts[i + 1] += outlinkStarts[i];
+      }
+      int[] next = Arrays.copyOf(outlinkStarts, numNodes);
+      for (int i = 0; i < numNodes; i++) {
+        for (int j = inlinkStarts[i]; j < inlinkStarts[i + 1]; j++) {
+          targets[next[sources[j]]++] = i;
+        }
+      }
+      Arrays.fill(active, true);
+    }
+
+    final RangeTask deltaTask = new RangeTask() {
+      public void run(int from, int to, Residual residual) {
+        for (int i = from; i < to; i++) {
+          if (!active[i]) continue;
+          float totalInlinkScore = rankOne;
+          for (int j = inlinkStarts[i]; j < inlinkStarts[i + 1]; j++) {
+            int source = sources[j];
+            // only this thread writes the scores of its range
+            totalInlinkScore += source >= from && source < to
+              ? outlinkScores[source] : previousOutlinkScores[source];
+          }
+          float score = (1 - dampingFactor)
+            + (dampingFactor * totalInlinkScore);
+          float change = Math.abs(score - scores[i]);
+          residual.add(change, tolerance);
+          residual.computed++;
+          scores[i] = score;
+          outlinkScores[i] = numOutlinks[i] > 0 ? score / numOutlinks[i]
+            : score;
+          if (change > tolerance) {
+            for (int j = outlinkStarts[i]; j < outlinkStarts[i + 1]; j++) {
+              nextActive[targets[j]] = true;
+            }
+          }
+        }
+      }
+    };
+
+    iterations = 0;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      if (delta) {
+        parallel(executor, numThreads, outlinkTask);
+      }
+      for (int it = 0; it < numIterations; it++) {
+        Residual residual;
+        if (delta) {
+          System.arraycopy(outlinkScores, 0, previousOutlinkScores, 0,
+            numNodes);
+          residual = parallel(executor, numThreads, deltaTask);
+          System.arraycopy(nextActive, 0, active, 0, numNodes);
+          Arrays.fill(nextActive, false);
+        }
+        else {
+          parallel(executor, numThreads, outlinkTask);
+          residual = parallel(executor, numThreads, scoreTask);
+        }
+        iterations++;
+        LOG.info("Analysis: finished iteration " + (it + 1) + " of "
+          + numIterations + ", residual: " + residual.l1
+          + ", nodes changed above tolerance: " + residual.aboveTolerance
+          + (delta ? ", nodes computed: " + residual.computed : ""));
+        if (LinkRank.isConverged(conf, residual.l1, residual.aboveTolerance,
+          tolerance) || (delta && residual.aboveTolerance == 0)) {
+          LOG.info("Analysis: scores converged after " + (it + 1)
+            + " iterations");
+          break;
+        }
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+    return scores;
+  }
+
+  /**
+   * Returns the number of iterations run by the last analysis, less than
+   * link.analyze.num.iterations if the scores converged earlier.
+   */
+  public int getIterations() {
+    return iterations;
+  }
+
+  /**
+   * Writes the NodeDb with the new scores, reading the old one in the same
+   * order as when assigning the ids.
+   */
+  private void writeNodes(FileSystem fs, Path nodeDb, Path output,
+    float[] scores)
+    throws IOException {
+
+    Configuration conf = getConf();
+    Text key = new Text();
+    Node node = new Node();
+    int id = 0;
+    for (Path part : getParts(fs, nodeDb)) {
+      MapFile.Reader reader = new MapFile.Reader(fs, part.toString(), conf);
+      MapFile.Writer writer = new MapFile.Writer(conf, fs, new Path(output,
+        part.getName()).toString(), Text.class, Node.class);
+      try {
+        while (reader.next(key, node)) {
+          node.setInlinkScore(scores[id++]);
+          writer.append(key, node);
+        }
+      }
+      finally {
+        reader.close();
+        writer.close();
+      }
+    }
+  }
+
+  /**
+   * Runs the complete link analysis in memory and replaces the NodeDb in the
+   * WebGraph with the link rank output.
+   *
+   * @param webGraphDb The WebGraph to run link analysis on.
+   *
+   * @throws IOException If an error occurs during link analysis.
+   */
+  public void analyze(Path webGraphDb)
+    throws IOException {
+
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    long start = System.currentTimeMillis();
+    LOG.info("Analysis: starting in memory at " + sdf.format(start));
+    WebGraph.compact(getConf(), webGraphDb);
+
+    FileSystem fs = FileSystem.get(getConf());
+    Path wgOutlinkDb = new Path(webGraphDb, WebGraph.OUTLINK_DIR);
+    Path wgNodeDb = new Path(webGraphDb, WebGraph.NODE_DIR);
+    Path loopDb = new Path(webGraphDb, Loops.LOOPS_DIR);
+    Path linkRank = new Path(webGraphDb, "linkrank");
+    Path nodeDb = new Path(linkRank, WebGraph.NODE_DIR);
+
+    long[][] pageAndDomain = new long[2][];
+    loadNodes(fs, wgNodeDb, pageAndDomain);
+    if (numNodes == 0) {
+      throw new IOException("No links to process, is the webgraph empty?");
+    }
+    Map<Integer, Set<String>> loops = new HashMap<Integer, Set<String>>();
+    if (fs.exists(loopDb)) {
+      loops = loadLoops(fs, loopDb);
+    }
+    loadLinks(fs, wgOutlinkDb, loops, pageAndDomain[0], pageAndDomain[1]);
+    pageAndDomain = null;
+    loops = null;
+    ids = null;
+
+    float[] scores = iterate();
+
+    LOG.info("Analysis: Installing web graph nodes");
+    if (fs.exists(linkRank)) {
+      fs.delete(linkRank, true);
+    }
+    writeNodes(fs, wgNodeDb, nodeDb, scores);
+    FSUtils.replace(fs, wgNodeDb, nodeDb, true);
+    fs.delete(linkRank, true);
+
+    long end = System.currentTimeMillis();
+    LOG.info("Analysis: finished at " + sdf.format(end) + ", elapsed: "
+      + TimingUtil.elapsedTime(start, end));
+  }
+
+  /**
+   * Work on a range of node ids.
+   */
+  private static interface RangeTask {
+    public void run(int from, int to, Residual residual);
+  }
+
+  /**
+   * Score changes of an iteration.
+   */
+  private static class Residual {
+
+    double l1;
+    long aboveTolerance;
+    long computed;
+
+    void add(float change, float tolerance) {
+      l1 += change;
+      if (change > tolerance) aboveTolerance++;
+    }
+
+    void add(Residual other) {
+      l1 += other.l1;
+      aboveTolerance += other.aboveTolerance;
+      computed += other.computed;
+    }
+  }
+
+  /**
+   * Open addressing map from url fingerprints to node ids.
+   */
+  private static class IdTable {
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    IdTable(int capacity) {
+      keys = new long[capacity];
+      values = new int[capacity];
+      used = new boolean[capacity];
+    }
+
+    private static int slot(long key, int mask) {
+      long h = key ^ (key >>> 33);
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      return (int)h & mask;
+    }
+
+    void put(long key, int value) {
+      if (size >= keys.length * 3 / 4) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+          if (oldUsed[i]) put(oldKeys[i], oldValues[i]);
+        }
+      }
+      int mask = keys.length - 1;
+      int i = slot(key, mask);
+      while (used[i] && keys[i] != key) {
+        i = (i + 1) & mask;
+      }
+      if (!used[i]) size++;
+      used[i] = true;
+      keys[i] = key;
+      values[i] = value;
+    }
+
+    /** Returns the id of a fingerprint or -1. */
+    int get(long key) {
+      int mask = keys.length - 1;
+      int i = slot(key, mask);
+      while (used[i]) {
+        if (keys[i] == key) return values[i];
+        i = (i + 1) & mask;
+      }
+      return -1;
+    }
+  }
+}
@@ -25,19 +25,28 @@ import org.apache.hadoop.io.Writable;
 
 /**
  * A class for holding link information including the url, anchor text, a score,
- * the timestamp of the link and a link type.
+ * the timestamp of the link and a link type. Inlinks inverted for link analysis
+ * also carry fingerprints of the page and domain of their url.
  */
 public class LinkDatum
   implements Writable {
 
   public final static byte INLINK = 1;
   public final static byte OUTLINK = 2;
+  /** Marks a link removed by an incremental {@link WebGraph} update. */
+  public final static byte REMOVED = 3;
+
+  /** Set on the serialized link type if fingerprints follow. */
+  private final static byte HAS_FINGERPRINTS = (byte)0x80;
 
   private String url = null;
   private String anchor = "";
   private float score = 0.0f;
   private long timestamp = 0L;
   private byte linkType = 0;
+  private boolean hasFingerprints = false;
+  private long pageFingerprint = 0L;
+  private long domainFingerprint = 0L;
 
   /**
    * Default constructor, no url, timestamp, score, or link type.
@@ -112,6 +121,32 @@ public class LinkDatum
     this.linkType = linkType;
   }
 
+  /**
+   * Returns whether page and domain fingerprints of the url are set.
+   */
+  public boolean hasFingerprints() {
+    return hasFingerprints;
+  }
+
+  public long getPageFingerprint() {
+    return pageFingerprint;
+  }
+
+  public long getDomainFingerprint() {
+    return domainFingerprint;
+  }
+
+  /**
+   * Sets fingerprints of the page and domain of the url, see
+   * {@link LinkRank#pageFingerprint(String)} and
+   * {@link LinkRank#domainFingerprint(String)}.
+   */
+  public void setFingerprints(long pageFingerprint, long domainFingerprint) {
+    this.hasFingerprints = true;
+    this.pageFingerprint = pageFingerprint;
+    this.domainFingerprint = domainFingerprint;
+  }
+
   public void readFields(DataInput in)
     throws IOException {
     url = Text.readString(in);
@@ -119,6 +154,16 @@ public class LinkDatum
     score = in.readFloat();
     timestamp = in.readLong();
     linkType = in.readByte();
+    hasFingerprints = (linkType & HAS_FINGERPRINTS) != 0;
+    if (hasFingerprints) {
+      linkType &= ~HAS_FINGERPRINTS;
+      pageFingerprint = in.readLong();
+      domainFingerprint = in.readLong();
+    }
+    else {
+      pageFingerprint = 0L;
+      domainFingerprint = 0L;
+    }
   }
 
   public void write(DataOutput out)
@@ -127,13 +172,20 @@ public class LinkDatum
     Text.writeString(out, anchor != null ? anchor : "");
     out.writeFloat(score);
     out.writeLong(timestamp);
-    out.writeByte(linkType);
+    if (hasFingerprints) {
+      out.writeByte(linkType | HAS_FINGERPRINTS);
+      out.writeLong(pageFingerprint);
+      out.writeLong(domainFingerprint);
+    }
+    else {
+      out.writeByte(linkType);
+    }
   }
 
   public String toString() {
 
     String type = (linkType == INLINK ? "inlink" : (linkType == OUTLINK)
-      ? "outlink" : "unknown");
+      ? "outlink" : (linkType == REMOVED) ? "removed" : "unknown");
     return "url: " + url + ", anchor: " + anchor + ", score: " + score
       + ", timestamp: " + timestamp + ", link type: " + type;
   }
@@ -353,6 +353,7 @@ public class LinkDumper
     LOG.info("NodeDumper: starting at " + sdf.format(start));
     Configuration conf = getConf();
     FileSystem fs = FileSystem.get(conf);
+    WebGraph.compact(conf, webGraphDb);
 
     Path linkdump = new Path(webGraphDb, DUMP_DIR);
     Path nodeDb = new Path(webGraphDb, WebGraph.NODE_DIR);
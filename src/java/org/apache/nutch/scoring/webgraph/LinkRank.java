@@ -19,9 +19,9 @@ package org.apache.nutch.scoring.webgraph;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.MalformedURLException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
@@ -46,6 +46,7 @@ import org.apache.hadoop.io.ObjectWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
@@ -55,6 +56,7 @@ import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.hadoop.mapred.TextOutputFormat;
@@ -65,6 +67,7 @@ import org.apache.nutch.scoring.webgraph.Loops.LoopSet;
 import org.apache.nutch.util.FSUtils;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.NutchJob;
+import org.apache.nutch.util.StringUtil;
 import org.apache.nutch.util.TimingUtil;
 import org.apache.nutch.util.URLUtil;
 
@@ -75,6 +78,15 @@ public class LinkRank
   public static final Logger LOG = LoggerFactory.getLogger(LinkRank.class);
   private static final String NUM_NODES = "_num_nodes_";
 
+  /** Counter group of the residual of the analysis iterations. */
+  public static final String COUNTER_GROUP = "LinkRank";
+  /** Sum of the absolute score changes, in millionths. */
+  public static final String RESIDUAL_L1 = "residual_l1";
+  /** Number of nodes whose score changed more than the tolerance. */
+  public static final String NODES_ABOVE_TOLERANCE = "nodes_above_tolerance";
+
+  private int iterations;
+
   /**
    * Runs the counter job. The counter job determines the number of links in the
    * webgraph. This is used during analysis.
@@ -243,9 +255,10 @@ public class LinkRank
    * @param iteration The current iteration number.
    * @param numIterations The total number of link analysis iterations
    * 
+   * @return The analysis job, holding the residual counters.
    * @throws IOException If an error occurs during link analysis.
    */
-  private void runAnalysis(Path nodeDb, Path inverted, Path output,
+  private RunningJob runAnalysis(Path nodeDb, Path inverted, Path output,
     int iteration, int numIterations, float rankOne)
     throws IOException {
 
@@ -268,14 +281,69 @@ public class LinkRank
     analyzer.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
 
     LOG.info("Starting analysis job");
+    RunningJob job;
     try {
-      JobClient.runJob(analyzer);
+      job = JobClient.runJob(analyzer);
     }
     catch (IOException e) {
       LOG.error(StringUtils.stringifyException(e));
       throw e;
     }
     LOG.info("Finished analysis job.");
+    return job;
+  }
+
+  /**
+   * Returns whether the scores changed by no more than the tolerance in the
+   * last iteration, using the L1 norm (sum of all changes) or the L-infinity
+   * norm (largest change) as set by link.analyze.residual.
+   * 
+   * @param l1 The sum of the absolute changes of all scores.
+   * @param numAboveTolerance The number of scores changing more than the
+   * tolerance.
+   * @param tolerance The tolerance, no check if not positive.
+   */
+  static boolean isConverged(Configuration conf, double l1,
+    long numAboveTolerance, float tolerance) {
+    if (tolerance <= 0) {
+      return false;
+    }
+    if ("l1".equals(conf.get("link.analyze.residual", "linf"))) {
+      return l1 <= tolerance;
+    }
+    return numAboveTolerance == 0;
+  }
+
+  /**
+   * Returns a fingerprint of the page of a url, as used to limit the inlinks
+   * of a node to one per page.
+   */
+  static long pageFingerprint(String url) {
+    String page = URLUtil.getPage(url);
+    return StringUtil.fingerprint(page != null ? page : "");
+  }
+
+  /**
+   * Returns a fingerprint of the domain of a url, as used to limit the
+   * inlinks of a node to one per domain. A malformed url is its own domain.
+   */
+  static long domainFingerprint(String url) {
+    String domain;
+    try {
+      domain = URLUtil.getDomainName(url);
+    }
+    catch (MalformedURLException e) {
+      domain = url;
+    }
+    return StringUtil.fingerprint(domain);
+  }
+
+  /**
+   * Returns the number of iterations run by the last analysis, less than
+   * link.analyze.num.iterations if the scores converged earlier.
+   */
+  public int getIterations() {
+    return iterations;
   }
 
   /**
@@ -422,6 +490,11 @@ public class LinkRank
       // can't invert if no outlinks
       if (numOutlinks > 0) {
 
+        // the same for all inlinks from this url, the analysis only needs
+        // to compare them
+        long pageFingerprint = pageFingerprint(fromUrl);
+        long domainFingerprint = domainFingerprint(fromUrl);
+
         Set<String> loopSet = (loops != null) ? loops.getLoopSet() : null;
         for (int i = 0; i < outlinks.size(); i++) {
           LinkDatum outlink = outlinks.get(i);
@@ -435,6 +508,7 @@ public class LinkRank
           }
           outlink.setUrl(fromUrl);
           outlink.setScore(outlinkScore);
+          outlink.setFingerprints(pageFingerprint, domainFingerprint);
 
           // collect the inverted outlink
           output.collect(new Text(toUrl), outlink);
@@ -462,6 +536,9 @@ public class LinkRank
     private int itNum = 0;
     private boolean limitPages = true;
     private boolean limitDomains = true;
+    private float tolerance = 0.0f;
+    private FingerprintSet domains = new FingerprintSet();
+    private FingerprintSet pages = new FingerprintSet();
 
     /**
      * Configures the job, sets the damping factor, rank one score, and other
@@ -476,6 +553,7 @@ public class LinkRank
         this.itNum = conf.getInt("link.analyze.iteration", 0);
         limitPages = conf.getBoolean("link.ignore.limit.page", true);
         limitDomains = conf.getBoolean("link.ignore.limit.domain", true);
+        tolerance = conf.getFloat("link.analyze.tolerance", 0.0f);
       }
       catch (Exception e) {
         LOG.error(StringUtils.stringifyException(e));
@@ -504,8 +582,8 @@ public class LinkRank
       throws IOException {
 
       String url = key.toString();
-      Set<String> domains = new HashSet<String>();
-      Set<String> pages = new HashSet<String>();
+      domains.clear();
+      pages.clear();
       Node node = null;
 
       // a page with zero inlinks has a score of rankOne
@@ -524,8 +602,16 @@ public class LinkRank
           LinkDatum linkDatum = (LinkDatum)value;
           float scoreFromInlink = linkDatum.getScore();
           String inlinkUrl = linkDatum.getUrl();
-          String inLinkDomain = URLUtil.getDomainName(inlinkUrl);
-          String inLinkPage = URLUtil.getPage(inlinkUrl);
+          long inLinkDomain;
+          long inLinkPage;
+          if (linkDatum.hasFingerprints()) {
+            inLinkDomain = linkDatum.getDomainFingerprint();
+            inLinkPage = linkDatum.getPageFingerprint();
+          }
+          else {
+            inLinkDomain = domainFingerprint(inlinkUrl);
+            inLinkPage = pageFingerprint(inlinkUrl);
+          }
 
           // limit counting duplicate inlinks by pages or domains
           if ((limitPages && pages.contains(inLinkPage))
@@ -552,6 +638,14 @@ public class LinkRank
       LOG.debug(url + ": score: " + linkRankScore + " num inlinks: "
         + numInlinks + " iteration: " + itNum);
 
+      // track the residual, the node holds the score of the last iteration
+      float change = Math.abs(linkRankScore - node.getInlinkScore());
+      reporter.incrCounter(COUNTER_GROUP, RESIDUAL_L1,
+        Math.round(change * 1000000.0));
+      if (change > tolerance) {
+        reporter.incrCounter(COUNTER_GROUP, NODES_ABOVE_TOLERANCE, 1);
+      }
+
       // store the score in a temporary NodeDb
       Node outNode = WritableUtils.clone(node, conf);
       outNode.setInlinkScore(linkRankScore);
@@ -586,6 +680,9 @@ public class LinkRank
    * by default 10. And finally replaces the NodeDb in the WebGraph with the
    * link rank output.
    * 
+   * If link.analyze.in.memory is set the analysis is run by
+   * {@link InMemoryLinkRank} instead.
+   * 
    * @param webGraphDb The WebGraph to run link analysis on.
    * 
    * @throws IOException If an error occurs during link analysis.
@@ -593,6 +690,16 @@ public class LinkRank
   public void analyze(Path webGraphDb)
     throws IOException {
 
+    // include the pending deltas of incremental webgraph updates
+    WebGraph.compact(getConf(), webGraphDb);
+
+    if (getConf().getBoolean("link.analyze.in.memory", false)) {
+      InMemoryLinkRank inMemory = new InMemoryLinkRank(getConf());
+      inMemory.analyze(webGraphDb);
+      iterations = inMemory.getIterations();
+      return;
+    }
+
     SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
     long start = System.currentTimeMillis();
     LOG.info("Analysis: starting at " + sdf.format(start));
@@ -629,8 +736,10 @@ public class LinkRank
     }
 
     // run invert and analysis for a given number of iterations to allow the
-    // link rank scores to converge
+    // link rank scores to converge, stop early once they did
     int numIterations = conf.getInt("link.analyze.num.iterations", 10);
+    float tolerance = conf.getFloat("link.analyze.tolerance", 0.0f);
+    iterations = 0;
     for (int i = 0; i < numIterations; i++) {
 
       // the input to inverting is always the previous output from analysis
@@ -643,14 +752,27 @@ public class LinkRank
 
       // run invert and analysis
       runInverter(nodeDb, wgOutlinkDb, loopDb, tempInverted);
-      runAnalysis(nodeDb, tempInverted, tempNodeDb, i, numIterations,
-        rankOneScore);
+      RunningJob analysis = runAnalysis(nodeDb, tempInverted, tempNodeDb, i,
+        numIterations, rankOneScore);
 
       // replace the temporary NodeDb with the output from analysis
       LOG.info("Analysis: Installing new link scores");
       FSUtils.replace(fs, linkRank, tempRank, true);
+      iterations++;
+
+      Counters counters = analysis.getCounters();
+      double l1 = counters.findCounter(COUNTER_GROUP, RESIDUAL_L1).getValue()
+        / 1000000.0;
+      long aboveTolerance = counters.findCounter(COUNTER_GROUP,
+        NODES_ABOVE_TOLERANCE).getValue();
       LOG.info("Analysis: finished iteration " + (i + 1) + " of "
-        + numIterations);
+        + numIterations + ", residual: " + l1 + ", nodes changed above "
+        + "tolerance: " + aboveTolerance);
+      if (isConverged(conf, l1, aboveTolerance, tolerance)) {
+        LOG.info("Analysis: scores converged after " + (i + 1)
+          + " iterations");
+        break;
+      }
     }
 
     // replace the NodeDb in the WebGraph with the final output of analysis
@@ -687,6 +809,11 @@ public class LinkRank
     Option webgraphOpts = OptionBuilder.create("webgraphdb");
     options.addOption(webgraphOpts);
 
+    OptionBuilder.withArgName("inmemory");
+    OptionBuilder.withDescription("run the analysis in memory on this node");
+    Option inMemoryOpts = OptionBuilder.create("inmemory");
+    options.addOption(inMemoryOpts);
+
     CommandLineParser parser = new GnuParser();
     try {
 
@@ -698,6 +825,9 @@ public class LinkRank
       }
 
       String webGraphDb = line.getOptionValue("webgraphdb");
+      if (line.hasOption("inmemory")) {
+        getConf().setBoolean("link.analyze.in.memory", true);
+      }
 
       analyze(new Path(webGraphDb));
       return 0;
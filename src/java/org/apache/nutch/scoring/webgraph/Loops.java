@@ -20,11 +20,11 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 
@@ -39,11 +39,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.ObjectWritable;
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
@@ -52,10 +56,12 @@ import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapFileOutputFormat;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Partitioner;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -75,6 +81,12 @@ import org.apache.nutch.util.TimingUtil;
  * its intermediate output can be extremly large even if the end output is
  * rather small. Because of this the Loops job is optional and if it doesn't
  * exist then it won't be factored into the LinkRank program.
+ * 
+ * To keep it manageable routes only hold fingerprints of urls, routes which
+ * reach a url along different paths are followed once, and at most
+ * link.loops.max.routes routes are followed further from any url. Routes are
+ * sorted behind the outlinks of their url, so they are streamed through the
+ * reducers instead of being held in memory.
  */
 public class Loops
   extends Configured
@@ -85,56 +97,233 @@ public class Loops
   public static final String ROUTES_DIR = "routes";
 
   /**
-   * A link path or route looking to identify a link cycle.
+   * A route from a url, through its first outlink, that is followed looking
+   * for the url to identify a link cycle. Both urls are stored as
+   * fingerprints, see {@link Loops#fingerprint(String)}.
    */
   public static class Route
     implements Writable {
 
-    private String outlinkUrl = null;
-    private String lookingFor = null;
-    private boolean found = false;
+    private long lookingFor;
+    private long outlink;
 
     public Route() {
 
     }
 
-    public String getOutlinkUrl() {
-      return outlinkUrl;
-    }
-
-    public void setOutlinkUrl(String outlinkUrl) {
-      this.outlinkUrl = outlinkUrl;
+    public Route(long lookingFor, long outlink) {
+      this.lookingFor = lookingFor;
+      this.outlink = outlink;
     }
 
-    public String getLookingFor() {
+    public long getLookingFor() {
       return lookingFor;
     }
 
-    public void setLookingFor(String lookingFor) {
+    public void setLookingFor(long lookingFor) {
       this.lookingFor = lookingFor;
     }
 
-    public boolean isFound() {
-      return found;
+    public long getOutlink() {
+      return outlink;
     }
 
-    public void setFound(boolean found) {
-      this.found = found;
+    public void setOutlink(long outlink) {
+      this.outlink = outlink;
     }
 
     public void readFields(DataInput in)
       throws IOException {
+      lookingFor = in.readLong();
+      outlink = in.readLong();
+    }
+
+    public void write(DataOutput out)
+      throws IOException {
+      out.writeLong(lookingFor);
+      out.writeLong(outlink);
+    }
+  }
+
+  /**
+   * The key of the Looper job: the url the values are for and, for routes,
+   * the route. Outlinks of the url sort before its routes and equal routes
+   * next to each other, so the Looper streams the routes of a url without
+   * holding them in memory. Partitioned and grouped by url only.
+   */
+  public static class RouteKey
+    implements WritableComparable<RouteKey> {
+
+    public static final byte OUTLINK = 0;
+    public static final byte ROUTE = 1;
+
+    private Text url = new Text();
+    private byte type;
+    private long lookingFor;
+    private long outlink;
+
+    public RouteKey() {
 
-      outlinkUrl = Text.readString(in);
-      lookingFor = Text.readString(in);
-      found = in.readBoolean();
+    }
+
+    public RouteKey(Text url, byte type, long lookingFor, long outlink) {
+      this.url.set(url);
+      this.type = type;
+      this.lookingFor = lookingFor;
+      this.outlink = outlink;
+    }
+
+    public Text getUrl() {
+      return url;
+    }
+
+    public void readFields(DataInput in)
+      throws IOException {
+      url.readFields(in);
+      type = in.readByte();
+      lookingFor = in.readLong();
+      outlink = in.readLong();
     }
 
     public void write(DataOutput out)
       throws IOException {
-      Text.writeString(out, outlinkUrl);
-      Text.writeString(out, lookingFor);
-      out.writeBoolean(found);
+      url.write(out);
+      out.writeByte(type);
+      out.writeLong(lookingFor);
+      out.writeLong(outlink);
+    }
+
+    public int compareTo(RouteKey other) {
+      int cmp = url.compareTo(other.url);
+      if (cmp != 0) {
+        return cmp;
+      }
+      if (type != other.type) {
+        return type < other.type ? -1 : 1;
+      }
+      if (lookingFor != other.lookingFor) {
+        return lookingFor < other.lookingFor ? -1 : 1;
+      }
+      if (outlink != other.outlink) {
+        return outlink < other.outlink ? -1 : 1;
+      }
+      return 0;
+    }
+
+    public boolean equals(Object o) {
+      return (o instanceof RouteKey) && compareTo((RouteKey)o) == 0;
+    }
+
+    public int hashCode() {
+      return url.hashCode();
+    }
+
+    /**
+     * Compares serialized keys by url, then type and route.
+     */
+    public static class Comparator
+      extends WritableComparator {
+
+      public Comparator() {
+        super(RouteKey.class);
+      }
+
+      public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+        int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+        int len1 = readUrlLength(b1, s1);
+        int len2 = readUrlLength(b2, s2);
+        int cmp = compareBytes(b1, s1 + n1, len1, b2, s2 + n2, len2);
+        if (cmp != 0) {
+          return cmp;
+        }
+        int p1 = s1 + n1 + len1;
+        int p2 = s2 + n2 + len2;
+        if (b1[p1] != b2[p2]) {
+          return b1[p1] < b2[p2] ? -1 : 1;
+        }
+        for (int i = 1; i < 17; i += 8) {
+          long v1 = readLong(b1, p1 + i);
+          long v2 = readLong(b2, p2 + i);
+          if (v1 != v2) {
+            return v1 < v2 ? -1 : 1;
+          }
+        }
+        return 0;
+      }
+    }
+
+    /**
+     * Groups serialized keys by url.
+     */
+    public static class UrlComparator
+      extends WritableComparator {
+
+      public UrlComparator() {
+        super(RouteKey.class);
+      }
+
+      public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+        int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+        return compareBytes(b1, s1 + n1, readUrlLength(b1, s1), b2, s2 + n2,
+          readUrlLength(b2, s2));
+      }
+
+      @SuppressWarnings("rawtypes")
+      public int compare(WritableComparable a, WritableComparable b) {
+        return ((RouteKey)a).getUrl().compareTo(((RouteKey)b).getUrl());
+      }
+    }
+
+    /**
+     * Partitions keys by url.
+     */
+    public static class UrlPartitioner
+      implements Partitioner<RouteKey, Writable> {
+
+      public void configure(JobConf conf) {
+      }
+
+      public int getPartition(RouteKey key, Writable value, int numPartitions) {
+        return (key.getUrl().hashCode() & Integer.MAX_VALUE) % numPartitions;
+      }
+    }
+
+    private static int readUrlLength(byte[] b, int s) {
+      try {
+        return WritableComparator.readVInt(b, s);
+      }
+      catch (IOException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+
+    static {
+      WritableComparator.define(RouteKey.class, new Comparator());
+    }
+  }
+
+  /**
+   * Holds either an outlink url or a {@link Route} as value of the Looper and
+   * Finalizer jobs.
+   */
+  public static class LoopWritable
+    extends GenericWritable {
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Writable>[] CLASSES = new Class[] {
+      Text.class, Route.class };
+
+    public LoopWritable() {
+    }
+
+    public LoopWritable(Writable instance) {
+      set(instance);
+    }
+
+    protected Class<? extends Writable>[] getTypes() {
+      return CLASSES;
     }
   }
 
@@ -189,106 +378,32 @@ public class Loops
   }
 
   /**
-   * Initializes the Loop routes.
+   * Returns the fingerprint routes use for a url.
    */
-  public static class Initializer
-    extends Configured
-    implements Mapper<Text, Writable, Text, ObjectWritable>,
-    Reducer<Text, ObjectWritable, Text, Route> {
-
-    private JobConf conf;
-
-    /**
-     * Default constructor.
-     */
-    public Initializer() {
-    }
-
-    /**
-     * Configurable constructor.
-     */
-    public Initializer(Configuration conf) {
-      setConf(conf);
-    }
-
-    /**
-     * Configure the job.
-     */
-    public void configure(JobConf conf) {
-      this.conf = conf;
-    }
-
-    /**
-     * Wraps values in ObjectWritable.
-     */
-    public void map(Text key, Writable value,
-      OutputCollector<Text, ObjectWritable> output, Reporter reporter)
-      throws IOException {
-
-      ObjectWritable objWrite = new ObjectWritable();
-      objWrite.set(value);
-      output.collect(key, objWrite);
-    }
-
-    /**
-     * Takes any node that has inlinks and sets up a route for all of its
-     * outlinks. These routes will then be followed to a maximum depth inside of
-     * the Looper job.
-     */
-    public void reduce(Text key, Iterator<ObjectWritable> values,
-      OutputCollector<Text, Route> output, Reporter reporter)
-      throws IOException {
-
-      String url = key.toString();
-      Node node = null;
-      List<LinkDatum> outlinkList = new ArrayList<LinkDatum>();
-
-      // collect all outlinks and assign node
-      while (values.hasNext()) {
-        ObjectWritable objWrite = values.next();
-        Object obj = objWrite.get();
-        if (obj instanceof LinkDatum) {
-          outlinkList.add((LinkDatum)obj);
-        }
-        else if (obj instanceof Node) {
-          node = (Node)obj;
-        }
-      }
-
-      // has to have inlinks otherwise cycle not possible
-      if (node != null) {
-
-        int numInlinks = node.getNumInlinks();
-        if (numInlinks > 0) {
-
-          // initialize and collect a route for every outlink
-          for (LinkDatum datum : outlinkList) {
-            String outlinkUrl = datum.getUrl();
-            Route route = new Route();
-            route.setFound(false);
-            route.setLookingFor(url);
-            route.setOutlinkUrl(outlinkUrl);
-            output.collect(new Text(outlinkUrl), route);
-          }
-        }
-      }
-    }
-
-    public void close() {
-    }
+  public static long fingerprint(String url) {
+    return MD5Hash.digest(url).halfDigest();
   }
 
   /**
-   * Follows a route path looking for the start url of the route. If the start
-   * url is found then the route is a cyclical path.
+   * Follows routes one link further in each pass looking for the url they
+   * start from. The first pass starts a route for every outlink in the
+   * OutlinkDb, later passes follow the routes of the previous pass. Routes
+   * that find their start url are written to the found output, routes that
+   * are still looking are passed on to the outlinks of their url unless it
+   * is the last pass.
    */
   public static class Looper
     extends Configured
-    implements Mapper<Text, Writable, Text, ObjectWritable>,
-    Reducer<Text, ObjectWritable, Text, Route> {
+    implements Mapper<Text, Writable, RouteKey, LoopWritable>,
+    Reducer<RouteKey, LoopWritable, Text, Route> {
+
+    public static final String FOUND = "found";
 
     private JobConf conf;
+    private boolean first = false;
     private boolean last = false;
+    private int maxRoutes;
+    private MultipleOutputs found;
 
     /**
      * Default constructor.
@@ -308,104 +423,119 @@ public class Loops
      */
     public void configure(JobConf conf) {
       this.conf = conf;
+      this.first = conf.getBoolean("first", false);
       this.last = conf.getBoolean("last", false);
+      this.maxRoutes = conf.getInt("link.loops.max.routes", 10000);
+      this.found = new MultipleOutputs(conf);
     }
 
     /**
-     * Wrap values in ObjectWritable.
+     * Maps outlinks to their url, and routes to the url they have reached.
+     * In the first pass every outlink also starts a route at the url it
+     * points to.
      */
     public void map(Text key, Writable value,
-      OutputCollector<Text, ObjectWritable> output, Reporter reporter)
+      OutputCollector<RouteKey, LoopWritable> output, Reporter reporter)
       throws IOException {
 
-      ObjectWritable objWrite = new ObjectWritable();
-      Writable cloned = null;
       if (value instanceof LinkDatum) {
-        cloned = new Text(((LinkDatum)value).getUrl());
+        Text outlinkUrl = new Text(((LinkDatum)value).getUrl());
+        output.collect(new RouteKey(key, RouteKey.OUTLINK, 0L, 0L),
+          new LoopWritable(outlinkUrl));
+        if (first) {
+          long lookingFor = fingerprint(key.toString());
+          long outlink = fingerprint(outlinkUrl.toString());
+          output.collect(new RouteKey(outlinkUrl, RouteKey.ROUTE, lookingFor,
+            outlink), new LoopWritable(new Route(lookingFor, outlink)));
+        }
       }
-      else {
-        cloned = WritableUtils.clone(value, conf);
+      else if (value instanceof Route) {
+        Route route = (Route)value;
+        output.collect(new RouteKey(key, RouteKey.ROUTE, route.getLookingFor(),
+          route.getOutlink()), new LoopWritable(route));
       }
-      objWrite.set(cloned);
-      output.collect(key, objWrite);
     }
 
     /**
-     * Performs a single loop pass looking for loop cycles within routes. If
-     * This is not the last loop cycle then url will be mapped for further
-     * passes.
+     * Checks the routes that reached a url against its outlinks. The outlinks
+     * come first, then the routes in order, so duplicate routes which took
+     * different paths are next to each other and only followed once.
      */
-    public void reduce(Text key, Iterator<ObjectWritable> values,
+    @SuppressWarnings("unchecked")
+    public void reduce(RouteKey key, Iterator<LoopWritable> values,
       OutputCollector<Text, Route> output, Reporter reporter)
       throws IOException {
 
-      List<Route> routeList = new ArrayList<Route>();
-      Set<String> outlinkUrls = new LinkedHashSet<String>();
+      Map<Long, String> outlinks = new LinkedHashMap<Long, String>();
+      long url = fingerprint(key.getUrl().toString());
+      long lastLookingFor = 0L;
+      long lastOutlink = 0L;
+      int numRoutes = 0;
       int numValues = 0;
 
-      // aggregate all routes and outlinks for a given url
       while (values.hasNext()) {
-        ObjectWritable next = values.next();
-        Object value = next.get();
-        if (value instanceof Route) {
-          routeList.add(WritableUtils.clone((Route)value, conf));
-        }
-        else if (value instanceof Text) {
-          String outlinkUrl = ((Text)value).toString();
-          if (!outlinkUrls.contains(outlinkUrl)) {
-            outlinkUrls.add(outlinkUrl);
-          }
-        }
+        Writable value = values.next().get();
 
         // specify progress, could be a lot of routes
         numValues++;
         if (numValues % 100 == 0) {
           reporter.progress();
         }
-      }
 
-      // loop through the route list
-      Iterator<Route> routeIt = routeList.listIterator();
-      while (routeIt.hasNext()) {
-
-        // removing the route for space concerns, could be a lot of routes
-        // if the route is already found, meaning it is a loop just collect it
-        // urls with no outlinks that are not found will fall off
-        Route route = routeIt.next();
-        routeIt.remove();
-        if (route.isFound()) {
-          output.collect(key, route);
+        if (value instanceof Text) {
+          String outlinkUrl = value.toString();
+          outlinks.put(fingerprint(outlinkUrl), outlinkUrl);
+          continue;
         }
-        else {
 
-          // if the route start url is found, set route to found and collect
-          String lookingFor = route.getLookingFor();
-          if (outlinkUrls.contains(lookingFor)) {
-            route.setFound(true);
-            output.collect(key, route);
-          }
-          else if (!last) {
+        // skip duplicates and routes which came back to their start url, those
+        // were found one link earlier
+        Route route = (Route)value;
+        long lookingFor = route.getLookingFor();
+        if ((numRoutes > 0 && lookingFor == lastLookingFor
+          && route.getOutlink() == lastOutlink) || lookingFor == url) {
+          continue;
+        }
+        lastLookingFor = lookingFor;
+        lastOutlink = route.getOutlink();
+        numRoutes++;
+
+        // if the start url is an outlink the route is a loop, collect it under
+        // the start url
+        String start = outlinks.get(lookingFor);
+        if (start != null) {
+          found.getCollector(FOUND, reporter).collect(new Text(start), route);
+          reporter.incrCounter("Loops", "found routes", 1);
+        }
+        else if (!last && !outlinks.isEmpty()) {
 
-            // setup for next pass through the loop
-            for (String outlink : outlinkUrls) {
-              output.collect(new Text(outlink), route);
-            }
+          // follow at most max routes further from a url, on dense sites the
+          // number of routes otherwise explodes with every pass
+          if (maxRoutes > 0 && numRoutes > maxRoutes) {
+            reporter.incrCounter("Loops", "dropped routes", 1);
+            continue;
+          }
+          for (String outlinkUrl : outlinks.values()) {
+            output.collect(new Text(outlinkUrl), route);
           }
         }
       }
     }
 
-    public void close() {
+    public void close()
+      throws IOException {
+      found.close();
     }
   }
 
   /**
-   * Finishes the Loops job by aggregating and collecting and found routes.
+   * Finishes the Loops job by resolving the found routes of a url to its
+   * outlinks and collecting them as a loopset.
    */
   public static class Finalizer
     extends Configured
-    implements Mapper<Text, Route, Text, Route>,
-    Reducer<Text, Route, Text, LoopSet> {
+    implements Mapper<Text, Writable, Text, LoopWritable>,
+    Reducer<Text, LoopWritable, Text, LoopSet> {
 
     private JobConf conf;
 
@@ -430,32 +560,52 @@ public class Loops
     }
 
     /**
-     * Maps out and found routes, those will be the link cycles.
+     * Maps out the outlinks and found routes of a url.
      */
-    public void map(Text key, Route value, OutputCollector<Text, Route> output,
-      Reporter reporter)
+    public void map(Text key, Writable value,
+      OutputCollector<Text, LoopWritable> output, Reporter reporter)
       throws IOException {
 
-      if (value.isFound()) {
-        String lookingFor = value.getLookingFor();
-        output.collect(new Text(lookingFor), value);
+      if (value instanceof LinkDatum) {
+        output.collect(key, new LoopWritable(new Text(
+          ((LinkDatum)value).getUrl())));
+      }
+      else if (value instanceof Route) {
+        output.collect(key, new LoopWritable(value));
       }
     }
 
     /**
-     * Aggregates all found routes for a given start url into a loopset and 
-     * collects the loopset.
+     * Aggregates the outlinks which found routes of a url start with into a
+     * loopset and collects the loopset.
      */
-    public void reduce(Text key, Iterator<Route> values,
+    public void reduce(Text key, Iterator<LoopWritable> values,
       OutputCollector<Text, LoopSet> output, Reporter reporter)
       throws IOException {
 
-      LoopSet loops = new LoopSet();
+      Map<Long, String> outlinks = new HashMap<Long, String>();
+      Set<Long> found = new HashSet<Long>();
       while (values.hasNext()) {
-        Route route = values.next();
-        loops.getLoopSet().add(route.getOutlinkUrl());
+        Writable value = values.next().get();
+        if (value instanceof Text) {
+          String outlinkUrl = value.toString();
+          outlinks.put(fingerprint(outlinkUrl), outlinkUrl);
+        }
+        else {
+          found.add(((Route)value).getOutlink());
+        }
+      }
+
+      LoopSet loops = new LoopSet();
+      for (Long outlink : found) {
+        String outlinkUrl = outlinks.get(outlink);
+        if (outlinkUrl != null) {
+          loops.getLoopSet().add(outlinkUrl);
+        }
+      }
+      if (!loops.getLoopSet().isEmpty()) {
+        output.collect(key, loops);
       }
-      output.collect(key, loops);
     }
 
     public void close() {
@@ -477,67 +627,68 @@ public class Loops
 
     Configuration conf = getConf();
     FileSystem fs = FileSystem.get(conf);
+    WebGraph.compact(conf, webGraphDb);
     Path outlinkDb = new Path(webGraphDb, WebGraph.OUTLINK_DIR);
-    Path nodeDb = new Path(webGraphDb, WebGraph.NODE_DIR);
     Path routes = new Path(webGraphDb, ROUTES_DIR);
+    Path foundRoutes = new Path(webGraphDb, ROUTES_DIR + "-"
+      + Looper.FOUND);
     Path tempRoute = new Path(webGraphDb, ROUTES_DIR + "-"
       + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
-
-    // run the initializer
-    JobConf init = new NutchJob(conf);
-    init.setJobName("Initializer: " + webGraphDb);
-    FileInputFormat.addInputPath(init, outlinkDb);
-    FileInputFormat.addInputPath(init, nodeDb);
-    init.setInputFormat(SequenceFileInputFormat.class);
-    init.setMapperClass(Initializer.class);
-    init.setReducerClass(Initializer.class);
-    init.setMapOutputKeyClass(Text.class);
-    init.setMapOutputValueClass(ObjectWritable.class);
-    init.setOutputKeyClass(Text.class);
-    init.setOutputValueClass(Route.class);
-    FileOutputFormat.setOutputPath(init, tempRoute);
-    init.setOutputFormat(SequenceFileOutputFormat.class);
-
-    try {
-      LOG.info("Loops: starting initializer");
-      JobClient.runJob(init);
-      LOG.info("Loops: installing initializer " + routes);
-      FSUtils.replace(fs, routes, tempRoute, true);
-      LOG.info("Loops: finished initializer");
+    if (fs.exists(routes)) {
+      fs.delete(routes, true);
     }
-    catch (IOException e) {
-      LOG.error(StringUtils.stringifyException(e));
-      throw e;
+    if (fs.exists(foundRoutes)) {
+      fs.delete(foundRoutes, true);
     }
+    fs.mkdirs(foundRoutes);
 
     // run the loops job for a maxdepth, default 2, which will find a 3 link
-    // loop cycle
+    // loop cycle, the first pass starts the routes
     int depth = conf.getInt("link.loops.depth", 2);
     for (int i = 0; i < depth; i++) {
 
       JobConf looper = new NutchJob(conf);
       looper.setJobName("Looper: " + (i + 1) + " of " + depth);
       FileInputFormat.addInputPath(looper, outlinkDb);
-      FileInputFormat.addInputPath(looper, routes);
+      if (i > 0) {
+        FileInputFormat.addInputPath(looper, routes);
+      }
       looper.setInputFormat(SequenceFileInputFormat.class);
       looper.setMapperClass(Looper.class);
       looper.setReducerClass(Looper.class);
-      looper.setMapOutputKeyClass(Text.class);
-      looper.setMapOutputValueClass(ObjectWritable.class);
+      looper.setMapOutputKeyClass(RouteKey.class);
+      looper.setMapOutputValueClass(LoopWritable.class);
+      looper.setPartitionerClass(RouteKey.UrlPartitioner.class);
+      looper.setOutputKeyComparatorClass(RouteKey.Comparator.class);
+      looper.setOutputValueGroupingComparator(RouteKey.UrlComparator.class);
       looper.setOutputKeyClass(Text.class);
       looper.setOutputValueClass(Route.class);
       FileOutputFormat.setOutputPath(looper, tempRoute);
       looper.setOutputFormat(SequenceFileOutputFormat.class);
+      MultipleOutputs.addNamedOutput(looper, Looper.FOUND,
+        SequenceFileOutputFormat.class, Text.class, Route.class);
+      looper.setBoolean("first", i == 0);
       looper.setBoolean("last", i == (depth - 1));
 
       try {
         LOG.info("Loops: starting looper");
         JobClient.runJob(looper);
+
+        // keep the found routes of every pass for the finalizer
+        FileStatus[] found = fs.globStatus(new Path(tempRoute, Looper.FOUND
+          + "-*"));
+        for (FileStatus status : found) {
+          fs.rename(status.getPath(), new Path(foundRoutes, i + "-"
+            + status.getPath().getName()));
+        }
         LOG.info("Loops: installing looper " + routes);
         FSUtils.replace(fs, routes, tempRoute, true);
         LOG.info("Loops: finished looper");
       }
       catch (IOException e) {
+        if (fs.exists(tempRoute)) {
+          fs.delete(tempRoute, true);
+        }
         LOG.error(StringUtils.stringifyException(e));
         throw e;
       }
@@ -546,12 +697,13 @@ public class Loops
     // run the finalizer
     JobConf finalizer = new NutchJob(conf);
     finalizer.setJobName("Finalizer: " + webGraphDb);
-    FileInputFormat.addInputPath(finalizer, routes);
+    FileInputFormat.addInputPath(finalizer, outlinkDb);
+    FileInputFormat.addInputPath(finalizer, foundRoutes);
     finalizer.setInputFormat(SequenceFileInputFormat.class);
     finalizer.setMapperClass(Finalizer.class);
     finalizer.setReducerClass(Finalizer.class);
     finalizer.setMapOutputKeyClass(Text.class);
-    finalizer.setMapOutputValueClass(Route.class);
+    finalizer.setMapOutputValueClass(LoopWritable.class);
     finalizer.setOutputKeyClass(Text.class);
     finalizer.setOutputValueClass(LoopSet.class);
     FileOutputFormat.setOutputPath(finalizer, new Path(webGraphDb, LOOPS_DIR));
@@ -560,6 +712,8 @@ public class Loops
     try {
       LOG.info("Loops: starting finalizer");
       JobClient.runJob(finalizer);
+      fs.delete(routes, true);
+      fs.delete(foundRoutes, true);
       LOG.info("Loops: finished finalizer");
     }
     catch (IOException e) {
@@ -18,7 +18,12 @@ package org.apache.nutch.scoring.webgraph;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -62,6 +67,9 @@ import org.apache.nutch.util.URLUtil;
  * For number of inlinks or number of outlinks the WebGraph program will need to
  * have been run. For link analysis score a program such as LinkRank will need
  * to have been run which updates the NodeDb of the WebGraph.
+ * 
+ * With a topN each map task only keeps its own top urls, or the reducer its
+ * top hosts or domains, in a bounded heap, so only a few records are sorted.
  */
 public class NodeDumper
   extends Configured
@@ -85,6 +93,69 @@ public class NodeDumper
     DOMAIN
   }
 
+  /**
+   * Keeps the names with the highest values seen, at most a given number of
+   * them, in a min heap.
+   */
+  static class TopValues {
+
+    private static class Entry {
+      private String name;
+      private float value;
+
+      private Entry(String name, float value) {
+        this.name = name;
+        this.value = value;
+      }
+    }
+
+    // lowest value first, on equal values the name last in order first
+    private static final Comparator<Entry> ASCENDING = new Comparator<Entry>() {
+      public int compare(Entry e1, Entry e2) {
+        int cmp = Float.compare(e1.value, e2.value);
+        return cmp != 0 ? cmp : e2.name.compareTo(e1.name);
+      }
+    };
+
+    private long max;
+    private PriorityQueue<Entry> heap = new PriorityQueue<Entry>(11, ASCENDING);
+
+    TopValues(long max) {
+      this.max = max;
+    }
+
+    /**
+     * Adds a name if its value is among the highest seen so far.
+     */
+    void add(String name, float value) {
+      if (max <= 0) {
+        return;
+      }
+      Entry entry = new Entry(name, value);
+      if (heap.size() < max) {
+        heap.add(entry);
+      }
+      else if (ASCENDING.compare(entry, heap.peek()) > 0) {
+        heap.poll();
+        heap.add(entry);
+      }
+    }
+
+    /**
+     * Collects the names with their values, highest value first, and empties
+     * the heap.
+     */
+    void collect(OutputCollector<Text, FloatWritable> output)
+      throws IOException {
+      List<Entry> entries = new ArrayList<Entry>(heap);
+      heap.clear();
+      Collections.sort(entries, Collections.reverseOrder(ASCENDING));
+      for (Entry entry : entries) {
+        output.collect(new Text(entry.name), new FloatWritable(entry.value));
+      }
+    }
+  }
+
   /**
    * Outputs the top urls sorted in descending order. Depending on the flag set
    * on the command line, the top urls could be for number of inlinks, for
@@ -100,6 +171,9 @@ public class NodeDumper
     private boolean outlinks = false;
     private boolean scores = false;
     private long topn = Long.MAX_VALUE;
+    private long numCollected = 0;
+    private TopValues topValues;
+    private OutputCollector<FloatWritable, Text> mapOutput;
 
     /**
      * Configures the job, sets the flag for type of content and the topN number
@@ -111,14 +185,31 @@ public class NodeDumper
       this.outlinks = conf.getBoolean("outlinks", false);
       this.scores = conf.getBoolean("scores", true);
       this.topn = conf.getLong("topn", Long.MAX_VALUE);
+      if (topn < Long.MAX_VALUE) {
+        topValues = new TopValues(topn);
+      }
     }
 
-    public void close() {
+    /**
+     * Outputs the top urls of the map task, if a topN is set.
+     */
+    public void close()
+      throws IOException {
+      if (topValues != null && mapOutput != null) {
+        final OutputCollector<FloatWritable, Text> output = mapOutput;
+        topValues.collect(new OutputCollector<Text, FloatWritable>() {
+          public void collect(Text url, FloatWritable number)
+            throws IOException {
+            output.collect(new FloatWritable(-number.get()), url);
+          }
+        });
+      }
     }
 
     /**
      * Outputs the url with the appropriate number of inlinks, outlinks, or for
-     * score.
+     * score. With a topN only the top urls of the map task are output when it
+     * closes.
      */
     public void map(Text key, Node node,
       OutputCollector<FloatWritable, Text> output, Reporter reporter)
@@ -135,6 +226,12 @@ public class NodeDumper
         number = node.getInlinkScore();
       }
 
+      if (topValues != null) {
+        mapOutput = output;
+        topValues.add(key.toString(), number);
+        return;
+      }
+
       // number collected with negative to be descending
       output.collect(new FloatWritable(-number), key);
     }
@@ -150,9 +247,8 @@ public class NodeDumper
       // value are a little weird
       float val = key.get();
       FloatWritable number = new FloatWritable(val == 0 ? 0 : -val);
-      long numCollected = 0;
 
-      // collect all values, this time with the url as key
+      // collect all values up to the topN, this time with the url as key
       while (values.hasNext() && (numCollected < topn)) {
         Text url = WritableUtils.clone(values.next(), conf);
         output.collect(url, number);
@@ -161,10 +257,51 @@ public class NodeDumper
     }
   }
 
+  /**
+   * Sums or takes the maximum of the values of a host or domain, used as the
+   * combiner of the Dumper.
+   */
+  public static class Aggregator
+    implements Reducer<Text, FloatWritable, Text, FloatWritable> {
+
+    private boolean sum = false;
+
+    public void configure(JobConf conf) {
+      this.sum = conf.getBoolean("sum", false);
+    }
+
+    public void close() {
+    }
+
+    public void reduce(Text key, Iterator<FloatWritable> values,
+      OutputCollector<Text, FloatWritable> output, Reporter reporter)
+      throws IOException {
+      output.collect(key, new FloatWritable(aggregate(values, sum)));
+    }
+  }
+
+  /**
+   * Returns the sum or the top value.
+   */
+  private static float aggregate(Iterator<FloatWritable> values, boolean sum) {
+    float sumOrMax = 0;
+    while (values.hasNext()) {
+      float val = values.next().get();
+      if (sum) {
+        sumOrMax += val;
+      }
+      else if (sumOrMax < val) {
+        sumOrMax = val;
+      }
+    }
+    return sumOrMax;
+  }
+
   /**
    * Outputs the hosts or domains with an associated value. This value consists of either
    * the number of inlinks, the number of outlinks or the score. The computed value is then
-   * either the sum of all parts or the top value.
+   * either the sum of all parts or the top value. With a topN only the hosts or
+   * domains with the highest values are output, highest first.
    */
   public static class Dumper
     extends Configured
@@ -180,6 +317,8 @@ public class NodeDumper
     private boolean domain = false;
     private boolean sum = false;
     private boolean max = false;
+    private TopValues topValues;
+    private OutputCollector<Text, FloatWritable> reduceOutput;
 
     public void configure(JobConf conf) {
       this.conf = conf;
@@ -191,9 +330,19 @@ public class NodeDumper
       this.domain = conf.getBoolean("domain", false);
       this.sum = conf.getBoolean("sum", false);
       this.max = conf.getBoolean("max", false);
+      if (topn < Long.MAX_VALUE) {
+        topValues = new TopValues(topn);
+      }
     }
 
-    public void close() {
+    /**
+     * Outputs the top hosts or domains, if a topN is set.
+     */
+    public void close()
+      throws IOException {
+      if (topValues != null && reduceOutput != null) {
+        topValues.collect(reduceOutput);
+      }
     }
 
     /**
@@ -231,26 +380,14 @@ public class NodeDumper
       OutputCollector<Text, FloatWritable> output, Reporter reporter)
       throws IOException {
 
-      long numCollected = 0;
-      float sumOrMax = 0;
-      float val = 0;
-
-      // collect all values, this time with the url as key
-      while (values.hasNext() && (numCollected < topn)) {
-        val = values.next().get();
-
-        if (sum) {
-          sumOrMax += val;
-        } else {
-          if (sumOrMax < val) {
-            sumOrMax = val;
-          }
-        }
-
-        numCollected++;
+      float sumOrMax = aggregate(values, sum);
+      if (topValues != null) {
+        reduceOutput = output;
+        topValues.add(key.toString(), sumOrMax);
+      }
+      else {
+        output.collect(key, new FloatWritable(sumOrMax));
       }
-
-      output.collect(key, new FloatWritable(sumOrMax));
     }
   }
 
@@ -272,6 +409,7 @@ public class NodeDumper
     LOG.info("NodeDumper: starting at " + sdf.format(start));
     Path nodeDb = new Path(webGraphDb, WebGraph.NODE_DIR);
     Configuration conf = getConf();
+    WebGraph.compact(conf, webGraphDb);
 
     JobConf dumper = new NutchJob(conf);
     dumper.setJobName("NodeDumper: " + webGraphDb);
@@ -285,6 +423,7 @@ public class NodeDumper
       dumper.setMapOutputValueClass(Text.class);
     } else {
       dumper.setMapperClass(Dumper.class);
+      dumper.setCombinerClass(Aggregator.class);
       dumper.setReducerClass(Dumper.class);
       dumper.setMapOutputKeyClass(Text.class);
       dumper.setMapOutputValueClass(FloatWritable.class);
@@ -424,7 +563,7 @@ public class NodeDumper
       if (group != null && group.length == 2) {
         nameType = (group[0].equals("host") ? NameType.HOST : group[0].equals("domain")
           ? NameType.DOMAIN : null);
-        aggrType = (group[1].equals("sum") ? AggrType.SUM : group[1].equals("sum")
+        aggrType = (group[1].equals("sum") ? AggrType.SUM : group[1].equals("max")
           ? AggrType.MAX : null);
       }
 
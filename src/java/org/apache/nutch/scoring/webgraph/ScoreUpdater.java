@@ -32,11 +32,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
 import org.apache.hadoop.io.ObjectWritable;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
@@ -47,11 +52,15 @@ import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.lib.NullOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.util.HadoopFSUtil;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.NutchJob;
 import org.apache.nutch.util.TimingUtil;
@@ -60,6 +69,11 @@ import org.apache.nutch.util.TimingUtil;
  * Updates the score from the WebGraph node database into the crawl database.
  * Any score that is not in the node database is set to the clear score in the 
  * crawl database.
+ * 
+ * When the crawl database and the node database have the same number of parts
+ * they are partitioned the same way, so the scores are joined on the map side
+ * by merging each crawl database part with the sorted node database part of
+ * the same name. Otherwise both databases are shuffled together.
  */
 public class ScoreUpdater
   extends Configured
@@ -76,6 +90,103 @@ public class ScoreUpdater
     clearScore = conf.getFloat("link.score.updater.clear.score", 0.0f);
   }
 
+  /**
+   * Sets the score of a CrawlDatum to the inlink score of its node, or to the
+   * clear score if the url has no node.
+   */
+  private static void updateScore(String url, CrawlDatum datum, Node node,
+    float clearScore) {
+
+    if (node != null) {
+
+      // set the inlink score in the nodedb
+      float inlinkScore = node.getInlinkScore();
+      datum.setScore(inlinkScore);
+      LOG.debug(url + ": setting to score " + inlinkScore);
+    }
+    else {
+
+      // clear out the score in the crawldb
+      datum.setScore(clearScore);
+      LOG.debug(url + ": setting to clear score of " + clearScore);
+    }
+  }
+
+  /**
+   * Merges a crawl database part with the node database part of the same name
+   * and writes the updated part directly, without a shuffle. Both parts are
+   * sorted by url, so the node reader only moves forward.
+   */
+  public static class ScoreJoiner
+    implements Mapper<Text, CrawlDatum, Text, CrawlDatum> {
+
+    private float clearScore = 0.0f;
+    private MapFile.Reader nodeReader;
+    private Text nodeUrl = new Text();
+    private Node node = new Node();
+    private boolean hasNode = false;
+    private MapFile.Writer writer;
+
+    public void configure(JobConf conf) {
+      clearScore = conf.getFloat("link.score.updater.clear.score", 0.0f);
+
+      // the input file is the data file of a crawl database part
+      String part = new Path(conf.get("map.input.file")).getParent().getName();
+      Path nodeDb = new Path(conf.get("link.score.updater.nodedb"));
+      try {
+        FileSystem fs = FileSystem.get(conf);
+        nodeReader = new MapFile.Reader(fs, new Path(nodeDb, part).toString(),
+          conf);
+        hasNode = nodeReader.next(nodeUrl, node);
+
+        CompressionType compressionType = CompressionType.NONE;
+        CompressionCodec codec = null;
+        if (FileOutputFormat.getCompressOutput(conf)) {
+          compressionType = SequenceFileOutputFormat.getOutputCompressionType(conf);
+          codec = ReflectionUtils.newInstance(
+            FileOutputFormat.getOutputCompressorClass(conf, DefaultCodec.class),
+            conf);
+        }
+        Path out = new Path(FileOutputFormat.getWorkOutputPath(conf), part);
+        writer = new MapFile.Writer(conf, fs, out.toString(), Text.class,
+          CrawlDatum.class, compressionType, codec, null);
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public void map(Text key, CrawlDatum datum,
+      OutputCollector<Text, CrawlDatum> output, Reporter reporter)
+      throws IOException {
+
+      // skip nodes that are not in the crawldb
+      int cmp = 0;
+      while (hasNode && (cmp = nodeUrl.compareTo(key)) < 0) {
+        hasNode = nodeReader.next(nodeUrl, node);
+      }
+      updateScore(key.toString(), datum, hasNode && cmp == 0 ? node : null,
+        clearScore);
+      writer.append(key, datum);
+    }
+
+    public void close()
+      throws IOException {
+      nodeReader.close();
+      writer.close();
+    }
+  }
+
+  /**
+   * Returns the number of parts of a MapFile output directory.
+   */
+  private static int getNumParts(FileSystem fs, Path dir)
+    throws IOException {
+    FileStatus[] parts = fs.listStatus(dir,
+      HadoopFSUtil.getPassDirectoriesFilter(fs));
+    return parts == null ? 0 : parts.length;
+  }
+
   /**
    * Changes input into ObjectWritables.
    */
@@ -116,21 +227,7 @@ public class ScoreUpdater
     // datum should never be null, could happen if somehow the url was 
     // normalized or changed after being pulled from the crawldb
     if (datum != null) {
-
-      if (node != null) {
-        
-        // set the inlink score in the nodedb
-        float inlinkScore = node.getInlinkScore();
-        datum.setScore(inlinkScore);
-        LOG.debug(url + ": setting to score " + inlinkScore);
-      }
-      else {
-        
-        // clear out the score in the crawldb
-        datum.setScore(clearScore);
-        LOG.debug(url + ": setting to clear score of " + clearScore);
-      }
-
+      updateScore(url, datum, node, clearScore);
       output.collect(key, datum);
     }
     else {
@@ -159,28 +256,48 @@ public class ScoreUpdater
 
     Configuration conf = getConf();
     FileSystem fs = FileSystem.get(conf);
+    WebGraph.compact(conf, webGraphDb);
 
     // create a temporary crawldb with the new scores
     LOG.info("Running crawldb update " + crawlDb);
     Path nodeDb = new Path(webGraphDb, WebGraph.NODE_DIR);
-    Path crawlDbCurrent = new Path(crawlDb, CrawlDb.CURRENT_NAME);
     Path newCrawlDb = new Path(crawlDb,
       Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
 
+    // both databases use the default hash partitioning of urls, with the same
+    // number of parts and no pending crawldb deltas the parts line up
+    Path current = new Path(crawlDb, CrawlDb.CURRENT_NAME);
+    boolean join = conf.getBoolean("link.score.updater.join", true)
+      && CrawlDb.getDeltas(fs, crawlDb).length == 0 && fs.exists(current)
+      && getNumParts(fs, current) == getNumParts(fs, nodeDb);
+
     // run the updater job outputting to the temp crawl database
     JobConf updater = new NutchJob(conf);
-    updater.setJobName("Update CrawlDb from WebGraph");
-    FileInputFormat.addInputPath(updater, crawlDbCurrent);
-    FileInputFormat.addInputPath(updater, nodeDb);
+    CrawlDb.addInputPaths(updater, crawlDb);
     FileOutputFormat.setOutputPath(updater, newCrawlDb);
     updater.setInputFormat(SequenceFileInputFormat.class);
-    updater.setMapperClass(ScoreUpdater.class);
-    updater.setReducerClass(ScoreUpdater.class);
-    updater.setMapOutputKeyClass(Text.class);
-    updater.setMapOutputValueClass(ObjectWritable.class);
     updater.setOutputKeyClass(Text.class);
     updater.setOutputValueClass(CrawlDatum.class);
-    updater.setOutputFormat(MapFileOutputFormat.class);
+    if (join) {
+
+      // one map task per crawldb part, writing the part itself
+      LOG.info("ScoreUpdater: joining scores on the map side");
+      updater.setJobName("Update CrawlDb from WebGraph (map side join)");
+      updater.setLong("mapred.min.split.size", Long.MAX_VALUE);
+      updater.set("link.score.updater.nodedb", nodeDb.toString());
+      updater.setMapperClass(ScoreJoiner.class);
+      updater.setNumReduceTasks(0);
+      updater.setOutputFormat(NullOutputFormat.class);
+    }
+    else {
+      updater.setJobName("Update CrawlDb from WebGraph");
+      FileInputFormat.addInputPath(updater, nodeDb);
+      updater.setMapperClass(ScoreUpdater.class);
+      updater.setReducerClass(ScoreUpdater.class);
+      updater.setMapOutputKeyClass(Text.class);
+      updater.setMapOutputValueClass(ObjectWritable.class);
+      updater.setOutputFormat(MapFileOutputFormat.class);
+    }
 
     try {
       JobClient.runJob(updater);
@@ -19,6 +19,7 @@ package org.apache.nutch.scoring.webgraph;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -43,6 +44,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.MapFile;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapred.FileInputFormat;
@@ -55,11 +57,15 @@ import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+import org.apache.hadoop.mapred.lib.IdentityReducer;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.crawl.NutchWritable;
 import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.Generator;
 import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.net.URLFilters;
 import org.apache.nutch.net.URLNormalizers;
@@ -86,7 +92,10 @@ import org.apache.nutch.util.URLUtil;
  * allows the WebGraph to adapt to changes in the link structure of the web.
  * 
  * The Inlink database is created from the Outlink database and is regenerated
- * when the WebGraph is updated. The Node database is created from both the
+ * when the WebGraph is updated, unless it is updated incrementally. An
+ * incremental update stores only the changed outlinks, the inlinks they add
+ * or remove and the changed link counts of the affected nodes in a delta.
+ * Deltas are compacted into the databases later. The Node database is created from both the
  * Inlink and Outlink databases. Because the Node database is overwritten when
  * the WebGraph is updated and because the Node database holds current scores
  * for urls it is recommended that a crawl-cyle (one or more full crawls) fully
@@ -103,6 +112,12 @@ public class WebGraph
   public static final String OUTLINK_DIR = "outlinks/current";
   public static final String OLD_OUTLINK_DIR = "outlinks/old";
   public static final String NODE_DIR = "nodes";
+  public static final String DELTA_DIR = "deltas";
+  public static final String INCREMENTAL = "webgraph.incremental";
+  public static final String DELTA_MAX = "webgraph.delta.max";
+
+  // a delta holds its outlinks, inlinks and nodes under these names
+  private static final String DELTA_OUTLINK_DIR = "outlinks";
 
   /**
    * The OutlinkDb creates a database of all outlinks. Outlinks to internal urls
@@ -331,21 +346,13 @@ public class WebGraph
       OutputCollector<Text, LinkDatum> output, Reporter reporter)
       throws IOException {
 
-      // aggregate all outlinks, get the most recent timestamp for a fetch
-      // which should be the timestamp for all of the most recent outlinks
-      long mostRecent = 0L;
+      // aggregate all outlinks
       List<LinkDatum> outlinkList = new ArrayList<LinkDatum>();
       while (values.hasNext()) {
         Writable value = values.next().get();
 
         if (value instanceof LinkDatum) {
-          // loop through, change out most recent timestamp if needed
-          LinkDatum next = (LinkDatum)value;
-          long timestamp = next.getTimestamp();
-          if (mostRecent == 0L || mostRecent < timestamp) {
-            mostRecent = timestamp;
-          }
-          outlinkList.add(WritableUtils.clone(next, conf));
+          outlinkList.add(WritableUtils.clone((LinkDatum)value, conf));
           reporter.incrCounter("WebGraph.outlinks", "added links", 1);
         }
         else if (value instanceof BooleanWritable) {
@@ -359,8 +366,36 @@ public class WebGraph
         }
       }
 
-      // get the url, domain, and host for the url
-      String url = key.toString();
+      for (LinkDatum datum : limitOutlinks(key.toString(), outlinkList)) {
+        output.collect(key, datum);
+      }
+    }
+
+    /**
+     * Returns the outlinks of a url which are the most recent and conform to
+     * the internal url and limiting rules, with their link type set.
+     * 
+     * @param url The url the outlinks are from.
+     * @param outlinkList All known outlinks of the url.
+     * 
+     * @return The outlinks to keep.
+     * 
+     * @throws IOException If a url is malformed.
+     */
+    List<LinkDatum> limitOutlinks(String url, List<LinkDatum> outlinkList)
+      throws IOException {
+
+      // get the most recent timestamp for a fetch which should be the
+      // timestamp for all of the most recent outlinks
+      long mostRecent = 0L;
+      for (LinkDatum datum : outlinkList) {
+        long timestamp = datum.getTimestamp();
+        if (mostRecent == 0L || mostRecent < timestamp) {
+          mostRecent = timestamp;
+        }
+      }
+
+      // get the domain and host for the url
       String domain = URLUtil.getDomainName(url);
       String host = URLUtil.getHost(url);
 
@@ -369,6 +404,7 @@ public class WebGraph
       Set<String> pages = new HashSet<String>();
 
       // loop through the link datums
+      List<LinkDatum> limited = new ArrayList<LinkDatum>();
       for (LinkDatum datum : outlinkList) {
 
         // get the url, host, domain, and page for each outlink
@@ -379,17 +415,18 @@ public class WebGraph
         datum.setLinkType(LinkDatum.OUTLINK);
 
         // outlinks must be the most recent and conform to internal url and
-        // limiting rules, if it does collect it
+        // limiting rules, if it does keep it
         if (datum.getTimestamp() == mostRecent
           && (!limitPages || (limitPages && !pages.contains(toPage)))
           && (!limitDomains || (limitDomains && !domains.contains(toDomain)))
           && (!ignoreHost || (ignoreHost && !toHost.equalsIgnoreCase(host)))
           && (!ignoreDomain || (ignoreDomain && !toDomain.equalsIgnoreCase(domain)))) {
-          output.collect(key, datum);
+          limited.add(datum);
           pages.add(toPage);
           domains.add(toDomain);
         }
       }
+      return limited;
     }
 
     public void close() {
@@ -484,6 +521,332 @@ public class WebGraph
     }
   }
 
+  /**
+   * Computes the changes an incremental update makes to the outlinks of the
+   * urls in new segments. The current outlinks of a url are looked up in the
+   * OutlinkDb and the pending deltas, the new ones are selected from both by
+   * the same rules as in the {@link OutlinkDb}. If they differ the url gets
+   * its new outlinks plus removed links for the outlinks it lost, along with
+   * the changes to the link counts of the affected nodes.
+   */
+  public static class OutlinkDelta
+    extends Configured
+    implements Reducer<Text, NutchWritable, Text, NutchWritable> {
+
+    public static final String WEBGRAPH_DB = "webgraph.delta.webgraphdb";
+
+    private OutlinkDb outlinkDb = new OutlinkDb();
+    private HashPartitioner<Text, Writable> partitioner = new HashPartitioner<Text, Writable>();
+    private List<MapFile.Reader[]> readers = null;
+    private JobConf conf;
+
+    public void configure(JobConf conf) {
+      this.conf = conf;
+      outlinkDb.configure(conf);
+    }
+
+    public void close()
+      throws IOException {
+      if (readers != null) {
+        for (MapFile.Reader[] parts : readers) {
+          for (MapFile.Reader reader : parts) {
+            reader.close();
+          }
+        }
+      }
+    }
+
+    /**
+     * Opens the parts of the current OutlinkDb and of the pending deltas,
+     * oldest first.
+     */
+    private void openReaders()
+      throws IOException {
+      Path webGraphDb = new Path(conf.get(WEBGRAPH_DB));
+      FileSystem fs = FileSystem.get(conf);
+      List<Path> outlinkDbs = new ArrayList<Path>();
+      outlinkDbs.add(new Path(webGraphDb, OUTLINK_DIR));
+      for (Path delta : getDeltas(fs, webGraphDb)) {
+        outlinkDbs.add(new Path(delta, DELTA_OUTLINK_DIR));
+      }
+      readers = new ArrayList<MapFile.Reader[]>();
+      for (Path outlinkDb : outlinkDbs) {
+        if (fs.exists(outlinkDb)) {
+          readers.add(MapFileOutputFormat.getReaders(fs, outlinkDb, conf));
+        }
+      }
+    }
+
+    /**
+     * Returns the current outlinks of a url by the url they point to.
+     */
+    private Map<String, LinkDatum> getOutlinks(Text key)
+      throws IOException {
+
+      if (readers == null) {
+        openReaders();
+      }
+
+      // an outlinkdb holds one entry per outlink, and a lookup of the key
+      // itself may start in the middle of them, so start just before it
+      Text probe = new Text();
+      int length = key.getLength();
+      if (length > 0) {
+        byte[] bytes = new byte[length];
+        System.arraycopy(key.getBytes(), 0, bytes, 0, length);
+        if (bytes[length - 1] == 0) {
+          length--;
+        }
+        else {
+          bytes[length - 1]--;
+        }
+        probe.set(bytes, 0, length);
+      }
+
+      Map<String, LinkDatum> links = new LinkedHashMap<String, LinkDatum>();
+      for (MapFile.Reader[] parts : readers) {
+        MapFile.Reader reader = parts[partitioner.getPartition(key, null,
+          parts.length)];
+        LinkDatum datum = new LinkDatum();
+        Text next = new Text();
+        Text found = (Text)reader.getClosest(probe, datum);
+        while (found != null && found.compareTo(key) <= 0) {
+          if (found.equals(key)) {
+            mergeLink(links, datum);
+            datum = new LinkDatum();
+          }
+          found = reader.next(next, datum) ? next : null;
+        }
+      }
+
+      Iterator<LinkDatum> it = links.values().iterator();
+      while (it.hasNext()) {
+        if (it.next().getLinkType() == LinkDatum.REMOVED) {
+          it.remove();
+        }
+      }
+      return links;
+    }
+
+    public void reduce(Text key, Iterator<NutchWritable> values,
+      OutputCollector<Text, NutchWritable> output, Reporter reporter)
+      throws IOException {
+
+      // the outlinks from the new segments, unless the url is gone
+      boolean gone = false;
+      List<LinkDatum> outlinkList = new ArrayList<LinkDatum>();
+      while (values.hasNext()) {
+        Writable value = values.next().get();
+        if (value instanceof LinkDatum) {
+          outlinkList.add(WritableUtils.clone((LinkDatum)value, conf));
+        }
+        else if (value instanceof BooleanWritable) {
+          gone = true;
+        }
+      }
+
+      // the current outlinks and those the url has after the update, which
+      // are the current ones if they are more recent than the new ones
+      Map<String, LinkDatum> current = getOutlinks(key);
+      long lastTimestamp = 0L;
+      for (LinkDatum link : current.values()) {
+        lastTimestamp = Math.max(lastTimestamp, link.getTimestamp());
+      }
+      List<LinkDatum> outlinks = new ArrayList<LinkDatum>();
+      if (!gone) {
+        outlinkList.addAll(current.values());
+        outlinks = outlinkDb.limitOutlinks(key.toString(), outlinkList);
+      }
+
+      boolean changed = outlinks.size() != current.size();
+      for (LinkDatum link : outlinks) {
+        LinkDatum old = current.get(link.getUrl());
+        if (old == null || !getAnchor(old).equals(getAnchor(link))) {
+          changed = true;
+        }
+      }
+      if (!changed) {
+        return;
+      }
+      reporter.incrCounter("WebGraph.delta", "changed urls", 1);
+
+      // all links of the url get the same timestamp, newer than that of the
+      // current outlinks so that they replace them when compacted
+      long timestamp = lastTimestamp + 1;
+      for (LinkDatum link : outlinks) {
+        timestamp = Math.max(timestamp, link.getTimestamp());
+      }
+
+      int numOutlinks = outlinks.size() - current.size();
+      for (LinkDatum link : outlinks) {
+        link.setTimestamp(timestamp);
+        output.collect(key, new NutchWritable(link));
+        if (current.remove(link.getUrl()) == null) {
+          output.collect(new Text(link.getUrl()),
+            new NutchWritable(createNode(1, 0)));
+          reporter.incrCounter("WebGraph.delta", "added links", 1);
+        }
+      }
+      for (String toUrl : current.keySet()) {
+        LinkDatum removed = new LinkDatum(toUrl, "", timestamp);
+        removed.setLinkType(LinkDatum.REMOVED);
+        output.collect(key, new NutchWritable(removed));
+        output.collect(new Text(toUrl), new NutchWritable(createNode(-1, 0)));
+        reporter.incrCounter("WebGraph.delta", "removed links", 1);
+      }
+      if (numOutlinks != 0) {
+        output.collect(key, new NutchWritable(createNode(0, numOutlinks)));
+      }
+    }
+
+    private static String getAnchor(LinkDatum link) {
+      return link.getAnchor() != null ? link.getAnchor() : "";
+    }
+
+    private static Node createNode(int numInlinks, int numOutlinks) {
+      Node node = new Node();
+      node.setNumInlinks(numInlinks);
+      node.setNumOutlinks(numOutlinks);
+      node.setInlinkScore(0.0f);
+      return node;
+    }
+  }
+
+  /**
+   * Adds a link to the links of a url, unless a more recent version of the
+   * link is known already.
+   */
+  private static void mergeLink(Map<String, LinkDatum> links, LinkDatum link) {
+    LinkDatum existing = links.get(link.getUrl());
+    if (existing == null || existing.getTimestamp() < link.getTimestamp()) {
+      links.put(link.getUrl(), link);
+    }
+  }
+
+  /**
+   * Maps the links of an incremental update, either as they are or inverted
+   * into inlinks, and compacts deltas into the OutlinkDb or InlinkDb by
+   * keeping the most recent version of each link and dropping removed links.
+   */
+  public static class LinkDeltas
+    extends Configured
+    implements Mapper<Text, Writable, Text, LinkDatum>,
+    Reducer<Text, LinkDatum, Text, LinkDatum> {
+
+    public static final String INVERT = "webgraph.delta.invert";
+    public static final String TIMESTAMP = "webgraph.delta.timestamp";
+
+    private boolean invert;
+    private long timestamp;
+    private JobConf conf;
+
+    public void configure(JobConf conf) {
+      this.conf = conf;
+      invert = conf.getBoolean(INVERT, false);
+      timestamp = conf.getLong(TIMESTAMP, System.currentTimeMillis());
+    }
+
+    public void close() {
+    }
+
+    public void map(Text key, Writable value,
+      OutputCollector<Text, LinkDatum> output, Reporter reporter)
+      throws IOException {
+
+      if (value instanceof NutchWritable) {
+        value = ((NutchWritable)value).get();
+      }
+      if (!(value instanceof LinkDatum)) {
+        return;
+      }
+
+      LinkDatum link = (LinkDatum)value;
+      if (invert) {
+        LinkDatum inlink = new LinkDatum(key.toString(), link.getAnchor(),
+          timestamp);
+        inlink.setLinkType(link.getLinkType() == LinkDatum.REMOVED
+          ? LinkDatum.REMOVED : LinkDatum.INLINK);
+        output.collect(new Text(link.getUrl()), inlink);
+      }
+      else {
+        output.collect(key, link);
+      }
+    }
+
+    public void reduce(Text key, Iterator<LinkDatum> values,
+      OutputCollector<Text, LinkDatum> output, Reporter reporter)
+      throws IOException {
+
+      Map<String, LinkDatum> links = new LinkedHashMap<String, LinkDatum>();
+      while (values.hasNext()) {
+        mergeLink(links, WritableUtils.clone(values.next(), conf));
+      }
+      for (LinkDatum link : links.values()) {
+        if (link.getLinkType() != LinkDatum.REMOVED) {
+          output.collect(key, link);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sums the link count changes of an incremental update per node, and
+   * compacts them into the NodeDb. Nodes left without links are dropped,
+   * scores and metadata of existing nodes are kept.
+   */
+  public static class NodeDeltas
+    extends Configured
+    implements Mapper<Text, Writable, Text, Node>,
+    Reducer<Text, Node, Text, Node> {
+
+    private JobConf conf;
+
+    public void configure(JobConf conf) {
+      this.conf = conf;
+    }
+
+    public void close() {
+    }
+
+    public void map(Text key, Writable value,
+      OutputCollector<Text, Node> output, Reporter reporter)
+      throws IOException {
+
+      if (value instanceof NutchWritable) {
+        value = ((NutchWritable)value).get();
+      }
+      if (value instanceof Node) {
+        output.collect(key, (Node)value);
+      }
+    }
+
+    public void reduce(Text key, Iterator<Node> values,
+      OutputCollector<Text, Node> output, Reporter reporter)
+      throws IOException {
+
+      Node node = new Node();
+      int numInlinks = 0;
+      int numOutlinks = 0;
+      float score = 0.0f;
+      while (values.hasNext()) {
+        Node next = values.next();
+        numInlinks += next.getNumInlinks();
+        numOutlinks += next.getNumOutlinks();
+        score += next.getInlinkScore();
+        if (next.getMetadata().size() > 0) {
+          node.setMetadata(WritableUtils.clone(next.getMetadata(), conf));
+        }
+      }
+
+      if (numInlinks != 0 || numOutlinks != 0) {
+        node.setNumInlinks(numInlinks);
+        node.setNumOutlinks(numOutlinks);
+        node.setInlinkScore(score);
+        output.collect(key, node);
+      }
+    }
+  }
+
   /**
    * Creates the three different WebGraph databases, Outlinks, Inlinks, and
    * Node. If a current WebGraph exists then it is updated, if it doesn't exist
@@ -499,6 +862,30 @@ public class WebGraph
    */
   public void createWebGraph(Path webGraphDb, Path[] segments, boolean normalize, boolean filter)
     throws IOException {
+    createWebGraph(webGraphDb, segments, normalize, filter,
+      getConf().getBoolean(INCREMENTAL, false));
+  }
+
+  /**
+   * Creates or updates the WebGraph. An incremental update of an existing
+   * WebGraph only computes the outlinks of the urls in the segments that
+   * changed. These changes, the inlinks they add or remove and the changed
+   * link counts of the affected nodes are stored as a delta, which is
+   * compacted into the WebGraph once there are more than webgraph.delta.max
+   * deltas, or before the WebGraph is analyzed or dumped.
+   * 
+   * @param webGraphDb The WebGraph to create or update.
+   * @param segments The array of segments used to update the WebGraph. Newer
+   * segments and fetch times will overwrite older segments.
+   * @param normalize whether to use URLNormalizers on URL's in the segment
+   * @param filter whether to use URLFilters on URL's in the segment
+   * @param incremental whether to update an existing WebGraph incrementally
+   * 
+   * @throws IOException If an error occurs while processing the WebGraph.
+   */
+  public void createWebGraph(Path webGraphDb, Path[] segments,
+    boolean normalize, boolean filter, boolean incremental)
+    throws IOException {
 
     SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
     long start = System.currentTimeMillis();
@@ -507,6 +894,7 @@ public class WebGraph
       LOG.info("WebGraphDb: webgraphdb: " + webGraphDb);
       LOG.info("WebGraphDb: URL normalize: " + normalize);
       LOG.info("WebGraphDb: URL filter: " + filter);
+      LOG.info("WebGraphDb: incremental: " + incremental);
     }
 
     Configuration conf = getConf();
@@ -520,6 +908,27 @@ public class WebGraph
 
     LockUtil.createLockFile(fs, lock, false);
 
+    // update an existing webgraph with a delta, or compact any pending deltas
+    // before the full update
+    try {
+      if (incremental && fs.exists(new Path(webGraphDb, NODE_DIR))) {
+        updateWebGraph(webGraphDb, segments, normalize, filter);
+        if (getDeltas(fs, webGraphDb).length > conf.getInt(DELTA_MAX, 10)) {
+          compactDeltas(conf, fs, webGraphDb);
+        }
+        LockUtil.removeLockFile(fs, lock);
+        long end = System.currentTimeMillis();
+        LOG.info("WebGraphDb: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
+        return;
+      }
+      compactDeltas(conf, fs, webGraphDb);
+    }
+    catch (IOException e) {
+      LockUtil.removeLockFile(fs, lock);
+      LOG.error(StringUtils.stringifyException(e));
+      throw e;
+    }
+
     // outlink and temp outlink database paths
     Path outlinkDb = new Path(webGraphDb, OUTLINK_DIR);
     Path oldOutlinkDb = new Path(webGraphDb, OLD_OUTLINK_DIR);
@@ -541,23 +950,7 @@ public class WebGraph
     }
 
     // get the parse data and crawl fetch data for all segments
-    if (segments != null) {
-      for (int i = 0; i < segments.length; i++) {
-        Path parseData = new Path(segments[i], ParseData.DIR_NAME);
-        if (fs.exists(parseData)) {
-          LOG.info("OutlinkDb: adding input: " + parseData);
-          FileInputFormat.addInputPath(outlinkJob, parseData);
-        }
-
-        if (deleteGone) {
-          Path crawlFetch = new Path(segments[i], CrawlDatum.FETCH_DIR_NAME);
-          if (fs.exists(crawlFetch)) {
-            LOG.info("OutlinkDb: adding input: " + crawlFetch);
-            FileInputFormat.addInputPath(outlinkJob, crawlFetch);
-          }
-        }
-      }
-    }
+    addSegments(fs, outlinkJob, segments, deleteGone);
 
     // add the existing webgraph
     LOG.info("OutlinkDb: adding input: " + outlinkDb);
@@ -685,6 +1078,241 @@ public class WebGraph
     LOG.info("WebGraphDb: finished at " + sdf.format(end) + ", elapsed: " + TimingUtil.elapsedTime(start, end));
   }
 
+  /**
+   * Adds the parse data and, to delete gone links, the crawl fetch data of
+   * the segments as input of an OutlinkDb job.
+   */
+  private static void addSegments(FileSystem fs, JobConf job, Path[] segments,
+    boolean deleteGone)
+    throws IOException {
+    if (segments == null) {
+      return;
+    }
+    for (int i = 0; i < segments.length; i++) {
+      Path parseData = new Path(segments[i], ParseData.DIR_NAME);
+      if (fs.exists(parseData)) {
+        LOG.info("OutlinkDb: adding input: " + parseData);
+        FileInputFormat.addInputPath(job, parseData);
+      }
+
+      if (deleteGone) {
+        Path crawlFetch = new Path(segments[i], CrawlDatum.FETCH_DIR_NAME);
+        if (fs.exists(crawlFetch)) {
+          LOG.info("OutlinkDb: adding input: " + crawlFetch);
+          FileInputFormat.addInputPath(job, crawlFetch);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the pending deltas of incremental updates, oldest first.
+   */
+  public static Path[] getDeltas(FileSystem fs, Path webGraphDb)
+    throws IOException {
+    Path deltaDir = new Path(webGraphDb, DELTA_DIR);
+    if (!fs.exists(deltaDir)) {
+      return new Path[0];
+    }
+    Path[] deltas = HadoopFSUtil.getPaths(fs.listStatus(deltaDir,
+      HadoopFSUtil.getPassDirectoriesFilter(fs)));
+    Arrays.sort(deltas);
+    return deltas;
+  }
+
+  /**
+   * Creates a job reading from the given paths, those which don't exist are
+   * skipped, into a MapFile.
+   */
+  private static JobConf createDeltaJob(Configuration conf, String name,
+    List<Path> inputs, Path output, Class<? extends Mapper> mapper,
+    Class<? extends Reducer> reducer, Class<? extends Writable> valueClass)
+    throws IOException {
+    FileSystem fs = FileSystem.get(conf);
+    JobConf job = new NutchJob(conf);
+    job.setJobName(name);
+    for (Path input : inputs) {
+      if (fs.exists(input)) {
+        LOG.info(name + ": adding input: " + input);
+        FileInputFormat.addInputPath(job, input);
+      }
+    }
+    job.setInputFormat(SequenceFileInputFormat.class);
+    job.setMapperClass(mapper);
+    job.setReducerClass(reducer);
+    job.setMapOutputKeyClass(Text.class);
+    job.setMapOutputValueClass(valueClass);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(valueClass);
+    FileOutputFormat.setOutputPath(job, output);
+    job.setOutputFormat(MapFileOutputFormat.class);
+    job.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+    return job;
+  }
+
+  /**
+   * Writes a delta with the changes the segments make to the WebGraph. Only
+   * the urls in the segments are looked up in the current WebGraph, the
+   * OutlinkDb, InlinkDb and NodeDb themselves are not read.
+   */
+  private void updateWebGraph(Path webGraphDb, Path[] segments,
+    boolean normalize, boolean filter)
+    throws IOException {
+
+    Configuration conf = getConf();
+    FileSystem fs = FileSystem.get(conf);
+    boolean deleteGone = conf.getBoolean("link.delete.gone", false);
+    Path tempDelta = new Path(webGraphDb, DELTA_DIR + "-"
+      + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+    Path changes = new Path(tempDelta, "changes");
+    List<Path> inputs = new ArrayList<Path>();
+    inputs.add(changes);
+
+    JobConf deltaJob = new NutchJob(conf);
+    deltaJob.setJobName("OutlinkDb delta: " + webGraphDb);
+    addSegments(fs, deltaJob, segments, deleteGone);
+    deltaJob.set(OutlinkDelta.WEBGRAPH_DB, webGraphDb.toString());
+    deltaJob.setBoolean(OutlinkDb.URL_NORMALIZING, normalize);
+    deltaJob.setBoolean(OutlinkDb.URL_FILTERING, filter);
+    deltaJob.setInputFormat(SequenceFileInputFormat.class);
+    deltaJob.setMapperClass(OutlinkDb.class);
+    deltaJob.setReducerClass(OutlinkDelta.class);
+    deltaJob.setMapOutputKeyClass(Text.class);
+    deltaJob.setMapOutputValueClass(NutchWritable.class);
+    deltaJob.setOutputKeyClass(Text.class);
+    deltaJob.setOutputValueClass(NutchWritable.class);
+    FileOutputFormat.setOutputPath(deltaJob, changes);
+    deltaJob.setOutputFormat(SequenceFileOutputFormat.class);
+    deltaJob.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+
+    try {
+      LOG.info("OutlinkDb delta: running");
+      JobClient.runJob(deltaJob);
+
+      // split the changes into the outlinks, inverted inlinks and nodes
+      JobConf outlinkJob = createDeltaJob(conf, "OutlinkDb delta "
+        + webGraphDb, inputs, new Path(tempDelta, DELTA_OUTLINK_DIR),
+        LinkDeltas.class, IdentityReducer.class, LinkDatum.class);
+      JobClient.runJob(outlinkJob);
+      JobConf inlinkJob = createDeltaJob(conf, "InlinkDb delta " + webGraphDb,
+        inputs, new Path(tempDelta, INLINK_DIR), LinkDeltas.class,
+        IdentityReducer.class, LinkDatum.class);
+      inlinkJob.setBoolean(LinkDeltas.INVERT, true);
+      inlinkJob.setLong(LinkDeltas.TIMESTAMP, System.currentTimeMillis());
+      JobClient.runJob(inlinkJob);
+      JobConf nodeJob = createDeltaJob(conf, "NodeDb delta " + webGraphDb,
+        inputs, new Path(tempDelta, NODE_DIR), NodeDeltas.class,
+        NodeDeltas.class, Node.class);
+      JobClient.runJob(nodeJob);
+      fs.delete(changes, true);
+
+      Path delta = new Path(new Path(webGraphDb, DELTA_DIR),
+        Generator.generateSegmentName());
+      LOG.info("WebGraphDb: installing delta " + delta);
+      fs.mkdirs(delta.getParent());
+      fs.rename(tempDelta, delta);
+    }
+    catch (IOException e) {
+      if (fs.exists(tempDelta)) {
+        fs.delete(tempDelta, true);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Compacts the pending deltas into the OutlinkDb, InlinkDb and NodeDb, the
+   * caller holds the lock of the WebGraph.
+   */
+  private static void compactDeltas(Configuration conf, FileSystem fs,
+    Path webGraphDb)
+    throws IOException {
+
+    Path[] deltas = getDeltas(fs, webGraphDb);
+    if (deltas.length == 0) {
+      return;
+    }
+    LOG.info("WebGraphDb: compacting " + deltas.length + " deltas");
+
+    Path outlinkDb = new Path(webGraphDb, OUTLINK_DIR);
+    Path oldOutlinkDb = new Path(webGraphDb, OLD_OUTLINK_DIR);
+    Path inlinkDb = new Path(webGraphDb, INLINK_DIR);
+    Path nodeDb = new Path(webGraphDb, NODE_DIR);
+    String suffix = "-" + Integer.toString(new Random().nextInt(Integer.MAX_VALUE));
+    Path tempOutlinkDb = new Path(outlinkDb + suffix);
+    Path tempInlinkDb = new Path(inlinkDb + suffix);
+    Path tempNodeDb = new Path(nodeDb + suffix);
+
+    List<Path> outlinks = new ArrayList<Path>();
+    List<Path> inlinks = new ArrayList<Path>();
+    List<Path> nodes = new ArrayList<Path>();
+    outlinks.add(outlinkDb);
+    inlinks.add(inlinkDb);
+    nodes.add(nodeDb);
+    for (Path delta : deltas) {
+      outlinks.add(new Path(delta, DELTA_OUTLINK_DIR));
+      inlinks.add(new Path(delta, INLINK_DIR));
+      nodes.add(new Path(delta, NODE_DIR));
+    }
+
+    try {
+      JobClient.runJob(createDeltaJob(conf, "OutlinkDb compact "
+        + webGraphDb, outlinks, tempOutlinkDb, LinkDeltas.class,
+        LinkDeltas.class, LinkDatum.class));
+      JobClient.runJob(createDeltaJob(conf, "InlinkDb compact " + webGraphDb,
+        inlinks, tempInlinkDb, LinkDeltas.class, LinkDeltas.class,
+        LinkDatum.class));
+      JobClient.runJob(createDeltaJob(conf, "NodeDb compact " + webGraphDb,
+        nodes, tempNodeDb, NodeDeltas.class, NodeDeltas.class, Node.class));
+    }
+    catch (IOException e) {
+      for (Path temp : new Path[] { tempOutlinkDb, tempInlinkDb, tempNodeDb }) {
+        if (fs.exists(temp)) {
+          fs.delete(temp, true);
+        }
+      }
+      throw e;
+    }
+
+    LOG.info("WebGraphDb: installing compacted " + webGraphDb);
+    FSUtils.replace(fs, oldOutlinkDb, outlinkDb, true);
+    FSUtils.replace(fs, outlinkDb, tempOutlinkDb, true);
+    if (!conf.getBoolean("db.preserve.backup", true) && fs.exists(oldOutlinkDb)) {
+      fs.delete(oldOutlinkDb, true);
+    }
+    FSUtils.replace(fs, inlinkDb, tempInlinkDb, true);
+    FSUtils.replace(fs, nodeDb, tempNodeDb, true);
+    for (Path delta : deltas) {
+      fs.delete(delta, true);
+    }
+  }
+
+  /**
+   * Compacts the pending deltas of incremental updates into the WebGraph.
+   * Tools which read the WebGraph call this first, it does nothing if there
+   * are no deltas.
+   * 
+   * @param conf The configuration.
+   * @param webGraphDb The WebGraph to compact.
+   * 
+   * @throws IOException If an error occurs while compacting the WebGraph.
+   */
+  public static void compact(Configuration conf, Path webGraphDb)
+    throws IOException {
+    FileSystem fs = FileSystem.get(conf);
+    if (getDeltas(fs, webGraphDb).length == 0) {
+      return;
+    }
+    Path lock = new Path(webGraphDb, LOCK_NAME);
+    LockUtil.createLockFile(fs, lock, false);
+    try {
+      compactDeltas(conf, fs, webGraphDb);
+    }
+    finally {
+      LockUtil.removeLockFile(fs, lock);
+    }
+  }
+
   public static void main(String[] args)
     throws Exception {
     int res = ToolRunner.run(NutchConfiguration.create(), new WebGraph(), args);
@@ -731,12 +1359,23 @@ public class WebGraph
     Option filterOpts = OptionBuilder.create("filter");
     options.addOption(filterOpts);
 
+    OptionBuilder.withArgName("incremental");
+    OptionBuilder.withDescription("whether to update the web graph with a delta");
+    Option incrementalOpts = OptionBuilder.create("incremental");
+    options.addOption(incrementalOpts);
+
+    OptionBuilder.withArgName("compact");
+    OptionBuilder.withDescription("compact pending deltas into the web graph");
+    Option compactOpts = OptionBuilder.create("compact");
+    options.addOption(compactOpts);
+
     CommandLineParser parser = new GnuParser();
     try {
 
       CommandLine line = parser.parse(options, args);
       if (line.hasOption("help") || !line.hasOption("webgraphdb")
-        || (!line.hasOption("segment") && !line.hasOption("segmentDir"))) {
+        || (!line.hasOption("segment") && !line.hasOption("segmentDir")
+          && !line.hasOption("compact"))) {
         HelpFormatter formatter = new HelpFormatter();
         formatter.printHelp("WebGraph", options);
         return -1;
@@ -744,6 +1383,13 @@ public class WebGraph
 
       String webGraphDb = line.getOptionValue("webgraphdb");
 
+      if (line.hasOption("compact")) {
+        compact(getConf(), new Path(webGraphDb));
+        if (!line.hasOption("segment") && !line.hasOption("segmentDir")) {
+          return 0;
+        }
+      }
+
       Path[] segPaths = null;
 
       // Handle segment option
@@ -775,7 +1421,11 @@ public class WebGraph
         filter = true;
       }
 
-      createWebGraph(new Path(webGraphDb), segPaths, normalize, filter);
+      boolean incremental = line.hasOption("incremental")
+        || getConf().getBoolean(INCREMENTAL, false);
+
+      createWebGraph(new Path(webGraphDb), segPaths, normalize, filter,
+        incremental);
       return 0;
     }
     catch (Exception e) {
@@ -26,7 +26,6 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
@@ -112,7 +111,7 @@ public class CrawlDBScanner extends Configured implements Tool,
     job.set("CrawlDBScanner.regex", regex);
     if (status != null) job.set("CrawlDBScanner.status", status);
 
-    FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
+    CrawlDb.addInputPaths(job, crawlDb);
     job.setInputFormat(SequenceFileInputFormat.class);
 
     job.setMapperClass(CrawlDBScanner.class);
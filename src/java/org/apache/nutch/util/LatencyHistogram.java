@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Call count, total time, allocated bytes and latency histogram of a timed
+ * operation, e.g. a plugin method. Not thread-safe.
+ */
+public class LatencyHistogram {
+
+  /** Bucket 0 counts calls under 1 microsecond, bucket b calls taking from
+   * 2^(b-1) up to 2^b microseconds, the last bucket all longer calls. */
+  public static final int BUCKETS = 24;
+
+  private long calls;
+  private long nanos;
+  private long bytes;
+  private final long[] buckets = new long[BUCKETS];
+  private long reportedCalls;
+  private long reportedNanos;
+  private long reportedBytes;
+
+  /** Records a call which took the given nanoseconds. */
+  public void record(long elapsed) {
+    record(elapsed, 0);
+  }
+
+  /** Records a call which took the given nanoseconds and allocated the given
+   * bytes. */
+  public void record(long elapsed, long allocated) {
+    calls++;
+    nanos += elapsed;
+    bytes += allocated;
+    long micros = elapsed / 1000;
+    int bucket = micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+    buckets[Math.min(bucket, BUCKETS - 1)]++;
+  }
+
+  public long getCalls() {
+    return calls;
+  }
+
+  public long getAllocatedBytes() {
+    return bytes;
+  }
+
+  /** Returns an upper bound in microseconds of the given percentile of the
+   * call latencies, taken from the histogram. */
+  public long getPercentile(double percentile) {
+    long rank = (long)Math.ceil(percentile / 100 * calls);
+    long seen = 0;
+    for (int b = 0; b < BUCKETS; b++) {
+      seen += buckets[b];
+      if (seen >= rank && seen > 0) {
+        return 1L << b;
+      }
+    }
+    return 1L << (BUCKETS - 1);
+  }
+
+  /**
+   * Increments the counters "<i>name</i> calls" and "<i>name</i> micros", and
+   * "<i>name</i> allocated bytes" if <code>allocations</code> is true, by
+   * what was recorded since the previous call.
+   */
+  public void report(Reporter reporter, String group, String name,
+      boolean allocations) {
+    if (calls == reportedCalls) {
+      return;
+    }
+    reporter.incrCounter(group, name + " calls", calls - reportedCalls);
+    reporter.incrCounter(group, name + " micros",
+      (nanos - reportedNanos) / 1000);
+    if (allocations) {
+      reporter.incrCounter(group, name + " allocated bytes",
+        bytes - reportedBytes);
+    }
+    reportedCalls = calls;
+    reportedNanos = nanos;
+    reportedBytes = bytes;
+  }
+
+  /**
+   * Appends a line with the number of calls, total and mean time, latency
+   * percentiles and, if <code>allocations</code> is true, mean allocated
+   * bytes. Appends nothing if there was no call.
+   */
+  public void append(StringBuilder buffer, String name, boolean allocations) {
+    if (calls == 0) {
+      return;
+    }
+    long micros = nanos / 1000;
+    buffer.append(name);
+    buffer.append(": calls=").append(calls);
+    buffer.append(" total=").append(micros / 1000).append("ms");
+    buffer.append(" mean=").append(micros / calls).append("us");
+    buffer.append(" p50<=").append(getPercentile(50)).append("us");
+    buffer.append(" p99<=").append(getPercentile(99)).append("us");
+    if (allocations) {
+      buffer.append(" allocated=").append(bytes / calls).append("B");
+    }
+    buffer.append('\n');
+  }
+}
@@ -19,13 +19,13 @@ package org.apache.nutch.util;
 
 // JDK imports
 import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
 
 // Hadoop imports
 import org.apache.hadoop.conf.Configuration;
 
 // Tika imports
 import org.apache.tika.Tika;
-import org.apache.tika.config.TikaConfig;
 import org.apache.tika.mime.MimeType;
 import org.apache.tika.mime.MimeTypeException;
 import org.apache.tika.mime.MimeTypes;
@@ -48,6 +48,10 @@ import org.apache.nutch.protocol.ProtocolOutput;
  * Any mime handling code should be placed in this utility class, and hidden
  * from the Nutch classes that rely on it.
  * </p>
+ * <p>
+ * Instances are thread-safe. {@link #get(Configuration)} returns one shared
+ * per configuration, which caches the mime type names it has resolved.
+ * </p>
  */
 public final class MimeUtil {
 
@@ -62,6 +66,13 @@ public final class MimeUtil {
   /* whether or not magic should be employed or not */
   private boolean mimeMagic;
 
+  /* the maximum number of resolved mime type names kept */
+  private static final int MAX_CACHED_NAMES = 1000;
+
+  /* the resolved names by cleaned mime type, "" for unknown types */
+  private ConcurrentHashMap<String, String> names =
+    new ConcurrentHashMap<String, String>();
+
   /* our log stream */
   private static final Logger LOG = LoggerFactory.getLogger(MimeUtil.class.getName());
 
@@ -95,6 +106,44 @@ public final class MimeUtil {
     this.mimeMagic = conf.getBoolean("mime.type.magic", true);
   }
 
+  /**
+   * Returns the {@link MimeUtil} shared by all users of the given
+   * configuration.
+   */
+  public static MimeUtil get(Configuration conf) {
+    ObjectCache objectCache = ObjectCache.get(conf);
+    MimeUtil mimeUtil = (MimeUtil) objectCache.getObject(MimeUtil.class
+        .getName());
+    if (mimeUtil == null) {
+      mimeUtil = new MimeUtil(conf);
+      objectCache.setObject(MimeUtil.class.getName(), mimeUtil);
+    }
+    return mimeUtil;
+  }
+
+  /**
+   * Looks up a cleaned mime type name in the Tika registry, caching the
+   * result.
+   * 
+   * @return the name of the registered {@link MimeType}, or null if the name
+   *         is malformed.
+   */
+  private String resolveName(String cleanedType) {
+    String name = names.get(cleanedType);
+    if (name == null) {
+      try {
+        name = this.mimeTypes.forName(cleanedType).getName();
+      } catch (MimeTypeException e) {
+        // Seems to be a malformed mime type name...
+        name = "";
+      }
+      if (names.size() < MAX_CACHED_NAMES) {
+        names.put(cleanedType, name);
+      }
+    }
+    return name.length() == 0 ? null : name;
+  }
+
   /**
    * Cleans a {@link MimeType} name by removing out the actual {@link MimeType},
    * from a string of the form:
@@ -112,11 +161,11 @@ public final class MimeUtil {
     if (origType == null)
       return null;
 
-    // take the origType and split it on ';'
-    String[] tokenizedMimeType = origType.split(SEPARATOR);
-    if (tokenizedMimeType.length > 1) {
+    // take the part of origType before the first ';'
+    int separator = origType.indexOf(SEPARATOR);
+    if (separator >= 0) {
       // there was a ';' in there, take the first value
-      return tokenizedMimeType[0];
+      return origType.substring(0, separator);
     } else {
       // there wasn't a ';', so just return the orig type
       return origType;
@@ -146,41 +195,20 @@ public final class MimeUtil {
   public String autoResolveContentType(String typeName, String url, byte[] data) {
     String retType = null;
     String magicType = null;
-    MimeType type = null;
-    String cleanedMimeType = null;
 
-    try {
-      cleanedMimeType = MimeUtil.cleanMimeType(typeName) != null ? this.mimeTypes
-          .forName(MimeUtil.cleanMimeType(typeName)).getName()
-          : null;
-    } catch (MimeTypeException mte) {
-      // Seems to be a malformed mime type name...
-    }
-
-    // first try to get the type from the cleaned type name
-    try {
-      type = cleanedMimeType != null ? this.mimeTypes.forName(cleanedMimeType)
-          : null;
-    } catch (MimeTypeException e) {
-      type = null;
-    }
+    // first try to get the type from the cleaned type name, a malformed
+    // name resolves to null
+    String cleanedMimeType = MimeUtil.cleanMimeType(typeName);
+    String type = cleanedMimeType != null ? resolveName(cleanedMimeType)
+        : null;
 
     // if returned null, or if it's the default type then try url resolution
-    if (type == null
-        || (type != null && type.getName().equals(MimeTypes.OCTET_STREAM))) {
+    if (type == null || type.equals(MimeTypes.OCTET_STREAM)) {
       // If no mime-type header, or cannot find a corresponding registered
       // mime-type, then guess a mime-type from the url pattern
-      try {
-        TikaConfig tikaConfig = TikaConfig.getDefaultConfig();
-        Tika tika = new Tika(tikaConfig);
-        retType = tika.detect(url) != null ? tika.detect(url) : null;
-      } catch (Exception e) {
-        String message = "Problem loading default Tika configuration";
-        LOG.error(message, e);
-        throw new RuntimeException(e);
-      }
+      retType = tika.detect(url);
     } else {
-        retType = type.getName();
+        retType = type;
     }
 
     // if magic is enabled use mime magic to guess if the mime type returned
@@ -238,13 +266,12 @@ public final class MimeUtil {
    *         or null otherwise.
    */
   public String forName(String name) {
-    try {
-      return this.mimeTypes.forName(name).toString();
-    } catch (MimeTypeException e) {
+    String type = resolveName(name);
+    if (type == null) {
       LOG.error("Exception getting mime type by name: [" + name
-          + "]: Message: " + e.getMessage());
-      return null;
+          + "]: malformed mime type name");
     }
+    return type;
   }
 
   /**
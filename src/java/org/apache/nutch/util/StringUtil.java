@@ -119,6 +119,35 @@ public class StringUtil {
     }
   }
 
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  /**
+   * Computes a 64-bit FNV-1a hash of the characters of <code>s</code> in the
+   * range <code>[start, end)</code>, folding ASCII upper case letters to
+   * lower case. Intended as a compact, case-insensitive key for hostnames and
+   * similar short strings which need to be counted or deduplicated in large
+   * numbers, without creating a lower-cased copy first.
+   */
+  public static long fingerprint(CharSequence s, int start, int end) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+      hash ^= c;
+      hash *= FNV_PRIME;
+    }
+    return hash;
+  }
+
+  /**
+   * Convenience call for {@link #fingerprint(CharSequence, int, int)} over
+   * the whole of <code>s</code>.
+   */
+  public static long fingerprint(CharSequence s) {
+    return fingerprint(s, 0, s.length());
+  }
+
   /**
    * Checks if a string is empty (ie is null or empty).
    */
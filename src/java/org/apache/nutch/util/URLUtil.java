@@ -139,8 +139,15 @@ public class URLUtil {
    *  will return <br><code> apache.org</code>
    *   */
   public static String getDomainName(URL url) {
+    return getDomainNameFromHost(url.getHost());
+  }
+
+  /** Returns the domain name for the given hostname, that is the hostname
+   *  w/o subdomain names. Useful when the hostname has already been
+   *  extracted, see {@link #hostStart(String)}.
+   *   */
+  public static String getDomainNameFromHost(String host) {
     DomainSuffixes tlds = DomainSuffixes.getInstance();
-    String host = url.getHost();
     //it seems that java returns hostnames ending with .
     if(host.endsWith("."))
       host = host.substring(0, host.length() - 1);
@@ -445,6 +452,57 @@ public class URLUtil {
     }
   }
 
+  /**
+   * Returns the index of the first character of the hostname in the url,
+   * skipping any user info, or -1 if the url has no authority part. Together
+   * with {@link #hostEnd(String, int)} this allows to locate the hostname
+   * without creating a {@link URL} or any intermediate String.
+   * 
+   * @param url The url to check.
+   * @return int The start of the hostname or -1.
+   */
+  public static int hostStart(String url) {
+    int start = url.indexOf("://");
+    if (start <= 0) return -1;
+    start += 3;
+    int end = authorityEnd(url, start);
+    for (int i = end - 1; i >= start; i--) {
+      if (url.charAt(i) == '@') return i + 1;
+    }
+    return start;
+  }
+
+  /**
+   * Returns the index after the last character of the hostname in the url,
+   * i.e. without port.
+   * 
+   * @param url The url to check.
+   * @param start The start of the hostname as returned by
+   * {@link #hostStart(String)}.
+   * @return int The end of the hostname.
+   */
+  public static int hostEnd(String url, int start) {
+    int end = authorityEnd(url, start);
+    if (start < end && url.charAt(start) == '[') {
+      // IPv6 literal, may contain colons
+      int close = url.indexOf(']', start);
+      return (close > 0 && close < end) ? close + 1 : end;
+    }
+    for (int i = start; i < end; i++) {
+      if (url.charAt(i) == ':') return i;
+    }
+    return end;
+  }
+
+  private static int authorityEnd(String url, int start) {
+    int len = url.length();
+    for (int i = start; i < len; i++) {
+      char c = url.charAt(i);
+      if (c == '/' || c == '?' || c == '#') return i;
+    }
+    return len;
+  }
+
   /**
    * Returns the page for the url.  The page consists of the protocol, host,
    * and path, but does not include the query string.  The host is lowercased
@@ -21,7 +21,7 @@ import org.apache.nutch.metadata.CreativeCommons;
 
 import org.apache.nutch.parse.Parse;
 
-import org.apache.nutch.indexer.IndexingFilter;
+import org.apache.nutch.indexer.InputAwareIndexingFilter;
 import org.apache.nutch.indexer.IndexingException;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.hadoop.io.Text;
@@ -40,7 +40,7 @@ import java.net.URL;
 import java.net.MalformedURLException;
 
 /** Adds basic searchable fields to a document. */
-public class CCIndexingFilter implements IndexingFilter {
+public class CCIndexingFilter implements InputAwareIndexingFilter {
   public static final Logger LOG = LoggerFactory.getLogger(CCIndexingFilter.class);
 
   /** The name of the document field we use. */
@@ -110,6 +110,11 @@ public class CCIndexingFilter implements IndexingFilter {
     doc.add(FIELD, feature);
   }
 
+  /** Uses only the license metadata of the parse and the url. */
+  public boolean needsParseText(Collection<String> fields) {
+    return false;
+  }
+
   public void setConf(Configuration conf) {
     this.conf = conf;
   }
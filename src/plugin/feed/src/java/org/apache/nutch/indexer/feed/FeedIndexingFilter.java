@@ -18,6 +18,7 @@
 package org.apache.nutch.indexer.feed;
 
 //JDK imports
+import java.util.Collection;
 import java.util.Date;
 
 //APACHE imports
@@ -27,6 +28,7 @@ import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.Inlinks;
 import org.apache.nutch.indexer.IndexingException;
 import org.apache.nutch.indexer.IndexingFilter;
+import org.apache.nutch.indexer.InputAwareIndexingFilter;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.metadata.Feed;
 import org.apache.nutch.metadata.Metadata;
@@ -43,7 +45,7 @@ import org.apache.nutch.parse.ParseData;
  * and into the index.
  *
  */
-public class FeedIndexingFilter implements IndexingFilter {
+public class FeedIndexingFilter implements InputAwareIndexingFilter {
   
   public static final String dateFormatStr = "yyyyMMddHHmm";
   
@@ -115,6 +117,11 @@ public class FeedIndexingFilter implements IndexingFilter {
     return conf;
   }
 
+  /** Uses only the feed metadata set by the feed parser. */
+  public boolean needsParseText(Collection<String> fields) {
+    return false;
+  }
+
   /**
    * Sets the {@link Configuration} object used to configure this
    * {@link IndexingFilter}.
@@ -16,6 +16,7 @@
  */
 package org.apache.nutch.indexer.anchor;
 
+import java.util.Collection;
 import java.util.HashSet;
 
 import org.apache.hadoop.conf.Configuration;
@@ -23,7 +24,8 @@ import org.apache.hadoop.io.Text;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.Inlinks;
 import org.apache.nutch.indexer.IndexingException;
-import org.apache.nutch.indexer.IndexingFilter;
+import org.apache.nutch.indexer.IndependentIndexingFilter;
+import org.apache.nutch.indexer.InputAwareIndexingFilter;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.parse.Parse;
 import org.slf4j.Logger;
@@ -34,12 +36,18 @@ import org.slf4j.LoggerFactory;
  * a document or deduplicate anchors. Deduplication does have it's con's, 
  * @see {@code anchorIndexingFilter.deduplicate} in nutch-default.xml.
  */
-public class AnchorIndexingFilter implements IndexingFilter {
+public class AnchorIndexingFilter implements IndependentIndexingFilter,
+    InputAwareIndexingFilter {
 
   public static final Logger LOG = LoggerFactory.getLogger(AnchorIndexingFilter.class);
   private Configuration conf;
   private boolean deduplicate = false;
 
+  /** Uses only the anchors of the inlinks. */
+  public boolean needsParseText(Collection<String> fields) {
+    return false;
+  }
+
   /**
    * Set the {@link Configuration} object
    */
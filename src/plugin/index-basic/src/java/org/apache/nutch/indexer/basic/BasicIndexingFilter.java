@@ -17,13 +17,16 @@
 
 package org.apache.nutch.indexer.basic;
 
+import java.util.Collection;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.parse.Parse;
 
-import org.apache.nutch.indexer.IndexingFilter;
+import org.apache.nutch.indexer.IndependentIndexingFilter;
+import org.apache.nutch.indexer.InputAwareIndexingFilter;
 import org.apache.nutch.indexer.IndexingException;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.util.StringUtil;
@@ -47,7 +50,8 @@ import org.apache.hadoop.conf.Configuration;
  *       (As per NUTCH-1004, a zero-length title is not added)
  * content is truncated as per {@code indexer.max.content.length} in nutch-default.xml.
  */
-public class BasicIndexingFilter implements IndexingFilter {
+public class BasicIndexingFilter implements IndependentIndexingFilter,
+    InputAwareIndexingFilter {
   public static final Logger LOG = LoggerFactory.getLogger(BasicIndexingFilter.class);
 
   private int MAX_TITLE_LENGTH;
@@ -129,6 +133,12 @@ public class BasicIndexingFilter implements IndexingFilter {
     return doc;
   }
 
+  /** Reads the text for the content field, unless no content is indexed. */
+  public boolean needsParseText(Collection<String> fields) {
+    return MAX_CONTENT_LENGTH != 0
+      && (fields == null || fields.contains("content"));
+  }
+
   /**
    * Set the {@link Configuration} object
    */
@@ -17,6 +17,7 @@
 
 package org.apache.nutch.indexer.metadata;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map.Entry;
 
@@ -25,7 +26,8 @@ import org.apache.hadoop.io.Text;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.Inlinks;
 import org.apache.nutch.indexer.IndexingException;
-import org.apache.nutch.indexer.IndexingFilter;
+import org.apache.nutch.indexer.IndependentIndexingFilter;
+import org.apache.nutch.indexer.InputAwareIndexingFilter;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.parse.Parse;
 
@@ -35,7 +37,8 @@ import org.apache.nutch.parse.Parse;
  * comma-delimited <value>key1, key2, key3</value>.
  */
 
-public class MetadataIndexer implements IndexingFilter {
+public class MetadataIndexer implements IndependentIndexingFilter,
+    InputAwareIndexingFilter {
 	private Configuration conf;
 	private HashMap<String, String[]> staticfields;
 	private static String[] dbFieldnames;
@@ -85,6 +88,11 @@ public class MetadataIndexer implements IndexingFilter {
 		return doc;
 	}
 
+	/** Copies datum, content and parse metadata only. */
+	public boolean needsParseText(Collection<String> fields) {
+		return false;
+	}
+
 	public void setConf(Configuration conf) {
 		this.conf = conf;
 		dbFieldnames = conf.getStrings(db_CONF_PROPERTY);
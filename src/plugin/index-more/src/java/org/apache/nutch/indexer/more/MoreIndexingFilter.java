@@ -16,6 +16,8 @@
  */
 package org.apache.nutch.indexer.more;
 
+import java.util.Collection;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,7 +28,8 @@ import org.apache.nutch.net.protocols.Response;
 
 import org.apache.nutch.parse.Parse;
 
-import org.apache.nutch.indexer.IndexingFilter;
+import org.apache.nutch.indexer.IndependentIndexingFilter;
+import org.apache.nutch.indexer.InputAwareIndexingFilter;
 import org.apache.nutch.indexer.IndexingException;
 import org.apache.nutch.indexer.NutchDocument;
 
@@ -34,7 +37,6 @@ import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.Inlinks;
 import org.apache.nutch.parse.ParseData;
 import org.apache.nutch.util.MimeUtil;
-import org.apache.tika.Tika;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
@@ -65,12 +67,15 @@ import org.apache.commons.lang.time.DateUtils;
  * @author John Xing
  */
 
-public class MoreIndexingFilter implements IndexingFilter {
+public class MoreIndexingFilter implements IndependentIndexingFilter,
+    InputAwareIndexingFilter {
   public static final Logger LOG = LoggerFactory.getLogger(MoreIndexingFilter.class);
 
   /** Get the MimeTypes resolver instance. */
   private MimeUtil MIME;
-  private Tika tika = new Tika();
+
+  /** The key of the content type resolved by the fetcher. */
+  private static final Text CONTENT_TYPE = new Text(Response.CONTENT_TYPE);
 
   /** Map for mime-type substitution */
   private HashMap<String,String> mimeMap = null;
@@ -198,13 +203,13 @@ public class MoreIndexingFilter implements IndexingFilter {
     String mimeType = null;
     String contentType = null;
 
-    Writable tcontentType = datum.getMetaData().get(
-        new Text(Response.CONTENT_TYPE));
+    // the fetcher stores the type it has resolved, including mime magic
+    Writable tcontentType = datum.getMetaData().get(CONTENT_TYPE);
     if (tcontentType != null) {
-      contentType = tcontentType.toString();
-    } else
-      contentType = data.getMeta(Response.CONTENT_TYPE);
-    if (contentType == null) {
+      mimeType = MimeUtil.cleanMimeType(tcontentType.toString());
+    } else if ((contentType = data.getMeta(Response.CONTENT_TYPE)) != null) {
+      mimeType = MIME.forName(MimeUtil.cleanMimeType(contentType));
+    } else {
       // Note by Jerome Charron on 20050415:
       // Content Type not solved by a previous plugin
       // Or unable to solve it... Trying to find it
@@ -217,9 +222,7 @@ public class MoreIndexingFilter implements IndexingFilter {
       //   contentType = MIME.getMimeType(url);
       // }
 
-      mimeType = tika.detect(url);
-    } else {
-      mimeType = MIME.forName(MimeUtil.cleanMimeType(contentType));
+      mimeType = MIME.getMimeType(url);
     }
 
     // Checks if we solved the content-type.
@@ -303,9 +306,14 @@ public class MoreIndexingFilter implements IndexingFilter {
     return doc;
   }
 
+  /** Uses the url, the datum and the content and parse metadata. */
+  public boolean needsParseText(Collection<String> fields) {
+    return false;
+  }
+
   public void setConf(Configuration conf) {
     this.conf = conf;
-    MIME = new MimeUtil(conf);
+    MIME = MimeUtil.get(conf);
 
     if (conf.getBoolean("moreIndexingFilter.mapMimeTypes", false) == true) {
       mapMimes = true;
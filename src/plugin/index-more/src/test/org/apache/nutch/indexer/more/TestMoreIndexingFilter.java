@@ -40,6 +40,22 @@ public class TestMoreIndexingFilter extends TestCase {
     assertContentType(conf, "text/html; charset=UTF-8", "text/html");
   }
   
+  /** The type resolved by the fetcher is preferred to the header. */
+  public void testFetchedContentType() throws IndexingException {
+    Configuration conf = NutchConfiguration.create();
+    Metadata metadata = new Metadata();
+    metadata.add(Response.CONTENT_TYPE, "text/html");
+    CrawlDatum datum = new CrawlDatum();
+    datum.getMetaData().put(new Text(Response.CONTENT_TYPE),
+        new Text("application/pdf"));
+    MoreIndexingFilter filter = new MoreIndexingFilter();
+    filter.setConf(conf);
+    NutchDocument doc = filter.filter(new NutchDocument(), new ParseImpl("text", new ParseData(
+        new ParseStatus(), "title", new Outlink[0], metadata)), new Text(
+        "http://www.example.com/"), datum, new Inlinks());
+    assertEquals("application/pdf", doc.getFieldValue("type"));
+  }
+
   public void testGetParts() {
     String[] parts = MoreIndexingFilter.getParts("text/html");
     assertParts(parts, 2, "text", "html");
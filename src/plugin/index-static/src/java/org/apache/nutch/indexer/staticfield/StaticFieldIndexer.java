@@ -17,12 +17,13 @@
 
 package org.apache.nutch.indexer.staticfield;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map.Entry;
 
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.Inlinks;
-import org.apache.nutch.indexer.IndexingFilter;
+import org.apache.nutch.indexer.InputAwareIndexingFilter;
 import org.apache.nutch.indexer.IndexingException;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.parse.Parse;
@@ -36,7 +37,7 @@ import org.apache.hadoop.conf.Configuration;
  * job-basis.
  */
 
-public class StaticFieldIndexer implements IndexingFilter {
+public class StaticFieldIndexer implements InputAwareIndexingFilter {
   private Configuration conf;
   private HashMap<String, String[]> fields;
   private boolean addStaticFields = false;
@@ -87,6 +88,11 @@ public class StaticFieldIndexer implements IndexingFilter {
     return fields;
   }
 
+  /** The fields only come from the configuration. */
+  public boolean needsParseText(Collection<String> fields) {
+    return false;
+  }
+
   /**
    * Set the {@link Configuration} object
    */
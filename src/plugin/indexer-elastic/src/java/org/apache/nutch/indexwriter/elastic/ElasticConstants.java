@@ -25,4 +25,5 @@ public interface ElasticConstants {
   public static final String INDEX = ELASTIC_PREFIX + "index";
   public static final String MAX_BULK_DOCS = ELASTIC_PREFIX + "max.bulk.docs";
   public static final String MAX_BULK_LENGTH = ELASTIC_PREFIX + "max.bulk.size";
+  public static final String MAX_CONCURRENT_BULKS = ELASTIC_PREFIX + "max.concurrent.bulks";
 }
\ No newline at end of file
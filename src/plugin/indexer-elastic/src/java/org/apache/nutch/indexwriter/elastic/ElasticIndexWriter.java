@@ -20,42 +20,51 @@ package org.apache.nutch.indexwriter.elastic;
 import static org.elasticsearch.node.NodeBuilder.nodeBuilder;
 
 import java.io.IOException;
-import java.net.URL;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.Map.Entry;
 import java.io.BufferedReader;
-import java.io.IOException;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.indexer.IndexWriter;
+import org.apache.nutch.indexer.NutchField;
 import org.elasticsearch.ElasticSearchException;
-import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
-import org.elasticsearch.action.delete.DeleteRequestBuilder;
-import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.ImmutableSettings.Builder;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.node.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Sends documents to Elasticsearch in bulks. Bulks are sent in the
+ * background while the next one is filled, at most
+ * {@link ElasticConstants#MAX_CONCURRENT_BULKS} at a time before adding
+ * documents blocks.
  */
 public class ElasticIndexWriter implements IndexWriter {
   public static Logger LOG = LoggerFactory.getLogger(ElasticIndexWriter.class);
 
   private static final int DEFAULT_MAX_BULK_DOCS = 250;
   private static final int DEFAULT_MAX_BULK_LENGTH = 2500500;
+  private static final int DEFAULT_MAX_CONCURRENT_BULKS = 2;
+
+  static final String COUNTER_GROUP = "ElasticIndexWriter";
 
   private Client client;
   private Node node;
@@ -63,17 +72,19 @@ public class ElasticIndexWriter implements IndexWriter {
 
   private Configuration config;
 
-  private BulkRequestBuilder bulk;
-  private ListenableActionFuture<BulkResponse> execute;
+  private BulkProcessor bulkProcessor;
   private int port = -1;
   private String host = null;
   private String clusterName = null;
   private int maxBulkDocs;
   private int maxBulkLength;
+  private int maxConcurrentBulks;
   private long indexedDocs = 0;
-  private int bulkDocs = 0;
-  private int bulkLength = 0;
-  private boolean createNewBulk = false;
+
+  // bulks handed to the client and not completed, guarded by this
+  private int pendingBulks = 0;
+  private volatile Throwable failure;
+  private volatile Reporter reporter = Reporter.NULL;
 
   @Override
   public void open(JobConf job, String name) throws IOException {
@@ -102,6 +113,7 @@ public class ElasticIndexWriter implements IndexWriter {
     Settings settings = settingsBuilder.put("cluster.name", clusterName).build();
     
     // Prefer TransportClient
+    Client client = null;
     if (host != null && port > 1) {
       client = new TransportClient(settings).addTransportAddress(new InetSocketTransportAddress(host, port));
     } else if (clusterName != null) {
@@ -109,66 +121,153 @@ public class ElasticIndexWriter implements IndexWriter {
       client = node.client();
     }
 
-    bulk = client.prepareBulk();
+    init(client, job);
+  }
+
+  // package protected for tests
+  void init(Client client, JobConf job) {
+    this.client = client;
     defaultIndex = job.get(ElasticConstants.INDEX, "nutch");
     maxBulkDocs = job.getInt(
             ElasticConstants.MAX_BULK_DOCS, DEFAULT_MAX_BULK_DOCS);
     maxBulkLength = job.getInt(
             ElasticConstants.MAX_BULK_LENGTH, DEFAULT_MAX_BULK_LENGTH);
+    maxConcurrentBulks = job.getInt(
+            ElasticConstants.MAX_CONCURRENT_BULKS, DEFAULT_MAX_CONCURRENT_BULKS);
+    bulkProcessor = createBulkProcessor();
+  }
+
+  /**
+   * Bulks are cut by number of requests and by the size of the serialized
+   * sources. Adding a request blocks while the maximum number of bulks is
+   * being sent.
+   */
+  private BulkProcessor createBulkProcessor() {
+    BulkProcessor.Listener listener = new BulkProcessor.Listener() {
+
+      public void beforeBulk(long executionId, BulkRequest request) {
+        synchronized (ElasticIndexWriter.this) {
+          pendingBulks++;
+        }
+        LOG.info("Processing bulk request [id = " + executionId + ", docs = "
+                + request.numberOfActions() + ", length = "
+                + request.estimatedSizeInBytes() + ", total docs = "
+                + indexedDocs + "]");
+      }
+
+      public void afterBulk(long executionId, BulkRequest request,
+              BulkResponse response) {
+        int failed = 0;
+        String firstFailure = null;
+        for (BulkItemResponse item : response) {
+          if (item.isFailed()) {
+            if (failed++ == 0) {
+              firstFailure = item.getId() + ": " + item.getFailureMessage();
+            }
+          }
+        }
+        if (failed > 0) {
+          LOG.warn(failed + " of " + request.numberOfActions()
+                  + " requests failed in bulk " + executionId
+                  + ", first failure: " + firstFailure);
+        }
+        reporter.incrCounter(COUNTER_GROUP, "requests succeeded",
+                request.numberOfActions() - failed);
+        reporter.incrCounter(COUNTER_GROUP, "requests failed", failed);
+        reporter.incrCounter(COUNTER_GROUP, "bulks", 1);
+        reporter.incrCounter(COUNTER_GROUP, "bulk bytes",
+                request.estimatedSizeInBytes());
+        reporter.incrCounter(COUNTER_GROUP, "bulk millis",
+                response.getTookInMillis());
+        bulkDone();
+      }
+
+      public void afterBulk(long executionId, BulkRequest request,
+              Throwable t) {
+        LOG.error("Bulk " + executionId + " of " + request.numberOfActions()
+                + " requests failed", t);
+        reporter.incrCounter(COUNTER_GROUP, "requests failed",
+                request.numberOfActions());
+        reporter.incrCounter(COUNTER_GROUP, "bulks failed", 1);
+        if (failure == null) {
+          failure = t;
+        }
+        bulkDone();
+      }
+    };
+    return BulkProcessor.builder(client, listener)
+            // a bulk is sent once it has more than this many requests
+            .setBulkActions(Math.max(0, maxBulkDocs - 1))
+            .setBulkSize(new ByteSizeValue(maxBulkLength))
+            .setConcurrentRequests(maxConcurrentBulks).build();
+  }
+
+  private synchronized void bulkDone() {
+    pendingBulks--;
+    notifyAll();
+  }
+
+  /**
+   * Sends the requests added so far and waits until all bulks are completed.
+   */
+  private void flush() throws IOException {
+    // closing sends the last bulk, a new processor takes further requests
+    bulkProcessor.close();
+    synchronized (this) {
+      while (pendingBulks > 0) {
+        try {
+          wait(1000);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while waiting for bulks");
+        }
+        reporter.progress();
+      }
+    }
+    checkFailure();
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable t = failure;
+    if (t == null) {
+      return;
+    }
+    IOException ioe = new IOException("Bulk request failed");
+    ioe.initCause(t);
+    throw ioe;
+  }
+
+  @Override
+  public void setReporter(Reporter reporter) {
+    this.reporter = reporter;
   }
 
   @Override
   public void write(NutchDocument doc) throws IOException {
+    checkFailure();
     String id = (String)doc.getFieldValue("url");
     String type = doc.getDocumentMeta().get("type");
     if (type == null) type = "doc";
-    IndexRequestBuilder request = client.prepareIndex(defaultIndex, type, id);
 
-    Map<String, Object> source = new HashMap<String, Object>();
-
-    // Loop through all fields of this doc
-    for (String fieldName : doc.getFieldNames()) {
-      if (doc.getField(fieldName).getValues().size() > 1) {
-        source.put(fieldName, doc.getFieldValue(fieldName));
-        // Loop through the values to keep track of the size of this document
-        for (Object value : doc.getField(fieldName).getValues()) {
-          bulkLength += value.toString().length();
-        }
-      } else {
-        source.put(fieldName, doc.getFieldValue(fieldName));
-        bulkLength += doc.getFieldValue(fieldName).toString().length();
+    // the fields are written straight to the JSON source, bulks are sized by
+    // its length
+    XContentBuilder source = XContentFactory.jsonBuilder().startObject();
+    for (Entry<String, NutchField> field : doc) {
+      List<Object> values = field.getValue().getValues();
+      if (!values.isEmpty()) {
+        source.field(field.getKey(), values.get(0));
       }
     }
-    request.setSource(source);
-
-    // Add this indexing request to a bulk request
-    bulk.add(request);
+    source.endObject();
+    bulkProcessor.add(new IndexRequest(defaultIndex, type, id).source(source));
     indexedDocs++;
-    bulkDocs++;
-
-    if (bulkDocs >= maxBulkDocs || bulkLength >= maxBulkLength) {
-      LOG.info("Processing bulk request [docs = " + bulkDocs + ", length = "
-              + bulkLength + ", total docs = " + indexedDocs
-              + ", last doc in bulk = '" + id + "']");
-      // Flush the bulk of indexing requests
-      createNewBulk = true;
-      commit();
-    }
   }
 
 
   @Override
   public void delete(String key) throws IOException {
-    try{
-      DeleteRequestBuilder builder =  client.prepareDelete();
-      builder.setIndex(defaultIndex);
-      builder.setType("doc");
-      builder.setId(key);
-      builder.execute().actionGet();
-    }catch(ElasticSearchException e)
-    {
-      throw makeIOException(e);
-    }
+    checkFailure();
+    bulkProcessor.add(new DeleteRequest(defaultIndex, "doc", key));
   }
 
   public static IOException makeIOException(ElasticSearchException e) {
@@ -184,54 +283,23 @@ public class ElasticIndexWriter implements IndexWriter {
 
   @Override
   public void commit() throws IOException {
-    if (execute != null) {
-      // wait for previous to finish
-      long beforeWait = System.currentTimeMillis();
-      BulkResponse actionGet = execute.actionGet();
-      if (actionGet.hasFailures()) {
-        for (BulkItemResponse item : actionGet) {
-          if (item.isFailed()) {
-            throw new RuntimeException("First failure in bulk: "
-                    + item.getFailureMessage());
-          }
-        }
-      }
-      long msWaited = System.currentTimeMillis() - beforeWait;
-      LOG.info("Previous took in ms " + actionGet.getTookInMillis()
-              + ", including wait " + msWaited);
-      execute = null;
-    }
-    if (bulk != null) {
-      if (bulkDocs > 0) {
-        // start a flush, note that this is an asynchronous call
-        execute = bulk.execute();
-      }
-      bulk = null;
-    }
-    if (createNewBulk) {
-      // Prepare a new bulk request
-      bulk = client.prepareBulk();
-      bulkDocs = 0;
-      bulkLength = 0;
-    }
+    flush();
+    bulkProcessor = createBulkProcessor();
   }
 
   @Override
   public void close() throws IOException {
     // Flush pending requests
-    LOG.info("Processing remaining requests [docs = " + bulkDocs
-            + ", length = " + bulkLength + ", total docs = " + indexedDocs + "]");
-    createNewBulk = false;
-    commit();
-    // flush one more time to finalize the last bulk
-    LOG.info("Processing to finalize last execute");
-    createNewBulk = false;
-    commit();
-
-    // Close
-    client.close();
-    if (node != null) {
-      node.close();
+    LOG.info("Processing remaining requests [total docs = " + indexedDocs
+            + "]");
+    try {
+      flush();
+    } finally {
+      // Close
+      client.close();
+      if (node != null) {
+        node.close();
+      }
     }
   }
 
@@ -244,6 +312,7 @@ public class ElasticIndexWriter implements IndexWriter {
     sb.append("\t").append(ElasticConstants.INDEX).append(" : elastic index command \n");
     sb.append("\t").append(ElasticConstants.MAX_BULK_DOCS).append(" : elastic bulk index doc counts. (default 250) \n");
     sb.append("\t").append(ElasticConstants.MAX_BULK_LENGTH).append(" : elastic bulk index length. (default 2500500 ~2.5MB)\n");
+    sb.append("\t").append(ElasticConstants.MAX_CONCURRENT_BULKS).append(" : elastic bulks sent concurrently, 0 to send synchronously. (default 2)\n");
     return sb.toString();
   }
 
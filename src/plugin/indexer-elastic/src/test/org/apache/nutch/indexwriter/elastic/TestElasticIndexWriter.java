@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.elastic;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.nutch.indexer.NutchDocument;
+import org.apache.nutch.util.CountingReporter;
+import org.apache.nutch.util.NutchConfiguration;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+
+/**
+ * Tests the bulks of the {@link ElasticIndexWriter} against a stub client.
+ */
+public class TestElasticIndexWriter extends TestCase {
+
+  /**
+   * Executes bulks asynchronously, keeping the ids of indexed documents.
+   * Documents with a number which is not a number fail.
+   */
+  private static class StubClient implements InvocationHandler {
+    private final Set<String> ids = Collections
+        .synchronizedSet(new HashSet<String>());
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      if (!method.getName().equals("bulk") || args.length != 2) {
+        throw new UnsupportedOperationException(method.getName());
+      }
+      final BulkRequest request = (BulkRequest)args[0];
+      @SuppressWarnings("unchecked")
+      final ActionListener<BulkResponse> listener =
+        (ActionListener<BulkResponse>)args[1];
+      synchronized (this) {
+        maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+      }
+      new Thread() {
+        public void run() {
+          try {
+            Thread.sleep(20);
+          } catch (InterruptedException e) {
+          }
+          BulkItemResponse[] items =
+            new BulkItemResponse[request.numberOfActions()];
+          for (int i = 0; i < items.length; i++) {
+            ActionRequest action = request.requests().get(i);
+            if (action instanceof DeleteRequest) {
+              String id = ((DeleteRequest)action).id();
+              ids.remove(id);
+              items[i] = new BulkItemResponse(i, "delete",
+                (org.elasticsearch.action.ActionResponse)null);
+            }
+            else {
+              IndexRequest index = (IndexRequest)action;
+              if (index.sourceAsMap().get("number") instanceof Number) {
+                ids.add(index.id());
+                items[i] = new BulkItemResponse(i, "index",
+                  (org.elasticsearch.action.ActionResponse)null);
+              }
+              else {
+                items[i] = new BulkItemResponse(i, "index",
+                  new BulkItemResponse.Failure(index.index(), index.type(),
+                    index.id(), "NumberFormatException"));
+              }
+            }
+          }
+          running.decrementAndGet();
+          listener.onResponse(new BulkResponse(items, 20));
+        }
+      }.start();
+      return null;
+    }
+  }
+
+  private JobConf conf;
+  private StubClient stub;
+  private Client client;
+
+  protected void setUp() throws Exception {
+    conf = new JobConf(NutchConfiguration.create());
+    conf.setInt(ElasticConstants.MAX_BULK_DOCS, 10);
+    conf.setInt(ElasticConstants.MAX_CONCURRENT_BULKS, 2);
+    stub = new StubClient();
+    client = (Client)Proxy.newProxyInstance(Client.class.getClassLoader(),
+      new Class[] { Client.class }, stub);
+  }
+
+  private NutchDocument doc(int i, Object number) {
+    NutchDocument doc = new NutchDocument();
+    doc.add("url", "http://www.example.com/" + i);
+    doc.add("number", number);
+    return doc;
+  }
+
+  public void testBulks() throws Exception {
+    CountingReporter reporter = new CountingReporter();
+    ElasticIndexWriter writer = new ElasticIndexWriter();
+    writer.init(client, conf);
+    writer.setReporter(reporter);
+    for (int i = 0; i < 95; i++) {
+      writer.write(doc(i, i));
+    }
+    // not a number, fails to be indexed
+    writer.write(doc(95, "ninety-five"));
+    writer.delete("http://www.example.com/0");
+    writer.commit();
+
+    assertEquals(94, stub.ids.size());
+    assertEquals(2, stub.maxRunning.get());
+    assertEquals(96, reporter.get(ElasticIndexWriter.COUNTER_GROUP,
+      "requests succeeded"));
+    assertEquals(1, reporter.get(ElasticIndexWriter.COUNTER_GROUP,
+      "requests failed"));
+    assertEquals(10, reporter.get(ElasticIndexWriter.COUNTER_GROUP,
+      "bulks"));
+
+    // the writer takes further documents after a commit
+    writer.write(doc(96, 96));
+    writer.commit();
+    assertEquals(97, reporter.get(ElasticIndexWriter.COUNTER_GROUP,
+      "requests succeeded"));
+    assertEquals(11, reporter.get(ElasticIndexWriter.COUNTER_GROUP,
+      "bulks"));
+  }
+}
@@ -23,6 +23,16 @@ public interface SolrConstants {
 
   public static final String COMMIT_SIZE = SOLR_PREFIX + "commit.size";
 
+  public static final String COMMIT_BYTES = SOLR_PREFIX + "commit.bytes";
+
+  public static final String INFLIGHT_BATCHES = SOLR_PREFIX + "inflight.batches";
+
+  public static final String RETRIES = SOLR_PREFIX + "retries";
+
+  public static final String RETRY_BACKOFF = SOLR_PREFIX + "retry.backoff";
+
+  public static final String USE_JAVABIN = SOLR_PREFIX + "javabin";
+
   public static final String MAPPING_FILE = SOLR_PREFIX + "mapping.file";
 
   public static final String USE_AUTH = SOLR_PREFIX + "auth";
@@ -21,15 +21,23 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
 import org.apache.nutch.indexer.IndexWriter;
 import org.apache.nutch.indexer.IndexerMapReduce;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.indexer.NutchField;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
 import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.ModifiableSolrParams;
@@ -49,13 +57,38 @@ public class SolrIndexWriter implements IndexWriter {
     private Configuration config;
 
     private final List<SolrInputDocument> inputDocs = new ArrayList<SolrInputDocument>();
+    private final List<String> deleteIds = new ArrayList<String>();
 
     private int batchSize;
-    private int numDeletes = 0;
+    private long batchBytes;
+    private long inputBytes = 0;
     private boolean delete = false;
 
+    // batches are sent by a pool of senders while the next one is built, at
+    // most inflight batches are queued or being sent
+    private int inflight;
+    private ExecutorService senders;
+    private Semaphore slots;
+    private volatile Throwable failure;
+
+    private int retries;
+    private long retryBackoff;
+
+    private final AtomicLong sentDocs = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong sentBatches = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong latency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private long started;
+    private volatile Reporter reporter = Reporter.NULL;
+
     public void open(JobConf job, String name) throws IOException {
-        SolrServer server = SolrUtils.getCommonsHttpSolrServer(job);
+        CommonsHttpSolrServer server = SolrUtils.getCommonsHttpSolrServer(job);
+        if (job.getBoolean(SolrConstants.USE_JAVABIN, false)) {
+            // documents are streamed to /update/javabin instead of as XML
+            server.setRequestWriter(new BinaryRequestWriter());
+        }
         init(server, job);
     }
 
@@ -63,6 +96,14 @@ public class SolrIndexWriter implements IndexWriter {
     void init(SolrServer server, JobConf job) throws IOException {
         solr = server;
         batchSize = job.getInt(SolrConstants.COMMIT_SIZE, 1000);
+        batchBytes = job.getLong(SolrConstants.COMMIT_BYTES, 10 * 1024 * 1024);
+        inflight = job.getInt(SolrConstants.INFLIGHT_BATCHES, 2);
+        retries = job.getInt(SolrConstants.RETRIES, 3);
+        retryBackoff = job.getLong(SolrConstants.RETRY_BACKOFF, 1000);
+        if (inflight > 0) {
+            slots = new Semaphore(inflight);
+        }
+        started = System.currentTimeMillis();
         solrMapping = SolrMappingReader.getInstance(job);
         delete = job.getBoolean(IndexerMapReduce.INDEXER_DELETE, false);
         // parse optional params
@@ -80,14 +121,16 @@ public class SolrIndexWriter implements IndexWriter {
         }
     }
 
+    public void setReporter(Reporter reporter) {
+        this.reporter = reporter;
+    }
+
+    /** Deletes are sent in the batches of the added documents. */
     public void delete(String key) throws IOException {
         if (delete) {
-            try {
-                solr.deleteById(key);
-                numDeletes++;
-            } catch (final SolrServerException e) {
-                throw makeIOException(e);
-            }
+            deleteIds.add(key);
+            inputBytes += key.length();
+            flushIfFull();
         }
     }
 
@@ -99,6 +142,12 @@ public class SolrIndexWriter implements IndexWriter {
     public void write(NutchDocument doc) throws IOException {
         final SolrInputDocument inputDoc = new SolrInputDocument();
         for (final Entry<String, NutchField> e : doc) {
+            // mapping and cleaning are looked up once per field
+            final String key = e.getKey();
+            final String mappedKey = solrMapping.mapKey(key);
+            final String sCopy = solrMapping.mapCopyKey(key);
+            final boolean strip = key.equals("content") || key.equals("title");
+            final float weight = e.getValue().getWeight();
             for (final Object val : e.getValue().getValues()) {
                 // normalise the string representation for a Date
                 Object val2 = val;
@@ -107,61 +156,222 @@ public class SolrIndexWriter implements IndexWriter {
                     val2 = DateUtil.getThreadLocalDateFormat().format(val);
                 }
 
-                if (e.getKey().equals("content") || e.getKey().equals("title")) {
+                if (strip) {
                     val2 = SolrUtils.stripNonCharCodepoints((String) val);
                 }
 
-                inputDoc.addField(solrMapping.mapKey(e.getKey()), val2, e
-                        .getValue().getWeight());
-                String sCopy = solrMapping.mapCopyKey(e.getKey());
-                if (sCopy != e.getKey()) {
+                inputDoc.addField(mappedKey, val2, weight);
+                if (sCopy != key) {
                     inputDoc.addField(sCopy, val);
                 }
+                // rough size of the request, names and values in chars
+                inputBytes += key.length()
+                        + (val2 instanceof String ? ((String) val2).length()
+                                : 16);
             }
         }
 
         inputDoc.setDocumentBoost(doc.getWeight());
         inputDocs.add(inputDoc);
-        if (inputDocs.size() + numDeletes >= batchSize) {
+        flushIfFull();
+    }
+
+    private void flushIfFull() throws IOException {
+        if (inputDocs.size() + deleteIds.size() >= batchSize
+                || inputBytes >= batchBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Hands the buffered documents and deletes to a sender, blocking while
+     * {@link SolrConstants#INFLIGHT_BATCHES} batches are already queued or
+     * being sent. Sends them in the calling thread if no batches are to be
+     * sent asynchronously.
+     */
+    private void flush() throws IOException {
+        checkFailure();
+        if (inputDocs.isEmpty() && deleteIds.isEmpty()) {
+            return;
+        }
+        if (!inputDocs.isEmpty()) {
+            LOG.info("Indexing " + Integer.toString(inputDocs.size())
+                    + " documents");
+        }
+        if (!deleteIds.isEmpty()) {
+            LOG.info("Deleting " + Integer.toString(deleteIds.size())
+                    + " documents");
+        }
+        final List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(
+                inputDocs);
+        final List<String> deletes = new ArrayList<String>(deleteIds);
+        final long bytes = inputBytes;
+        inputDocs.clear();
+        deleteIds.clear();
+        inputBytes = 0;
+        if (inflight <= 0) {
             try {
-                LOG.info("Indexing " + Integer.toString(inputDocs.size())
-                        + " documents");
-                LOG.info("Deleting " + Integer.toString(numDeletes)
-                        + " documents");
-                numDeletes = 0;
-                UpdateRequest req = new UpdateRequest();
-                req.add(inputDocs);
-                req.setParams(params);
-                req.process(solr);
-            } catch (final SolrServerException e) {
+                send(batch, deletes, bytes);
+            } catch (SolrServerException e) {
                 throw makeIOException(e);
             }
-            inputDocs.clear();
+            return;
+        }
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to send a batch");
         }
+        if (senders == null) {
+            // daemon threads, writers opened only to commit are not closed
+            senders = Executors.newFixedThreadPool(inflight,
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "SolrIndexWriter sender");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        senders.execute(new Runnable() {
+            public void run() {
+                try {
+                    send(batch, deletes, bytes);
+                } catch (Throwable t) {
+                    LOG.error("Failed to send " + batch.size()
+                            + " documents and " + deletes.size()
+                            + " deletes to Solr", t);
+                    if (failure == null) {
+                        failure = t;
+                    }
+                } finally {
+                    slots.release();
+                }
+            }
+        });
+    }
+
+    /** Sends a batch, retrying with an exponential backoff. */
+    private void send(List<SolrInputDocument> batch, List<String> deletes,
+            long bytes) throws SolrServerException, IOException {
+        UpdateRequest req = new UpdateRequest();
+        if (!batch.isEmpty()) {
+            req.add(batch);
+        }
+        if (!deletes.isEmpty()) {
+            req.deleteById(deletes);
+        }
+        req.setParams(params);
+        long backoff = retryBackoff;
+        for (int attempt = 0;; attempt++) {
+            long start = System.currentTimeMillis();
+            try {
+                req.process(solr);
+            } catch (SolrServerException e) {
+                if (attempt >= retries) {
+                    throw e;
+                }
+                retry(attempt, backoff, e);
+                backoff *= 2;
+                continue;
+            } catch (IOException e) {
+                if (attempt >= retries) {
+                    throw e;
+                }
+                retry(attempt, backoff, e);
+                backoff *= 2;
+                continue;
+            }
+            long time = System.currentTimeMillis() - start;
+            reporter.incrCounter("SolrIndexWriter", "docs sent", batch.size());
+            reporter.incrCounter("SolrIndexWriter", "deletes sent",
+                    deletes.size());
+            reporter.incrCounter("SolrIndexWriter", "batches sent", 1);
+            reporter.incrCounter("SolrIndexWriter", "batch millis", time);
+            sentDocs.addAndGet(batch.size());
+            sentBytes.addAndGet(bytes);
+            sentBatches.incrementAndGet();
+            latency.addAndGet(time);
+            long max = maxLatency.get();
+            while (time > max && !maxLatency.compareAndSet(max, time)) {
+                max = maxLatency.get();
+            }
+            return;
+        }
+    }
+
+    private void retry(int attempt, long backoff, Exception e)
+            throws IOException {
+        LOG.warn("Failed to send batch (attempt " + (attempt + 1)
+                + "), retrying in " + backoff + " ms: " + e);
+        retried.incrementAndGet();
+        reporter.incrCounter("SolrIndexWriter", "batch retries", 1);
+        reporter.progress();
+        try {
+            Thread.sleep(backoff);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while retrying a batch");
+        }
+    }
+
+    /** Waits until all batches handed to senders have been sent. */
+    private void drain() throws IOException {
+        if (slots != null) {
+            try {
+                slots.acquire(inflight);
+                slots.release(inflight);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while sending batches");
+            }
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t == null) {
+            return;
+        }
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        }
+        IOException ioe = new IOException("Failed to send batch to Solr");
+        ioe.initCause(t);
+        throw ioe;
     }
 
     public void close() throws IOException {
         try {
-            if (!inputDocs.isEmpty()) {
-                LOG.info("Indexing " + Integer.toString(inputDocs.size())
-                        + " documents");
-                if (numDeletes > 0) {
-                    LOG.info("Deleting " + Integer.toString(numDeletes)
-                            + " documents");
-                }
-                UpdateRequest req = new UpdateRequest();
-                req.add(inputDocs);
-                req.setParams(params);
-                req.process(solr);
-                inputDocs.clear();
+            flush();
+            drain();
+        } finally {
+            if (senders != null) {
+                senders.shutdownNow();
             }
-        } catch (final SolrServerException e) {
-            throw makeIOException(e);
+            LOG.info(getStats());
         }
     }
 
+    /** Returns throughput and latency of the batches sent so far. */
+    String getStats() {
+        long batches = sentBatches.get();
+        long docs = sentDocs.get();
+        long time = Math.max(1, System.currentTimeMillis() - started);
+        return "Sent " + docs + " documents (~" + sentBytes.get()
+                + " chars) in " + batches + " batches, " + retried.get()
+                + " retries, " + (docs * 1000 / time) + " docs/s, latency avg "
+                + (batches == 0 ? 0 : latency.get() / batches) + " ms max "
+                + maxLatency.get() + " ms";
+    }
+
     @Override
     public void commit() throws IOException {
+        // commit what is buffered or has been handed to the senders
+        flush();
+        drain();
         try {
             solr.commit();
         } catch (SolrServerException e) {
@@ -197,6 +407,11 @@ public class SolrIndexWriter implements IndexWriter {
     	StringBuffer sb = new StringBuffer("SOLRIndexWriter\n");
     	sb.append("\t").append(SolrConstants.SERVER_URL).append(" : URL of the SOLR instance (mandatory)\n");
     	sb.append("\t").append(SolrConstants.COMMIT_SIZE).append(" : buffer size when sending to SOLR (default 1000)\n");
+    	sb.append("\t").append(SolrConstants.COMMIT_BYTES).append(" : approximate size in chars of a batch sent to SOLR (default 10485760)\n");
+    	sb.append("\t").append(SolrConstants.INFLIGHT_BATCHES).append(" : number of batches sent asynchronously while the next one is built, 0 to send synchronously (default 2)\n");
+    	sb.append("\t").append(SolrConstants.RETRIES).append(" : number of times a failed batch is retried (default 3)\n");
+    	sb.append("\t").append(SolrConstants.RETRY_BACKOFF).append(" : delay in ms before the first retry, doubled for every retry (default 1000)\n");
+    	sb.append("\t").append(SolrConstants.USE_JAVABIN).append(" : send documents in the javabin format, needs the /update/javabin handler (default false)\n");
     	sb.append("\t").append(SolrConstants.MAPPING_FILE).append(" : name of the mapping file for fields (default solrindex-mapping.xml)\n");
     	sb.append("\t").append(SolrConstants.USE_AUTH).append(" : use authentication (default false)\n");
     	sb.append("\t").append(SolrConstants.USERNAME).append(" : use authentication (default false)\n");
@@ -17,6 +17,7 @@
 package org.apache.nutch.indexwriter.solr;
 
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.params.HttpClientParams;
@@ -32,7 +33,12 @@ public class SolrUtils {
   public static Logger LOG = LoggerFactory.getLogger(SolrUtils.class);
 
   public static CommonsHttpSolrServer getCommonsHttpSolrServer(JobConf job) throws MalformedURLException {
-    HttpClient client=new HttpClient();
+    // batches in flight share the client
+    MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+    int connections = job.getInt(SolrConstants.INFLIGHT_BATCHES, 2) + 1;
+    manager.getParams().setDefaultMaxConnectionsPerHost(connections);
+    manager.getParams().setMaxTotalConnections(connections);
+    HttpClient client=new HttpClient(manager);
 
     // Check for username/password
     if (job.getBoolean(SolrConstants.USE_AUTH, false)) {
@@ -56,23 +62,36 @@ public class SolrUtils {
   }
 
   public static String stripNonCharCodepoints(String input) {
-    StringBuilder retval = new StringBuilder();
+    // most text has nothing to strip, return it without a copy
+    int first = 0;
+    while (first < input.length() && isValidChar(input.charAt(first))) {
+      first++;
+    }
+    if (first == input.length()) {
+      return input;
+    }
+
+    StringBuilder retval = new StringBuilder(input.length());
+    retval.append(input, 0, first);
     char ch;
 
-    for (int i = 0; i < input.length(); i++) {
+    for (int i = first; i < input.length(); i++) {
       ch = input.charAt(i);
 
-      // Strip all non-characters http://unicode.org/cldr/utility/list-unicodeset.jsp?a=[:Noncharacter_Code_Point=True:]
-      // and non-printable control characters except tabulator, new line and carriage return
-      if (ch % 0x10000 != 0xffff && // 0xffff - 0x10ffff range step 0x10000
-          ch % 0x10000 != 0xfffe && // 0xfffe - 0x10fffe range
-          (ch <= 0xfdd0 || ch >= 0xfdef) && // 0xfdd0 - 0xfdef
-          (ch > 0x1F || ch == 0x9 || ch == 0xa || ch == 0xd)) {
-
+      if (isValidChar(ch)) {
         retval.append(ch);
       }
     }
 
     return retval.toString();
   }
+
+  private static boolean isValidChar(char ch) {
+    // Strip all non-characters http://unicode.org/cldr/utility/list-unicodeset.jsp?a=[:Noncharacter_Code_Point=True:]
+    // and non-printable control characters except tabulator, new line and carriage return
+    return ch % 0x10000 != 0xffff && // 0xffff - 0x10ffff range step 0x10000
+        ch % 0x10000 != 0xfffe && // 0xfffe - 0x10fffe range
+        (ch <= 0xfdd0 || ch >= 0xfdef) && // 0xfdd0 - 0xfdef
+        (ch > 0x1F || ch == 0x9 || ch == 0xa || ch == 0xd);
+  }
 }
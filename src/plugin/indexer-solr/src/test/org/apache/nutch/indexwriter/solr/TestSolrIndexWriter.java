@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.nutch.indexer.IndexerMapReduce;
+import org.apache.nutch.indexer.NutchDocument;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * Tests the pipelined batches of the {@link SolrIndexWriter} against a stub
+ * Solr server.
+ */
+public class TestSolrIndexWriter extends TestCase {
+
+  /**
+   * Collects the ids of added and deleted documents, failing the first
+   * requests.
+   */
+  private static class StubSolrServer extends SolrServer {
+
+    private final Set<Object> ids = Collections
+        .synchronizedSet(new HashSet<Object>());
+    private final Set<String> deleted = Collections
+        .synchronizedSet(new HashSet<String>());
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private int failures;
+    /** If set, the first request waits for the second one to start. */
+    private CountDownLatch secondStarted;
+    private volatile boolean overlapped;
+
+    public NamedList<Object> request(SolrRequest request)
+        throws SolrServerException, IOException {
+      int now = running.incrementAndGet();
+      try {
+        int max = maxRunning.get();
+        while (now > max && !maxRunning.compareAndSet(max, now)) {
+          max = maxRunning.get();
+        }
+        synchronized (this) {
+          if (failures > 0) {
+            failures--;
+            throw new SolrServerException("unavailable");
+          }
+        }
+        int n = requests.incrementAndGet();
+        if (secondStarted != null) {
+          if (n == 1) {
+            overlapped = secondStarted.await(10, TimeUnit.SECONDS);
+          } else if (n == 2) {
+            secondStarted.countDown();
+          }
+        }
+        if (request instanceof UpdateRequest
+            && ((UpdateRequest)request).getDocuments() != null) {
+          for (SolrInputDocument doc : ((UpdateRequest)request)
+              .getDocuments()) {
+            ids.add(doc.getFieldValue("id"));
+          }
+        }
+        if (request instanceof UpdateRequest
+            && ((UpdateRequest)request).getDeleteById() != null) {
+          deleted.addAll(((UpdateRequest)request).getDeleteById());
+        }
+        return new NamedList<Object>();
+      } catch (InterruptedException e) {
+        throw new IOException(e.toString());
+      } finally {
+        running.decrementAndGet();
+      }
+    }
+  }
+
+  private JobConf conf;
+  private StubSolrServer solr;
+
+  protected void setUp() throws Exception {
+    conf = new JobConf(NutchConfiguration.create());
+    conf.setInt(SolrConstants.COMMIT_SIZE, 10);
+    conf.setLong(SolrConstants.RETRY_BACKOFF, 1);
+    solr = new StubSolrServer();
+  }
+
+  private void index(int numDocs) throws IOException {
+    SolrIndexWriter writer = new SolrIndexWriter();
+    writer.init(solr, conf);
+    for (int i = 0; i < numDocs; i++) {
+      NutchDocument doc = new NutchDocument();
+      doc.add("id", "http://www.example.com/" + i);
+      doc.add("content", "content of page " + i);
+      writer.write(doc);
+    }
+    writer.close();
+  }
+
+  public void testDeleteBatches() throws Exception {
+    conf.setBoolean(IndexerMapReduce.INDEXER_DELETE, true);
+    SolrIndexWriter writer = new SolrIndexWriter();
+    writer.init(solr, conf);
+    for (int i = 0; i < 95; i++) {
+      writer.delete("http://www.example.com/" + i);
+    }
+    writer.close();
+    assertEquals(95, solr.deleted.size());
+    // batches of solr.commit.size, not one request per delete
+    assertEquals(10, solr.requests.get());
+  }
+
+  public void testPipelined() throws Exception {
+    conf.setInt(SolrConstants.INFLIGHT_BATCHES, 2);
+    solr.secondStarted = new CountDownLatch(1);
+    index(95);
+    assertEquals(95, solr.ids.size());
+    assertEquals(10, solr.requests.get());
+    // the second batch was sent while the first one was still running
+    assertTrue(solr.overlapped);
+    assertTrue(solr.maxRunning.get() <= 2);
+  }
+
+  public void testSynchronous() throws Exception {
+    conf.setInt(SolrConstants.INFLIGHT_BATCHES, 0);
+    index(95);
+    assertEquals(95, solr.ids.size());
+    assertEquals(10, solr.requests.get());
+    assertEquals(1, solr.maxRunning.get());
+  }
+
+  public void testBatchBytes() throws Exception {
+    // each document is well over 20 chars
+    conf.setLong(SolrConstants.COMMIT_BYTES, 20);
+    index(5);
+    assertEquals(5, solr.ids.size());
+    assertEquals(5, solr.requests.get());
+  }
+
+  public void testRetry() throws Exception {
+    solr.failures = 3;
+    index(25);
+    assertEquals(25, solr.ids.size());
+    assertEquals(3, solr.requests.get());
+  }
+
+  public void testFailure() throws Exception {
+    conf.setInt(SolrConstants.RETRIES, 1);
+    solr.failures = 100;
+    try {
+      index(25);
+      fail("failed batches not reported");
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof SolrServerException);
+    }
+  }
+}
@@ -16,11 +16,13 @@
  */
 package org.apache.nutch.analysis.lang;
 
+import java.util.Collection;
 
 // Nutch imports
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.Inlinks;
-import org.apache.nutch.indexer.IndexingFilter;
+import org.apache.nutch.indexer.IndependentIndexingFilter;
+import org.apache.nutch.indexer.InputAwareIndexingFilter;
 import org.apache.nutch.indexer.IndexingException;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.hadoop.io.Text;
@@ -48,7 +50,8 @@ import org.apache.hadoop.conf.Configuration;
  * @author Sami Siren
  * @author Jerome Charron
  */
-public class LanguageIndexingFilter implements IndexingFilter {
+public class LanguageIndexingFilter implements IndependentIndexingFilter,
+    InputAwareIndexingFilter {
   
 
   private Configuration conf;
@@ -81,6 +84,14 @@ public class LanguageIndexingFilter implements IndexingFilter {
     return doc;
   }
 
+  /**
+   * Uses only the language detected by the parse filter and the
+   * Content-Language header.
+   */
+  public boolean needsParseText(Collection<String> fields) {
+    return false;
+  }
+
   public void setConf(Configuration conf) {
     this.conf = conf;
   }
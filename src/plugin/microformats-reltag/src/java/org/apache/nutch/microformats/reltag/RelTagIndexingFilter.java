@@ -16,11 +16,12 @@
  */
 package org.apache.nutch.microformats.reltag;
 
+import java.util.Collection;
 
 // Nutch imports
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.Inlinks;
-import org.apache.nutch.indexer.IndexingFilter;
+import org.apache.nutch.indexer.InputAwareIndexingFilter;
 import org.apache.nutch.indexer.IndexingException;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.hadoop.io.Text;
@@ -38,7 +39,7 @@ import org.apache.hadoop.conf.Configuration;
  *      http://www.microformats.org/wiki/rel-tag</a>
  * @author J&eacute;r&ocirc;me Charron
  */
-public class RelTagIndexingFilter implements IndexingFilter {
+public class RelTagIndexingFilter implements InputAwareIndexingFilter {
   
 
   private Configuration conf;
@@ -63,6 +64,11 @@ public class RelTagIndexingFilter implements IndexingFilter {
    * <implementation:Configurable> *
    * ----------------------------- */
   
+  /** Uses only the rel-tags found by the parser. */
+  public boolean needsParseText(Collection<String> fields) {
+    return false;
+  }
+
   public void setConf(Configuration conf) {
     this.conf = conf;
   }
@@ -17,7 +17,8 @@ import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.parse.Parse;
 import org.apache.nutch.parse.ParseData;
 import org.apache.nutch.protocol.Content;
-import org.apache.nutch.scoring.ScoringFilter;
+import org.apache.nutch.scoring.AggregatingScoringFilter;
+import org.apache.nutch.scoring.InlinkAggregator;
 import org.apache.nutch.scoring.ScoringFilterException;
 
 /**
@@ -26,7 +27,7 @@ import org.apache.nutch.scoring.ScoringFilterException;
  * set in the injector file) then all outlinks from that url are discarded,
  * effectively stopping further crawling along this path.
  */
-public class DepthScoringFilter extends Configured implements ScoringFilter {
+public class DepthScoringFilter extends Configured implements AggregatingScoringFilter {
   private static final Log LOG = LogFactory.getLog(DepthScoringFilter.class);
   
   public static final String DEPTH_KEY = "_depth_";
@@ -179,6 +180,44 @@ public class DepthScoringFilter extends Configured implements ScoringFilter {
   public void updateDbScore(Text url, CrawlDatum old, CrawlDatum datum,
           List<CrawlDatum> inlinked) throws ScoringFilterException {
     // find a minimum of all depths
+    int minDepth = DEFAULT_MAX_DEPTH;
+    for (CrawlDatum lnk : inlinked) {
+      minDepth = minDepth(lnk, minDepth);
+    }
+    updateDepth(url, old, datum, minDepth);
+  }
+
+  /** Keeps track of the minimum depth of the inlinks only. */
+  @Override
+  public InlinkAggregator getInlinkAggregator() {
+    return new InlinkAggregator() {
+      private int minDepth;
+
+      public void reset(Text url) {
+        minDepth = DEFAULT_MAX_DEPTH;
+      }
+
+      public void aggregate(Text url, CrawlDatum inlinked) {
+        minDepth = minDepth(inlinked, minDepth);
+      }
+
+      public void updateDbScore(Text url, CrawlDatum old, CrawlDatum datum)
+          throws ScoringFilterException {
+        updateDepth(url, old, datum, minDepth);
+      }
+    };
+  }
+
+  private static int minDepth(CrawlDatum lnk, int minDepth) {
+    IntWritable depth = (IntWritable)lnk.getMetaData().get(DEPTH_KEY_W);
+    if (depth != null && depth.get() < minDepth) {
+      return depth.get();
+    }
+    return minDepth;
+  }
+
+  private void updateDepth(Text url, CrawlDatum old, CrawlDatum datum,
+          int minInlinkDepth) throws ScoringFilterException {
     int newDepth = DEFAULT_MAX_DEPTH;
     if (old != null) {
       IntWritable oldDepth = (IntWritable) old.getMetaData().get(DEPTH_KEY_W);
@@ -189,11 +228,8 @@ public class DepthScoringFilter extends Configured implements ScoringFilter {
         initialScore(url, old);
       }
     }
-    for (CrawlDatum lnk : inlinked) {
-      IntWritable depth = (IntWritable)lnk.getMetaData().get(DEPTH_KEY_W);
-      if (depth != null && depth.get() < newDepth) {
-        newDepth = depth.get();
-      }
+    if (minInlinkDepth < newDepth) {
+      newDepth = minInlinkDepth;
     }
     datum.getMetaData().put(DEPTH_KEY_W, new IntWritable(newDepth));
   }
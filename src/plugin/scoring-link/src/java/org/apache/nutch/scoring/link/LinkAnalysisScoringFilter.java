@@ -29,11 +29,12 @@ import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.parse.Parse;
 import org.apache.nutch.parse.ParseData;
 import org.apache.nutch.protocol.Content;
-import org.apache.nutch.scoring.ScoringFilter;
+import org.apache.nutch.scoring.AggregatingScoringFilter;
+import org.apache.nutch.scoring.InlinkAggregator;
 import org.apache.nutch.scoring.ScoringFilterException;
 
 public class LinkAnalysisScoringFilter
-  implements ScoringFilter {
+  implements AggregatingScoringFilter {
 
   private Configuration conf;
   private float normalizedScore = 1.00f;
@@ -95,4 +96,9 @@ public class LinkAnalysisScoringFilter
     // nothing to do
   }
 
+  public InlinkAggregator getInlinkAggregator() {
+    // inlinks are not used
+    return null;
+  }
+
 }
@@ -36,7 +36,8 @@ import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.parse.Parse;
 import org.apache.nutch.parse.ParseData;
 import org.apache.nutch.protocol.Content;
-import org.apache.nutch.scoring.ScoringFilter;
+import org.apache.nutch.scoring.AggregatingScoringFilter;
+import org.apache.nutch.scoring.InlinkAggregator;
 import org.apache.nutch.scoring.ScoringFilterException;
 
 /**
@@ -49,7 +50,7 @@ import org.apache.nutch.scoring.ScoringFilterException;
  * 
  * @author Andrzej Bialecki
  */
-public class OPICScoringFilter implements ScoringFilter {
+public class OPICScoringFilter implements AggregatingScoringFilter {
 
   private final static Logger LOG = LoggerFactory.getLogger(OPICScoringFilter.class);
 
@@ -97,6 +98,27 @@ public class OPICScoringFilter implements ScoringFilter {
     datum.setScore(old.getScore() + adjust);
   }
 
+  /** Sums up the inlinked scores one by one, see
+   * {@link #updateDbScore(Text, CrawlDatum, CrawlDatum, List)}. */
+  public InlinkAggregator getInlinkAggregator() {
+    return new InlinkAggregator() {
+      private float adjust;
+
+      public void reset(Text url) {
+        adjust = 0.0f;
+      }
+
+      public void aggregate(Text url, CrawlDatum inlinked) {
+        adjust += inlinked.getScore();
+      }
+
+      public void updateDbScore(Text url, CrawlDatum old, CrawlDatum datum) {
+        if (old == null) old = datum;
+        datum.setScore(old.getScore() + adjust);
+      }
+    };
+  }
+
   /** Store a float value of CrawlDatum.getScore() under Fetcher.SCORE_KEY. */
   public void passScoreBeforeParsing(Text url, CrawlDatum datum, Content content) {
     content.getMetadata().set(Nutch.SCORE_KEY, "" + datum.getScore());
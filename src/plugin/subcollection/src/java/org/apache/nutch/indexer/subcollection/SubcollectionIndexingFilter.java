@@ -16,6 +16,8 @@
  */
 package org.apache.nutch.indexer.subcollection;
 
+import java.util.Collection;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.io.Text;
@@ -26,7 +28,8 @@ import org.slf4j.LoggerFactory;
 import org.apache.nutch.parse.Parse;
 import org.apache.nutch.util.NutchConfiguration;
 
-import org.apache.nutch.indexer.IndexingFilter;
+import org.apache.nutch.indexer.IndependentIndexingFilter;
+import org.apache.nutch.indexer.InputAwareIndexingFilter;
 import org.apache.nutch.indexer.IndexingException;
 import org.apache.nutch.indexer.NutchDocument;
 
@@ -36,7 +39,8 @@ import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.Inlinks;
 
 
-public class SubcollectionIndexingFilter extends Configured implements IndexingFilter {
+public class SubcollectionIndexingFilter extends Configured implements IndependentIndexingFilter,
+    InputAwareIndexingFilter {
 
   private Configuration conf;
 
@@ -48,6 +52,11 @@ public class SubcollectionIndexingFilter extends Configured implements IndexingF
     super(conf);
   }
   
+  /** Subcollections are matched against the url only. */
+  public boolean needsParseText(Collection<String> fields) {
+    return false;
+  }
+
   /**
    * @param Configuration conf
    */
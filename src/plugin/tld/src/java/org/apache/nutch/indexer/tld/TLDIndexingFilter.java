@@ -18,6 +18,7 @@
 package org.apache.nutch.indexer.tld;
 
 import java.net.URL;
+import java.util.Collection;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,7 +27,8 @@ import org.apache.hadoop.io.Text;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.Inlinks;
 import org.apache.nutch.indexer.IndexingException;
-import org.apache.nutch.indexer.IndexingFilter;
+import org.apache.nutch.indexer.IndependentIndexingFilter;
+import org.apache.nutch.indexer.InputAwareIndexingFilter;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.parse.Parse;
 import org.apache.nutch.util.URLUtil;
@@ -36,7 +38,8 @@ import org.apache.nutch.util.domain.DomainSuffix;
  * Adds the Top level domain extensions to the index
  * @author Enis Soztutar &lt;enis.soz.nutch@gmail.com&gt;
  */
-public class TLDIndexingFilter implements IndexingFilter {
+public class TLDIndexingFilter implements IndependentIndexingFilter,
+    InputAwareIndexingFilter {
   public static final Logger LOG = LoggerFactory.getLogger(TLDIndexingFilter.class);
 
   private Configuration conf;
@@ -57,6 +60,11 @@ public class TLDIndexingFilter implements IndexingFilter {
     return doc;
   }
 
+  /** Uses only the host of the url. */
+  public boolean needsParseText(Collection<String> fields) {
+    return false;
+  }
+
   public void setConf(Configuration conf) {
     this.conf = conf;
   }
@@ -30,7 +30,8 @@ import org.apache.nutch.indexer.NutchField;
 import org.apache.nutch.parse.Parse;
 import org.apache.nutch.parse.ParseData;
 import org.apache.nutch.protocol.Content;
-import org.apache.nutch.scoring.ScoringFilter;
+import org.apache.nutch.scoring.AggregatingScoringFilter;
+import org.apache.nutch.scoring.InlinkAggregator;
 import org.apache.nutch.scoring.ScoringFilterException;
 import org.apache.nutch.util.domain.DomainSuffix;
 import org.apache.nutch.util.domain.DomainSuffixes;
@@ -40,7 +41,7 @@ import org.apache.nutch.util.domain.DomainSuffixes;
  * Scoring filter to boost tlds.
  * @author Enis Soztutar &lt;enis.soz.nutch@gmail.com&gt;
  */
-public class TLDScoringFilter implements ScoringFilter {
+public class TLDScoringFilter implements AggregatingScoringFilter {
 
   private Configuration conf;
   private DomainSuffixes tldEntries;
@@ -98,6 +99,10 @@ public class TLDScoringFilter implements ScoringFilter {
   throws ScoringFilterException {
   }
 
+  public InlinkAggregator getInlinkAggregator() {
+    return null;
+  }
+
   public Configuration getConf() {
     return conf;
   }
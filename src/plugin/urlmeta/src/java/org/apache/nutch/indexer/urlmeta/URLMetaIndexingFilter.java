@@ -17,6 +17,8 @@
 
 package org.apache.nutch.indexer.urlmeta;
 
+import java.util.Collection;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -24,6 +26,8 @@ import org.apache.hadoop.io.Text;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.Inlinks;
 import org.apache.nutch.indexer.IndexingException;
+import org.apache.nutch.indexer.IndependentIndexingFilter;
+import org.apache.nutch.indexer.InputAwareIndexingFilter;
 import org.apache.nutch.indexer.IndexingFilter;
 import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.parse.Parse;
@@ -65,7 +69,8 @@ import org.apache.nutch.parse.Parse;
  * indexed versus merely propagated.
  * 
  */
-public class URLMetaIndexingFilter implements IndexingFilter {
+public class URLMetaIndexingFilter implements IndependentIndexingFilter,
+    InputAwareIndexingFilter {
 
 	private static final Logger LOG = LoggerFactory
 			.getLogger(URLMetaIndexingFilter.class);
@@ -103,6 +108,11 @@ public class URLMetaIndexingFilter implements IndexingFilter {
 		return conf;
 	}
 
+	/** Uses only the metadata of the datum, injected with the url. */
+	public boolean needsParseText(Collection<String> fields) {
+		return false;
+	}
+
 	/**
 	 * handles conf assignment and pulls the value assignment from the
 	 * "urlmeta.tags" property
@@ -33,7 +33,8 @@ import org.apache.nutch.indexer.NutchDocument;
 import org.apache.nutch.parse.Parse;
 import org.apache.nutch.parse.ParseData;
 import org.apache.nutch.protocol.Content;
-import org.apache.nutch.scoring.ScoringFilter;
+import org.apache.nutch.scoring.AggregatingScoringFilter;
+import org.apache.nutch.scoring.InlinkAggregator;
 import org.apache.nutch.scoring.ScoringFilterException;
 
 /**
@@ -41,7 +42,7 @@ import org.apache.nutch.scoring.ScoringFilterException;
  * 
  * @see URLMetaIndexingFilter
  */
-public class URLMetaScoringFilter extends Configured implements ScoringFilter {
+public class URLMetaScoringFilter extends Configured implements AggregatingScoringFilter {
 
   private static final Logger LOG = LoggerFactory.getLogger(URLMetaScoringFilter.class);
   private static final String CONF_PROPERTY = "urlmeta.tags";
@@ -154,6 +155,11 @@ public class URLMetaScoringFilter extends Configured implements ScoringFilter {
     return;
   }
 
+  /** Boilerplate */
+  public InlinkAggregator getInlinkAggregator() {
+    return null;
+  }
+
   /**
    * handles conf assignment and pulls the value assignment from the
    * "urlmeta.tags" property
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Compares the serialized size of Inlinks in the older format of full urls
+ * and anchors with the compact format, either for the inlinks of a LinkDb or
+ * for generated inlinks of job listing pages.
+ *
+ * Usage: InlinksSizeBenchmark [linkdb]
+ */
+public class InlinksSizeBenchmark {
+
+  private static long older;
+  private static long compact;
+
+  private static void measure(Inlinks inlinks) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    out.writeInt(inlinks.size());
+    Iterator<Inlink> it = inlinks.iterator();
+    while (it.hasNext()) {
+      it.next().write(out);
+    }
+    older += out.getLength();
+    out.reset();
+    inlinks.write(out);
+    compact += out.getLength();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0) {
+      Configuration conf = NutchConfiguration.create();
+      FileSystem fs = FileSystem.get(conf);
+      MapFile.Reader[] readers = MapFileOutputFormat.getReaders(fs, new Path(
+        args[0], LinkDb.CURRENT_NAME), conf);
+      Text url = new Text();
+      Inlinks inlinks = new Inlinks();
+      for (MapFile.Reader reader : readers) {
+        while (reader.next(url, inlinks)) {
+          measure(inlinks);
+        }
+        reader.close();
+      }
+    }
+    else {
+      // listing pages linked from many pages of a few sites, with few anchors
+      Random random = new Random(0);
+      String[] anchors = { "apply now", "view job", "more jobs", "next", "" };
+      for (int page = 0; page < 100; page++) {
+        Inlinks inlinks = new Inlinks();
+        for (int i = 0; i < 1000; i++) {
+          inlinks.add(new Inlink("http://www.jobsite" + random.nextInt(5)
+            + ".com/search/results?category=" + random.nextInt(50) + "&page="
+            + random.nextInt(1000), anchors[random.nextInt(anchors.length)]));
+        }
+        measure(inlinks);
+      }
+    }
+    System.out.println("older format:   " + older + " bytes");
+    System.out.println("compact format: " + compact + " bytes");
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.crawl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+
+public class TestCrawlDbLookup extends TestCase {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path crawlDb;
+
+  protected void setUp() throws Exception {
+    conf = CrawlDBTestUtil.createConfiguration();
+    // many small blocks
+    conf.setInt("io.map.index.interval", 8);
+    conf.setInt(CrawlDbLookup.CACHE_BLOCKS, 4);
+    fs = FileSystem.get(conf);
+    crawlDb = new Path("build/test/lookup-test/crawldb");
+    fs.delete(crawlDb, true);
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(crawlDb.getParent(), true);
+  }
+
+  private static String url(int i) {
+    String n = Integer.toString(i);
+    while (n.length() < 4) n = "0" + n;
+    return "http://www.example.com/" + n;
+  }
+
+  /** Writes every second url to current and every fourth odd one to a delta. */
+  private void createDb(String compression) throws Exception {
+    conf.set("io.seqfile.compression.type", compression);
+    MapFile.Writer current = new MapFile.Writer(conf, fs,
+        new Path(crawlDb, CrawlDb.CURRENT_NAME + "/part-00000").toString(),
+        Text.class, CrawlDatum.class);
+    MapFile.Writer delta = new MapFile.Writer(conf, fs,
+        new Path(crawlDb, CrawlDb.DELTA_NAME + "/1/part-00000").toString(),
+        Text.class, CrawlDatum.class);
+    for (int i = 0; i < 1000; i++) {
+      CrawlDatum datum = new CrawlDatum(CrawlDatum.STATUS_DB_FETCHED, 0, i);
+      if (i % 2 == 0) {
+        current.append(new Text(url(i)), datum);
+      } else if (i % 4 == 1) {
+        datum.setStatus(CrawlDatum.STATUS_DB_UNFETCHED);
+        delta.append(new Text(url(i)), datum);
+      }
+    }
+    current.close();
+    delta.close();
+  }
+
+  private void checkLookups() throws Exception {
+    CrawlDbLookup lookup = new CrawlDbLookup(crawlDb, conf);
+    for (int i = 999; i >= 0; i--) {
+      CrawlDatum datum = lookup.get(new Text(url(i)));
+      if (i % 2 == 0) {
+        assertNotNull(url(i), datum);
+        assertEquals(CrawlDatum.STATUS_DB_FETCHED, datum.getStatus());
+        assertEquals((float) i, datum.getScore());
+      } else if (i % 4 == 1) {
+        assertNotNull(url(i), datum);
+        assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, datum.getStatus());
+      } else {
+        assertNull(url(i), datum);
+      }
+    }
+    assertNull(lookup.get(new Text("http://a.example.com/")));
+    assertNull(lookup.get(new Text("http://zzz.example.com/")));
+
+    List<Text> urls = new ArrayList<Text>();
+    for (int i = 0; i < 1000; i += 3) {
+      urls.add(new Text(url(i)));
+    }
+    long misses = lookup.getCacheMisses();
+    CrawlDatum[] res = lookup.get(urls);
+    for (int i = 0; i < 1000; i += 3) {
+      assertEquals(url(i), i % 2 == 0 || i % 4 == 1, res[i / 3] != null);
+    }
+    // 500 records in current, 250 in the delta, 8 records per block
+    assertTrue(lookup.getCacheMisses() - misses <= 63 + 32);
+    assertTrue(lookup.getCacheHits() > 0);
+    lookup.close();
+  }
+
+  public void testLookup() throws Exception {
+    createDb("NONE");
+    checkLookups();
+  }
+
+  public void testLookupBlockCompressed() throws Exception {
+    createDb("BLOCK");
+    checkLookups();
+  }
+}
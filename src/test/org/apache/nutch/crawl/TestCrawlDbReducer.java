@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.util.CountingReporter;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that inlinks are folded into the score by CrawlDbReducer without
+ * being limited by db.update.max.inlinks when all scoring filters aggregate
+ * inlinks (scoring-opic).
+ */
+public class TestCrawlDbReducer extends TestCase {
+
+  private CrawlDbReducer reducer;
+  private List<CrawlDatum> output;
+  private OutputCollector<Text, CrawlDatum> collector;
+  private Reporter reporter = new CountingReporter();
+
+  protected void setUp() throws Exception {
+    JobConf conf = new JobConf(CrawlDBTestUtil.createConfiguration());
+    conf.setInt("db.update.max.inlinks", 2);
+    reducer = new CrawlDbReducer();
+    reducer.configure(conf);
+    output = new ArrayList<CrawlDatum>();
+    collector = new OutputCollector<Text, CrawlDatum>() {
+      public void collect(Text key, CrawlDatum value) throws IOException {
+        CrawlDatum copy = new CrawlDatum();
+        copy.set(value);
+        output.add(copy);
+      }
+    };
+  }
+
+  private static CrawlDatum linked(float score) {
+    CrawlDatum link = new CrawlDatum(CrawlDatum.STATUS_LINKED, 100);
+    link.setScore(score);
+    return link;
+  }
+
+  public void testAggregatedInlinks() throws Exception {
+    List<CrawlDatum> values = new ArrayList<CrawlDatum>();
+    CrawlDatum old = new CrawlDatum(CrawlDatum.STATUS_DB_FETCHED, 100);
+    old.setScore(1.0f);
+    values.add(old);
+    for (int i = 1; i <= 5; i++) {
+      values.add(linked(i * 0.5f));
+    }
+    reducer.reduce(new Text("http://www.example.com/"), values.iterator(),
+        collector, reporter);
+    assertEquals(1, output.size());
+    assertEquals(CrawlDatum.STATUS_DB_FETCHED, output.get(0).getStatus());
+    // all five inlinks count, not only db.update.max.inlinks
+    assertEquals(1.0f + 7.5f, output.get(0).getScore(), 0.0001f);
+  }
+
+  public void testNewPageFromInlinks() throws Exception {
+    List<CrawlDatum> values = new ArrayList<CrawlDatum>();
+    values.add(linked(0.25f));
+    values.add(linked(0.5f));
+    values.add(linked(0.25f));
+    reducer.reduce(new Text("http://www.example.com/new"), values.iterator(),
+        collector, reporter);
+    assertEquals(1, output.size());
+    assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, output.get(0).getStatus());
+    assertEquals(1.0f, output.get(0).getScore(), 0.0001f);
+  }
+
+  public void testChangelog() throws Exception {
+    JobConf conf = new JobConf(CrawlDBTestUtil.createConfiguration());
+    Path out = new Path("build/test/crawldb-changelog-test");
+    FileSystem fs = FileSystem.get(conf);
+    fs.delete(out, true);
+    conf.set("mapred.work.output.dir", out.toString());
+    conf.setInt("mapred.task.partition", 0);
+    conf.setBoolean(CrawlDb.CRAWLDB_CHANGELOG, true);
+    CrawlDbReducer reducer = new CrawlDbReducer();
+    reducer.configure(conf);
+
+    // became gone, gone before, fetched
+    byte[][] statuses = {
+      { CrawlDatum.STATUS_DB_FETCHED, CrawlDatum.STATUS_FETCH_GONE },
+      { CrawlDatum.STATUS_DB_GONE, CrawlDatum.STATUS_FETCH_GONE },
+      { CrawlDatum.STATUS_DB_GONE, CrawlDatum.STATUS_FETCH_SUCCESS } };
+    for (int i = 0; i < statuses.length; i++) {
+      List<CrawlDatum> values = new ArrayList<CrawlDatum>();
+      values.add(new CrawlDatum(statuses[i][0], 100));
+      values.add(new CrawlDatum(statuses[i][1], 100));
+      reducer.reduce(new Text("http://www.example.com/" + i),
+          values.iterator(), collector, reporter);
+    }
+    reducer.close();
+
+    FileStatus[] files = fs.listStatus(new Path(out, CrawlDb.CHANGELOG_NAME));
+    assertEquals(1, files.length);
+    SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+        files[0].getPath(), conf);
+    Text url = new Text();
+    CrawlDatum datum = new CrawlDatum();
+    assertTrue(reader.next(url, datum));
+    assertEquals("http://www.example.com/0", url.toString());
+    assertEquals(CrawlDatum.STATUS_DB_GONE, datum.getStatus());
+    assertFalse(reader.next(url, datum));
+    reader.close();
+    fs.delete(out, true);
+  }
+
+  private static CrawlDatum fingerprint(String fingerprint) {
+    CrawlDatum datum = new CrawlDatum(CrawlDatum.STATUS_INDEX_FINGERPRINT, 0);
+    if (fingerprint != null) {
+      datum.getMetaData().put(Nutch.WRITABLE_INDEX_FINGERPRINT_KEY,
+          new BytesWritable(fingerprint.getBytes()));
+    }
+    return datum;
+  }
+
+  private CrawlDatum reduce(CrawlDatum... values) throws IOException {
+    output.clear();
+    List<CrawlDatum> list = new ArrayList<CrawlDatum>();
+    for (CrawlDatum value : values) {
+      list.add(value);
+    }
+    reducer.reduce(new Text("http://www.example.com/"), list.iterator(),
+        collector, reporter);
+    assertEquals(1, output.size());
+    return output.get(0);
+  }
+
+  public void testIndexFingerprint() throws Exception {
+    // set on a page not fetched again
+    CrawlDatum result = reduce(new CrawlDatum(CrawlDatum.STATUS_DB_FETCHED,
+        100), fingerprint("a"));
+    assertEquals(CrawlDatum.STATUS_DB_FETCHED, result.getStatus());
+    assertEquals(new BytesWritable("a".getBytes()),
+        result.getMetaData().get(Nutch.WRITABLE_INDEX_FINGERPRINT_KEY));
+
+    // kept when the page is fetched again
+    result = reduce(result, new CrawlDatum(CrawlDatum.STATUS_FETCH_SUCCESS, 100));
+    assertEquals(new BytesWritable("a".getBytes()),
+        result.getMetaData().get(Nutch.WRITABLE_INDEX_FINGERPRINT_KEY));
+
+    // removed when the document is deleted from the index
+    CrawlDatum removed = reduce(result, fingerprint(null));
+    assertNull(removed.getMetaData().get(Nutch.WRITABLE_INDEX_FINGERPRINT_KEY));
+
+    // removed when the page is gone
+    CrawlDatum gone = reduce(result, new CrawlDatum(CrawlDatum.STATUS_FETCH_GONE, 100));
+    assertEquals(CrawlDatum.STATUS_DB_GONE, gone.getStatus());
+    assertNull(gone.getMetaData().get(Nutch.WRITABLE_INDEX_FINGERPRINT_KEY));
+  }
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.nutch.crawl.CrawlDBTestUtil.URLCrawlDatum;
+
+/**
+ * Tests that pages sharing a signature are marked as duplicates but the best
+ * one.
+ */
+public class TestDeduplicationJob extends TestCase {
+
+  private JobConf conf;
+  private FileSystem fs;
+  private Path crawlDb = new Path("build/test/dedup-test/crawldb");
+
+  protected void setUp() throws Exception {
+    conf = new JobConf(CrawlDBTestUtil.createConfiguration());
+    conf.setBoolean(CrawlDb.CRAWLDB_CHANGELOG, true);
+    fs = FileSystem.get(conf);
+    fs.delete(crawlDb, true);
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(crawlDb.getParent(), true);
+  }
+
+  private void add(List<URLCrawlDatum> rows, String url, int status,
+      String signature, float score, long fetchTime) {
+    CrawlDatum datum = new CrawlDatum(status, 100, score);
+    datum.setFetchTime(fetchTime);
+    if (signature != null) {
+      datum.setSignature(signature.getBytes());
+    }
+    rows.add(new URLCrawlDatum(new Text(url), datum));
+  }
+
+  private Map<String, Byte> readStatus() throws Exception {
+    Map<String, Byte> status = new HashMap<String, Byte>();
+    MapFile.Reader[] readers = MapFileOutputFormat.getReaders(fs, new Path(
+        crawlDb, CrawlDb.CURRENT_NAME), conf);
+    for (MapFile.Reader reader : readers) {
+      Text key = new Text();
+      CrawlDatum value = new CrawlDatum();
+      while (reader.next(key, value)) {
+        status.put(key.toString(), value.getStatus());
+      }
+      reader.close();
+    }
+    return status;
+  }
+
+  public void testDeduplicate() throws Exception {
+    List<URLCrawlDatum> rows = new ArrayList<URLCrawlDatum>();
+    // same signature, the highest score is kept
+    add(rows, "http://a.com/1", CrawlDatum.STATUS_DB_FETCHED, "sig-a", 1f, 100);
+    add(rows, "http://a.com/2", CrawlDatum.STATUS_DB_FETCHED, "sig-a", 2f, 100);
+    // same score, the latest fetch is kept
+    add(rows, "http://b.com/1", CrawlDatum.STATUS_DB_FETCHED, "sig-b", 1f, 200);
+    add(rows, "http://b.com/2", CrawlDatum.STATUS_DB_NOTMODIFIED, "sig-b", 1f, 100);
+    // same score and fetch time, the shortest URL is kept
+    add(rows, "http://c.com/", CrawlDatum.STATUS_DB_FETCHED, "sig-c", 1f, 100);
+    add(rows, "http://c.com/index.html", CrawlDatum.STATUS_DB_FETCHED, "sig-c", 1f, 100);
+    // signatures sharing the first 8 bytes differ
+    add(rows, "http://d.com/", CrawlDatum.STATUS_DB_FETCHED, "sig-long-1", 1f, 100);
+    add(rows, "http://e.com/", CrawlDatum.STATUS_DB_FETCHED, "sig-long-2", 1f, 100);
+    // not fetched, left alone
+    add(rows, "http://f.com/", CrawlDatum.STATUS_DB_UNFETCHED, null, 1f, 100);
+    CrawlDBTestUtil.createCrawlDb(conf, fs, crawlDb, rows);
+
+    new DeduplicationJob(conf).deduplicate(crawlDb);
+
+    Map<String, Byte> status = readStatus();
+    assertEquals(9, status.size());
+    assertEquals(CrawlDatum.STATUS_DB_DUPLICATE, (byte)status.get("http://a.com/1"));
+    assertEquals(CrawlDatum.STATUS_DB_FETCHED, (byte)status.get("http://a.com/2"));
+    assertEquals(CrawlDatum.STATUS_DB_FETCHED, (byte)status.get("http://b.com/1"));
+    assertEquals(CrawlDatum.STATUS_DB_DUPLICATE, (byte)status.get("http://b.com/2"));
+    assertEquals(CrawlDatum.STATUS_DB_FETCHED, (byte)status.get("http://c.com/"));
+    assertEquals(CrawlDatum.STATUS_DB_DUPLICATE, (byte)status.get("http://c.com/index.html"));
+    assertEquals(CrawlDatum.STATUS_DB_FETCHED, (byte)status.get("http://d.com/"));
+    assertEquals(CrawlDatum.STATUS_DB_FETCHED, (byte)status.get("http://e.com/"));
+    assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, (byte)status.get("http://f.com/"));
+
+    // the duplicates are recorded for the cleaning job
+    List<String> changed = new ArrayList<String>();
+    for (Path changelog : CrawlDb.getChangelogs(fs, crawlDb)) {
+      for (FileStatus file : fs.listStatus(changelog)) {
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+            file.getPath(), conf);
+        Text key = new Text();
+        CrawlDatum value = new CrawlDatum();
+        while (reader.next(key, value)) {
+          changed.add(key.toString());
+        }
+        reader.close();
+      }
+    }
+    assertEquals(3, changed.size());
+
+    // nothing left to mark on a second run
+    new DeduplicationJob(conf).deduplicate(crawlDb);
+    assertEquals(1, CrawlDb.getChangelogs(fs, crawlDb).length);
+  }
+}
@@ -17,9 +17,13 @@
 package org.apache.nutch.crawl;
 
 import java.io.IOException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -238,6 +242,86 @@ public class TestGenerator extends TestCase {
     assertEquals(3, fetchList.size());
   }
 
+  /**
+   * Test that the interleaved fetchlist order spreads the URLs of a large host
+   * over the fetchlist and keeps the fetcher busy, compared to the default
+   * hash order.
+   * @throws Exception
+   */
+  public void testGenerateInterleaved() throws Exception {
+    ArrayList<URLCrawlDatum> list = new ArrayList<URLCrawlDatum>();
+    for (int i = 0; i < 40; i++) {
+      list.add(createURLCrawlDatum("http://big.example.com/" + pad(i),
+          1, 1));
+    }
+    for (int h = 0; h < 10; h++) {
+      for (int i = 0; i < 4; i++) {
+        list.add(createURLCrawlDatum("http://small" + h + ".example.org/" + i
+            + ".html", 1, 1));
+      }
+    }
+    createCrawlDB(list);
+
+    Configuration myConfiguration = new Configuration(conf);
+    Path generatedSegment = generateFetchlist(Integer.MAX_VALUE,
+        myConfiguration, false);
+    ArrayList<URLCrawlDatum> hashed = readContents(new Path(new Path(
+        generatedSegment, CrawlDatum.GENERATE_DIR_NAME), "part-00000"));
+
+    myConfiguration = new Configuration(conf);
+    myConfiguration.set(Generator.GENERATOR_FETCHLIST_ORDER,
+        Generator.GENERATOR_FETCHLIST_ORDER_INTERLEAVE);
+    generatedSegment = generateFetchlist(Integer.MAX_VALUE, myConfiguration,
+        false);
+    ArrayList<URLCrawlDatum> interleaved = readContents(new Path(new Path(
+        generatedSegment, CrawlDatum.GENERATE_DIR_NAME), "part-00000"));
+
+    assertEquals(list.size(), hashed.size());
+    assertEquals(list.size(), interleaved.size());
+
+    // round-robin: the first entries hold one URL of each of the 11 hosts
+    ArrayList<String> hosts = new ArrayList<String>();
+    for (int i = 0; i < 11; i++) {
+      String host = new URL(interleaved.get(i).url.toString()).getHost();
+      assertFalse(host, hosts.contains(host));
+      hosts.add(host);
+    }
+
+    // simulate the queue feeder of a fetcher with a window of 8 items and
+    // one fetch per queue and tick
+    int window = 8, ticks = 10;
+    int hashedFetched = simulateFetch(hashed, window, ticks);
+    int interleavedFetched = simulateFetch(interleaved, window, ticks);
+    assertTrue("fetched in " + ticks + " ticks: hash order " + hashedFetched
+        + ", interleaved order " + interleavedFetched,
+        interleavedFetched > hashedFetched);
+  }
+
+  /**
+   * Simulates the fetcher queues being filled from the fetchlist up to
+   * <code>window</code> items, each queue fetching one item per tick.
+   * @return the number of items fetched after <code>ticks</code> ticks
+   */
+  private int simulateFetch(ArrayList<URLCrawlDatum> fetchList, int window,
+      int ticks) throws Exception {
+    LinkedList<String> queued = new LinkedList<String>();
+    int next = 0, fetched = 0;
+    for (int t = 0; t < ticks; t++) {
+      while (queued.size() < window && next < fetchList.size()) {
+        queued.add(new URL(fetchList.get(next++).url.toString()).getHost());
+      }
+      HashSet<String> busy = new HashSet<String>();
+      Iterator<String> it = queued.iterator();
+      while (it.hasNext()) {
+        if (busy.add(it.next())) {
+          it.remove();
+          fetched++;
+        }
+      }
+    }
+    return fetched;
+  }
+
   /**
    * Test generator obeys the filter setting.
    * @throws Exception 
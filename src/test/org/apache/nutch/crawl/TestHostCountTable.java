@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import org.apache.nutch.util.StringUtil;
+
+import junit.framework.TestCase;
+
+/** Unit tests for HostCountTable. */
+public class TestHostCountTable extends TestCase {
+
+  public void testCounts() {
+    HostCountTable table = new HostCountTable(4);
+    int hosts = 10000;
+    // count host i exactly i % 7 times, forcing several rehashes
+    for (int i = 0; i < hosts; i++) {
+      long fp = StringUtil.fingerprint("host" + i + ".example.com");
+      for (int j = 0; j < i % 7; j++) {
+        int slot = table.slot(fp);
+        table.set(slot, table.getSegment(slot), table.getCount(slot) + 1);
+      }
+    }
+    for (int i = 0; i < hosts; i++) {
+      int slot = table.slot(StringUtil.fingerprint("HOST" + i + ".example.com"));
+      assertEquals(1, table.getSegment(slot));
+      assertEquals(i % 7, table.getCount(slot));
+    }
+    assertEquals(hosts, table.size());
+    assertTrue(table.peakMemoryUsage() >= table.memoryUsage());
+  }
+
+  public void testZeroFingerprint() {
+    HostCountTable table = new HostCountTable();
+    int slot = table.slot(0L);
+    table.set(slot, 2, 5);
+    slot = table.slot(0L);
+    assertEquals(2, table.getSegment(slot));
+    assertEquals(5, table.getCount(slot));
+    assertEquals(1, table.size());
+  }
+}
@@ -130,8 +130,59 @@ public class TestInjector extends TestCase {
     }
   }
   
+  public void testInjectDelta() throws IOException {
+    ArrayList<String> urls=new ArrayList<String>();
+    for(int i=0;i<100;i++) {
+      urls.add("http://zzz.com/" + i + ".html");
+    }
+    CrawlDBTestUtil.generateSeedList(fs, urlPath, urls);
+    conf.setBoolean(Injector.INJECTOR_DELTA, true);
+    Injector injector=new Injector(conf);
+    // no db yet, the urls are merged into current
+    injector.inject(crawldbPath, urlPath);
+    assertEquals(0, CrawlDb.getDeltas(fs, crawldbPath).length);
+
+    ArrayList<String> urls2=new ArrayList<String>();
+    for(int i=0;i<100;i++) {
+      urls2.add("http://xxx.com/" + i + ".html");
+      urls2.add("http://zzz.com/" + i + ".html");
+    }
+    CrawlDBTestUtil.generateSeedList(fs, urlPath, urls2);
+    injector.inject(crawldbPath, urlPath);
+
+    // only the new urls are in the delta, current is unchanged
+    Path[] deltas = CrawlDb.getDeltas(fs, crawldbPath);
+    assertEquals(1, deltas.length);
+    List<String> read = readCrawldb();
+    assertEquals(100, read.size());
+    List<String> delta = readPart(new Path(deltas[0], "part-00000/data"));
+    assertEquals(100, delta.size());
+    for (String url : delta) {
+      assertTrue(url.startsWith("http://xxx.com/"));
+    }
+
+    // lookups see both the db and the delta
+    CrawlDbReader dbReader = new CrawlDbReader();
+    CrawlDatum datum = dbReader.get(crawldbPath.toString(),
+        "http://xxx.com/1.html", conf);
+    assertNotNull(datum);
+    assertEquals(CrawlDatum.STATUS_DB_UNFETCHED, datum.getStatus());
+    assertNotNull(dbReader.get(crawldbPath.toString(),
+        "http://zzz.com/1.html", conf));
+    dbReader.close();
+
+    // a full merge compacts the delta into current
+    conf.setBoolean(Injector.INJECTOR_DELTA, false);
+    injector.inject(crawldbPath, urlPath);
+    assertEquals(0, CrawlDb.getDeltas(fs, crawldbPath).length);
+    assertEquals(200, readCrawldb().size());
+  }
+
   private List<String> readCrawldb() throws IOException{
-    Path dbfile=new Path(crawldbPath,CrawlDb.CURRENT_NAME + "/part-00000/data");
+    return readPart(new Path(crawldbPath,CrawlDb.CURRENT_NAME + "/part-00000/data"));
+  }
+
+  private List<String> readPart(Path dbfile) throws IOException{
     System.out.println("reading:" + dbfile);
     SequenceFile.Reader reader=new SequenceFile.Reader(fs, dbfile, conf);
     ArrayList<String> read=new ArrayList<String>();
@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.nutch.util.WritableTestUtils;
+
+import junit.framework.TestCase;
+
+public class TestInlinks extends TestCase {
+
+  private static List<String> toList(Inlinks inlinks) {
+    List<String> list = new ArrayList<String>();
+    Iterator<Inlink> it = inlinks.iterator();
+    while (it.hasNext()) {
+      Inlink inlink = it.next();
+      list.add(inlink.getFromUrl() + " " + inlink.getAnchor());
+    }
+    return list;
+  }
+
+  public void testCompact() throws Exception {
+    Inlinks inlinks = new Inlinks();
+    inlinks.add(new Inlink("http://www.example.com/jobs/2", "apply"));
+    inlinks.add(new Inlink("http://www.example.com/jobs/10", "apply"));
+    inlinks.add(new Inlink("http://www.example.com/", "home"));
+    inlinks.add(new Inlink("http://www.example.com/jobs/1", ""));
+    inlinks.add(new Inlink("http://www.example.com/jobs/1", "apply"));
+    // a surrogate pair differing in its low surrogate
+    inlinks.add(new Inlink("http://example.org/𐐀", "a"));
+    inlinks.add(new Inlink("http://example.org/𐐁", "b"));
+
+    // read back sorted by source url
+    Inlinks copy = (Inlinks)WritableTestUtils.writeRead(inlinks, null);
+    List<String> expected = new ArrayList<String>();
+    expected.add("http://example.org/𐐀 a");
+    expected.add("http://example.org/𐐁 b");
+    expected.add("http://www.example.com/ home");
+    expected.add("http://www.example.com/jobs/1 ");
+    expected.add("http://www.example.com/jobs/1 apply");
+    expected.add("http://www.example.com/jobs/10 apply");
+    expected.add("http://www.example.com/jobs/2 apply");
+    assertEquals(expected, toList(copy));
+
+    Inlinks empty = (Inlinks)WritableTestUtils.writeRead(new Inlinks(), null);
+    assertEquals(0, empty.size());
+  }
+
+  public void testReadOlderFormat() throws Exception {
+    DataOutputBuffer out = new DataOutputBuffer();
+    out.writeInt(2);
+    new Inlink("http://www.example.com/b", "b").write(out);
+    new Inlink("http://www.example.com/a", "a").write(out);
+
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    Inlinks inlinks = new Inlinks();
+    inlinks.readFields(in);
+    assertEquals(2, inlinks.size());
+    assertTrue(toList(inlinks).contains("http://www.example.com/a a"));
+    assertTrue(toList(inlinks).contains("http://www.example.com/b b"));
+  }
+}
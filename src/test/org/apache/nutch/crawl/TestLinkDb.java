@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.parse.ParseStatus;
+import org.apache.nutch.parse.ParseText;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+/** Checks that LinkDb deltas give the same inlinks as a full update. */
+public class TestLinkDb extends TestCase {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir = new Path("build/test/linkdb-test");
+
+  /** Segments as rows of url followed by outlink urls. */
+  private static final String[][][] SEGMENTS = {
+    {
+      { "http://a.com/", "http://b.com/", "http://c.com/" },
+      { "http://b.com/", "http://c.com/" },
+    },
+    {
+      { "http://d.com/", "http://c.com/", "http://e.com/" },
+    },
+    {
+      { "http://e.com/", "http://b.com/" },
+    },
+  };
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    fs = FileSystem.get(conf);
+    fs.delete(testDir, true);
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  private Path createSegment(int i) throws Exception {
+    Path segment = new Path(testDir, "segments/2013000000000" + i);
+    MapFile.Writer writer = new MapFile.Writer(conf, fs, new Path(segment,
+        ParseData.DIR_NAME + "/part-00000").toString(), Text.class,
+        ParseData.class);
+    for (String[] row : SEGMENTS[i]) {
+      Outlink[] outlinks = new Outlink[row.length - 1];
+      for (int j = 0; j < outlinks.length; j++) {
+        outlinks[j] = new Outlink(row[j + 1], "anchor " + row[0]);
+      }
+      writer.append(new Text(row[0]), new ParseData(
+          ParseStatus.STATUS_SUCCESS, "", outlinks, new Metadata()));
+    }
+    writer.close();
+    // segments are only inverted if complete
+    for (String dir : new String[] { Content.DIR_NAME,
+        CrawlDatum.GENERATE_DIR_NAME, CrawlDatum.FETCH_DIR_NAME,
+        CrawlDatum.PARSE_DIR_NAME, ParseText.DIR_NAME }) {
+      fs.mkdirs(new Path(segment, dir));
+    }
+    return segment;
+  }
+
+  private Set<String> read(Path linkDb) throws Exception {
+    Set<String> links = new TreeSet<String>();
+    LinkDbReader reader = new LinkDbReader(conf, linkDb);
+    for (String url : new String[] { "http://b.com/", "http://c.com/",
+        "http://e.com/" }) {
+      Inlinks inlinks = reader.getInlinks(new Text(url));
+      Iterator<Inlink> it = inlinks.iterator();
+      while (it.hasNext()) {
+        Inlink inlink = it.next();
+        links.add(inlink.getFromUrl() + " " + url + " " + inlink.getAnchor());
+      }
+    }
+    reader.close();
+    return links;
+  }
+
+  public void testDelta() throws Exception {
+    Path full = new Path(testDir, "full");
+    Path delta = new Path(testDir, "delta");
+    LinkDb linkDb = new LinkDb(conf);
+    conf.setBoolean(LinkDb.LINKDB_DELTA, true);
+    for (int i = 0; i < SEGMENTS.length; i++) {
+      Path[] segment = new Path[] { createSegment(i) };
+      conf.setBoolean(LinkDb.LINKDB_DELTA, false);
+      linkDb.invert(full, segment, false, false, false);
+      conf.setBoolean(LinkDb.LINKDB_DELTA, true);
+      linkDb.invert(delta, segment, false, false, false);
+    }
+
+    // the first update creates the LinkDb
+    assertEquals(2, LinkDb.getDeltas(fs, delta).length);
+    assertEquals(6, read(full).size());
+    assertEquals(read(full), read(delta));
+
+    linkDb.compact(delta, false, false, false);
+    assertEquals(0, LinkDb.getDeltas(fs, delta).length);
+    assertEquals(read(full), read(delta));
+
+    // too many deltas are compacted by the update
+    conf.setInt(LinkDb.LINKDB_DELTA_MAX, 0);
+    linkDb.invert(delta, new Path[] { createSegment(0) }, false, false, false);
+    assertEquals(0, LinkDb.getDeltas(fs, delta).length);
+    assertEquals(read(full), read(delta));
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.ByteWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.crawl.CrawlDBTestUtil;
+import org.apache.nutch.crawl.CrawlDBTestUtil.URLCrawlDatum;
+import org.apache.nutch.crawl.CrawlDatum;
+
+/**
+ * Tests that URLs read from a changelog are only deleted if they are still
+ * gone in the CrawlDb.
+ */
+public class TestCleaningJob extends TestCase {
+
+  private JobConf conf;
+  private FileSystem fs;
+  private Path crawlDb = new Path("build/test/cleaning-test/crawldb");
+
+  protected void setUp() throws Exception {
+    conf = new JobConf(CrawlDBTestUtil.createConfiguration());
+    fs = FileSystem.get(conf);
+    fs.delete(crawlDb, true);
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(crawlDb.getParent(), true);
+  }
+
+  private List<String> filter(String[] urls) throws IOException {
+    final List<String> deleted = new ArrayList<String>();
+    CleaningJob.DBFilter filter = new CleaningJob.DBFilter();
+    filter.configure(conf);
+    OutputCollector<Text, ByteWritable> output =
+      new OutputCollector<Text, ByteWritable>() {
+        public void collect(Text key, ByteWritable value) {
+          deleted.add(key.toString());
+        }
+      };
+    for (String url : urls) {
+      filter.map(new Text(url), new CrawlDatum(CrawlDatum.STATUS_DB_GONE, 100),
+        output, Reporter.NULL);
+    }
+    filter.close();
+    return deleted;
+  }
+
+  public void testChangelog() throws Exception {
+    List<URLCrawlDatum> rows = new ArrayList<URLCrawlDatum>();
+    rows.add(new URLCrawlDatum(new Text("http://a.com/"), new CrawlDatum(
+      CrawlDatum.STATUS_DB_GONE, 100)));
+    rows.add(new URLCrawlDatum(new Text("http://b.com/"), new CrawlDatum(
+      CrawlDatum.STATUS_DB_FETCHED, 100)));
+    CrawlDBTestUtil.createCrawlDb(conf, fs, crawlDb, rows);
+
+    String[] changes = { "http://a.com/", "http://b.com/", "http://c.com/" };
+    // a full scan trusts the status read
+    assertEquals(3, filter(changes).size());
+
+    // b.com has been fetched again, c.com purged from the db
+    conf.set(CleaningJob.CLEANING_CRAWLDB, crawlDb.toString());
+    List<String> deleted = filter(changes);
+    assertEquals(2, deleted.size());
+    assertTrue(deleted.contains("http://a.com/"));
+    assertTrue(deleted.contains("http://c.com/"));
+  }
+}
@@ -0,0 +1,312 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.Inlink;
+import org.apache.nutch.crawl.Inlinks;
+import org.apache.nutch.crawl.LinkDb;
+import org.apache.nutch.crawl.NutchWritable;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.parse.ParseStatus;
+import org.apache.nutch.parse.ParseText;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.NutchJob;
+
+public class TestIndexerMapReduce extends TestCase {
+
+  private JobConf job;
+  private FileSystem fs;
+  private Path testDir = new Path("build/test/indexer-test");
+  private Path crawlDb = new Path(testDir, "crawldb");
+  private Path linkDb = new Path(testDir, "linkdb");
+  /** The fingerprint of a.com after {@link #indexOnce()}. */
+  private Writable indexed;
+
+  protected void setUp() throws Exception {
+    job = new NutchJob(NutchConfiguration.create());
+    fs = FileSystem.get(job);
+    fs.delete(testDir, true);
+
+    MapFile.Writer dbWriter = new MapFile.Writer(job, fs, new Path(crawlDb,
+        CrawlDb.CURRENT_NAME + "/part-00000").toString(), Text.class,
+        CrawlDatum.class);
+    dbWriter.append(new Text("http://a.com/"), new CrawlDatum(
+        CrawlDatum.STATUS_DB_FETCHED, 0, 1.0f));
+    dbWriter.close();
+
+    MapFile.Writer linkWriter = new MapFile.Writer(job, fs, new Path(linkDb,
+        LinkDb.CURRENT_NAME + "/part-00000").toString(), Text.class,
+        Inlinks.class);
+    Inlinks inlinks = new Inlinks();
+    inlinks.add(new Inlink("http://b.com/", "anchor of a"));
+    linkWriter.append(new Text("http://a.com/"), inlinks);
+    linkWriter.close();
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  /** Reduces the segment records of a url. */
+  private List<NutchIndexAction> reduce(IndexerMapReduce indexer, String url)
+      throws IOException {
+    return reduce(indexer, url, true);
+  }
+
+  private List<NutchIndexAction> reduce(IndexerMapReduce indexer, String url,
+      boolean parseText) throws IOException {
+    return reduce(indexer, url, parseText, "title", new Metadata());
+  }
+
+  private List<NutchIndexAction> reduce(IndexerMapReduce indexer, String url,
+      boolean parseText, String title, Metadata meta) throws IOException {
+    List<NutchWritable> values = new ArrayList<NutchWritable>();
+    values.add(new NutchWritable(new CrawlDatum(
+        CrawlDatum.STATUS_FETCH_SUCCESS, 0, 1.0f)));
+    values.add(new NutchWritable(new ParseData(ParseStatus.STATUS_SUCCESS,
+        title, new Outlink[0], meta)));
+    if (parseText) {
+      values.add(new NutchWritable(new ParseText("text")));
+    }
+    final List<NutchIndexAction> actions = new ArrayList<NutchIndexAction>();
+    indexer.reduce(new Text(url), values.iterator(),
+        new OutputCollector<Text, NutchIndexAction>() {
+          public void collect(Text key, NutchIndexAction action) {
+            actions.add(action);
+          }
+        }, Reporter.NULL);
+    return actions;
+  }
+
+  public void testDbLookup() throws Exception {
+    job.setBoolean(IndexerMapReduce.INDEXER_DB_LOOKUP, true);
+    IndexerMapReduce.initMRJob(crawlDb, linkDb,
+        Arrays.asList(new Path(testDir, "segment")), job);
+
+    // only the segment is read
+    for (Path input : FileInputFormat.getInputPaths(job)) {
+      assertTrue(input.toString(), input.getParent().getName().equals("segment"));
+    }
+
+    IndexerMapReduce indexer = new IndexerMapReduce();
+    indexer.configure(job);
+    List<NutchIndexAction> actions = reduce(indexer, "http://a.com/");
+    assertEquals(1, actions.size());
+    assertEquals(NutchIndexAction.ADD, actions.get(0).action);
+    assertEquals("anchor of a", actions.get(0).doc.getFieldValue("anchor"));
+
+    // not in the crawldb
+    assertEquals(0, reduce(indexer, "http://c.com/").size());
+    indexer.close();
+  }
+
+  public void testFields() throws Exception {
+    job.setBoolean(IndexerMapReduce.INDEXER_DB_LOOKUP, true);
+    job.set(IndexerMapReduce.INDEXER_FIELDS, "url,title,anchor");
+    job.set(IndexingFilters.INDEXINGFILTER_ORDER,
+        "org.apache.nutch.indexer.basic.BasicIndexingFilter "
+        + "org.apache.nutch.indexer.anchor.AnchorIndexingFilter");
+    IndexerMapReduce.initMRJob(crawlDb, linkDb,
+        Arrays.asList(new Path(testDir, "segment")), job);
+
+    // no filter needs the text for these fields
+    for (Path input : FileInputFormat.getInputPaths(job)) {
+      assertFalse(input.toString(), input.getName().equals(ParseText.DIR_NAME));
+    }
+
+    IndexerMapReduce indexer = new IndexerMapReduce();
+    indexer.configure(job);
+    List<NutchIndexAction> actions = reduce(indexer, "http://a.com/", false);
+    assertEquals(1, actions.size());
+    NutchDocument doc = actions.get(0).doc;
+    assertEquals(new HashSet<String>(Arrays.asList("url", "title", "anchor")),
+        new HashSet<String>(doc.getFieldNames()));
+    indexer.close();
+
+    // the content is indexed from the text
+    job = new NutchJob(NutchConfiguration.create());
+    job.setBoolean(IndexerMapReduce.INDEXER_DB_LOOKUP, true);
+    job.set(IndexerMapReduce.INDEXER_FIELDS, "url,content");
+    job.set(IndexingFilters.INDEXINGFILTER_ORDER,
+        "org.apache.nutch.indexer.basic.BasicIndexingFilter");
+    IndexerMapReduce.initMRJob(crawlDb, linkDb,
+        Arrays.asList(new Path(testDir, "segment")), job);
+    boolean parseText = false;
+    for (Path input : FileInputFormat.getInputPaths(job)) {
+      parseText |= input.getName().equals(ParseText.DIR_NAME);
+    }
+    assertTrue(parseText);
+  }
+
+  /** Reads the fingerprints moved into the CrawlDb, by url. */
+  private Map<String, CrawlDatum> readFingerprints() throws IOException {
+    Map<String, CrawlDatum> fingerprints = new HashMap<String, CrawlDatum>();
+    for (Path dir : CrawlDb.getFingerprints(fs, crawlDb)) {
+      for (FileStatus file : fs.listStatus(dir)) {
+        SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+            file.getPath(), job);
+        Text url = new Text();
+        CrawlDatum fingerprint = new CrawlDatum();
+        while (reader.next(url, fingerprint)) {
+          assertEquals(CrawlDatum.STATUS_INDEX_FINGERPRINT,
+              fingerprint.getStatus());
+          fingerprints.put(url.toString(), fingerprint);
+          fingerprint = new CrawlDatum();
+        }
+        reader.close();
+      }
+    }
+    return fingerprints;
+  }
+
+  /** Replaces the CrawlDb by the records of a.com and b.com. */
+  private void writeDb(float score, Writable fingerprint) throws IOException {
+    CrawlDatum datum = new CrawlDatum(CrawlDatum.STATUS_DB_FETCHED, 0, score);
+    if (fingerprint != null) {
+      datum.getMetaData().put(Nutch.WRITABLE_INDEX_FINGERPRINT_KEY,
+          fingerprint);
+    }
+    fs.delete(crawlDb, true);
+    MapFile.Writer dbWriter = new MapFile.Writer(job, fs, new Path(crawlDb,
+        CrawlDb.CURRENT_NAME + "/part-00000").toString(), Text.class,
+        CrawlDatum.class);
+    dbWriter.append(new Text("http://a.com/"), datum);
+    dbWriter.append(new Text("http://b.com/"), new CrawlDatum(
+        CrawlDatum.STATUS_DB_FETCHED, 0, 1.0f));
+    dbWriter.close();
+  }
+
+  /** Indexes a.com once and merges its fingerprint into the db. */
+  private NutchDocument indexOnce() throws IOException {
+    Path out = new Path(testDir, "out-1");
+    IndexerMapReduce indexer = indexer(out);
+    List<NutchIndexAction> actions = reduce(indexer, "http://a.com/");
+    assertEquals(1, actions.size());
+    indexer.close();
+    IndexerMapReduce.installFingerprints(fs, out, crawlDb, true);
+    Map<String, CrawlDatum> fingerprints = readFingerprints();
+    assertEquals(1, fingerprints.size());
+    indexed = fingerprints.get("http://a.com/").getMetaData().get(
+        Nutch.WRITABLE_INDEX_FINGERPRINT_KEY);
+    assertNotNull(indexed);
+    writeDb(1.0f, indexed);
+    return actions.get(0).doc;
+  }
+
+  private IndexerMapReduce indexer(Path out) {
+    job.set("mapred.work.output.dir", out.toString());
+    job.setInt("mapred.task.partition", 0);
+    IndexerMapReduce indexer = new IndexerMapReduce();
+    indexer.configure(job);
+    return indexer;
+  }
+
+  private void initSkipUnchanged() throws IOException {
+    job.setBoolean(IndexerMapReduce.INDEXER_DB_LOOKUP, true);
+    job.setBoolean(IndexerMapReduce.INDEXER_SKIP_UNCHANGED, true);
+    job.set(IndexingFilters.INDEXINGFILTER_ORDER,
+        "org.apache.nutch.indexer.basic.BasicIndexingFilter");
+    IndexerMapReduce.initMRJob(crawlDb, linkDb,
+        Arrays.asList(new Path(testDir, "segment")), job);
+  }
+
+  public void testSkipUnchanged() throws Exception {
+    initSkipUnchanged();
+    indexOnce();
+
+    // same document, though fetched into another segment
+    IndexerMapReduce indexer = indexer(new Path(testDir, "out-2"));
+    assertEquals(0, reduce(indexer, "http://a.com/").size());
+    // changed title
+    List<NutchIndexAction> actions = reduce(indexer, "http://a.com/", true,
+        "new title", new Metadata());
+    assertEquals(1, actions.size());
+    assertEquals(NutchIndexAction.ADD, actions.get(0).action);
+    indexer.close();
+  }
+
+  public void testSkipScoreChange() throws Exception {
+    initSkipUnchanged();
+    NutchDocument doc = indexOnce();
+    writeDb(4.0f, indexed);
+
+    // the boost follows the score, but is not part of the fingerprint
+    job.setBoolean(IndexerMapReduce.INDEXER_SKIP_UNCHANGED, false);
+    IndexerMapReduce indexer = indexer(new Path(testDir, "out-2"));
+    List<NutchIndexAction> actions = reduce(indexer, "http://a.com/");
+    indexer.close();
+    assertFalse(doc.getFieldValue("boost").equals(
+        actions.get(0).doc.getFieldValue("boost")));
+    job.setBoolean(IndexerMapReduce.INDEXER_SKIP_UNCHANGED, true);
+    indexer = indexer(new Path(testDir, "out-3"));
+    assertEquals(0, reduce(indexer, "http://a.com/").size());
+    indexer.close();
+  }
+
+  public void testNoCommit() throws Exception {
+    job.setBoolean(IndexerMapReduce.INDEXER_DELETE_ROBOTS_NOINDEX, true);
+    initSkipUnchanged();
+    indexOnce();
+    fs.delete(new Path(crawlDb, CrawlDb.FINGERPRINT_NAME), true);
+
+    // deleted, then added again without a commit
+    Path out = new Path(testDir, "out-2");
+    IndexerMapReduce indexer = indexer(out);
+    Metadata robots = new Metadata();
+    robots.set("robots", "noindex");
+    List<NutchIndexAction> actions = reduce(indexer, "http://a.com/", true,
+        "title", robots);
+    assertEquals(1, actions.size());
+    assertEquals(NutchIndexAction.DELETE, actions.get(0).action);
+    assertEquals(1, reduce(indexer, "http://b.com/", true, "new title",
+        new Metadata()).size());
+    indexer.close();
+    IndexerMapReduce.installFingerprints(fs, out, crawlDb, false);
+
+    // the removal is kept, the uncommitted fingerprint dropped
+    Map<String, CrawlDatum> fingerprints = readFingerprints();
+    assertEquals(1, fingerprints.size());
+    assertNull(fingerprints.get("http://a.com/").getMetaData().get(
+        Nutch.WRITABLE_INDEX_FINGERPRINT_KEY));
+  }
+}
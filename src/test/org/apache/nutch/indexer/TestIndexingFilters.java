@@ -16,6 +16,8 @@
  */
 package org.apache.nutch.indexer;
 
+import java.util.Arrays;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 import org.apache.nutch.crawl.CrawlDatum;
@@ -25,10 +27,13 @@ import org.apache.nutch.parse.Outlink;
 import org.apache.nutch.parse.ParseData;
 import org.apache.nutch.parse.ParseImpl;
 import org.apache.nutch.parse.ParseStatus;
+import org.apache.nutch.util.CountingReporter;
 import org.apache.nutch.util.NutchConfiguration;
 
 import junit.framework.TestCase;
 
+import org.apache.nutch.parse.Parse;
+
 public class TestIndexingFilters extends TestCase {
 
   /**
@@ -101,4 +106,81 @@ public class TestIndexingFilters extends TestCase {
     assertEquals(fdoc1.getFieldNames().size(),fdoc2.getFieldNames().size());
   }
 
+  /** Adds a value and the name of the thread it runs on. */
+  private static class AddingFilter implements IndependentIndexingFilter {
+    private String field;
+    private Object value;
+
+    AddingFilter(String field, Object value) {
+      this.field = field;
+      this.value = value;
+    }
+
+    public NutchDocument filter(NutchDocument doc, Parse parse, Text url,
+        CrawlDatum datum, Inlinks inlinks) {
+      doc.add(field, value);
+      doc.add(field + ".thread", Thread.currentThread().getName());
+      return value == null ? null : doc;
+    }
+
+    public void setConf(Configuration conf) {}
+    public Configuration getConf() { return null; }
+  }
+
+  /** Counts the values added by the filters before. */
+  private static class CountingFilter implements IndexingFilter {
+    public NutchDocument filter(NutchDocument doc, Parse parse, Text url,
+        CrawlDatum datum, Inlinks inlinks) {
+      doc.add("count", doc.getField("a").getValues().size());
+      return doc;
+    }
+
+    public void setConf(Configuration conf) {}
+    public Configuration getConf() { return null; }
+  }
+
+  private NutchDocument filter(IndexingFilters filters) throws IndexingException {
+    return filters.filter(new NutchDocument(), new ParseImpl("text",
+      new ParseData(new ParseStatus(), "title", new Outlink[0], new Metadata())),
+      new Text("http://www.example.com/"), new CrawlDatum(), new Inlinks());
+  }
+
+  /**
+   * Test that independent filters run in parallel, with their fields added in
+   * order of the filters.
+   */
+  public void testParallelIndexingFilters() throws IndexingException {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt(IndexingFilters.INDEXINGFILTER_THREADS, 3);
+    conf.setBoolean(IndexingFilters.INDEXINGFILTER_TIMING, true);
+    IndexingFilters filters = new IndexingFilters(new IndexingFilter[] {
+        new AddingFilter("a", 1), new AddingFilter("a", 2),
+        new CountingFilter(), new AddingFilter("a", 3),
+        new AddingFilter("b", 4) }, conf);
+    String caller = Thread.currentThread().getName();
+
+    NutchDocument doc = filter(filters);
+    assertEquals(Arrays.asList(1, 2, 3), doc.getField("a").getValues());
+    assertEquals(Arrays.asList(4), doc.getField("b").getValues());
+    // the counting filter has seen the fields of the filters before
+    assertEquals(2, doc.getFieldValue("count"));
+    assertEquals(caller, doc.getField("a.thread").getValues().get(0));
+    assertFalse(caller.equals(doc.getField("a.thread").getValues().get(1)));
+    assertFalse(caller.equals(doc.getFieldValue("b.thread")));
+
+    CountingReporter reporter = new CountingReporter();
+    filters.reportTimings(reporter);
+    // the four adding filters share one name
+    assertEquals(4, reporter.get(IndexingFilterTimings.COUNTER_GROUP,
+      "AddingFilter calls"));
+    assertEquals(1, reporter.get(IndexingFilterTimings.COUNTER_GROUP,
+      "CountingFilter calls"));
+
+    // a discarding filter discards the document
+    filters = new IndexingFilters(new IndexingFilter[] {
+        new AddingFilter("a", 1), new AddingFilter("a", null) }, conf);
+    assertNull(filter(filters));
+    filters.close();
+  }
+
 }
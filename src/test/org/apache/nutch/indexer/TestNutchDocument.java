@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexer;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.nutch.util.WritableTestUtils;
+
+public class TestNutchDocument extends TestCase {
+
+  private NutchDocument createDocument() {
+    NutchDocument doc = new NutchDocument();
+    doc.add("url", "http://www.example.com/");
+    doc.add("boost", 2.5f);
+    doc.add("length", 12345);
+    doc.add("size", 1L << 40);
+    doc.add("tstamp", new Date(1234567890000L));
+    doc.add("anchor", "one");
+    doc.add("anchor", "two");
+    doc.add("new", Boolean.TRUE);
+    doc.setWeight(0.5f);
+    doc.getDocumentMeta().set("type", "doc");
+    return doc;
+  }
+
+  private void assertSameDocument(NutchDocument expected, NutchDocument actual) {
+    assertEquals(expected.getFieldNames(), actual.getFieldNames());
+    for (String name : expected.getFieldNames()) {
+      assertEquals(name, expected.getField(name).getValues(),
+        actual.getField(name).getValues());
+    }
+    assertEquals(expected.getWeight(), actual.getWeight());
+    assertEquals(expected.getDocumentMeta(), actual.getDocumentMeta());
+  }
+
+  public void testWritable() throws Exception {
+    NutchDocument doc = createDocument();
+    NutchDocument copy = (NutchDocument)WritableTestUtils.writeRead(doc, null);
+    assertSameDocument(doc, copy);
+    // field names read are shared
+    for (String name : copy.getFieldNames()) {
+      if (name.equals("url")) {
+        assertSame("url", name);
+      }
+    }
+  }
+
+  /** Documents written with the class name of every value are still read. */
+  public void testReadVersion2() throws Exception {
+    NutchDocument doc = createDocument();
+    DataOutputBuffer out = new DataOutputBuffer();
+    out.writeByte(2);
+    WritableUtils.writeVInt(out, doc.getFieldNames().size());
+    for (String name : doc.getFieldNames()) {
+      Text.writeString(out, name);
+      NutchField field = doc.getField(name);
+      out.writeFloat(field.getWeight());
+      out.writeInt(field.getValues().size());
+      for (Object value : field.getValues()) {
+        Text.writeString(out, value.getClass().getName());
+        if (value instanceof Boolean) {
+          out.writeBoolean((Boolean)value);
+        } else if (value instanceof Integer) {
+          out.writeInt((Integer)value);
+        } else if (value instanceof Long) {
+          out.writeLong((Long)value);
+        } else if (value instanceof Float) {
+          out.writeFloat((Float)value);
+        } else if (value instanceof String) {
+          Text.writeString(out, (String)value);
+        } else if (value instanceof Date) {
+          out.writeLong(((Date)value).getTime());
+        }
+      }
+    }
+    out.writeFloat(doc.getWeight());
+    doc.getDocumentMeta().write(out);
+    int oldLength = out.getLength();
+
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    NutchDocument copy = new NutchDocument();
+    copy.readFields(in);
+    assertSameDocument(doc, copy);
+
+    // type tags instead of class names
+    out.reset();
+    doc.write(out);
+    assertTrue(out.getLength() + 100 < oldLength);
+  }
+
+  public void testOtherTypes() throws Exception {
+    NutchDocument doc = new NutchDocument();
+    doc.add("chars", new StringBuilder("abc"));
+    NutchDocument copy = (NutchDocument)WritableTestUtils.writeRead(doc, null);
+    assertEquals(Arrays.asList("abc"), copy.getField("chars").getValues());
+  }
+}
@@ -17,6 +17,9 @@
 
 package org.apache.nutch.parse;
 
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.apache.nutch.util.WritableTestUtils;
 
 import junit.framework.TestCase;
@@ -34,5 +37,36 @@ public class TestParseText extends TestCase {
                         
     WritableTestUtils.testWritable(s);
   }
+
+  /** The text read is decoded once, whichever thread asks first. */
+  public void testConcurrentDecode() throws Exception {
+    final String page = "Hello World The Quick Brown Fox";
+    for (int i = 0; i < 1000; i++) {
+      final ParseText text = (ParseText)WritableTestUtils.writeRead(
+          new ParseText(page), null);
+      final CyclicBarrier barrier = new CyclicBarrier(4);
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; t++) {
+        threads[t] = new Thread() {
+          public void run() {
+            try {
+              barrier.await();
+              assertEquals(page, text.getText());
+            } catch (Throwable e) {
+              failure.compareAndSet(null, e);
+            }
+          }
+        };
+        threads[t].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      if (failure.get() != null) {
+        throw new AssertionError(failure.get());
+      }
+    }
+  }
 	
 }
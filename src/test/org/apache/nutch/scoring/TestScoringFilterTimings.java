@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.scoring;
+
+import org.apache.nutch.scoring.ScoringFilterTimings.Method;
+
+import junit.framework.TestCase;
+
+public class TestScoringFilterTimings extends TestCase {
+
+  public void testHistogram() {
+    ScoringFilterTimings timings = new ScoringFilterTimings(new String[] {
+        "OPICScoringFilter", "DepthScoringFilter" });
+
+    // 98 fast calls and two taking about 5 milliseconds
+    for (int i = 0; i < 98; i++) {
+      timings.record(1, Method.generatorSortValue, System.nanoTime());
+    }
+    for (int i = 0; i < 2; i++) {
+      timings.record(1, Method.generatorSortValue,
+          System.nanoTime() - 5000000L);
+    }
+    assertEquals(100, timings.getCalls(1, Method.generatorSortValue));
+    assertEquals(0, timings.getCalls(0, Method.generatorSortValue));
+    assertEquals(0, timings.getCalls(1, Method.updateDbScore));
+
+    assertTrue(timings.getPercentile(1, Method.generatorSortValue, 50) <= 1024);
+    long p99 = timings.getPercentile(1, Method.generatorSortValue, 99);
+    assertTrue(p99 >= 5000 && p99 <= 16384);
+
+    String summary = timings.toString();
+    assertTrue(summary.startsWith(
+        "DepthScoringFilter.generatorSortValue: calls=100 "));
+    assertEquals(-1, summary.indexOf("OPICScoringFilter"));
+  }
+}
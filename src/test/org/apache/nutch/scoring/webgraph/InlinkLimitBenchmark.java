@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.nutch.util.URLUtil;
+
+/**
+ * Measures the CPU time the LinkRank analysis spends per iteration to limit
+ * inlinks to one per page and domain: parsing every inlink url into String
+ * sets, as done before, against comparing fingerprints computed once per
+ * linking url by the Inverter.
+ *
+ * Usage: InlinkLimitBenchmark [numNodes] [inlinksPerNode] [iterations]
+ */
+public class InlinkLimitBenchmark {
+
+  public static void main(String[] args)
+    throws Exception {
+    int numNodes = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int inlinksPerNode = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    Random random = new Random(0);
+    String[] urls = new String[numNodes];
+    for (int i = 0; i < numNodes; i++) {
+      urls[i] = "http://www" + random.nextInt(100) + ".site"
+        + random.nextInt(numNodes / 10 + 1) + ".com/page/" + i + "?q=" + i;
+    }
+    int[][] inlinks = new int[numNodes][inlinksPerNode];
+    for (int i = 0; i < numNodes; i++) {
+      for (int j = 0; j < inlinksPerNode; j++) {
+        inlinks[i][j] = random.nextInt(numNodes);
+      }
+    }
+
+    long strings = 0;
+    long fingerprints = 0;
+    long checksum = 0;
+    for (int it = 0; it < iterations; it++) {
+
+      // per inlink: parse the url, dedupe with String sets
+      long start = System.nanoTime();
+      for (int i = 0; i < numNodes; i++) {
+        Set<String> domains = new HashSet<String>();
+        Set<String> pages = new HashSet<String>();
+        for (int j = 0; j < inlinksPerNode; j++) {
+          String url = urls[inlinks[i][j]];
+          String domain = URLUtil.getDomainName(url);
+          String page = URLUtil.getPage(url);
+          if (pages.contains(page) || domains.contains(domain)) continue;
+          domains.add(domain);
+          pages.add(page);
+          checksum++;
+        }
+      }
+      strings += System.nanoTime() - start;
+
+      // per linking url in the Inverter, fingerprint sets in the Analyzer
+      start = System.nanoTime();
+      long[] pageFingerprints = new long[numNodes];
+      long[] domainFingerprints = new long[numNodes];
+      for (int i = 0; i < numNodes; i++) {
+        pageFingerprints[i] = LinkRank.pageFingerprint(urls[i]);
+        domainFingerprints[i] = LinkRank.domainFingerprint(urls[i]);
+      }
+      FingerprintSet domains = new FingerprintSet();
+      FingerprintSet pages = new FingerprintSet();
+      for (int i = 0; i < numNodes; i++) {
+        domains.clear();
+        pages.clear();
+        for (int j = 0; j < inlinksPerNode; j++) {
+          int source = inlinks[i][j];
+          long domain = domainFingerprints[source];
+          long page = pageFingerprints[source];
+          if (pages.contains(page) || domains.contains(domain)) continue;
+          domains.add(domain);
+          pages.add(page);
+          checksum--;
+        }
+      }
+      fingerprints += System.nanoTime() - start;
+    }
+
+    System.out.println(numNodes + " nodes, " + inlinksPerNode
+      + " inlinks per node, " + iterations + " iterations");
+    System.out.println("url strings:  " + (strings / iterations / 1000000)
+      + " ms per iteration");
+    System.out.println("fingerprints: " + (fingerprints / iterations / 1000000)
+      + " ms per iteration");
+    if (checksum != 0) {
+      System.out.println("different number of inlinks counted: " + checksum);
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Compares the scores of {@link InMemoryLinkRank} with the MapReduce
+ * {@link LinkRank} on a small WebGraph.
+ */
+public class TestInMemoryLinkRank extends TestCase {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir = new Path("build/test/linkrank-test");
+
+  /** Outlinks by url, all urls are nodes. */
+  private static final String[][] GRAPH = {
+    { "http://a.com/", "http://b.org/", "http://c.net/" },
+    { "http://b.org/", "http://a.com/", "http://e.org/" },
+    { "http://c.net/", "http://a.com/", "http://b.org/" },
+    // same domain, only one of them counts for c.net
+    { "http://d.com/1", "http://c.net/" },
+    { "http://d.com/2", "http://c.net/" },
+    { "http://e.org/" },
+  };
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setInt("link.analyze.num.iterations", 3);
+    fs = FileSystem.get(conf);
+    fs.delete(testDir, true);
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  private void createWebGraph(Path webGraphDb)
+    throws IOException {
+    createWebGraph(webGraphDb, GRAPH);
+  }
+
+  private void createWebGraph(Path webGraphDb, String[][] graph)
+    throws IOException {
+    MapFile.Writer nodes = new MapFile.Writer(conf, fs, new Path(webGraphDb,
+      WebGraph.NODE_DIR + "/part-00000").toString(), Text.class, Node.class);
+    MapFile.Writer outlinks = new MapFile.Writer(conf, fs, new Path(webGraphDb,
+      WebGraph.OUTLINK_DIR + "/part-00000").toString(), Text.class,
+      LinkDatum.class);
+    for (String[] row : graph) {
+      Node node = new Node();
+      node.setNumOutlinks(row.length - 1);
+      nodes.append(new Text(row[0]), node);
+      for (int i = 1; i < row.length; i++) {
+        LinkDatum link = new LinkDatum(row[i]);
+        link.setLinkType(LinkDatum.OUTLINK);
+        outlinks.append(new Text(row[0]), link);
+      }
+    }
+    nodes.close();
+    outlinks.close();
+  }
+
+  private Map<String, Float> readScores(Path webGraphDb)
+    throws IOException {
+    Map<String, Float> scores = new TreeMap<String, Float>();
+    MapFile.Reader reader = new MapFile.Reader(fs, new Path(webGraphDb,
+      WebGraph.NODE_DIR + "/part-00000").toString(), conf);
+    Text key = new Text();
+    Node node = new Node();
+    while (reader.next(key, node)) {
+      scores.put(key.toString(), node.getInlinkScore());
+    }
+    reader.close();
+    return scores;
+  }
+
+  /** Returns a random graph, sorted by url. */
+  private static String[][] randomGraph(int numNodes) {
+    Random random = new Random(42);
+    String[][] graph = new String[numNodes][];
+    for (int i = 0; i < numNodes; i++) {
+      Set<String> row = new LinkedHashSet<String>();
+      row.add("http://n" + (10000 + i) + ".com/");
+      int numOutlinks = random.nextInt(6);
+      while (row.size() <= numOutlinks) {
+        // prefer low numbers, so that the ranking is not flat
+        int to = (int)(numNodes * Math.pow(random.nextDouble(), 2));
+        row.add("http://n" + (10000 + to) + ".com/");
+      }
+      graph[i] = row.toArray(new String[row.size()]);
+    }
+    return graph;
+  }
+
+  /** Returns the urls ordered by decreasing score. */
+  private static List<String> ranking(final Map<String, Float> scores) {
+    List<String> urls = new ArrayList<String>(scores.keySet());
+    Collections.sort(urls, new Comparator<String>() {
+      public int compare(String a, String b) {
+        return scores.get(b).compareTo(scores.get(a));
+      }
+    });
+    return urls;
+  }
+
+  public void testConvergence()
+    throws Exception {
+    String[][] graph = randomGraph(300);
+    conf.setInt("link.analyze.num.iterations", 50);
+    conf.setInt("link.analyze.in.memory.threads", 2);
+
+    Path fixed = new Path(testDir, "fixed");
+    createWebGraph(fixed, graph);
+    InMemoryLinkRank linkRank = new InMemoryLinkRank(conf);
+    linkRank.analyze(fixed);
+    assertEquals(50, linkRank.getIterations());
+    Map<String, Float> expected = readScores(fixed);
+
+    conf.setFloat("link.analyze.tolerance", 0.0001f);
+    Path converged = new Path(testDir, "converged");
+    createWebGraph(converged, graph);
+    linkRank = new InMemoryLinkRank(conf);
+    linkRank.analyze(converged);
+    int convergedIterations = linkRank.getIterations();
+    assertTrue(convergedIterations < 50);
+
+    conf.setBoolean("link.analyze.delta", true);
+    conf.setInt("link.analyze.in.memory.threads", 1);
+    Path delta = new Path(testDir, "delta");
+    createWebGraph(delta, graph);
+    linkRank = new InMemoryLinkRank(conf);
+    linkRank.analyze(delta);
+    assertTrue(linkRank.getIterations() < convergedIterations);
+
+    for (Path db : new Path[] { converged, delta }) {
+      Map<String, Float> actual = readScores(db);
+      for (String url : expected.keySet()) {
+        assertEquals(url, expected.get(url), actual.get(url), 0.001f);
+      }
+      assertEquals(ranking(expected).subList(0, 20),
+        ranking(actual).subList(0, 20));
+    }
+  }
+
+  public void testDeltaThreads()
+    throws Exception {
+    String[][] graph = randomGraph(300);
+    conf.setInt("link.analyze.num.iterations", 50);
+    conf.setFloat("link.analyze.tolerance", 0.0001f);
+    conf.setBoolean("link.analyze.delta", true);
+    conf.setInt("link.analyze.in.memory.threads", 4);
+
+    Map<String, Float> expected = null;
+    int expectedIterations = 0;
+    for (int run = 0; run < 3; run++) {
+      Path delta = new Path(testDir, "delta-" + run);
+      createWebGraph(delta, graph);
+      InMemoryLinkRank linkRank = new InMemoryLinkRank(conf);
+      linkRank.analyze(delta);
+      Map<String, Float> scores = readScores(delta);
+      if (expected == null) {
+        expected = scores;
+        expectedIterations = linkRank.getIterations();
+      } else {
+        // not depending on the timing of the threads
+        assertEquals(expected, scores);
+        assertEquals(expectedIterations, linkRank.getIterations());
+      }
+    }
+  }
+
+  public void testMapReduceConvergence()
+    throws Exception {
+    conf.setInt("link.analyze.num.iterations", 30);
+    conf.setFloat("link.analyze.tolerance", 0.01f);
+    Path mapReduce = new Path(testDir, "mapreduce");
+    createWebGraph(mapReduce);
+    LinkRank linkRank = new LinkRank(conf);
+    linkRank.analyze(mapReduce);
+    assertTrue(linkRank.getIterations() < 30);
+
+    conf.setFloat("link.analyze.tolerance", 0f);
+    Path fixed = new Path(testDir, "fixed");
+    createWebGraph(fixed);
+    new InMemoryLinkRank(conf).analyze(fixed);
+    Map<String, Float> expected = readScores(fixed);
+    Map<String, Float> actual = readScores(mapReduce);
+    for (String url : expected.keySet()) {
+      assertEquals(url, expected.get(url), actual.get(url), 0.05f);
+    }
+  }
+
+  public void testSameScores()
+    throws Exception {
+    Path mapReduce = new Path(testDir, "mapreduce");
+    Path inMemory = new Path(testDir, "inmemory");
+    createWebGraph(mapReduce);
+    createWebGraph(inMemory);
+
+    new LinkRank(conf).analyze(mapReduce);
+    new InMemoryLinkRank(conf).analyze(inMemory);
+
+    Map<String, Float> expected = readScores(mapReduce);
+    Map<String, Float> actual = readScores(inMemory);
+    assertEquals(GRAPH.length, actual.size());
+    assertEquals(expected.keySet(), actual.keySet());
+    for (String url : expected.keySet()) {
+      assertEquals(url, expected.get(url), actual.get(url), 1e-6f);
+    }
+
+    // pages without inlinks only get the rank one score
+    float rankOne = 1f / GRAPH.length;
+    assertEquals(0.15f + 0.85f * rankOne, actual.get("http://d.com/1"), 1e-6f);
+    // one of the two inlinks from d.com is ignored
+    Path unlimited = new Path(testDir, "unlimited");
+    createWebGraph(unlimited);
+    conf.setBoolean("link.ignore.limit.domain", false);
+    new InMemoryLinkRank(conf).analyze(unlimited);
+    assertTrue(readScores(unlimited).get("http://c.net/")
+      > actual.get("http://c.net/"));
+  }
+}
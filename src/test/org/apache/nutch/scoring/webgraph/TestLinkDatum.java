@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import org.apache.nutch.util.WritableTestUtils;
+
+import junit.framework.TestCase;
+
+public class TestLinkDatum extends TestCase {
+
+  public void testFingerprints()
+    throws Exception {
+    LinkDatum link = new LinkDatum("http://www.example.com/a?b=c", "anchor");
+    link.setLinkType(LinkDatum.INLINK);
+    LinkDatum copy = (LinkDatum)WritableTestUtils.writeRead(link, null);
+    assertFalse(copy.hasFingerprints());
+    assertEquals(LinkDatum.INLINK, copy.getLinkType());
+
+    link.setFingerprints(LinkRank.pageFingerprint(link.getUrl()),
+      LinkRank.domainFingerprint(link.getUrl()));
+    copy = (LinkDatum)WritableTestUtils.writeRead(link, null);
+    assertTrue(copy.hasFingerprints());
+    assertEquals(LinkDatum.INLINK, copy.getLinkType());
+    assertEquals(link.getPageFingerprint(), copy.getPageFingerprint());
+    assertEquals(link.getDomainFingerprint(), copy.getDomainFingerprint());
+    assertEquals("http://www.example.com/a?b=c", copy.getUrl());
+
+    // same page without the query, same domain on another host
+    assertEquals(link.getPageFingerprint(),
+      LinkRank.pageFingerprint("http://www.example.com/a?d=e"));
+    assertEquals(link.getDomainFingerprint(),
+      LinkRank.domainFingerprint("http://other.example.com/"));
+    assertFalse(link.getDomainFingerprint()
+      == LinkRank.domainFingerprint("http://www.example.org/"));
+  }
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.scoring.webgraph.Loops.LoopSet;
+import org.apache.nutch.util.NutchConfiguration;
+
+public class TestLoops extends TestCase {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path webGraphDb = new Path("build/test/loops-test");
+
+  /** Outlinks by url. */
+  private static final String[][] GRAPH = {
+    // reciprocal links
+    { "http://a.com/", "http://b.com/", "http://c.com/" },
+    { "http://b.com/", "http://a.com/" },
+    // a three link cycle
+    { "http://c.com/", "http://d.com/" },
+    { "http://d.com/", "http://e.com/" },
+    { "http://e.com/", "http://c.com/" },
+    // a four link cycle
+    { "http://f.com/", "http://g.com/" },
+    { "http://g.com/", "http://h.com/" },
+    { "http://h.com/", "http://i.com/" },
+    { "http://i.com/", "http://f.com/" },
+    // two three link cycles through m.com, rows kept in url order
+    { "http://m.com/", "http://t.com/" },
+    // two paths to the same url
+    { "http://p.com/", "http://q1.com/", "http://q2.com/" },
+    { "http://q1.com/", "http://r.com/" },
+    { "http://q2.com/", "http://r.com/" },
+    { "http://r.com/", "http://p.com/" },
+    { "http://s1.com/", "http://m.com/" },
+    { "http://s2.com/", "http://m.com/" },
+    { "http://t.com/", "http://s1.com/", "http://s2.com/" },
+  };
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    fs = FileSystem.get(conf);
+    fs.delete(webGraphDb, true);
+    MapFile.Writer outlinks = new MapFile.Writer(conf, fs, new Path(
+      webGraphDb, WebGraph.OUTLINK_DIR + "/part-00000").toString(),
+      Text.class, LinkDatum.class);
+    for (String[] row : GRAPH) {
+      for (int i = 1; i < row.length; i++) {
+        LinkDatum link = new LinkDatum(row[i]);
+        link.setLinkType(LinkDatum.OUTLINK);
+        outlinks.append(new Text(row[0]), link);
+      }
+    }
+    outlinks.close();
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(webGraphDb, true);
+  }
+
+  private Map<String, TreeSet<String>> readLoops()
+    throws IOException {
+    Map<String, TreeSet<String>> loops = new TreeMap<String, TreeSet<String>>();
+    for (FileStatus part : fs.listStatus(new Path(webGraphDb,
+      Loops.LOOPS_DIR))) {
+      MapFile.Reader reader = new MapFile.Reader(fs, part.getPath()
+        .toString(), conf);
+      Text key = new Text();
+      LoopSet loopSet = new LoopSet();
+      while (reader.next(key, loopSet)) {
+        loops.put(key.toString(), new TreeSet<String>(loopSet.getLoopSet()));
+      }
+      reader.close();
+    }
+    return loops;
+  }
+
+  private static TreeSet<String> set(String... urls) {
+    return new TreeSet<String>(Arrays.asList(urls));
+  }
+
+  public void testFindLoops()
+    throws Exception {
+    Loops loops = new Loops();
+    loops.setConf(conf);
+    loops.findLoops(webGraphDb);
+
+    Map<String, TreeSet<String>> expected = new TreeMap<String, TreeSet<String>>();
+    expected.put("http://a.com/", set("http://b.com/"));
+    expected.put("http://b.com/", set("http://a.com/"));
+    expected.put("http://c.com/", set("http://d.com/"));
+    expected.put("http://d.com/", set("http://e.com/"));
+    expected.put("http://e.com/", set("http://c.com/"));
+    expected.put("http://p.com/", set("http://q1.com/", "http://q2.com/"));
+    expected.put("http://q1.com/", set("http://r.com/"));
+    expected.put("http://q2.com/", set("http://r.com/"));
+    expected.put("http://r.com/", set("http://p.com/"));
+    expected.put("http://m.com/", set("http://t.com/"));
+    expected.put("http://s1.com/", set("http://m.com/"));
+    expected.put("http://s2.com/", set("http://m.com/"));
+    expected.put("http://t.com/", set("http://s1.com/", "http://s2.com/"));
+    assertEquals(expected, readLoops());
+    assertFalse(fs.exists(new Path(webGraphDb, Loops.ROUTES_DIR)));
+
+    // one pass more finds the four link cycle
+    conf.setInt("link.loops.depth", 3);
+    fs.delete(new Path(webGraphDb, Loops.LOOPS_DIR), true);
+    loops.findLoops(webGraphDb);
+    expected.put("http://f.com/", set("http://g.com/"));
+    expected.put("http://g.com/", set("http://h.com/"));
+    expected.put("http://h.com/", set("http://i.com/"));
+    expected.put("http://i.com/", set("http://f.com/"));
+    assertEquals(expected, readLoops());
+
+    // following a single route from m.com finds only one of s1.com and
+    // s2.com
+    conf.setInt("link.loops.max.routes", 1);
+    fs.delete(new Path(webGraphDb, Loops.LOOPS_DIR), true);
+    loops.findLoops(webGraphDb);
+    Map<String, TreeSet<String>> limited = readLoops();
+    assertTrue(limited.containsKey("http://s1.com/")
+      ^ limited.containsKey("http://s2.com/"));
+    for (Map.Entry<String, TreeSet<String>> entry : limited.entrySet()) {
+      assertEquals(expected.get(entry.getKey()), entry.getValue());
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.util.NutchConfiguration;
+
+public class TestNodeDumper extends TestCase {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir = new Path("build/test/node-dumper-test");
+  private Path webGraphDb = new Path(testDir, "webgraphdb");
+  private Path output = new Path(testDir, "output");
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    fs = FileSystem.get(conf);
+    fs.delete(testDir, true);
+
+    // urls in key order with their scores
+    String[] urls = { "http://a.com/1", "http://a.com/2", "http://a.com/3",
+      "http://b.com/1", "http://c.com/1", "http://c.com/2" };
+    float[] scores = { 1.0f, 2.0f, 3.0f, 5.0f, 4.0f, 0.5f };
+    MapFile.Writer writer = new MapFile.Writer(conf, fs, new Path(webGraphDb,
+      WebGraph.NODE_DIR + "/part-00000").toString(), Text.class, Node.class);
+    for (int i = 0; i < urls.length; i++) {
+      Node node = new Node();
+      node.setInlinkScore(scores[i]);
+      writer.append(new Text(urls[i]), node);
+    }
+    writer.close();
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  private List<String> dump(String... args)
+    throws Exception {
+    List<String> allArgs = new ArrayList<String>(Arrays.asList("-webgraphdb",
+      webGraphDb.toString(), "-output", output.toString(), "-scores"));
+    allArgs.addAll(Arrays.asList(args));
+    fs.delete(output, true);
+    NodeDumper dumper = new NodeDumper();
+    dumper.setConf(conf);
+    assertEquals(0, dumper.run(allArgs.toArray(new String[0])));
+
+    List<String> lines = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+      fs.open(new Path(output, "part-00000"))));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lines.add(line);
+    }
+    reader.close();
+    return lines;
+  }
+
+  public void testTopN()
+    throws Exception {
+    assertEquals(Arrays.asList("http://b.com/1\t5.0", "http://c.com/1\t4.0",
+      "http://a.com/3\t3.0"), dump("-topn", "3"));
+    assertEquals(6, dump().size());
+
+    // a.com has the highest sum, b.com the highest maximum
+    assertEquals(Arrays.asList("a.com\t6.0", "b.com\t5.0"), dump("-topn", "2",
+      "-group", "domain", "sum"));
+    assertEquals(Arrays.asList("b.com\t5.0", "c.com\t4.0"), dump("-topn", "2",
+      "-group", "host", "max"));
+    assertEquals(Arrays.asList("a.com\t3.0", "b.com\t5.0", "c.com\t4.0"),
+      dump("-group", "host", "max"));
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.util.NutchConfiguration;
+
+public class TestScoreUpdater extends TestCase {
+
+  private static final int NUM_PARTS = 2;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir = new Path("build/test/score-updater-test");
+  private Path crawlDb = new Path(testDir, "crawldb");
+  private Path webGraphDb = new Path(testDir, "webgraphdb");
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setFloat("link.score.updater.clear.score", 0.5f);
+    fs = FileSystem.get(conf);
+    fs.delete(testDir, true);
+
+    // every third url is not in the web graph, some nodes not in the crawldb
+    Map<String, Writable> datums = new TreeMap<String, Writable>();
+    Map<String, Writable> nodes = new TreeMap<String, Writable>();
+    for (int i = 0; i < 30; i++) {
+      String url = "http://www.example" + i + ".com/";
+      if (i < 25) {
+        datums.put(url, new CrawlDatum(CrawlDatum.STATUS_DB_FETCHED, 0, 1.0f));
+      }
+      if (i % 3 != 0) {
+        Node node = new Node();
+        node.setInlinkScore(i);
+        nodes.put(url, node);
+      }
+    }
+    write(new Path(crawlDb, CrawlDb.CURRENT_NAME), datums, CrawlDatum.class);
+    write(new Path(webGraphDb, WebGraph.NODE_DIR), nodes, Node.class);
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  /** Writes a database partitioned the way the jobs partition it. */
+  private void write(Path dir, Map<String, Writable> entries,
+    Class<? extends Writable> valueClass)
+    throws IOException {
+    HashPartitioner<Text, Writable> partitioner = new HashPartitioner<Text, Writable>();
+    MapFile.Writer[] writers = new MapFile.Writer[NUM_PARTS];
+    for (int i = 0; i < NUM_PARTS; i++) {
+      writers[i] = new MapFile.Writer(conf, fs, new Path(dir, "part-0000" + i)
+        .toString(), Text.class, valueClass);
+    }
+    for (Map.Entry<String, Writable> entry : entries.entrySet()) {
+      Text url = new Text(entry.getKey());
+      writers[partitioner.getPartition(url, entry.getValue(), NUM_PARTS)]
+        .append(url, entry.getValue());
+    }
+    for (MapFile.Writer writer : writers) {
+      writer.close();
+    }
+  }
+
+  /** Returns the scores of the crawldb, checking that urls can be looked up. */
+  private Map<String, Float> readScores()
+    throws IOException {
+    Map<String, Float> scores = new TreeMap<String, Float>();
+    MapFile.Reader[] readers = MapFileOutputFormat.getReaders(fs, new Path(
+      crawlDb, CrawlDb.CURRENT_NAME), conf);
+    HashPartitioner<Text, CrawlDatum> partitioner = new HashPartitioner<Text, CrawlDatum>();
+    for (MapFile.Reader reader : readers) {
+      Text url = new Text();
+      CrawlDatum datum = new CrawlDatum();
+      while (reader.next(url, datum)) {
+        scores.put(url.toString(), datum.getScore());
+        CrawlDatum found = (CrawlDatum)readers[partitioner.getPartition(url,
+          datum, readers.length)].get(url, new CrawlDatum());
+        assertNotNull(url.toString(), found);
+      }
+    }
+    for (MapFile.Reader reader : readers) {
+      reader.close();
+    }
+    return scores;
+  }
+
+  private Map<String, Float> update(boolean join)
+    throws Exception {
+    conf.setBoolean("link.score.updater.join", join);
+    ScoreUpdater updater = new ScoreUpdater();
+    updater.setConf(conf);
+    updater.update(crawlDb, webGraphDb);
+    return readScores();
+  }
+
+  public void testJoin()
+    throws Exception {
+    Map<String, Float> scores = update(true);
+    assertEquals(25, scores.size());
+    for (int i = 0; i < 25; i++) {
+      float expected = i % 3 == 0 ? 0.5f : i;
+      assertEquals(expected, scores.get("http://www.example" + i + ".com/"));
+    }
+
+    // the shuffle gives the same scores
+    assertEquals(scores, update(false));
+  }
+}
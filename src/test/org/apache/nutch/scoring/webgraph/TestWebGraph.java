@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.parse.ParseStatus;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Checks that incremental WebGraph updates end up with the same databases as
+ * full updates.
+ */
+public class TestWebGraph extends TestCase {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir = new Path("build/test/webgraph-test");
+
+  /** Segments as rows of url, then outlink url and anchor pairs. */
+  private static final String[][][] SEGMENTS = {
+    {
+      { "http://a.com/", "http://b.org/", "b", "http://c.net/", "c" },
+      { "http://b.org/", "http://c.net/", "c" },
+      { "http://c.net/", "http://a.com/", "a" },
+    },
+    {
+      // b.org removed, anchor of c.net changed, d.com added
+      { "http://a.com/", "http://c.net/", "cc", "http://d.com/", "d" },
+      // refetched, same outlinks
+      { "http://b.org/", "http://c.net/", "c" },
+      { "http://e.org/", "http://a.com/", "a" },
+    },
+    {
+      { "http://a.com/", "http://d.com/", "d" },
+      { "http://d.com/", "http://b.org/", "b" },
+    },
+  };
+
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    fs = FileSystem.get(conf);
+    fs.delete(testDir, true);
+  }
+
+  protected void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  private Path createSegment(int i)
+    throws IOException {
+    Path segment = new Path(testDir, "segments/2013000000000" + i);
+    MapFile.Writer writer = new MapFile.Writer(conf, fs, new Path(segment,
+      ParseData.DIR_NAME + "/part-00000").toString(), Text.class,
+      ParseData.class);
+    for (String[] row : SEGMENTS[i]) {
+      Outlink[] outlinks = new Outlink[(row.length - 1) / 2];
+      for (int j = 0; j < outlinks.length; j++) {
+        outlinks[j] = new Outlink(row[1 + 2 * j], row[2 + 2 * j]);
+      }
+      Metadata contentMeta = new Metadata();
+      contentMeta.set(Nutch.FETCH_TIME_KEY, Long.toString(1000L * (i + 1)));
+      writer.append(new Text(row[0]), new ParseData(
+        ParseStatus.STATUS_SUCCESS, "", outlinks, contentMeta));
+    }
+    writer.close();
+    return segment;
+  }
+
+  /** Returns the entries of a database as sorted strings. */
+  private Set<String> read(Path db)
+    throws Exception {
+    Set<String> entries = new TreeSet<String>();
+    for (FileStatus part : fs.listStatus(db)) {
+      MapFile.Reader reader = new MapFile.Reader(fs, part.getPath()
+        .toString(), conf);
+      Text key = new Text();
+      Writable value = (Writable)reader.getValueClass().newInstance();
+      while (reader.next(key, value)) {
+        if (value instanceof LinkDatum) {
+          LinkDatum link = (LinkDatum)value;
+          entries.add(key + " " + link.getUrl() + " " + link.getAnchor() + " "
+            + link.getLinkType());
+        }
+        else {
+          Node node = (Node)value;
+          entries.add(key + " " + node.getNumInlinks() + " "
+            + node.getNumOutlinks());
+        }
+      }
+      reader.close();
+    }
+    return entries;
+  }
+
+  private void assertSameGraph(Path expected, Path actual)
+    throws Exception {
+    for (String dir : new String[] { WebGraph.OUTLINK_DIR,
+      WebGraph.INLINK_DIR, WebGraph.NODE_DIR }) {
+      assertEquals(dir, read(new Path(expected, dir)),
+        read(new Path(actual, dir)));
+    }
+  }
+
+  public void testIncremental()
+    throws Exception {
+    Path[] segments = new Path[SEGMENTS.length];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = createSegment(i);
+    }
+
+    Path full = new Path(testDir, "full");
+    Path incremental = new Path(testDir, "incremental");
+    WebGraph webGraph = new WebGraph();
+    webGraph.setConf(conf);
+    webGraph.createWebGraph(full, new Path[] { segments[0] }, false, false);
+    webGraph.createWebGraph(incremental, new Path[] { segments[0] }, false,
+      false, true);
+    assertEquals(0, WebGraph.getDeltas(fs, incremental).length);
+    assertSameGraph(full, incremental);
+
+    // the second delta reads the outlinks of a.com from the first one
+    for (int i = 1; i < segments.length; i++) {
+      webGraph.createWebGraph(full, new Path[] { segments[i] }, false, false);
+      webGraph.createWebGraph(incremental, new Path[] { segments[i] }, false,
+        false, true);
+      assertEquals(i, WebGraph.getDeltas(fs, incremental).length);
+    }
+
+    // b.org only lost the inlink from a.com
+    Set<String> inlinks = read(new Path(WebGraph.getDeltas(fs,
+      incremental)[0], WebGraph.INLINK_DIR));
+    assertTrue(inlinks.contains("http://b.org/ http://a.com/  "
+      + LinkDatum.REMOVED));
+    assertFalse(inlinks.contains("http://c.net/ http://b.org/ c "
+      + LinkDatum.INLINK));
+
+    WebGraph.compact(conf, incremental);
+    assertEquals(0, WebGraph.getDeltas(fs, incremental).length);
+    assertSameGraph(full, incremental);
+    assertTrue(read(new Path(full, WebGraph.NODE_DIR)).contains(
+      "http://d.com/ 1 1"));
+
+    // too many deltas are compacted by the update
+    conf.setInt(WebGraph.DELTA_MAX, 0);
+    webGraph.createWebGraph(incremental, new Path[] { segments[0] }, false,
+      false, true);
+    assertEquals(0, WebGraph.getDeltas(fs, incremental).length);
+    assertSameGraph(full, incremental);
+  }
+}
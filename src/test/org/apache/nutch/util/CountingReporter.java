@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.Reporter;
+
+/** A {@link Reporter} for tests which keeps the counters it is given. */
+public class CountingReporter implements Reporter {
+
+  private final Counters counters = new Counters();
+
+  public void progress() {}
+  public void setStatus(String status) {}
+  public synchronized Counters.Counter getCounter(Enum<?> name) {
+    return counters.findCounter(name);
+  }
+  public synchronized Counters.Counter getCounter(String group, String name) {
+    return counters.findCounter(group, name);
+  }
+  public synchronized void incrCounter(Enum<?> key, long amount) {
+    counters.incrCounter(key, amount);
+  }
+  public synchronized void incrCounter(String group, String counter,
+      long amount) {
+    counters.incrCounter(group, counter, amount);
+  }
+  public InputSplit getInputSplit() {
+    throw new UnsupportedOperationException();
+  }
+  public float getProgress() {
+    return 0;
+  }
+
+  /** Returns the value of a counter, 0 if it was never incremented. */
+  public synchronized long get(String group, String name) {
+    return counters.findCounter(group, name).getCounter();
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import org.apache.hadoop.conf.Configuration;
+
+import junit.framework.TestCase;
+
+public class TestMimeUtil extends TestCase {
+
+  private static final byte[] HTML =
+    "<html><head><title>test</title></head><body></body></html>".getBytes();
+
+  public void testCleanMimeType() {
+    assertNull(MimeUtil.cleanMimeType(null));
+    assertEquals("text/html", MimeUtil.cleanMimeType("text/html"));
+    assertEquals("text/html", MimeUtil.cleanMimeType("text/html;charset=UTF-8"));
+  }
+
+  public void testShared() {
+    Configuration conf = NutchConfiguration.create();
+    assertSame(MimeUtil.get(conf), MimeUtil.get(conf));
+  }
+
+  public void testAutoResolveContentType() {
+    MimeUtil mimeUtil = MimeUtil.get(NutchConfiguration.create());
+    // the header
+    assertEquals("text/html", mimeUtil.autoResolveContentType(
+      "text/html; charset=UTF-8", "http://www.example.com/page", HTML));
+    // the url if there is no header, twice to check the cache
+    for (int i = 0; i < 2; i++) {
+      assertEquals("application/pdf", mimeUtil.autoResolveContentType(
+        null, "http://www.example.com/doc.pdf", new byte[0]));
+      assertEquals("application/pdf", mimeUtil.autoResolveContentType(
+        "application/octet-stream", "http://www.example.com/doc.pdf",
+        new byte[0]));
+    }
+    // mime magic overrides the header
+    assertEquals("text/html", mimeUtil.autoResolveContentType(
+      "application/pdf", "http://www.example.com/page", HTML));
+    assertNull(mimeUtil.forName("not a/valid type"));
+  }
+}